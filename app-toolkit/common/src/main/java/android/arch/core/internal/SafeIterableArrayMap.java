@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.arch.core.internal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RestrictTo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An insertion ordered map backed by an array, which supports modifications during iterations
+ * without allocating iterators.
+ * <p>
+ * It has the same modification-during-iteration semantics as {@link SafeIterableMap}: entries
+ * removed during an iteration are not visited if they were not reached yet, and entries added
+ * during an iteration are only visited when iterating up to the current {@link #slotCount()}.
+ * <p>
+ * Entries are stored in slots. Iterations are bracketed by {@link #beginIteration()} and
+ * {@link #endIteration()}. While an iteration is in progress, removed entries leave an empty slot
+ * behind, so that slot indices stay stable; the slots are compacted once the outermost iteration
+ * ends. A typical iteration looks like:
+ * <pre>
+ * int end = map.beginIteration();
+ * try {
+ *     for (int i = 0; i &lt; end; i++) {
+ *         V value = map.valueAt(i);
+ *         if (value != null) {
+ *             // ...
+ *         }
+ *     }
+ * } finally {
+ *     map.endIteration();
+ * }
+ * </pre>
+ * Use {@code i < map.slotCount()} as the loop condition to also visit the entries added during
+ * the iteration, or iterate from {@code end - 1} down to {@code 0} to visit the entries in
+ * descending order.
+ * <p>
+ * It is NOT thread safe.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ * @hide
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+public class SafeIterableArrayMap<K, V> {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final HashMap<K, Entry<K, V>> mHashMap = new HashMap<>();
+    private Entry<K, V>[] mSlots;
+    private int mSlotCount;
+    private int mSize;
+    private int mIterationDepth;
+
+    @SuppressWarnings("unchecked")
+    public SafeIterableArrayMap() {
+        mSlots = new Entry[INITIAL_CAPACITY];
+    }
+
+    /**
+     * If the specified key is not already associated
+     * with a value, associates it with the given value.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param v   value to be associated with the specified key
+     * @return the previous value associated with the specified key,
+     * or {@code null} if there was no mapping for the key
+     */
+    public V putIfAbsent(@NonNull K key, @NonNull V v) {
+        Entry<K, V> current = mHashMap.get(key);
+        if (current != null) {
+            return current.mValue;
+        }
+        if (mSlotCount == mSlots.length) {
+            if (mIterationDepth == 0 && mSize < mSlotCount) {
+                compact();
+            } else {
+                mSlots = Arrays.copyOf(mSlots, mSlots.length * 2);
+            }
+        }
+        Entry<K, V> entry = new Entry<>(key, v, mSlotCount);
+        mSlots[mSlotCount++] = entry;
+        mHashMap.put(key, entry);
+        mSize++;
+        return null;
+    }
+
+    /**
+     * Removes the mapping for a key from this map if it is present.
+     *
+     * @param key key whose mapping is to be removed from the map
+     * @return the previous value associated with the specified key,
+     * or {@code null} if there was no mapping for the key
+     */
+    public V remove(@NonNull K key) {
+        Entry<K, V> toRemove = mHashMap.remove(key);
+        if (toRemove == null) {
+            return null;
+        }
+        mSlots[toRemove.mSlot] = null;
+        toRemove.mSlot = -1;
+        mSize--;
+        if (mIterationDepth == 0) {
+            compact();
+        }
+        return toRemove.mValue;
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     *
+     * @param key the key
+     * @return the associated value or {@code null} if there was no mapping for the key
+     */
+    @Nullable
+    public V get(K key) {
+        Entry<K, V> entry = mHashMap.get(key);
+        return entry == null ? null : entry.mValue;
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the specified
+     * key.
+     */
+    public boolean contains(K key) {
+        return mHashMap.containsKey(key);
+    }
+
+    /**
+     * @return the number of elements in this map
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Marks the start of an iteration. Slot indices are stable until the matching call to
+     * {@link #endIteration()}. Iterations can be nested.
+     *
+     * @return the number of slots at the start of the iteration. Iterating up to this index
+     * skips the entries added during the iteration.
+     */
+    public int beginIteration() {
+        mIterationDepth++;
+        return mSlotCount;
+    }
+
+    /**
+     * Marks the end of an iteration started with {@link #beginIteration()}.
+     */
+    public void endIteration() {
+        if (mIterationDepth <= 0) {
+            throw new IllegalStateException("endIteration called without beginIteration");
+        }
+        mIterationDepth--;
+        if (mIterationDepth == 0 && mSize < mSlotCount) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the current number of slots, including the ones emptied by removals during an
+     * iteration.
+     */
+    public int slotCount() {
+        return mSlotCount;
+    }
+
+    /**
+     * @param slot the slot index
+     * @return the key in the given slot or {@code null} if the entry was removed
+     */
+    @Nullable
+    public K keyAt(int slot) {
+        Entry<K, V> entry = mSlots[slot];
+        return entry == null ? null : entry.mKey;
+    }
+
+    /**
+     * @param slot the slot index
+     * @return the value in the given slot or {@code null} if the entry was removed
+     */
+    @Nullable
+    public V valueAt(int slot) {
+        Entry<K, V> entry = mSlots[slot];
+        return entry == null ? null : entry.mValue;
+    }
+
+    /**
+     * @return eldest added entry or null
+     */
+    @Nullable
+    public Map.Entry<K, V> eldest() {
+        for (int i = 0; i < mSlotCount; i++) {
+            if (mSlots[i] != null) {
+                return mSlots[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return newest added entry or null
+     */
+    @Nullable
+    public Map.Entry<K, V> newest() {
+        for (int i = mSlotCount - 1; i >= 0; i--) {
+            if (mSlots[i] != null) {
+                return mSlots[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return an entry added to prior to an entry associated with the given key.
+     *
+     * @param k the key
+     */
+    @Nullable
+    public Map.Entry<K, V> ceil(K k) {
+        Entry<K, V> entry = mHashMap.get(k);
+        if (entry == null) {
+            return null;
+        }
+        for (int i = entry.mSlot - 1; i >= 0; i--) {
+            if (mSlots[i] != null) {
+                return mSlots[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[");
+        boolean first = true;
+        for (int i = 0; i < mSlotCount; i++) {
+            if (mSlots[i] == null) {
+                continue;
+            }
+            if (!first) {
+                builder.append(", ");
+            }
+            builder.append(mSlots[i].toString());
+            first = false;
+        }
+        builder.append("]");
+        return builder.toString();
+    }
+
+    private void compact() {
+        int target = 0;
+        for (int i = 0; i < mSlotCount; i++) {
+            Entry<K, V> entry = mSlots[i];
+            if (entry != null) {
+                entry.mSlot = target;
+                mSlots[target++] = entry;
+            }
+        }
+        Arrays.fill(mSlots, target, mSlotCount, null);
+        mSlotCount = target;
+    }
+
+    static class Entry<K, V> implements Map.Entry<K, V> {
+        @NonNull
+        final K mKey;
+        @NonNull
+        final V mValue;
+        int mSlot;
+
+        Entry(@NonNull K key, @NonNull V value, int slot) {
+            mKey = key;
+            mValue = value;
+            mSlot = slot;
+        }
+
+        @NonNull
+        @Override
+        public K getKey() {
+            return mKey;
+        }
+
+        @NonNull
+        @Override
+        public V getValue() {
+            return mValue;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException("An entry modification is not supported");
+        }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + mValue;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.arch.core.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class SafeIterableArrayMapTest {
+
+    @Test
+    public void testPutRemoveContains() {
+        SafeIterableArrayMap<Integer, Integer> map = new SafeIterableArrayMap<>();
+        assertThat(map.putIfAbsent(10, 20), nullValue());
+        assertThat(map.putIfAbsent(20, 40), nullValue());
+        assertThat(map.putIfAbsent(10, 30), is(20));
+        assertThat(map.size(), is(2));
+        assertThat(map.contains(10), is(true));
+        assertThat(map.get(20), is(40));
+        assertThat(map.remove(10), is(20));
+        assertThat(map.remove(10), nullValue());
+        assertThat(map.contains(10), is(false));
+        assertThat(map.size(), is(1));
+        assertThat(map.putIfAbsent(10, 30), nullValue());
+        assertThat(collect(map), is(Arrays.asList(40, 30)));
+    }
+
+    @Test
+    public void testEldestNewestCeil() {
+        SafeIterableArrayMap<Integer, Boolean> map = new SafeIterableArrayMap<>();
+        assertThat(map.eldest(), nullValue());
+        assertThat(map.newest(), nullValue());
+        assertThat(map.ceil(1), nullValue());
+        map.putIfAbsent(1, false);
+        map.putIfAbsent(2, false);
+        map.putIfAbsent(3, false);
+        assertThat(map.eldest().getKey(), is(1));
+        assertThat(map.newest().getKey(), is(3));
+        assertThat(map.ceil(1), nullValue());
+        assertThat(map.ceil(3).getKey(), is(2));
+        map.beginIteration();
+        map.remove(2);
+        map.remove(1);
+        assertThat(map.ceil(3), nullValue());
+        assertThat(map.eldest().getKey(), is(3));
+        map.endIteration();
+        assertThat(map.slotCount(), is(1));
+    }
+
+    @Test
+    public void testRemoveDuringIteration() {
+        SafeIterableArrayMap<Integer, Integer> map = from(1, 2, 3, 4, 5);
+        List<Integer> visited = new ArrayList<>();
+        int end = map.beginIteration();
+        for (int i = 0; i < end; i++) {
+            Integer value = map.valueAt(i);
+            if (value == null) {
+                continue;
+            }
+            visited.add(value);
+            if (value == 2) {
+                map.remove(2);
+                map.remove(4);
+            }
+        }
+        map.endIteration();
+        assertThat(visited, is(Arrays.asList(1, 2, 3, 5)));
+        assertThat(collect(map), is(Arrays.asList(1, 3, 5)));
+        assertThat(map.slotCount(), is(3));
+    }
+
+    @Test
+    public void testAdditionsDuringIteration() {
+        SafeIterableArrayMap<Integer, Integer> map = from(1, 2, 3);
+        List<Integer> withoutAdditions = new ArrayList<>();
+        List<Integer> withAdditions = new ArrayList<>();
+        int end = map.beginIteration();
+        for (int i = 0; i < map.slotCount(); i++) {
+            Integer value = map.valueAt(i);
+            if (value == null) {
+                continue;
+            }
+            withAdditions.add(value);
+            if (i < end) {
+                withoutAdditions.add(value);
+            }
+            if (value < 6) {
+                map.putIfAbsent(value + 3, value + 3);
+            }
+        }
+        map.endIteration();
+        assertThat(withoutAdditions, is(Arrays.asList(1, 2, 3)));
+        assertThat(withAdditions, is(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8)));
+    }
+
+    @Test
+    public void testDescendingIteration() {
+        SafeIterableArrayMap<Integer, Integer> map = from(1, 2, 3, 4);
+        List<Integer> visited = new ArrayList<>();
+        int end = map.beginIteration();
+        for (int i = end - 1; i >= 0; i--) {
+            Integer value = map.valueAt(i);
+            if (value == null) {
+                continue;
+            }
+            visited.add(value);
+            if (value == 4) {
+                map.remove(2);
+                map.putIfAbsent(5, 5);
+            }
+        }
+        map.endIteration();
+        assertThat(visited, is(Arrays.asList(4, 3, 1)));
+        assertThat(collect(map), is(Arrays.asList(1, 3, 4, 5)));
+    }
+
+    @Test
+    public void testRemoveAndReAddDuringIteration() {
+        SafeIterableArrayMap<Integer, Integer> map = from(1, 2, 3);
+        List<Integer> visited = new ArrayList<>();
+        map.beginIteration();
+        for (int i = 0; i < map.slotCount(); i++) {
+            Integer value = map.valueAt(i);
+            if (value == null) {
+                continue;
+            }
+            visited.add(value);
+            if (value == 1) {
+                map.remove(1);
+                map.putIfAbsent(1, 10);
+            }
+        }
+        map.endIteration();
+        assertThat(visited, is(Arrays.asList(1, 2, 3, 10)));
+        assertThat(collect(map), is(Arrays.asList(2, 3, 10)));
+    }
+
+    @Test
+    public void testNestedIterations() {
+        SafeIterableArrayMap<Integer, Integer> map = from(1, 2, 3);
+        map.beginIteration();
+        map.beginIteration();
+        map.remove(1);
+        map.endIteration();
+        // the outer iteration still needs stable slots
+        assertThat(map.slotCount(), is(3));
+        assertThat(map.valueAt(0), nullValue());
+        assertThat(map.valueAt(1), is(2));
+        map.endIteration();
+        assertThat(map.slotCount(), is(2));
+        assertThat(map.valueAt(0), is(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnbalancedEndIteration() {
+        new SafeIterableArrayMap<Integer, Integer>().endIteration();
+    }
+
+    @Test
+    public void testSameOrderAsSafeIterableMap() {
+        SafeIterableArrayMap<Integer, Integer> arrayMap = new SafeIterableArrayMap<>();
+        SafeIterableMap<Integer, Integer> linkedMap = new SafeIterableMap<>();
+        for (int i = 0; i < 50; i++) {
+            arrayMap.putIfAbsent(i, i);
+            linkedMap.putIfAbsent(i, i);
+        }
+        for (int i = 0; i < 50; i += 3) {
+            arrayMap.remove(i);
+            linkedMap.remove(i);
+        }
+        for (int i = 0; i < 50; i += 6) {
+            arrayMap.putIfAbsent(i, -i);
+            linkedMap.putIfAbsent(i, -i);
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : linkedMap) {
+            expected.add(entry.getValue());
+        }
+        assertThat(collect(arrayMap), is(expected));
+    }
+
+    @Test
+    public void testIterationDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int iterations = 10000;
+        SafeIterableArrayMap<Integer, Integer> arrayMap = from(1, 2, 3, 4, 5, 6, 7, 8);
+        SafeIterableMap<Integer, Integer> linkedMap = new SafeIterableMap<>();
+        for (int i = 1; i <= 8; i++) {
+            linkedMap.putIfAbsent(i, i);
+        }
+        // warm up
+        sumArrayMap(arrayMap, iterations);
+        sumLinkedMap(linkedMap, iterations);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        long arraySum = sumArrayMap(arrayMap, iterations);
+        long arrayMapAllocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        long linkedSum = sumLinkedMap(linkedMap, iterations);
+        long linkedMapAllocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertThat(arraySum, is(linkedSum));
+        // SafeIterableMap allocates at least one iterator per iteration. Leave some slack for
+        // the allocations of the measurement itself.
+        assertThat(linkedMapAllocated >= iterations * 16L, is(true));
+        assertThat(arrayMapAllocated < 1024, is(true));
+    }
+
+    private static long sumArrayMap(SafeIterableArrayMap<Integer, Integer> map, int iterations) {
+        long sum = 0;
+        for (int n = 0; n < iterations; n++) {
+            int end = map.beginIteration();
+            try {
+                for (int i = 0; i < end; i++) {
+                    Integer value = map.valueAt(i);
+                    if (value != null) {
+                        sum += value;
+                    }
+                }
+            } finally {
+                map.endIteration();
+            }
+        }
+        return sum;
+    }
+
+    private static long sumLinkedMap(SafeIterableMap<Integer, Integer> map, int iterations) {
+        long sum = 0;
+        for (int n = 0; n < iterations; n++) {
+            Iterator<Map.Entry<Integer, Integer>> iterator = map.iteratorWithAdditions();
+            while (iterator.hasNext()) {
+                sum += iterator.next().getValue();
+            }
+        }
+        return sum;
+    }
+
+    private static SafeIterableArrayMap<Integer, Integer> from(Integer... values) {
+        SafeIterableArrayMap<Integer, Integer> map = new SafeIterableArrayMap<>();
+        for (Integer value : values) {
+            map.putIfAbsent(value, value);
+        }
+        return map;
+    }
+
+    private static List<Integer> collect(SafeIterableArrayMap<Integer, Integer> map) {
+        List<Integer> values = new ArrayList<>();
+        int end = map.beginIteration();
+        for (int i = 0; i < end; i++) {
+            Integer value = map.valueAt(i);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        map.endIteration();
+        return values;
+    }
+}
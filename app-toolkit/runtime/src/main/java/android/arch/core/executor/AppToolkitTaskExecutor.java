@@ -54,6 +54,30 @@ public class AppToolkitTaskExecutor extends TaskExecutor {
         }
     };
 
+    @NonNull
+    private static final Executor sDiskReadExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            getInstance().executeOnDiskRead(command);
+        }
+    };
+
+    @NonNull
+    private static final Executor sDiskWriteExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            getInstance().executeOnDiskWrite(command);
+        }
+    };
+
+    @NonNull
+    private static final Executor sComputeExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            getInstance().executeOnCompute(command);
+        }
+    };
+
     private AppToolkitTaskExecutor() {
         mDefaultTaskExecutor = new DefaultTaskExecutor();
         mDelegate = mDefaultTaskExecutor;
@@ -95,11 +119,42 @@ public class AppToolkitTaskExecutor extends TaskExecutor {
         mDelegate.executeOnDiskIO(runnable);
     }
 
+    @Override
+    public void executeOnDiskRead(Runnable runnable, @Priority int priority) {
+        mDelegate.executeOnDiskRead(runnable, priority);
+    }
+
+    @Override
+    public void executeOnDiskWrite(Runnable runnable) {
+        mDelegate.executeOnDiskWrite(runnable);
+    }
+
+    @Override
+    public void executeOnCompute(Runnable runnable) {
+        mDelegate.executeOnCompute(runnable);
+    }
+
     @Override
     public void postToMainThread(Runnable runnable) {
         mDelegate.postToMainThread(runnable);
     }
 
+    /**
+     * Returns the statistics of the given pool of the current delegate.
+     *
+     * @param pool The pool whose stats should be returned.
+     * @return The statistics of the pool or {@code null} if the delegate is not a
+     * {@link TieredTaskExecutor}.
+     */
+    @Nullable
+    public TieredTaskExecutor.PoolStats getPoolStats(@TieredTaskExecutor.Pool int pool) {
+        TaskExecutor delegate = mDelegate;
+        if (delegate instanceof TieredTaskExecutor) {
+            return ((TieredTaskExecutor) delegate).getPoolStats(pool);
+        }
+        return null;
+    }
+
     @NonNull
     public static Executor getMainThreadExecutor() {
         return sMainThreadExecutor;
@@ -110,6 +165,21 @@ public class AppToolkitTaskExecutor extends TaskExecutor {
         return sIOThreadExecutor;
     }
 
+    @NonNull
+    public static Executor getDiskReadExecutor() {
+        return sDiskReadExecutor;
+    }
+
+    @NonNull
+    public static Executor getDiskWriteExecutor() {
+        return sDiskWriteExecutor;
+    }
+
+    @NonNull
+    public static Executor getComputeExecutor() {
+        return sComputeExecutor;
+    }
+
     @Override
     public boolean isMainThread() {
         return mDelegate.isMainThread();
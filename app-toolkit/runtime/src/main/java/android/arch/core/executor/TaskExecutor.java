@@ -16,8 +16,12 @@
 
 package android.arch.core.executor;
 
+import android.support.annotation.IntDef;
 import android.support.annotation.RestrictTo;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
 /**
  * A task executor that can divide tasks into logical groups.
  * <p>
@@ -28,6 +32,28 @@ import android.support.annotation.RestrictTo;
  */
 @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
 public abstract class TaskExecutor {
+    /**
+     * Priority for work that can wait behind other work, e.g. prefetching.
+     */
+    public static final int PRIORITY_LOW = -1;
+
+    /**
+     * Default priority of tasks.
+     */
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * Priority for work whose result is needed by the visible UI, e.g. queries backing the
+     * current screen.
+     */
+    public static final int PRIORITY_HIGH = 1;
+
+    /** @hide */
+    @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+    @IntDef({PRIORITY_LOW, PRIORITY_NORMAL, PRIORITY_HIGH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
+
     /**
      * Executes the given task in the disk IO thread pool.
      *
@@ -35,6 +61,54 @@ public abstract class TaskExecutor {
      */
     public abstract void executeOnDiskIO(Runnable runnable);
 
+    /**
+     * Executes the given task that only reads from disk.
+     * <p>
+     * By default, this is the same as {@link #executeOnDiskIO(Runnable)}. Implementations may
+     * run reads separately from writes so that they do not queue behind long transactions.
+     *
+     * @param runnable The runnable to run.
+     */
+    public void executeOnDiskRead(Runnable runnable) {
+        executeOnDiskRead(runnable, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Executes the given task that only reads from disk with the given priority.
+     * <p>
+     * By default, the priority is ignored and this is the same as
+     * {@link #executeOnDiskIO(Runnable)}.
+     *
+     * @param runnable The runnable to run.
+     * @param priority The priority of the task. Tasks with a higher priority are started before
+     *                 the pending tasks with a lower priority.
+     */
+    public void executeOnDiskRead(Runnable runnable, @Priority int priority) {
+        executeOnDiskIO(runnable);
+    }
+
+    /**
+     * Executes the given task that writes to disk.
+     * <p>
+     * By default, this is the same as {@link #executeOnDiskIO(Runnable)}.
+     *
+     * @param runnable The runnable to run.
+     */
+    public void executeOnDiskWrite(Runnable runnable) {
+        executeOnDiskIO(runnable);
+    }
+
+    /**
+     * Executes the given CPU bound task, which does not access the disk, in the background.
+     * <p>
+     * By default, this is the same as {@link #executeOnDiskIO(Runnable)}.
+     *
+     * @param runnable The runnable to run.
+     */
+    public void executeOnCompute(Runnable runnable) {
+        executeOnDiskIO(runnable);
+    }
+
     /**
      * Posts the given task to the main thread.
      *
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.arch.core.executor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RestrictTo;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TaskExecutor that runs disk reads, disk writes and compute tasks on separate thread pools.
+ * <p>
+ * Each pool has a priority queue, so that pending {@link #PRIORITY_HIGH high priority} tasks
+ * start before the ones with a lower priority, and tasks with the same priority run in the order
+ * they were submitted.
+ * <p>
+ * The queues are bounded. When a queue is full, a background thread submitting a new task blocks
+ * until the pool catches up. Tasks submitted from the main thread or from one of the pools are
+ * always accepted, to avoid janking the UI or dead locking the pools.
+ * <p>
+ * Tasks submitted via {@link #executeOnDiskIO(Runnable)} run on the disk read pool with normal
+ * priority.
+ *
+ * @hide
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+public class TieredTaskExecutor extends TaskExecutor {
+    /**
+     * The pool that runs {@link #executeOnDiskRead(Runnable, int)} and
+     * {@link #executeOnDiskIO(Runnable)} tasks.
+     */
+    public static final int POOL_DISK_READ = 0;
+
+    /**
+     * The pool that runs {@link #executeOnDiskWrite(Runnable)} tasks.
+     */
+    public static final int POOL_DISK_WRITE = 1;
+
+    /**
+     * The pool that runs {@link #executeOnCompute(Runnable)} tasks.
+     */
+    public static final int POOL_COMPUTE = 2;
+
+    /** @hide */
+    @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+    @IntDef({POOL_DISK_READ, POOL_DISK_WRITE, POOL_COMPUTE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Pool {}
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // marks the threads created by any of the pools, see PriorityPool#execute.
+    private static final ThreadLocal<Boolean> sIsPoolThread = new ThreadLocal<>();
+
+    private final PriorityPool[] mPools;
+
+    private final Object mLock = new Object();
+
+    @Nullable
+    private volatile Handler mMainHandler;
+
+    /**
+     * Creates a TieredTaskExecutor with 2 disk read threads, 1 disk write thread and one compute
+     * thread per available processor.
+     */
+    public TieredTaskExecutor() {
+        this(2, 1, Math.max(1, Runtime.getRuntime().availableProcessors()),
+                DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a TieredTaskExecutor with the given pool sizes.
+     *
+     * @param readThreads    Number of threads running disk reads.
+     * @param writeThreads   Number of threads running disk writes.
+     * @param computeThreads Number of threads running compute tasks.
+     * @param queueCapacity  Number of pending tasks each pool can hold before background threads
+     *                       submitting to it are blocked.
+     */
+    public TieredTaskExecutor(int readThreads, int writeThreads, int computeThreads,
+            int queueCapacity) {
+        if (readThreads < 1 || writeThreads < 1 || computeThreads < 1) {
+            throw new IllegalArgumentException("Each pool needs at least 1 thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        mPools = new PriorityPool[3];
+        mPools[POOL_DISK_READ] = new PriorityPool("arch_disk_read_", readThreads,
+                queueCapacity);
+        mPools[POOL_DISK_WRITE] = new PriorityPool("arch_disk_write_", writeThreads,
+                queueCapacity);
+        mPools[POOL_COMPUTE] = new PriorityPool("arch_compute_", computeThreads,
+                queueCapacity);
+    }
+
+    @Override
+    public void executeOnDiskIO(Runnable runnable) {
+        executeOnDiskRead(runnable, PRIORITY_NORMAL);
+    }
+
+    @Override
+    public void executeOnDiskRead(Runnable runnable, @Priority int priority) {
+        submit(POOL_DISK_READ, runnable, priority);
+    }
+
+    @Override
+    public void executeOnDiskWrite(Runnable runnable) {
+        submit(POOL_DISK_WRITE, runnable, PRIORITY_NORMAL);
+    }
+
+    @Override
+    public void executeOnCompute(Runnable runnable) {
+        submit(POOL_COMPUTE, runnable, PRIORITY_NORMAL);
+    }
+
+    @Override
+    public void postToMainThread(Runnable runnable) {
+        if (mMainHandler == null) {
+            synchronized (mLock) {
+                if (mMainHandler == null) {
+                    mMainHandler = new Handler(Looper.getMainLooper());
+                }
+            }
+        }
+        //noinspection ConstantConditions
+        mMainHandler.post(runnable);
+    }
+
+    @Override
+    public boolean isMainThread() {
+        return Looper.getMainLooper().getThread() == Thread.currentThread();
+    }
+
+    /**
+     * Submits the given task to the given pool.
+     *
+     * @param pool     The pool to run the task on.
+     * @param runnable The task to run.
+     * @param priority The priority of the task in the pool's queue.
+     */
+    public void submit(@Pool int pool, @NonNull Runnable runnable, @Priority int priority) {
+        mPools[pool].submit(runnable, priority, !isMainThread());
+    }
+
+    /**
+     * Returns the statistics of the given pool.
+     * <p>
+     * The returned object is updated as tasks run.
+     *
+     * @param pool The pool whose stats should be returned.
+     * @return The statistics of the pool.
+     */
+    @NonNull
+    public PoolStats getPoolStats(@Pool int pool) {
+        return mPools[pool].mStats;
+    }
+
+    /**
+     * Initiates an orderly shutdown of all pools. Previously submitted tasks are executed but new
+     * tasks are rejected.
+     */
+    public void shutdown() {
+        for (PriorityPool pool : mPools) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Statistics of a single pool of a {@link TieredTaskExecutor}.
+     * <p>
+     * Times are measured with {@link System#nanoTime()}.
+     */
+    public static final class PoolStats {
+        final AtomicLong mSubmittedCount = new AtomicLong();
+        final AtomicLong mCompletedCount = new AtomicLong();
+        final AtomicLong mBlockedSubmitCount = new AtomicLong();
+        final AtomicLong mQueueWaitTimeNanos = new AtomicLong();
+        final AtomicLong mMaxQueueWaitTimeNanos = new AtomicLong();
+        final AtomicLong mRunTimeNanos = new AtomicLong();
+        final AtomicInteger mQueueSize = new AtomicInteger();
+
+        PoolStats() {
+        }
+
+        /**
+         * @return The number of tasks submitted to the pool.
+         */
+        public long getSubmittedCount() {
+            return mSubmittedCount.get();
+        }
+
+        /**
+         * @return The number of tasks that finished running, including the ones that threw.
+         */
+        public long getCompletedCount() {
+            return mCompletedCount.get();
+        }
+
+        /**
+         * @return The number of submissions that had to wait because the queue was full.
+         */
+        public long getBlockedSubmitCount() {
+            return mBlockedSubmitCount.get();
+        }
+
+        /**
+         * @return The total time tasks spent in the queue before starting to run.
+         */
+        public long getQueueWaitTimeNanos() {
+            return mQueueWaitTimeNanos.get();
+        }
+
+        /**
+         * @return The longest time a task spent in the queue before starting to run.
+         */
+        public long getMaxQueueWaitTimeNanos() {
+            return mMaxQueueWaitTimeNanos.get();
+        }
+
+        /**
+         * @return The total time spent running tasks.
+         */
+        public long getRunTimeNanos() {
+            return mRunTimeNanos.get();
+        }
+
+        /**
+         * @return The number of tasks currently waiting in the queue.
+         */
+        public int getQueueSize() {
+            return mQueueSize.get();
+        }
+
+        void recordQueueWait(long waitNanos) {
+            mQueueWaitTimeNanos.addAndGet(waitNanos);
+            long max = mMaxQueueWaitTimeNanos.get();
+            while (waitNanos > max && !mMaxQueueWaitTimeNanos.compareAndSet(max, waitNanos)) {
+                max = mMaxQueueWaitTimeNanos.get();
+            }
+        }
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        final Runnable mRunnable;
+        final int mPriority;
+        final long mSequence;
+        final boolean mHoldsPermit;
+        final long mEnqueueTimeNs;
+        long mStartTimeNs;
+
+        PrioritizedTask(Runnable runnable, int priority, long sequence, boolean holdsPermit) {
+            mRunnable = runnable;
+            mPriority = priority;
+            mSequence = sequence;
+            mHoldsPermit = holdsPermit;
+            mEnqueueTimeNs = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            mRunnable.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    private static class PriorityPool extends ThreadPoolExecutor {
+        final PoolStats mStats = new PoolStats();
+        // one permit per free slot in the queue.
+        private final Semaphore mQueuePermits;
+        private final AtomicLong mSequence = new AtomicLong();
+
+        PriorityPool(final String namePrefix, int threads, int queueCapacity) {
+            super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger mThreadId = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(@NonNull final Runnable r) {
+                            Thread thread = new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    sIsPoolThread.set(Boolean.TRUE);
+                                    r.run();
+                                }
+                            });
+                            thread.setName(namePrefix + mThreadId.getAndIncrement());
+                            return thread;
+                        }
+                    });
+            allowCoreThreadTimeOut(true);
+            mQueuePermits = new Semaphore(queueCapacity);
+        }
+
+        void submit(Runnable runnable, int priority, boolean canBlock) {
+            canBlock = canBlock && sIsPoolThread.get() == null;
+            boolean holdsPermit = mQueuePermits.tryAcquire();
+            if (!holdsPermit && canBlock) {
+                mStats.mBlockedSubmitCount.incrementAndGet();
+                try {
+                    mQueuePermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(
+                            "Interrupted while waiting for space in the queue", e);
+                }
+                holdsPermit = true;
+            }
+            PrioritizedTask task = new PrioritizedTask(runnable, priority,
+                    mSequence.getAndIncrement(), holdsPermit);
+            mStats.mSubmittedCount.incrementAndGet();
+            mStats.mQueueSize.incrementAndGet();
+            try {
+                execute(task);
+            } catch (RejectedExecutionException e) {
+                mStats.mSubmittedCount.decrementAndGet();
+                mStats.mQueueSize.decrementAndGet();
+                if (holdsPermit) {
+                    mQueuePermits.release();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            PrioritizedTask task = (PrioritizedTask) r;
+            mStats.mQueueSize.decrementAndGet();
+            if (task.mHoldsPermit) {
+                mQueuePermits.release();
+            }
+            task.mStartTimeNs = System.nanoTime();
+            mStats.recordQueueWait(task.mStartTimeNs - task.mEnqueueTimeNs);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            PrioritizedTask task = (PrioritizedTask) r;
+            mStats.mRunTimeNanos.addAndGet(System.nanoTime() - task.mStartTimeNs);
+            mStats.mCompletedCount.incrementAndGet();
+        }
+    }
+}
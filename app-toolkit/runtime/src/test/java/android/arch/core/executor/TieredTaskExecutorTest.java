@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.arch.core.executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class TieredTaskExecutorTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private TestTieredTaskExecutor mExecutor;
+    private final List<String> mRunOrder = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch mBlockerStarted = new CountDownLatch(1);
+    private final CountDownLatch mReleaseBlocker = new CountDownLatch(1);
+
+    @Before
+    public void init() {
+        // 1 thread per pool and room for 2 pending tasks per queue
+        mExecutor = new TestTieredTaskExecutor(1, 1, 1, 2);
+    }
+
+    @After
+    public void shutdown() {
+        mReleaseBlocker.countDown();
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void higherPriorityRunsFirst() throws InterruptedException {
+        mExecutor.shutdown();
+        mExecutor = new TestTieredTaskExecutor(1, 1, 1, 10);
+        blockPool(TieredTaskExecutor.POOL_DISK_READ);
+
+        mExecutor.executeOnDiskRead(record("low"), TaskExecutor.PRIORITY_LOW);
+        mExecutor.executeOnDiskRead(record("normal"), TaskExecutor.PRIORITY_NORMAL);
+        mExecutor.executeOnDiskRead(record("high"), TaskExecutor.PRIORITY_HIGH);
+        mReleaseBlocker.countDown();
+
+        awaitCompleted(TieredTaskExecutor.POOL_DISK_READ, 4);
+        assertThat(mRunOrder, is(Arrays.asList("high", "normal", "low")));
+    }
+
+    @Test
+    public void samePriorityRunsInSubmitOrder() throws InterruptedException {
+        mExecutor.shutdown();
+        mExecutor = new TestTieredTaskExecutor(1, 1, 1, 10);
+        blockPool(TieredTaskExecutor.POOL_COMPUTE);
+
+        mExecutor.submit(TieredTaskExecutor.POOL_COMPUTE, record("a"), TaskExecutor.PRIORITY_LOW);
+        mExecutor.submit(TieredTaskExecutor.POOL_COMPUTE, record("b"), TaskExecutor.PRIORITY_HIGH);
+        mExecutor.submit(TieredTaskExecutor.POOL_COMPUTE, record("c"), TaskExecutor.PRIORITY_LOW);
+        mExecutor.submit(TieredTaskExecutor.POOL_COMPUTE, record("d"), TaskExecutor.PRIORITY_HIGH);
+        mExecutor.submit(TieredTaskExecutor.POOL_COMPUTE, record("e"), TaskExecutor.PRIORITY_LOW);
+        mReleaseBlocker.countDown();
+
+        awaitCompleted(TieredTaskExecutor.POOL_COMPUTE, 6);
+        assertThat(mRunOrder, is(Arrays.asList("b", "d", "a", "c", "e")));
+    }
+
+    @Test
+    public void backgroundSubmitBlocksWhenQueueIsFull() throws InterruptedException {
+        blockPool(TieredTaskExecutor.POOL_DISK_WRITE);
+        mExecutor.executeOnDiskWrite(record("1"));
+        mExecutor.executeOnDiskWrite(record("2"));
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.executeOnDiskWrite(record("3"));
+                submitted.countDown();
+            }
+        });
+        submitter.start();
+
+        TieredTaskExecutor.PoolStats stats =
+                mExecutor.getPoolStats(TieredTaskExecutor.POOL_DISK_WRITE);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (stats.getBlockedSubmitCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(stats.getBlockedSubmitCount(), is(1L));
+        assertThat(submitted.await(50, TimeUnit.MILLISECONDS), is(false));
+        assertThat(stats.getQueueSize(), is(2));
+
+        mReleaseBlocker.countDown();
+        assertTrue(submitted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        awaitCompleted(TieredTaskExecutor.POOL_DISK_WRITE, 4);
+        assertThat(mRunOrder, is(Arrays.asList("1", "2", "3")));
+        assertThat(stats.getSubmittedCount(), is(4L));
+        assertThat(stats.getQueueSize(), is(0));
+    }
+
+    @Test
+    public void mainThreadSubmitDoesNotBlock() throws InterruptedException {
+        blockPool(TieredTaskExecutor.POOL_DISK_READ);
+        mExecutor.mIsMainThread = true;
+
+        for (int i = 0; i < 5; i++) {
+            mExecutor.executeOnDiskIO(record(String.valueOf(i)));
+        }
+
+        TieredTaskExecutor.PoolStats stats =
+                mExecutor.getPoolStats(TieredTaskExecutor.POOL_DISK_READ);
+        assertThat(stats.getBlockedSubmitCount(), is(0L));
+        assertThat(stats.getQueueSize(), is(5));
+        mReleaseBlocker.countDown();
+        awaitCompleted(TieredTaskExecutor.POOL_DISK_READ, 6);
+        assertThat(mRunOrder, is(Arrays.asList("0", "1", "2", "3", "4")));
+    }
+
+    @Test
+    public void poolThreadSubmitDoesNotBlock() throws InterruptedException {
+        blockPool(TieredTaskExecutor.POOL_DISK_READ);
+        final CountDownLatch submitted = new CountDownLatch(1);
+        mExecutor.executeOnCompute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    mExecutor.executeOnDiskRead(record(String.valueOf(i)),
+                            TaskExecutor.PRIORITY_NORMAL);
+                }
+                submitted.countDown();
+            }
+        });
+
+        assertTrue(submitted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertThat(mExecutor.getPoolStats(TieredTaskExecutor.POOL_DISK_READ)
+                .getBlockedSubmitCount(), is(0L));
+        mReleaseBlocker.countDown();
+        awaitCompleted(TieredTaskExecutor.POOL_DISK_READ, 6);
+    }
+
+    @Test
+    public void statsCountQueueWait() throws InterruptedException {
+        blockPool(TieredTaskExecutor.POOL_COMPUTE);
+        mExecutor.executeOnCompute(record("waiting"));
+        Thread.sleep(20);
+        mReleaseBlocker.countDown();
+
+        awaitCompleted(TieredTaskExecutor.POOL_COMPUTE, 2);
+        TieredTaskExecutor.PoolStats stats =
+                mExecutor.getPoolStats(TieredTaskExecutor.POOL_COMPUTE);
+        assertThat(stats.getSubmittedCount(), is(2L));
+        assertThat(stats.getCompletedCount(), is(2L));
+        assertThat(stats.getBlockedSubmitCount(), is(0L));
+        assertThat(stats.getQueueSize(), is(0));
+        assertTrue(stats.getMaxQueueWaitTimeNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(stats.getQueueWaitTimeNanos() >= stats.getMaxQueueWaitTimeNanos());
+        assertTrue(stats.getRunTimeNanos() > 0);
+        // the other pools are untouched
+        assertThat(mExecutor.getPoolStats(TieredTaskExecutor.POOL_DISK_READ)
+                .getSubmittedCount(), is(0L));
+    }
+
+    @Test
+    public void statsCountTasksThatThrow() throws InterruptedException {
+        mExecutor.executeOnCompute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        });
+
+        awaitCompleted(TieredTaskExecutor.POOL_COMPUTE, 1);
+    }
+
+    @Test
+    public void submitAfterShutdownIsRejected() {
+        mExecutor.shutdown();
+        try {
+            mExecutor.executeOnDiskWrite(record("rejected"));
+            fail("Tasks submitted after shutdown should be rejected");
+        } catch (RejectedExecutionException expected) {
+        }
+        TieredTaskExecutor.PoolStats stats =
+                mExecutor.getPoolStats(TieredTaskExecutor.POOL_DISK_WRITE);
+        assertThat(stats.getSubmittedCount(), is(0L));
+        assertThat(stats.getQueueSize(), is(0));
+    }
+
+    // Occupies the only thread of the pool until mReleaseBlocker is released.
+    private void blockPool(@TieredTaskExecutor.Pool int pool) throws InterruptedException {
+        mExecutor.submit(pool, new Runnable() {
+            @Override
+            public void run() {
+                mBlockerStarted.countDown();
+                try {
+                    mReleaseBlocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, TaskExecutor.PRIORITY_NORMAL);
+        assertTrue(mBlockerStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mRunOrder.add(name);
+            }
+        };
+    }
+
+    // The completed count is updated after the task returns, so it is polled.
+    private void awaitCompleted(@TieredTaskExecutor.Pool int pool, long count)
+            throws InterruptedException {
+        TieredTaskExecutor.PoolStats stats = mExecutor.getPoolStats(pool);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (stats.getCompletedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(stats.getCompletedCount(), is(count));
+    }
+
+    // The main looper is not available in JVM tests.
+    private static class TestTieredTaskExecutor extends TieredTaskExecutor {
+        volatile boolean mIsMainThread;
+
+        TestTieredTaskExecutor(int readThreads, int writeThreads, int computeThreads,
+                int queueCapacity) {
+            super(readThreads, writeThreads, computeThreads, queueCapacity);
+        }
+
+        @Override
+        public boolean isMainThread() {
+            return mIsMainThread;
+        }
+    }
+}
@@ -20,10 +20,9 @@ import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
 
 import android.graphics.Path;
 import android.support.annotation.RestrictTo;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 
-import java.util.ArrayList;
-
 /**
  * This class is a duplicate from the PathParser.java of frameworks/base, with slight
  * update on incompatible API like copyOfRange().
@@ -34,6 +33,33 @@ import java.util.ArrayList;
 public class PathParser {
     private static final String LOGTAG = "PathParser";
 
+    private static final int INITIAL_NODE_CAPACITY = 16;
+    private static final int INITIAL_FLOAT_CAPACITY = 16;
+
+    // Integers up to 2^24 and powers of ten up to 10^10 are exactly representable as floats.
+    private static final int MAX_EXACT_MANTISSA = 1 << 24;
+    private static final int MAX_EXACT_EXPONENT = 10;
+    private static final float[] POWERS_OF_TEN = new float[] {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    /**
+     * The maximum size of {@link #sNodesCache}, where the size of parsed path data is its
+     * number of nodes and floats plus half its number of characters.
+     */
+    private static final int NODES_CACHE_SIZE = 64 * 1024;
+
+    private static final LruCache<String, PathDataNode[]> sNodesCache =
+            new LruCache<String, PathDataNode[]>(NODES_CACHE_SIZE) {
+                @Override
+                protected int sizeOf(String pathData, PathDataNode[] nodes) {
+                    int size = pathData.length() / 2 + nodes.length;
+                    for (PathDataNode node : nodes) {
+                        size += node.mParams.length;
+                    }
+                    return size;
+                }
+            };
+
     // Copy from Arrays.copyOfRange() which is only available from API level 9.
 
     /**
@@ -71,7 +97,7 @@ public class PathParser {
      */
     public static Path createPathFromPathData(String pathData) {
         Path path = new Path();
-        PathDataNode[] nodes = createNodesFromPathData(pathData);
+        PathDataNode[] nodes = getCachedNodesFromPathData(pathData);
         if (nodes != null) {
             try {
                 PathDataNode.nodesToPath(nodes, path);
@@ -91,25 +117,96 @@ public class PathParser {
         if (pathData == null) {
             return null;
         }
+        final int length = pathData.length();
+        PathDataNode[] nodes = new PathDataNode[INITIAL_NODE_CAPACITY];
+        int nodeCount = 0;
+        // The floats of the current command, copied to the node once they are all parsed
+        float[] floats = new float[INITIAL_FLOAT_CAPACITY];
+
+        // Each command starts at a command letter and ends before the next one, and its
+        // surrounding whitespace is ignored like String.trim() does.
         int start = 0;
-        int end = 1;
-
-        ArrayList<PathDataNode> list = new ArrayList<PathDataNode>();
-        while (end < pathData.length()) {
-            end = nextStart(pathData, end);
-            String s = pathData.substring(start, end).trim();
-            if (s.length() > 0) {
-                float[] val = getFloats(s);
-                addNode(list, s.charAt(0), val);
+        while (start < length) {
+            final int end = nextStart(pathData, start + 1);
+            int first = start;
+            while (first < end && pathData.charAt(first) <= ' ') {
+                first++;
+            }
+            int last = end;
+            while (last > first && pathData.charAt(last - 1) <= ' ') {
+                last--;
             }
-
             start = end;
-            end++;
+            if (first == last) {
+                continue;
+            }
+
+            final char type = pathData.charAt(first);
+            int count = 0;
+            if (type != 'z' && type != 'Z') {
+                try {
+                    int position = first + 1;
+                    while (position < last) {
+                        final int numberEnd = extract(pathData, position, last);
+                        if (position < numberEnd) {
+                            if (count == floats.length) {
+                                final float[] grown = new float[count * 2];
+                                System.arraycopy(floats, 0, grown, 0, count);
+                                floats = grown;
+                            }
+                            floats[count++] = parseFloat(pathData, position, numberEnd);
+                        }
+                        if (numberEnd < last && (pathData.charAt(numberEnd) == '-'
+                                || pathData.charAt(numberEnd) == '.')) {
+                            // Keep the '-' or '.' sign with next number.
+                            position = numberEnd;
+                        } else {
+                            position = numberEnd + 1;
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("error in parsing \""
+                            + pathData.substring(first, last) + "\"", e);
+                }
+            }
+
+            if (nodeCount == nodes.length) {
+                final PathDataNode[] grown = new PathDataNode[nodeCount * 2];
+                System.arraycopy(nodes, 0, grown, 0, nodeCount);
+                nodes = grown;
+            }
+            nodes[nodeCount++] = new PathDataNode(type, copyOfRange(floats, 0, count));
         }
-        if ((end - start) == 1 && start < pathData.length()) {
-            addNode(list, pathData.charAt(start), new float[0]);
+
+        if (nodeCount == nodes.length) {
+            return nodes;
         }
-        return list.toArray(new PathDataNode[list.size()]);
+        final PathDataNode[] result = new PathDataNode[nodeCount];
+        System.arraycopy(nodes, 0, result, 0, nodeCount);
+        return result;
+    }
+
+    /**
+     * Returns the nodes of the path data from a cache shared by the whole process, and parses
+     * the path data only if it is not in the cache. This lets the drawables that are inflated
+     * from the same path data, e.g. the same icon, share their nodes.
+     * <p>
+     * The returned nodes must not be modified, copy them with
+     * {@link #deepCopyNodes(PathDataNode[])} first.
+     *
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @return an array of the PathDataNode, which is shared.
+     */
+    public static PathDataNode[] getCachedNodesFromPathData(String pathData) {
+        if (pathData == null) {
+            return null;
+        }
+        PathDataNode[] nodes = sNodesCache.get(pathData);
+        if (nodes == null) {
+            nodes = createNodesFromPathData(pathData);
+            sNodesCache.put(pathData, nodes);
+        }
+        return nodes;
     }
 
     /**
@@ -184,94 +281,32 @@ public class PathParser {
         return end;
     }
 
-    private static void addNode(ArrayList<PathDataNode> list, char cmd, float[] val) {
-        list.add(new PathDataNode(cmd, val));
-    }
-
-    private static class ExtractFloatResult {
-        // We need to return the position of the next separator and whether the
-        // next float starts with a '-' or a '.'.
-        int mEndPosition;
-        boolean mEndWithNegOrDot;
-
-        ExtractFloatResult() {
-        }
-    }
-
-    /**
-     * Parse the floats in the string.
-     * This is an optimized version of parseFloat(s.split(",|\\s"));
-     *
-     * @param s the string containing a command and list of floats
-     * @return array of floats
-     */
-    private static float[] getFloats(String s) {
-        if (s.charAt(0) == 'z' || s.charAt(0) == 'Z') {
-            return new float[0];
-        }
-        try {
-            float[] results = new float[s.length()];
-            int count = 0;
-            int startPosition = 1;
-            int endPosition = 0;
-
-            ExtractFloatResult result = new ExtractFloatResult();
-            int totalLength = s.length();
-
-            // The startPosition should always be the first character of the
-            // current number, and endPosition is the character after the current
-            // number.
-            while (startPosition < totalLength) {
-                extract(s, startPosition, result);
-                endPosition = result.mEndPosition;
-
-                if (startPosition < endPosition) {
-                    results[count++] = Float.parseFloat(
-                            s.substring(startPosition, endPosition));
-                }
-
-                if (result.mEndWithNegOrDot) {
-                    // Keep the '-' or '.' sign with next number.
-                    startPosition = endPosition;
-                } else {
-                    startPosition = endPosition + 1;
-                }
-            }
-            return copyOfRange(results, 0, count);
-        } catch (NumberFormatException e) {
-            throw new RuntimeException("error in parsing \"" + s + "\"", e);
-        }
-    }
-
     /**
      * Calculate the position of the next comma or space or negative sign
      *
-     * @param s      the string to search
-     * @param start  the position to start searching
-     * @param result the result of the extraction, including the position of the
-     *               the starting position of next number, whether it is ending with a '-'.
+     * @param s     the string to search
+     * @param start the position to start searching
+     * @param end   the end of the command in the string
+     * @return the position after the number, which holds a ',' or ' ' separator, or a '-' or
+     * '.' which starts the next number, or is the end of the command.
      */
-    private static void extract(String s, int start, ExtractFloatResult result) {
+    private static int extract(String s, int start, int end) {
         // Now looking for ' ', ',', '.' or '-' from the start.
         int currentIndex = start;
-        boolean foundSeparator = false;
-        result.mEndWithNegOrDot = false;
         boolean secondDot = false;
         boolean isExponential = false;
-        for (; currentIndex < s.length(); currentIndex++) {
+        for (; currentIndex < end; currentIndex++) {
             boolean isPrevExponential = isExponential;
             isExponential = false;
             char currentChar = s.charAt(currentIndex);
             switch (currentChar) {
                 case ' ':
                 case ',':
-                    foundSeparator = true;
-                    break;
+                    return currentIndex;
                 case '-':
                     // The negative sign following a 'e' or 'E' is not a separator.
                     if (currentIndex != start && !isPrevExponential) {
-                        foundSeparator = true;
-                        result.mEndWithNegOrDot = true;
+                        return currentIndex;
                     }
                     break;
                 case '.':
@@ -279,8 +314,7 @@ public class PathParser {
                         secondDot = true;
                     } else {
                         // This is the second dot, and it is considered as a separator.
-                        foundSeparator = true;
-                        result.mEndWithNegOrDot = true;
+                        return currentIndex;
                     }
                     break;
                 case 'e':
@@ -288,13 +322,89 @@ public class PathParser {
                     isExponential = true;
                     break;
             }
-            if (foundSeparator) {
+        }
+        // When there is nothing found, then we put the end position to the end
+        // of the command.
+        return currentIndex;
+    }
+
+    /**
+     * Parses the float in {@code s[start..end)} without creating a substring, with the same
+     * result as {@link Float#parseFloat(String)}.
+     * <p>
+     * Numbers with at most 24 bits of digits and an exponent of at most 10 in magnitude, which
+     * covers the numbers in path data, are computed with a single float multiplication or
+     * division of exactly representable values, which is correctly rounded. Other numbers are
+     * left to {@link Float#parseFloat(String)}.
+     *
+     * @throws NumberFormatException if the string is not a number
+     */
+    static float parseFloat(String s, int start, int end) {
+        int i = start;
+        char c = s.charAt(i);
+        final boolean negative = c == '-';
+        if (negative || c == '+') {
+            i++;
+        }
+        int mantissa = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        for (; i < end; i++) {
+            c = s.charAt(i);
+            if (c < '0' || c > '9') {
                 break;
             }
+            mantissa = mantissa * 10 + (c - '0');
+            if (mantissa > MAX_EXACT_MANTISSA) {
+                return Float.parseFloat(s.substring(start, end));
+            }
+            hasDigits = true;
         }
-        // When there is nothing found, then we put the end position to the end
-        // of the string.
-        result.mEndPosition = currentIndex;
+        if (i < end && s.charAt(i) == '.') {
+            for (i++; i < end; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa > MAX_EXACT_MANTISSA) {
+                    return Float.parseFloat(s.substring(start, end));
+                }
+                exponent--;
+                hasDigits = true;
+            }
+        }
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            final boolean negativeExponent = i < end && s.charAt(i) == '-';
+            if (i < end && (negativeExponent || s.charAt(i) == '+')) {
+                i++;
+            }
+            int value = 0;
+            boolean hasExponentDigits = false;
+            for (; i < end; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (value < MAX_EXACT_EXPONENT * 10) {
+                    value = value * 10 + (c - '0');
+                }
+                hasExponentDigits = true;
+            }
+            if (!hasExponentDigits) {
+                return Float.parseFloat(s.substring(start, end));
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (!hasDigits || i != end || exponent < -MAX_EXACT_EXPONENT
+                || exponent > MAX_EXACT_EXPONENT) {
+            return Float.parseFloat(s.substring(start, end));
+        }
+        final float value = exponent >= 0
+                ? mantissa * POWERS_OF_TEN[exponent]
+                : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
     }
 
     /**
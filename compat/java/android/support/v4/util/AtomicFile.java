@@ -16,6 +16,11 @@
 
 package android.support.v4.util;
 
+import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.RestrictTo;
 import android.util.Log;
 
 import java.io.File;
@@ -23,6 +28,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
 /**
  * Static library support version of the framework's {@link android.util.AtomicFile},
@@ -38,19 +50,90 @@ import java.io.IOException;
  * Do not use this class when the file may be accessed or modified concurrently
  * by multiple threads or processes.  The caller is responsible for ensuring
  * appropriate mutual exclusion invariants whenever it accesses the file.
+ * </p><p>
+ * Large files can be written with {@link #startChannelWrite()}, which writes
+ * through a {@link FileChannel} and can copy unchanged regions of the previous
+ * contents with {@link FileChannel#transferFrom} instead of passing them through
+ * the Java heap. Channel writes also support grouping several commits into one
+ * sync with {@link #SYNC_GROUPED}, and appending a checksum that
+ * {@link #readFully()} verifies to detect torn writes.
  * </p>
  */
 public class AtomicFile {
+    /** @hide */
+    @RestrictTo(LIBRARY_GROUP)
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({SYNC_EACH_COMMIT, SYNC_GROUPED})
+    public @interface SyncPolicy {}
+
+    /**
+     * Sync policy syncing the file at each commit, before deleting the backup.
+     * A commit is durable as soon as it returns.
+     */
+    public static final int SYNC_EACH_COMMIT = 0;
+
+    /**
+     * Sync policy for channel writes, committing without syncing and keeping the
+     * backup of the last synced contents until {@link #sync()} is called. After a
+     * crash, reads roll back to the last synced contents, so the commits since the
+     * last sync are lost but the file is never left partially written. Otherwise
+     * reads see the latest commit, including from other instances for the same
+     * path.
+     * <p>
+     * Without checksums, the unsynced commits are marked by a file with
+     * ".pending" appended to the file path, which is trusted as long as it exists.
+     * With checksums, the latest commit is read only if its checksum matches, so
+     * a partially written commit is detected even if it was marked.
+     */
+    public static final int SYNC_GROUPED = 1;
+
+    private static final String TAG = "AtomicFile";
+
+    // written after the checksum at the end of files written with checksums
+    private static final int CHECKSUM_MAGIC = 0x41464353;
+    private static final int CHECKSUM_TRAILER_SIZE = 8;
+
     private final File mBaseName;
     private final File mBackupName;
+    private final File mNewName;
+    private final File mPendingSyncName;
+    private final int mSyncPolicy;
+    private final boolean mChecksum;
+
+    // whether this instance has seen that the base file holds commits that were
+    // not synced yet, see hasPendingSync()
+    private boolean mPendingSync;
 
     /**
      * Create a new AtomicFile for a file located at the given File path.
      * The secondary backup file will be the same file path with ".bak" appended.
      */
     public AtomicFile(File baseName) {
+        this(baseName, SYNC_EACH_COMMIT, false);
+    }
+
+    /**
+     * Create a new AtomicFile for a file located at the given File path, with the
+     * given options for channel writes.
+     * The secondary backup file will be the same file path with ".bak" appended,
+     * and channel writes are written to the file path with ".new" appended.
+     *
+     * @param baseName The path of the file.
+     * @param syncPolicy Either {@link #SYNC_EACH_COMMIT} or {@link #SYNC_GROUPED}.
+     * @param checksum Whether channel writes append a checksum, which
+     *                 {@link #readFully()} verifies. Such files can only be written
+     *                 with {@link #startChannelWrite()}.
+     */
+    public AtomicFile(File baseName, @SyncPolicy int syncPolicy, boolean checksum) {
+        if (syncPolicy != SYNC_EACH_COMMIT && syncPolicy != SYNC_GROUPED) {
+            throw new IllegalArgumentException("Unknown sync policy " + syncPolicy);
+        }
         mBaseName = baseName;
         mBackupName = new File(baseName.getPath() + ".bak");
+        mNewName = new File(baseName.getPath() + ".new");
+        mPendingSyncName = new File(baseName.getPath() + ".pending");
+        mSyncPolicy = syncPolicy;
+        mChecksum = checksum;
     }
 
     /**
@@ -67,6 +150,8 @@ public class AtomicFile {
     public void delete() {
         mBaseName.delete();
         mBackupName.delete();
+        mNewName.delete();
+        clearPendingSync();
     }
 
     /**
@@ -82,8 +167,16 @@ public class AtomicFile {
      * thread finishes the write the new write operation will no longer be
      * safe (or will be lost).  You must do your own threading protection for
      * access to AtomicFile.
+     *
+     * @throws IllegalStateException If this file is written with checksums.
      */
     public FileOutputStream startWrite() throws IOException {
+        if (mChecksum) {
+            throw new IllegalStateException("Files with checksums must be written with "
+                    + "startChannelWrite()");
+        }
+        // the stream replaces the unsynced commits, the backup still holds the last synced data
+        clearPendingSync();
         // Rename the current file so it may be used as a backup during the next read
         if (mBaseName.exists()) {
             if (!mBackupName.exists()) {
@@ -161,7 +254,7 @@ public class AtomicFile {
      * AtomicFile.
      */
     public FileInputStream openRead() throws FileNotFoundException {
-        if (mBackupName.exists()) {
+        if (mBackupName.exists() && !hasPendingSync()) {
             mBaseName.delete();
             mBackupName.renameTo(mBaseName);
         }
@@ -171,8 +264,34 @@ public class AtomicFile {
     /**
      * A convenience for {@link #openRead()} that also reads all of the
      * file contents into a byte array which is returned.
+     *
+     * <p>If this file is written with checksums, the checksum is verified and
+     * removed from the returned data.
+     *
+     * @throws IOException If the checksum does not match the contents, which
+     * happens when the file was partially written.
      */
     public byte[] readFully() throws IOException {
+        byte[] data = readFullyUnchecked();
+        if (!mChecksum) {
+            return data;
+        }
+        final int length = data.length - CHECKSUM_TRAILER_SIZE;
+        if (length < 0) {
+            throw new IOException("Missing checksum in " + mBaseName);
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(data, length, CHECKSUM_TRAILER_SIZE);
+        int checksum = trailer.getInt();
+        int magic = trailer.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        if (magic != CHECKSUM_MAGIC || checksum != (int) crc.getValue()) {
+            throw new IOException("Checksum mismatch in " + mBaseName);
+        }
+        return Arrays.copyOf(data, length);
+    }
+
+    private byte[] readFullyUnchecked() throws IOException {
         FileInputStream stream = openRead();
         try {
             int pos = 0;
@@ -200,6 +319,382 @@ public class AtomicFile {
         }
     }
 
+    /**
+     * Start a new write operation on the file through a {@link FileChannel}.
+     * The returned {@link ChannelWrite} writes the new contents and can copy
+     * regions of the previous contents into them. The existing file is replaced
+     * with the new data once the write is passed to
+     * {@link #finishChannelWrite(ChannelWrite)}; call
+     * {@link #failChannelWrite(ChannelWrite)} to keep the previous contents.
+     *
+     * <p>Unlike {@link #startWrite()}, the new data is written to a separate
+     * file which replaces the base file on commit, so the previous contents
+     * stay readable while writing. As for {@link #startWrite()}, you must do
+     * your own threading protection for access to AtomicFile.
+     */
+    public ChannelWrite startChannelWrite() throws IOException {
+        File previous;
+        if (hasPendingSync()) {
+            // the backup holds the last synced data and the base the latest commit
+            previous = mBaseName;
+        } else {
+            // a marker left over from a rolled back commit must not validate this one
+            clearPendingSync();
+            if (mBaseName.exists()) {
+                if (!mBackupName.exists()) {
+                    if (!mBaseName.renameTo(mBackupName)) {
+                        Log.w(TAG, "Couldn't rename file " + mBaseName
+                                + " to backup file " + mBackupName);
+                    }
+                } else {
+                    mBaseName.delete();
+                }
+            }
+            previous = mBackupName.exists() ? mBackupName
+                    : mBaseName.exists() ? mBaseName : null;
+        }
+        FileOutputStream str;
+        try {
+            str = new FileOutputStream(mNewName);
+        } catch (FileNotFoundException e) {
+            File parent = mNewName.getParentFile();
+            if (!parent.mkdirs()) {
+                throw new IOException("Couldn't create directory " + mNewName);
+            }
+            try {
+                str = new FileOutputStream(mNewName);
+            } catch (FileNotFoundException e2) {
+                throw new IOException("Couldn't create " + mNewName);
+            }
+        }
+        FileInputStream previousStream = null;
+        try {
+            if (previous != null) {
+                previousStream = new FileInputStream(previous);
+            }
+            return new ChannelWrite(str, previousStream, mChecksum);
+        } catch (IOException e) {
+            str.close();
+            if (previousStream != null) {
+                previousStream.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Call when you have successfully finished writing with the
+     * {@link ChannelWrite} returned by {@link #startChannelWrite()}. This
+     * flushes the buffered data, appends the checksum if enabled, and commits
+     * the new data, syncing it according to the sync policy.
+     *
+     * @throws IOException If the new data could not be written or committed, in
+     * which case the previous contents are kept.
+     */
+    public void finishChannelWrite(@NonNull ChannelWrite write) throws IOException {
+        try {
+            write.finish();
+            if (mSyncPolicy == SYNC_EACH_COMMIT) {
+                sync(write.mStream);
+            }
+        } catch (IOException e) {
+            failChannelWrite(write);
+            throw e;
+        }
+        write.close();
+        if (!mNewName.renameTo(mBaseName)) {
+            failChannelWrite(write);
+            throw new IOException("Couldn't rename " + mNewName + " to " + mBaseName);
+        }
+        if (mSyncPolicy == SYNC_EACH_COMMIT) {
+            mBackupName.delete();
+            clearPendingSync();
+        } else {
+            setPendingSync();
+        }
+    }
+
+    /**
+     * Call when you have failed for some reason at writing with the
+     * {@link ChannelWrite} returned by {@link #startChannelWrite()}. The new data
+     * is dropped and the file keeps its previous contents.
+     */
+    public void failChannelWrite(@NonNull ChannelWrite write) {
+        write.close();
+        mNewName.delete();
+        if (!hasPendingSync() && !mBaseName.exists()) {
+            mBackupName.renameTo(mBaseName);
+        }
+    }
+
+    /**
+     * Syncs the commits made with the {@link #SYNC_GROUPED} policy since the last
+     * sync, making them durable. Does nothing if there are no such commits.
+     */
+    public void sync() throws IOException {
+        if (!hasPendingSync()) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(mBaseName, "rw");
+        try {
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        mBackupName.delete();
+        clearPendingSync();
+    }
+
+    /**
+     * Returns whether the base file holds complete commits that were not synced
+     * yet, with the backup holding the last synced contents. Otherwise, if the
+     * backup exists, the base file is left over from an incomplete write.
+     */
+    private boolean hasPendingSync() {
+        if (!mBackupName.exists() || !mBaseName.exists()) {
+            mPendingSync = false;
+        } else if (!mPendingSync) {
+            // the commits may have been made by another instance or process
+            mPendingSync = mChecksum ? hasValidChecksum(mBaseName) : mPendingSyncName.exists();
+        }
+        return mPendingSync;
+    }
+
+    private void setPendingSync() {
+        mPendingSync = true;
+        if (!mChecksum) {
+            try {
+                new FileOutputStream(mPendingSyncName).close();
+            } catch (IOException e) {
+                // the commits are rolled back if another instance reads before the sync
+                Log.w(TAG, "Couldn't create " + mPendingSyncName, e);
+            }
+        }
+    }
+
+    private void clearPendingSync() {
+        mPendingSync = false;
+        mPendingSyncName.delete();
+    }
+
+    /**
+     * Returns whether the given file ends with a checksum matching its contents.
+     */
+    private static boolean hasValidChecksum(File file) {
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            long remaining = in.length() - CHECKSUM_TRAILER_SIZE;
+            if (remaining < 0) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[8192];
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read <= 0) {
+                    return false;
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            return in.readInt() == (int) crc.getValue() && in.readInt() == CHECKSUM_MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "hasValidChecksum: Got exception:", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A write operation started with {@link #startChannelWrite()}.
+     * <p>
+     * Data written with {@link #write(ByteBuffer)} and
+     * {@link #write(byte[], int, int)} is buffered and appended to the new
+     * contents. {@link #copyFromPrevious(long, long)} appends a region of the
+     * previous contents without copying it through the Java heap, unless
+     * checksums are enabled, in which case the region is also read to update
+     * the checksum.
+     */
+    public static final class ChannelWrite {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        final FileOutputStream mStream;
+        private final FileChannel mChannel;
+        private final FileInputStream mPreviousStream;
+        private final FileChannel mPrevious;
+        private final long mPreviousLength;
+        private final CRC32 mCrc;
+        private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private ByteBuffer mCrcBuffer;
+        // position in the new contents, including the buffered data
+        private long mPosition;
+
+        ChannelWrite(FileOutputStream stream, FileInputStream previousStream, boolean checksum)
+                throws IOException {
+            mStream = stream;
+            mChannel = stream.getChannel();
+            mPreviousStream = previousStream;
+            mPrevious = previousStream != null ? previousStream.getChannel() : null;
+            long previousLength = mPrevious != null ? mPrevious.size() : 0;
+            if (checksum) {
+                previousLength = Math.max(0, previousLength - CHECKSUM_TRAILER_SIZE);
+            }
+            mPreviousLength = previousLength;
+            mCrc = checksum ? new CRC32() : null;
+        }
+
+        /**
+         * @return The length of the previous contents, excluding their checksum.
+         */
+        public long getPreviousLength() {
+            return mPreviousLength;
+        }
+
+        /**
+         * @return The number of bytes of new contents written so far.
+         */
+        public long position() {
+            return mPosition;
+        }
+
+        /**
+         * Appends the given bytes to the new contents.
+         */
+        public void write(byte[] data, int offset, int length) throws IOException {
+            write(ByteBuffer.wrap(data, offset, length));
+        }
+
+        /**
+         * Appends the remaining bytes of the given buffer to the new contents.
+         */
+        public void write(ByteBuffer src) throws IOException {
+            final int length = src.remaining();
+            if (mCrc != null) {
+                updateCrc(src);
+            }
+            if (length > mBuffer.remaining()) {
+                flush();
+            }
+            if (length >= BUFFER_SIZE) {
+                while (src.hasRemaining()) {
+                    mChannel.write(src);
+                }
+            } else {
+                mBuffer.put(src);
+            }
+            mPosition += length;
+        }
+
+        /**
+         * Appends a region of the previous contents to the new contents.
+         *
+         * @param position The start of the region in the previous contents.
+         * @param count The length of the region.
+         * @return The number of bytes appended, which is less than {@code count}
+         * if the region extends past the end of the previous contents.
+         */
+        public long copyFromPrevious(long position, long count) throws IOException {
+            if (position < 0 || count < 0) {
+                throw new IllegalArgumentException("position < 0 || count < 0");
+            }
+            count = Math.max(0, Math.min(count, mPreviousLength - position));
+            if (count == 0) {
+                return 0;
+            }
+            flush();
+            if (mCrc != null) {
+                crcPrevious(position, count);
+            }
+            mPrevious.position(position);
+            long copied = 0;
+            while (copied < count) {
+                long transferred = mChannel.transferFrom(mPrevious, mPosition + copied,
+                        count - copied);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of previous contents");
+                }
+                copied += transferred;
+            }
+            mPosition += copied;
+            // transferFrom does not move the position of the target channel
+            mChannel.position(mPosition);
+            return copied;
+        }
+
+        private void crcPrevious(long position, long count) throws IOException {
+            if (mCrcBuffer == null) {
+                mCrcBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+            final ByteBuffer buffer = mCrcBuffer;
+            long end = position + count;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = mPrevious.read(buffer, position);
+                if (read <= 0) {
+                    throw new IOException("Unexpected end of previous contents");
+                }
+                mCrc.update(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+
+        private void updateCrc(ByteBuffer src) {
+            if (src.hasArray()) {
+                mCrc.update(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            } else {
+                ByteBuffer copy = src.duplicate();
+                byte[] chunk = new byte[Math.min(copy.remaining(), 8192)];
+                while (copy.hasRemaining()) {
+                    int length = Math.min(chunk.length, copy.remaining());
+                    copy.get(chunk, 0, length);
+                    mCrc.update(chunk, 0, length);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+
+        void finish() throws IOException {
+            if (mCrc != null) {
+                if (mBuffer.remaining() < CHECKSUM_TRAILER_SIZE) {
+                    flush();
+                }
+                mBuffer.putInt((int) mCrc.getValue());
+                mBuffer.putInt(CHECKSUM_MAGIC);
+            }
+            flush();
+        }
+
+        void close() {
+            try {
+                mStream.close();
+            } catch (IOException e) {
+                Log.w(TAG, "close: Got exception:", e);
+            }
+            if (mPreviousStream != null) {
+                try {
+                    mPreviousStream.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "close: Got exception:", e);
+                }
+            }
+        }
+    }
+
     static boolean sync(FileOutputStream stream) {
         try {
             if (stream != null) {
@@ -37,6 +37,33 @@ class ContainerHelpers {
         return need;
     }
 
+    /**
+     * Returns the smallest power of two table size that keeps the load factor of an open
+     * addressing table holding {@code capacity} entries at or below one half.
+     */
+    static int idealHashTableSize(int capacity) {
+        int size = 8;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // The finalization step of MurmurHash3, spreads the bits of keys like sequential ids
+    // over the whole table.
+    static int hashInt(int key) {
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key;
+    }
+
+    static int hashLong(long key) {
+        return hashInt((int) (key ^ (key >>> 32)));
+    }
+
     public static boolean equal(Object a, Object b) {
         return a == b || (a != null && a.equals(b));
     }
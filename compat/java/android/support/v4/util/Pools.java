@@ -120,6 +120,10 @@ public final class Pools {
             return false;
         }
 
+        int size() {
+            return mPoolSize;
+        }
+
         private boolean isInPool(T instance) {
             for (int i = 0; i < mPoolSize; i++) {
                 if (mPool[i] == instance) {
@@ -163,4 +167,187 @@ public final class Pools {
             }
         }
     }
+
+    /**
+     * Thread safe pool of objects for pools shared by many threads.
+     * <p>
+     * The pool is split into stripes, each guarded by its own lock. A thread first tries the
+     * stripe picked from its id and then the other stripes, so threads mostly do not contend
+     * with each other, unlike with {@link SynchronizedPool}. The pooled instances of all the
+     * stripes never exceed the max pool size.
+     * <p>
+     * Releasing an instance that is already in the pool is only detected when it is released
+     * into the stripe that holds it.
+     *
+     * @param <T> The pooled type.
+     */
+    public static class StripedPool<T> implements Pool<T> {
+        private final Stripe<T>[] mStripes;
+        private final boolean mRecordStats;
+
+        /**
+         * Creates a new instance with one stripe per available processor, which does not
+         * record statistics.
+         *
+         * @param maxPoolSize The max pool size.
+         *
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public StripedPool(int maxPoolSize) {
+            this(maxPoolSize, Runtime.getRuntime().availableProcessors(), false);
+        }
+
+        /**
+         * Creates a new instance.
+         *
+         * @param maxPoolSize The max pool size.
+         * @param stripeCount The number of stripes. It is reduced to the max pool size if
+         *                    larger.
+         * @param recordStats Whether to record the statistics returned by {@link #hitCount()},
+         *                    {@link #missCount()} and {@link #dropCount()}.
+         *
+         * @throws IllegalArgumentException If the max pool size or the stripe count is less
+         *                                  than zero.
+         */
+        @SuppressWarnings("unchecked")
+        public StripedPool(int maxPoolSize, int stripeCount, boolean recordStats) {
+            if (maxPoolSize <= 0) {
+                throw new IllegalArgumentException("The max pool size must be > 0");
+            }
+            if (stripeCount <= 0) {
+                throw new IllegalArgumentException("The stripe count must be > 0");
+            }
+            stripeCount = Math.min(stripeCount, maxPoolSize);
+            mStripes = new Stripe[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                // spread the remainder so that the stripes add up to maxPoolSize
+                int stripeSize = maxPoolSize / stripeCount;
+                if (i < maxPoolSize % stripeCount) {
+                    stripeSize++;
+                }
+                mStripes[i] = new Stripe<>(stripeSize);
+            }
+            mRecordStats = recordStats;
+        }
+
+        private int homeStripe() {
+            final long id = Thread.currentThread().getId();
+            return (int) ((id ^ (id >>> 32)) & 0x7fffffff) % mStripes.length;
+        }
+
+        @Override
+        public T acquire() {
+            final Stripe<T>[] stripes = mStripes;
+            int index = homeStripe();
+            for (int i = 0; i < stripes.length; i++) {
+                final Stripe<T> stripe = stripes[index];
+                synchronized (stripe) {
+                    T instance = stripe.acquire();
+                    if (instance != null) {
+                        if (mRecordStats) {
+                            stripe.mHitCount++;
+                        }
+                        return instance;
+                    }
+                    if (mRecordStats && i == stripes.length - 1) {
+                        stripe.mMissCount++;
+                    }
+                }
+                index = index + 1 == stripes.length ? 0 : index + 1;
+            }
+            return null;
+        }
+
+        @Override
+        public boolean release(T instance) {
+            final Stripe<T>[] stripes = mStripes;
+            int index = homeStripe();
+            for (int i = 0; i < stripes.length; i++) {
+                final Stripe<T> stripe = stripes[index];
+                synchronized (stripe) {
+                    if (stripe.release(instance)) {
+                        return true;
+                    }
+                    if (mRecordStats && i == stripes.length - 1) {
+                        stripe.mDropCount++;
+                    }
+                }
+                index = index + 1 == stripes.length ? 0 : index + 1;
+            }
+            return false;
+        }
+
+        /**
+         * @return The number of stripes.
+         */
+        public int stripeCount() {
+            return mStripes.length;
+        }
+
+        /**
+         * @return The number of instances currently in the pool.
+         */
+        public int size() {
+            int size = 0;
+            for (Stripe<T> stripe : mStripes) {
+                synchronized (stripe) {
+                    size += stripe.size();
+                }
+            }
+            return size;
+        }
+
+        /**
+         * @return The number of times {@link #acquire()} returned a pooled instance, or 0 if
+         * statistics are not recorded.
+         */
+        public long hitCount() {
+            long count = 0;
+            for (Stripe<T> stripe : mStripes) {
+                synchronized (stripe) {
+                    count += stripe.mHitCount;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return The number of times {@link #acquire()} returned null, or 0 if statistics are
+         * not recorded.
+         */
+        public long missCount() {
+            long count = 0;
+            for (Stripe<T> stripe : mStripes) {
+                synchronized (stripe) {
+                    count += stripe.mMissCount;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return The number of instances that {@link #release(Object)} did not put in the pool
+         * because it was full, or 0 if statistics are not recorded.
+         */
+        public long dropCount() {
+            long count = 0;
+            for (Stripe<T> stripe : mStripes) {
+                synchronized (stripe) {
+                    count += stripe.mDropCount;
+                }
+            }
+            return count;
+        }
+
+        // Guarded by its own monitor.
+        private static class Stripe<T> extends SimplePool<T> {
+            long mHitCount;
+            long mMissCount;
+            long mDropCount;
+
+            Stripe(int maxPoolSize) {
+                super(maxPoolSize);
+            }
+        }
+    }
 }
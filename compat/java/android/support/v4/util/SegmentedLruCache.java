@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A variant of {@link LruCache} for caches that are accessed from many threads at the same time.
+ *
+ * <p>The cache is split into a number of segments, each holding the entries whose keys hash to it
+ * and a share of the maximum size. Each segment is guarded by its own lock, so threads accessing
+ * keys of different segments do not contend. Entries are evicted in least recently used order
+ * within their segment, which approximates the global order of {@link LruCache}.
+ *
+ * <p>Since the size of each segment is limited to its share of {@link #maxSize()}, an entry whose
+ * {@link #sizeOf size} is larger than {@code maxSize / segmentCount} is evicted as soon as it is
+ * added. Use fewer segments for caches holding a few large entries.
+ *
+ * <p>{@link #sizeOf}, {@link #create} and {@link #entryRemoved} follow the same contract as in
+ * {@link LruCache}.
+ */
+public class SegmentedLruCache<K, V> {
+    private static final int DEFAULT_SEGMENT_COUNT = 8;
+
+    private final Segment<K, V>[] segments;
+
+    /** Guarded by this, read without lock by the segments when trimming. */
+    private volatile int maxSize;
+
+    /**
+     * Creates a cache with 8 segments.
+     *
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public SegmentedLruCache(int maxSize) {
+        this(maxSize, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     * @param segmentCount the number of independently locked segments. It is
+     *     reduced to {@code maxSize} if larger.
+     */
+    @SuppressWarnings("unchecked")
+    public SegmentedLruCache(int maxSize, int segmentCount) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (segmentCount <= 0) {
+            throw new IllegalArgumentException("segmentCount <= 0");
+        }
+        segmentCount = Math.min(segmentCount, maxSize);
+        this.maxSize = maxSize;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(segmentMaxSize(maxSize, i));
+        }
+    }
+
+    private int segmentMaxSize(int maxSize, int index) {
+        int count = segments.length;
+        // spread the remainder over the first segments so that the sum is exactly maxSize.
+        return maxSize / count + (index < maxSize % count ? 1 : 0);
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * Sets the size of the cache. The number of segments does not change, so if
+     * {@code maxSize} is smaller than {@link #segmentCount()}, some segments
+     * cannot hold any entry.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (this) {
+            this.maxSize = maxSize;
+            for (int i = 0; i < segments.length; i++) {
+                Segment<K, V> segment = segments[i];
+                synchronized (segment) {
+                    segment.maxSize = segmentMaxSize(maxSize, i);
+                }
+            }
+        }
+        for (Segment<K, V> segment : segments) {
+            trimSegment(segment, segment.maxSize);
+        }
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of its segment's queue. This returns null if a value is not cached
+     * and cannot be created.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        V mapValue;
+        synchronized (segment) {
+            mapValue = segment.map.get(key);
+            if (mapValue != null) {
+                segment.hitCount++;
+                return mapValue;
+            }
+            segment.missCount++;
+        }
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        boolean trim;
+        synchronized (segment) {
+            segment.createCount++;
+            mapValue = segment.map.put(key, createdValue);
+
+            if (mapValue != null) {
+                // There was a conflict so undo that last put
+                segment.map.put(key, mapValue);
+            } else {
+                segment.size += safeSizeOf(key, createdValue);
+            }
+            trim = segment.size > segment.maxSize;
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            if (trim) {
+                trimSegment(segment, segment.maxSize);
+            }
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * its segment's queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        V previous;
+        boolean trim;
+        synchronized (segment) {
+            segment.putCount++;
+            segment.size += safeSizeOf(key, value);
+            previous = segment.map.put(key, value);
+            if (previous != null) {
+                segment.size -= safeSizeOf(key, previous);
+            }
+            trim = segment.size > segment.maxSize;
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        if (trim) {
+            trimSegment(segment, segment.maxSize);
+        }
+        return previous;
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size. Each segment is trimmed to its share of
+     * {@code maxSize}.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(int maxSize) {
+        for (int i = 0; i < segments.length; i++) {
+            trimSegment(segments[i], maxSize < 0 ? -1 : segmentMaxSize(maxSize, i));
+        }
+    }
+
+    private void trimSegment(Segment<K, V> segment, int maxSize) {
+        while (true) {
+            K key;
+            V value;
+            synchronized (segment) {
+                if (segment.size < 0 || (segment.map.isEmpty() && segment.size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+
+                if (segment.size <= maxSize || segment.map.isEmpty()) {
+                    break;
+                }
+
+                Map.Entry<K, V> toEvict = segment.map.entrySet().iterator().next();
+                key = toEvict.getKey();
+                value = toEvict.getValue();
+                segment.map.remove(key);
+                segment.size -= safeSizeOf(key, value);
+                segment.evictionCount++;
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        V previous;
+        synchronized (segment) {
+            previous = segment.map.remove(key);
+            if (previous != null) {
+                segment.size -= safeSizeOf(key, previous);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked when a value is evicted to make space, removed by a call to
+     * {@link #remove}, or replaced by a call to {@link #put}. The default
+     * implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists. If non-null,
+     *     this removal was caused by a {@link #put}. Otherwise it was caused by
+     *     an eviction or a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * <p>If a value for {@code key} exists in the cache when this method
+     * returns, the created value will be released with {@link #entryRemoved}
+     * and discarded. This can occur when multiple threads request the same key
+     * at the same time (causing multiple values to be created), or when one
+     * thread calls {@link #put} while another is creating a value for the same
+     * key.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * Returns the number of segments of this cache.
+     */
+    public final int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public final int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final int hitCount() {
+        int count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.hitCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final int missCount() {
+        int count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.missCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final int createCount() {
+        int count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.createCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final int putCount() {
+        int count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.putCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final int evictionCount() {
+        int count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.evictionCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache. Entries are grouped
+     * by segment and ordered from least recently accessed to most recently
+     * accessed within each segment.
+     */
+    public final Map<K, V> snapshot() {
+        ArrayList<Map<K, V>> copies = new ArrayList<>(segments.length);
+        int totalCount = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                copies.add(new LinkedHashMap<K, V>(segment.map));
+            }
+            totalCount += copies.get(copies.size() - 1).size();
+        }
+        LinkedHashMap<K, V> snapshot = new LinkedHashMap<>(totalCount);
+        for (Map<K, V> copy : copies) {
+            snapshot.putAll(copy);
+        }
+        return snapshot;
+    }
+
+    @Override public final String toString() {
+        int hitCount = hitCount();
+        int missCount = missCount();
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format(Locale.US,
+                "SegmentedLruCache[maxSize=%d,segments=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, segments.length, hitCount, missCount, hitPercent);
+    }
+
+    private static final class Segment<K, V> {
+        final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(0, 0.75f, true);
+
+        /** Size of this segment in units. Not necessarily the number of elements. */
+        int size;
+        // written under the lock of the cache and the segment, read without lock when trimming
+        volatile int maxSize;
+
+        int putCount;
+        int createCount;
+        int evictionCount;
+        int hitCount;
+        int missCount;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+}
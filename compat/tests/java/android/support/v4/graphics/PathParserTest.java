@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.graphics.PathParser.PathDataNode;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+@RunWith(AndroidJUnit4.class)
+public class PathParserTest {
+    private static final String TAG = "PathParserTest";
+    private static final float DELTA = 0f;
+
+    // Path data of a few Material icons
+    private static final String[] ICONS = new String[] {
+            // add
+            "M19,13h-6v6h-2v-6H5v-2h6V5h2v6h6v2z",
+            // create
+            "M3,17.25V21h3.75L17.81,9.94l-3.75,-3.75L3,17.25zM20.71,7.04c0.39,-0.39 0.39,-1.02 "
+                    + "0,-1.41l-2.34,-2.34c-0.39,-0.39 -1.02,-0.39 -1.41,0l-1.83,1.83 3.75,3.75 "
+                    + "1.83,-1.83z",
+            // delete
+            "M6,19c0,1.1 0.9,2 2,2h8c1.1,0 2,-0.9 2,-2V7H6v12zM19,4h-3.5l-1,-1h-5l-1,1H5v2h14V4z",
+            // favorite
+            "M12,21.35l-1.45,-1.32C5.4,15.36 2,12.28 2,8.5 2,5.42 4.42,3 7.5,3c1.74,0 3.41,0.81 "
+                    + "4.5,2.09C13.09,3.81 14.76,3 16.5,3 19.58,3 22,5.42 22,8.5c0,3.78 -3.4,6.86 "
+                    + "-8.55,11.54L12,21.35z",
+            // share
+            "M18,16.08c-0.76,0 -1.44,0.3 -1.96,0.77L8.91,12.7c0.05,-0.23 0.09,-0.46 0.09,-0.7s"
+                    + "-0.04,-0.47 -0.09,-0.7l7.05,-4.11c0.54,0.5 1.25,0.81 2.04,0.81 1.66,0 3,"
+                    + "-1.34 3,-3s-1.34,-3 -3,-3 -3,1.34 -3,3c0,0.24 0.04,0.47 0.09,0.7L8.04,9.81C"
+                    + "7.5,9.31 6.79,9 6,9c-1.66,0 -3,1.34 -3,3s1.34,3 3,3c0.79,0 1.5,-0.31 2.04,"
+                    + "-0.81l7.12,4.16c-0.05,0.21 -0.08,0.43 -0.08,0.65 0,1.61 1.31,2.92 2.92,2.92 "
+                    + "1.61,0 2.92,-1.31 2.92,-2.92s-1.31,-2.92 -2.92,-2.92z",
+            // exponents and surrounding whitespace
+            " M 0.0,-5.0 c -2.7619934082,0.0 -5.0,2.2380065918 -5.0,5.0 l 896e-3 1E2 Z "};
+
+    @Test
+    @SmallTest
+    public void testCreateNodes_separators() {
+        PathDataNode[] nodes = PathParser.createNodesFromPathData("M1-2-3.5.5 L 4,5  6 7z");
+
+        assertEquals(3, nodes.length);
+        assertEquals('M', nodes[0].mType);
+        assertArrayEquals(new float[] {1f, -2f, -3.5f, 0.5f}, nodes[0].mParams, DELTA);
+        assertEquals('L', nodes[1].mType);
+        assertArrayEquals(new float[] {4f, 5f, 6f, 7f}, nodes[1].mParams, DELTA);
+        assertEquals('z', nodes[2].mType);
+        assertEquals(0, nodes[2].mParams.length);
+    }
+
+    @Test
+    @SmallTest
+    public void testCreateNodes_numbers() {
+        PathDataNode[] nodes = PathParser.createNodesFromPathData(
+                "l896e-3,1E2 -0.0001 123456789 1.5e+3 3.4028235e38 1e-45 .1");
+
+        assertEquals(1, nodes.length);
+        assertArrayEquals(new float[] {896e-3f, 1e2f, -0.0001f, 123456789f, 1.5e3f,
+                3.4028235e38f, 1e-45f, .1f}, nodes[0].mParams, DELTA);
+    }
+
+    @Test
+    @SmallTest
+    public void testCreateNodes_manyCommands() {
+        StringBuilder pathData = new StringBuilder("M0,0");
+        for (int i = 0; i < 100; i++) {
+            pathData.append('L').append(i).append(',').append(-i);
+        }
+
+        PathDataNode[] nodes = PathParser.createNodesFromPathData(pathData.toString());
+
+        assertEquals(101, nodes.length);
+        assertArrayEquals(new float[] {99f, -99f}, nodes[100].mParams, DELTA);
+    }
+
+    @Test
+    @SmallTest
+    public void testCreateNodes_invalidNumber() {
+        try {
+            PathParser.createNodesFromPathData("M1,2L3,-");
+            fail("Invalid numbers should not be accepted");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testGetCachedNodes() {
+        PathDataNode[] nodes = PathParser.getCachedNodesFromPathData(ICONS[0]);
+
+        assertSame(nodes, PathParser.getCachedNodesFromPathData(new String(ICONS[0])));
+        PathDataNode[] parsedNodes = PathParser.createNodesFromPathData(ICONS[0]);
+        assertNotSame(nodes, parsedNodes);
+        assertEquals(parsedNodes.length, nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals(parsedNodes[i].mType, nodes[i].mType);
+            assertArrayEquals(parsedNodes[i].mParams, nodes[i].mParams, DELTA);
+        }
+    }
+
+    /**
+     * Logs the time taken to parse the path data of the icons, and to get their nodes from the
+     * cache. The timings are only logged since they depend on the device.
+     */
+    @Test
+    @LargeTest
+    public void testParseLatency() {
+        final int rounds = 2000;
+        for (int i = 0; i < rounds / 10; i++) {
+            for (String icon : ICONS) {
+                PathParser.createNodesFromPathData(icon);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String icon : ICONS) {
+                PathParser.createNodesFromPathData(icon);
+            }
+        }
+        final long parseNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String icon : ICONS) {
+                PathParser.getCachedNodesFromPathData(icon);
+            }
+        }
+        final long cachedNanos = System.nanoTime() - start;
+
+        Log.d(TAG, String.format(Locale.US, "%d icons: parsed %dus, cached %dus", ICONS.length,
+                parseNanos / rounds / 1000, cachedNanos / rounds / 1000));
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class AtomicFileTest {
+    private static final String TAG = "AtomicFileTest";
+
+    private File mDir;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("atomicfile", "test");
+        mDir.delete();
+        mDir.mkdirs();
+        mFile = new File(mDir, "state");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @SmallTest
+    @Test
+    public void testStreamWrite() throws IOException {
+        AtomicFile file = new AtomicFile(mFile);
+        FileOutputStream out = file.startWrite();
+        out.write(new byte[] {1, 2, 3});
+        file.finishWrite(out);
+        assertArrayEquals(new byte[] {1, 2, 3}, file.readFully());
+
+        out = file.startWrite();
+        out.write(new byte[] {4});
+        file.failWrite(out);
+        assertArrayEquals(new byte[] {1, 2, 3}, file.readFully());
+    }
+
+    @SmallTest
+    @Test
+    public void testChannelWriteCopiesPrevious() throws IOException {
+        AtomicFile file = new AtomicFile(mFile);
+        writeChannel(file, bytes(0, 10));
+
+        AtomicFile.ChannelWrite write = file.startChannelWrite();
+        assertEquals(10, write.getPreviousLength());
+        write.copyFromPrevious(0, 4);
+        write.write(new byte[] {42}, 0, 1);
+        // copying past the end stops at the end of the previous contents
+        assertEquals(5, write.copyFromPrevious(5, 100));
+        assertEquals(10, write.position());
+        // the previous contents are still readable while writing
+        assertArrayEquals(bytes(0, 10), file.readFully());
+        file.finishChannelWrite(write);
+
+        assertArrayEquals(new byte[] {0, 1, 2, 3, 42, 5, 6, 7, 8, 9}, file.readFully());
+        assertFalse(new File(mFile.getPath() + ".bak").exists());
+        assertFalse(new File(mFile.getPath() + ".new").exists());
+    }
+
+    @SmallTest
+    @Test
+    public void testFailChannelWrite() throws IOException {
+        AtomicFile file = new AtomicFile(mFile);
+        writeChannel(file, bytes(0, 10));
+        AtomicFile.ChannelWrite write = file.startChannelWrite();
+        write.write(new byte[] {1}, 0, 1);
+        file.failChannelWrite(write);
+        assertArrayEquals(bytes(0, 10), file.readFully());
+    }
+
+    @SmallTest
+    @Test
+    public void testChecksum() throws IOException {
+        AtomicFile file = new AtomicFile(mFile, AtomicFile.SYNC_EACH_COMMIT, true);
+        writeChannel(file, bytes(0, 100));
+        assertEquals(108, mFile.length());
+        assertArrayEquals(bytes(0, 100), file.readFully());
+
+        AtomicFile.ChannelWrite write = file.startChannelWrite();
+        assertEquals(100, write.getPreviousLength());
+        write.copyFromPrevious(0, 50);
+        write.write(ByteBuffer.wrap(bytes(50, 50)));
+        file.finishChannelWrite(write);
+        assertArrayEquals(bytes(0, 100), file.readFully());
+
+        // simulate a torn write
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(10);
+        raf.write(0xff);
+        raf.close();
+        try {
+            file.readFully();
+            fail("Expected a checksum mismatch");
+        } catch (IOException expected) {
+        }
+    }
+
+    @SmallTest
+    @Test(expected = IllegalStateException.class)
+    public void testChecksumRequiresChannelWrites() throws IOException {
+        new AtomicFile(mFile, AtomicFile.SYNC_EACH_COMMIT, true).startWrite();
+    }
+
+    @SmallTest
+    @Test
+    public void testGroupedSync() throws IOException {
+        AtomicFile file = new AtomicFile(mFile, AtomicFile.SYNC_GROUPED, false);
+        writeChannel(file, bytes(0, 4));
+        file.sync();
+        writeChannel(file, bytes(10, 4));
+        writeChannel(file, bytes(20, 4));
+        assertArrayEquals(bytes(20, 4), file.readFully());
+
+        writeChannel(file, bytes(30, 4));
+        file.sync();
+        assertArrayEquals(bytes(30, 4), new AtomicFile(mFile).readFully());
+    }
+
+    @SmallTest
+    @Test
+    public void testGroupedSyncReadByNewInstance() throws IOException {
+        AtomicFile file = new AtomicFile(mFile, AtomicFile.SYNC_GROUPED, false);
+        writeChannel(file, bytes(0, 4));
+        file.sync();
+        writeChannel(file, bytes(10, 4));
+
+        // a new instance, as after the process is killed, reads the unsynced commit
+        AtomicFile newFile = new AtomicFile(mFile, AtomicFile.SYNC_GROUPED, false);
+        assertArrayEquals(bytes(10, 4), newFile.readFully());
+        writeChannel(newFile, bytes(20, 4));
+        newFile.sync();
+        assertFalse(new File(mFile.getPath() + ".bak").exists());
+        assertArrayEquals(bytes(20, 4), new AtomicFile(mFile).readFully());
+
+        // after a crash losing the marker of the unsynced commits, reads roll back
+        writeChannel(file, bytes(30, 4));
+        assertTrue(new File(mFile.getPath() + ".pending").delete());
+        assertArrayEquals(bytes(20, 4), new AtomicFile(mFile).readFully());
+    }
+
+    @SmallTest
+    @Test
+    public void testGroupedSyncWithChecksumReadByNewInstance() throws IOException {
+        AtomicFile file = new AtomicFile(mFile, AtomicFile.SYNC_GROUPED, true);
+        writeChannel(file, bytes(0, 100));
+        file.sync();
+        writeChannel(file, bytes(10, 100));
+        assertArrayEquals(bytes(10, 100),
+                new AtomicFile(mFile, AtomicFile.SYNC_GROUPED, true).readFully());
+
+        // after a crash tearing the unsynced commit, reads roll back
+        writeChannel(file, bytes(20, 100));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(10);
+        raf.write(0xff);
+        raf.close();
+        assertArrayEquals(bytes(0, 100),
+                new AtomicFile(mFile, AtomicFile.SYNC_GROUPED, true).readFully());
+    }
+
+    /**
+     * Commits 4KB changes to a 4MB file and logs the write throughput and the commit latency
+     * of stream writes rewriting the whole file and of channel writes copying the unchanged
+     * regions, with both sync policies. The timings are only logged since they depend on the
+     * device.
+     */
+    @LargeTest
+    @Test
+    public void testWriteThroughput() throws IOException {
+        final int size = 4 * 1024 * 1024;
+        final int change = 4096;
+        final int commits = 16;
+        byte[] contents = new byte[size];
+        new Random(0).nextBytes(contents);
+
+        AtomicFile streamFile = new AtomicFile(mFile);
+        long start = System.nanoTime();
+        for (int i = 0; i < commits; i++) {
+            contents[i * change] = (byte) i;
+            FileOutputStream out = streamFile.startWrite();
+            out.write(contents);
+            streamFile.finishWrite(out);
+        }
+        long streamNanos = System.nanoTime() - start;
+        assertArrayEquals(contents, streamFile.readFully());
+
+        long eachCommitNanos = runChannelCommits(
+                new AtomicFile(mFile, AtomicFile.SYNC_EACH_COMMIT, true), contents, change,
+                commits);
+        long groupedNanos = runChannelCommits(
+                new AtomicFile(mFile, AtomicFile.SYNC_GROUPED, true), contents, change, commits);
+
+        Log.d(TAG, String.format(Locale.US, "%d commits of %dKB to %dMB: stream %dms/commit, "
+                        + "channel %dms/commit, grouped %dms/commit (%d MB/s)", commits,
+                change / 1024, size / (1024 * 1024), streamNanos / commits / 1000000,
+                eachCommitNanos / commits / 1000000, groupedNanos / commits / 1000000,
+                (long) size * commits * 1000 / Math.max(groupedNanos, 1)));
+    }
+
+    private static long runChannelCommits(AtomicFile file, byte[] contents, int change,
+            int commits) throws IOException {
+        writeChannel(file, contents);
+        file.sync();
+        long start = System.nanoTime();
+        for (int i = 0; i < commits; i++) {
+            int offset = i * change;
+            contents[offset] = (byte) (i + 1);
+            AtomicFile.ChannelWrite write = file.startChannelWrite();
+            write.copyFromPrevious(0, offset);
+            write.write(contents, offset, change);
+            write.copyFromPrevious(offset + change, contents.length - offset - change);
+            file.finishChannelWrite(write);
+        }
+        file.sync();
+        long elapsed = System.nanoTime() - start;
+        assertArrayEquals(contents, file.readFully());
+        return elapsed;
+    }
+
+    private static void writeChannel(AtomicFile file, byte[] data) throws IOException {
+        AtomicFile.ChannelWrite write = file.startChannelWrite();
+        write.write(data, 0, data.length);
+        file.finishChannelWrite(write);
+    }
+
+    private static byte[] bytes(int first, int count) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) (first + i);
+        }
+        return bytes;
+    }
+}
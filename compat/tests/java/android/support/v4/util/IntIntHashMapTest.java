@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class IntIntHashMapTest {
+    @Test
+    public void testPutGetRemove() {
+        IntIntHashMap map = new IntIntHashMap();
+        assertEquals(0, map.get(5));
+        assertEquals(-1, map.get(5, -1));
+        map.put(5, 50);
+        map.put(6, 60);
+        map.put(5, 55);
+        assertEquals(2, map.size());
+        assertEquals(55, map.get(5));
+        assertEquals(map.indexOfKey(6), map.indexOfValue(60));
+        map.delete(5);
+        assertFalse(map.containsKey(5));
+        assertTrue(map.containsKey(6));
+        assertEquals("{6=60}", map.toString());
+        map.clear();
+        assertEquals("{}", map.toString());
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(3);
+        IntIntHashMap map = new IntIntHashMap(0);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(500) << 16;
+            if (random.nextInt(3) != 0) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                map.remove(key);
+                expected.remove(key);
+            }
+            Integer value = expected.get(key);
+            assertEquals(value == null ? -1 : value, map.get(key, -1));
+        }
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals((int) expected.get(map.keyAt(i)), map.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class IntObjectHashMapTest {
+    private static final String TAG = "IntObjectHashMapTest";
+
+    @SmallTest
+    @Test
+    public void testPutGetRemove() {
+        IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        assertNull(map.get(0));
+        map.put(0, "zero");
+        map.put(-1, "minus one");
+        map.put(Integer.MAX_VALUE, "max");
+        map.put(0, "ZERO");
+        assertEquals(3, map.size());
+        assertEquals("ZERO", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("default", map.get(1, "default"));
+        assertTrue(map.containsKey(Integer.MAX_VALUE));
+
+        map.remove(0);
+        assertFalse(map.containsKey(0));
+        assertEquals(2, map.size());
+        map.delete(12345);
+        assertEquals(2, map.size());
+
+        assertEquals(map.indexOfKey(-1), map.indexOfValue("minus one"));
+        assertEquals(-1, map.indexOfValue("ZERO"));
+    }
+
+    @SmallTest
+    @Test
+    public void testIndicesFollowInsertionOrder() {
+        IntObjectHashMap<String> map = new IntObjectHashMap<>(0);
+        map.put(30, "a");
+        map.put(10, "b");
+        map.put(20, "c");
+        assertEquals("{30=a, 10=b, 20=c}", map.toString());
+
+        // the last mapping moves into the removed index
+        map.removeAt(0);
+        assertEquals("{20=c, 10=b}", map.toString());
+        map.setValueAt(1, "B");
+        assertEquals("B", map.get(10));
+
+        IntObjectHashMap<String> clone = map.clone();
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(10));
+        assertEquals("{20=c, 10=B}", clone.toString());
+    }
+
+    @SmallTest
+    @Test
+    public void testRemoveWhileIteratingBackward() {
+        IntObjectHashMap<Integer> map = new IntObjectHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+        }
+        for (int i = map.size() - 1; i >= 0; i--) {
+            if (map.keyAt(i) % 3 == 0) {
+                map.removeAt(i);
+            }
+        }
+        assertEquals(66, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 3 != 0, map.containsKey(i));
+        }
+    }
+
+    @LargeTest
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(42);
+        IntObjectHashMap<Integer> map = new IntObjectHashMap<>(0);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            // a small key range causes collisions and re-insertions of removed keys
+            int key = random.nextInt(2000) * (random.nextBoolean() ? 1 : -65536);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else if (op < 9) {
+                map.remove(key);
+                expected.remove(key);
+            } else if (map.size() > 0) {
+                int index = random.nextInt(map.size());
+                expected.remove(map.keyAt(index));
+                map.removeAt(index);
+            }
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(expected.get(map.keyAt(i)), map.valueAt(i));
+        }
+    }
+
+    /**
+     * Logs the time taken to fill and query maps of growing sizes with random keys, compared with
+     * {@link SparseArrayCompat} and {@link HashMap}. Nothing is asserted on the timings since
+     * they depend on the device.
+     */
+    @LargeTest
+    @Test
+    public void testCompareWithExistingContainers() {
+        for (int size = 100; size <= 100000; size *= 10) {
+            int[] keys = new int[size];
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                keys[i] = random.nextInt();
+            }
+            // warm up
+            fillAndQueryHashMap(keys);
+            fillAndQuerySparseArray(keys);
+            fillAndQueryJavaHashMap(keys);
+
+            long start = System.nanoTime();
+            int hashMapSum = fillAndQueryHashMap(keys);
+            long hashMapNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            int sparseArraySum = fillAndQuerySparseArray(keys);
+            long sparseArrayNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            int javaHashMapSum = fillAndQueryJavaHashMap(keys);
+            long javaHashMapNanos = System.nanoTime() - start;
+
+            assertEquals(sparseArraySum, hashMapSum);
+            assertEquals(javaHashMapSum, hashMapSum);
+            Log.d(TAG, String.format(Locale.US, "size %d: IntObjectHashMap %dus, "
+                            + "SparseArrayCompat %dus, HashMap %dus", size, hashMapNanos / 1000,
+                    sparseArrayNanos / 1000, javaHashMapNanos / 1000));
+        }
+    }
+
+    private static int fillAndQueryHashMap(int[] keys) {
+        IntObjectHashMap<Object> map = new IntObjectHashMap<>();
+        for (int key : keys) {
+            map.put(key, TAG);
+        }
+        int found = 0;
+        for (int key : keys) {
+            if (map.get(key + 1) != null) {
+                found++;
+            }
+            if (map.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static int fillAndQuerySparseArray(int[] keys) {
+        SparseArrayCompat<Object> map = new SparseArrayCompat<>();
+        for (int key : keys) {
+            map.put(key, TAG);
+        }
+        int found = 0;
+        for (int key : keys) {
+            if (map.get(key + 1) != null) {
+                found++;
+            }
+            if (map.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static int fillAndQueryJavaHashMap(int[] keys) {
+        HashMap<Integer, Object> map = new HashMap<>();
+        for (int key : keys) {
+            map.put(key, TAG);
+        }
+        int found = 0;
+        for (int key : keys) {
+            if (map.get(key + 1) != null) {
+                found++;
+            }
+            if (map.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
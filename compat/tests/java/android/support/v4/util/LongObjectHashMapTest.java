@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LongObjectHashMapTest {
+    @Test
+    public void testKeysDifferingInHighBits() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        map.put(1L, "low");
+        map.put(1L << 32, "high");
+        map.put((1L << 32) | 1L, "both");
+        assertEquals(3, map.size());
+        assertEquals("low", map.get(1L));
+        assertEquals("high", map.get(1L << 32));
+        assertEquals("both", map.get((1L << 32) | 1L));
+        map.remove(1L << 32);
+        assertFalse(map.containsKey(1L << 32));
+        assertEquals("both", map.get((1L << 32) | 1L));
+        assertNull(map.get(0L));
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(7);
+        LongObjectHashMap<Integer> map = new LongObjectHashMap<>(0);
+        HashMap<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = (long) random.nextInt(500) << (random.nextBoolean() ? 0 : 40);
+            if (random.nextInt(3) != 0) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                map.remove(key);
+                expected.remove(key);
+            }
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(expected.get(map.keyAt(i)), map.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class PoolsTest {
+    private static final String TAG = "PoolsTest";
+
+    @SmallTest
+    @Test
+    public void testStripedPoolAcquireRelease() {
+        Pools.StripedPool<Object> pool = new Pools.StripedPool<>(4, 2, true);
+        assertNull(pool.acquire());
+        Object instance = new Object();
+        assertTrue(pool.release(instance));
+        assertSame(instance, pool.acquire());
+        assertEquals(0, pool.size());
+        assertEquals(1, pool.hitCount());
+        assertEquals(1, pool.missCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testStripedPoolGlobalCap() {
+        Pools.StripedPool<Object> pool = new Pools.StripedPool<>(5, 3, true);
+        for (int i = 0; i < 5; i++) {
+            // a single thread spills into the other stripes once its own is full
+            assertTrue(pool.release(new Object()));
+        }
+        assertFalse(pool.release(new Object()));
+        assertEquals(5, pool.size());
+        assertEquals(1, pool.dropCount());
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(pool.acquire());
+        }
+        assertNull(pool.acquire());
+    }
+
+    @SmallTest
+    @Test(expected = IllegalStateException.class)
+    public void testStripedPoolDoubleRelease() {
+        Pools.StripedPool<Object> pool = new Pools.StripedPool<>(4, 1, false);
+        Object instance = new Object();
+        pool.release(instance);
+        pool.release(instance);
+    }
+
+    @SmallTest
+    @Test
+    public void testStripedPoolWithoutStats() {
+        Pools.StripedPool<Object> pool = new Pools.StripedPool<>(2);
+        pool.acquire();
+        pool.release(new Object());
+        pool.acquire();
+        assertEquals(0, pool.hitCount());
+        assertEquals(0, pool.missCount());
+        assertTrue(pool.stripeCount() <= 2);
+    }
+
+    /**
+     * Recycles instances from several threads through a {@link Pools.SynchronizedPool} and a
+     * {@link Pools.StripedPool} and logs the throughput of each. Only the consistency of the
+     * pools is asserted since the timings depend on the device.
+     */
+    @LargeTest
+    @Test
+    public void testConcurrentThroughput() throws Exception {
+        final int threads = 8;
+        final int operations = 200000;
+        final int maxPoolSize = 64;
+
+        long synchronizedNanos = runWorkload(threads, operations,
+                new Pools.SynchronizedPool<Object>(maxPoolSize));
+        Pools.StripedPool<Object> stripedPool =
+                new Pools.StripedPool<>(maxPoolSize, threads, true);
+        long stripedNanos = runWorkload(threads, operations, stripedPool);
+
+        assertTrue(stripedPool.size() <= maxPoolSize);
+        long acquires = stripedPool.hitCount() + stripedPool.missCount();
+        assertEquals((long) threads * operations, acquires);
+
+        long total = (long) threads * operations;
+        Log.d(TAG, String.format(Locale.US, "%d threads, %d ops: SynchronizedPool %d ops/ms, "
+                        + "StripedPool %d ops/ms, hit rate %d%%", threads, total,
+                total * 1000000 / Math.max(synchronizedNanos, 1),
+                total * 1000000 / Math.max(stripedNanos, 1),
+                100 * stripedPool.hitCount() / acquires));
+    }
+
+    private static long runWorkload(final int threads, final int operations,
+            final Pools.Pool<Object> pool) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < operations; i++) {
+                            Object instance = pool.acquire();
+                            if (instance == null) {
+                                instance = new Object();
+                            }
+                            pool.release(instance);
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - startTime;
+        assertEquals(0, failures.get());
+        return elapsed;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class SegmentedLruCacheTest {
+    private static final String TAG = "SegmentedLruCacheTest";
+
+    @SmallTest
+    @Test
+    public void testGetPutRemove() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(10, 4);
+        assertNull(cache.get("a"));
+        assertNull(cache.put("a", "A"));
+        assertEquals("A", cache.put("a", "A2"));
+        assertEquals("A2", cache.get("a"));
+        assertEquals(1, cache.size());
+        assertEquals("A2", cache.remove("a"));
+        assertNull(cache.remove("a"));
+        assertEquals(0, cache.size());
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(2, cache.putCount());
+        assertEquals(0, cache.createCount());
+        assertEquals(0, cache.evictionCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testSingleSegmentBehavesLikeLruCache() {
+        final List<String> log = new ArrayList<>();
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(3, 1) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, String oldValue,
+                    String newValue) {
+                log.add(key + "=" + oldValue + (evicted ? " evicted" : ""));
+            }
+        };
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.get("a");
+        cache.put("d", "D");
+        assertNull(cache.get("b"));
+        assertEquals("[b=B evicted]", log.toString());
+        assertEquals("[c, a, d]", cache.snapshot().keySet().toString());
+
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals(4, cache.evictionCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testSizeIsBoundedPerSegment() {
+        SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(64, 8);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 64);
+        assertEquals(cache.snapshot().size(), cache.size());
+        assertEquals(1000 - cache.size(), cache.evictionCount());
+
+        cache.resize(16);
+        assertEquals(16, cache.maxSize());
+        assertTrue(cache.size() <= 16);
+
+        cache.trimToSize(0);
+        assertEquals(0, cache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testCreateAndSizeOf() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(20, 2) {
+            @Override
+            protected String create(String key) {
+                return key.toUpperCase(Locale.US);
+            }
+
+            @Override
+            protected int sizeOf(String key, String value) {
+                return value.length();
+            }
+        };
+        assertEquals("ABC", cache.get("abc"));
+        assertEquals("ABC", cache.get("abc"));
+        assertEquals(1, cache.createCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(3, cache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testSegmentCountIsCappedByMaxSize() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(3, 16);
+        assertEquals(3, cache.segmentCount());
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.resize(1);
+        assertTrue(cache.size() <= 1);
+    }
+
+    @SmallTest
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSegmentCount() {
+        new SegmentedLruCache<String, String>(10, 0);
+    }
+
+    /**
+     * Runs the same read-mostly workload on {@link LruCache} and {@link SegmentedLruCache} from
+     * several threads and logs the throughput of each. The segmented cache must stay consistent;
+     * the timings are only logged since they depend on the device.
+     */
+    @LargeTest
+    @Test
+    public void testConcurrentThroughput() throws Exception {
+        final int threads = 8;
+        final int operations = 200000;
+        final int keys = 2048;
+
+        final LruCache<Integer, Integer> lruCache = new LruCache<>(keys / 2);
+        long lruNanos = runWorkload(threads, operations, keys, new CacheOps() {
+            @Override
+            public Integer get(Integer key) {
+                return lruCache.get(key);
+            }
+
+            @Override
+            public void put(Integer key, Integer value) {
+                lruCache.put(key, value);
+            }
+        });
+
+        final SegmentedLruCache<Integer, Integer> segmentedCache =
+                new SegmentedLruCache<>(keys / 2, 16);
+        long segmentedNanos = runWorkload(threads, operations, keys, new CacheOps() {
+            @Override
+            public Integer get(Integer key) {
+                return segmentedCache.get(key);
+            }
+
+            @Override
+            public void put(Integer key, Integer value) {
+                segmentedCache.put(key, value);
+            }
+        });
+
+        assertTrue(segmentedCache.size() <= keys / 2);
+        assertEquals(segmentedCache.snapshot().size(), segmentedCache.size());
+        assertEquals((long) threads * operations,
+                (long) segmentedCache.hitCount() + segmentedCache.missCount());
+
+        long total = (long) threads * operations;
+        Log.d(TAG, String.format(Locale.US, "%d threads, %d ops: LruCache %d ops/ms, "
+                        + "SegmentedLruCache %d ops/ms", threads, total,
+                total * 1000000 / Math.max(lruNanos, 1),
+                total * 1000000 / Math.max(segmentedNanos, 1)));
+    }
+
+    private static long runWorkload(final int threads, final int operations, final int keys,
+            final CacheOps ops) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int x = seed * 7919 + 1;
+                        for (int i = 0; i < operations; i++) {
+                            // xorshift, cheap enough not to dominate the measurement
+                            x ^= x << 13;
+                            x ^= x >>> 17;
+                            x ^= x << 5;
+                            Integer key = (x & 0x7fffffff) % keys;
+                            Integer value = ops.get(key);
+                            if (value == null) {
+                                ops.put(key, key);
+                            } else if (!value.equals(key)) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - startTime;
+        assertEquals(0, failures.get());
+        return elapsed;
+    }
+
+    private interface CacheOps {
+        Integer get(Integer key);
+
+        void put(Integer key, Integer value);
+    }
+}
@@ -17,8 +17,13 @@
 package android.support.v4.content;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -27,6 +32,8 @@ import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 /**
@@ -42,17 +49,28 @@ import android.util.Log;
  * <li> It is more efficient than sending a global broadcast through the
  * system.
  * </ul>
+ *
+ * <p>Receivers are called on the main thread by default. A receiver can also be
+ * registered with an {@link Executor} or a {@link Handler}, in which case each
+ * broadcast is handed to it as soon as it is sent.
  */
 public final class LocalBroadcastManager {
     private static final class ReceiverRecord {
         final IntentFilter filter;
         final BroadcastReceiver receiver;
+        // null for receivers called on the main thread
+        final Executor executor;
+        // registration order, used to keep delivering in that order across the index buckets
+        final long sequence;
         boolean broadcasting;
-        boolean dead;
+        volatile boolean dead;
 
-        ReceiverRecord(IntentFilter _filter, BroadcastReceiver _receiver) {
+        ReceiverRecord(IntentFilter _filter, BroadcastReceiver _receiver, Executor _executor,
+                long _sequence) {
             filter = _filter;
             receiver = _receiver;
+            executor = _executor;
+            sequence = _sequence;
         }
 
         @Override
@@ -73,10 +91,218 @@ public final class LocalBroadcastManager {
     private static final class BroadcastRecord {
         final Intent intent;
         final ArrayList<ReceiverRecord> receivers;
+        final long sendTimeNanos;
 
-        BroadcastRecord(Intent _intent, ArrayList<ReceiverRecord> _receivers) {
+        BroadcastRecord(Intent _intent, ArrayList<ReceiverRecord> _receivers,
+                long _sendTimeNanos) {
             intent = _intent;
             receivers = _receivers;
+            sendTimeNanos = _sendTimeNanos;
+        }
+    }
+
+    /**
+     * The receivers registered for an action, indexed by the data their filters
+     * can match so that sendBroadcast skips the filters that cannot match an
+     * intent without running {@link IntentFilter#match}.
+     */
+    private static final class ActionRecords {
+        // filters without data types and schemes, they only match intents without data
+        final ArrayList<ReceiverRecord> noData = new ArrayList<>(1);
+        // filters with data types but no schemes, they never match intents without a type
+        final ArrayList<ReceiverRecord> typesOnly = new ArrayList<>(0);
+        // filters with schemes, they only match intents with one of their schemes, or
+        // with no scheme if they include the empty scheme
+        final HashMap<String, ArrayList<ReceiverRecord>> byScheme = new HashMap<>(0);
+        int size;
+
+        void add(ReceiverRecord record) {
+            final IntentFilter filter = record.filter;
+            if (filter.countDataSchemes() > 0) {
+                for (int i=0; i<filter.countDataSchemes(); i++) {
+                    final String scheme = filter.getDataScheme(i);
+                    ArrayList<ReceiverRecord> records = byScheme.get(scheme);
+                    if (records == null) {
+                        records = new ArrayList<>(1);
+                        byScheme.put(scheme, records);
+                    }
+                    records.add(record);
+                }
+            } else if (filter.countDataTypes() > 0) {
+                typesOnly.add(record);
+            } else {
+                noData.add(record);
+            }
+            size++;
+        }
+
+        void remove(BroadcastReceiver receiver) {
+            size -= removeFrom(noData, receiver);
+            size -= removeFrom(typesOnly, receiver);
+            final Iterator<Map.Entry<String, ArrayList<ReceiverRecord>>> it =
+                    byScheme.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, ArrayList<ReceiverRecord>> entry = it.next();
+                final ArrayList<ReceiverRecord> records = entry.getValue();
+                for (int k=records.size()-1; k>=0; k--) {
+                    final ReceiverRecord rec = records.get(k);
+                    if (rec.receiver == receiver) {
+                        rec.dead = true;
+                        records.remove(k);
+                        // a filter with several schemes is counted in the bucket of its first one
+                        if (rec.filter.getDataScheme(0).equals(entry.getKey())) {
+                            size--;
+                        }
+                    }
+                }
+                if (records.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+
+        private static int removeFrom(ArrayList<ReceiverRecord> records,
+                BroadcastReceiver receiver) {
+            int removed = 0;
+            for (int k=records.size()-1; k>=0; k--) {
+                final ReceiverRecord rec = records.get(k);
+                if (rec.receiver == receiver) {
+                    rec.dead = true;
+                    records.remove(k);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Returns the receivers whose filters may match an intent with the given
+         * type and scheme, in registration order.
+         */
+        ArrayList<ReceiverRecord> candidates(String type, String scheme, Uri data) {
+            final boolean hasData = type != null || data != null;
+            ArrayList<ReceiverRecord> first = hasData ? null : noData;
+            ArrayList<ReceiverRecord> second = type != null ? typesOnly : null;
+            ArrayList<ReceiverRecord> third = byScheme.get(scheme != null ? scheme : "");
+            if (isEmpty(second) && isEmpty(third)) {
+                return first;
+            }
+            if (isEmpty(first) && isEmpty(third)) {
+                return second;
+            }
+            if (isEmpty(first) && isEmpty(second)) {
+                return third;
+            }
+            final ArrayList<ReceiverRecord> candidates = new ArrayList<>();
+            if (first != null) {
+                candidates.addAll(first);
+            }
+            if (second != null) {
+                candidates.addAll(second);
+            }
+            if (third != null) {
+                candidates.addAll(third);
+            }
+            Collections.sort(candidates, REGISTRATION_ORDER);
+            return candidates;
+        }
+
+        private static boolean isEmpty(ArrayList<ReceiverRecord> records) {
+            return records == null || records.isEmpty();
+        }
+    }
+
+    private static final Comparator<ReceiverRecord> REGISTRATION_ORDER =
+            new Comparator<ReceiverRecord>() {
+                @Override
+                public int compare(ReceiverRecord a, ReceiverRecord b) {
+                    return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+                }
+            };
+
+    /**
+     * Delivery latency statistics of the broadcasts sent with one action, as
+     * returned by {@link #getDeliveryStats(String)}. The latency of a delivery
+     * is the time from the call to {@link #sendBroadcast} until the receiver is
+     * called.
+     */
+    public static final class DeliveryStats {
+        long mDeliveryCount;
+        long mTotalLatencyNanos;
+        long mMaxLatencyNanos;
+
+        DeliveryStats() {
+        }
+
+        DeliveryStats(DeliveryStats other) {
+            mDeliveryCount = other.mDeliveryCount;
+            mTotalLatencyNanos = other.mTotalLatencyNanos;
+            mMaxLatencyNanos = other.mMaxLatencyNanos;
+        }
+
+        /**
+         * @return The number of times a receiver was called with the action.
+         */
+        public long getDeliveryCount() {
+            return mDeliveryCount;
+        }
+
+        /**
+         * @return The average delivery latency in nanoseconds, or 0 if nothing
+         * was delivered.
+         */
+        public long getAverageLatencyNanos() {
+            return mDeliveryCount == 0 ? 0 : mTotalLatencyNanos / mDeliveryCount;
+        }
+
+        /**
+         * @return The largest delivery latency in nanoseconds.
+         */
+        public long getMaxLatencyNanos() {
+            return mMaxLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "DeliveryStats{count=" + mDeliveryCount
+                    + " avgNanos=" + getAverageLatencyNanos()
+                    + " maxNanos=" + mMaxLatencyNanos + "}";
+        }
+    }
+
+    /**
+     * Runs the deliveries to a receiver registered with an executor.
+     */
+    private final class Delivery implements Runnable {
+        final ReceiverRecord record;
+        final Intent intent;
+        final long sendTimeNanos;
+
+        Delivery(ReceiverRecord _record, Intent _intent, long _sendTimeNanos) {
+            record = _record;
+            intent = _intent;
+            sendTimeNanos = _sendTimeNanos;
+        }
+
+        @Override
+        public void run() {
+            if (!record.dead) {
+                recordDelivery(intent.getAction(), System.nanoTime() - sendTimeNanos);
+                record.receiver.onReceive(mAppContext, intent);
+            }
+        }
+    }
+
+    private static final class HandlerExecutor implements Executor {
+        private final Handler mHandler;
+
+        HandlerExecutor(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mHandler.post(command);
         }
     }
 
@@ -87,7 +313,8 @@ public final class LocalBroadcastManager {
 
     private final HashMap<BroadcastReceiver, ArrayList<ReceiverRecord>> mReceivers
             = new HashMap<>();
-    private final HashMap<String, ArrayList<ReceiverRecord>> mActions = new HashMap<>();
+    private final HashMap<String, ActionRecords> mActions = new HashMap<>();
+    private long mNextSequence;
 
     private final ArrayList<BroadcastRecord> mPendingBroadcasts = new ArrayList<>();
 
@@ -95,6 +322,8 @@ public final class LocalBroadcastManager {
 
     private final Handler mHandler;
 
+    private final HashMap<String, DeliveryStats> mDeliveryStats = new HashMap<>();
+
     private static final Object mLock = new Object();
     private static LocalBroadcastManager mInstance;
 
@@ -133,8 +362,48 @@ public final class LocalBroadcastManager {
      * @see #unregisterReceiver
      */
     public void registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        registerReceiverInternal(receiver, filter, null);
+    }
+
+    /**
+     * Register a receive for any local broadcasts that match the given IntentFilter,
+     * to be called on the thread of the given Handler.
+     *
+     * @param receiver The BroadcastReceiver to handle the broadcast.
+     * @param filter Selects the Intent broadcasts to be received.
+     * @param handler The Handler whose thread calls the receiver.
+     *
+     * @see #unregisterReceiver
+     */
+    public void registerReceiver(@NonNull BroadcastReceiver receiver,
+            @NonNull IntentFilter filter, @NonNull Handler handler) {
+        registerReceiverInternal(receiver, filter, new HandlerExecutor(handler));
+    }
+
+    /**
+     * Register a receive for any local broadcasts that match the given IntentFilter,
+     * to be called by the given Executor.
+     *
+     * <p>Each matching broadcast is handed to the executor from {@link #sendBroadcast},
+     * so the receiver is called in parallel with the other receivers and the
+     * executor decides the ordering of the broadcasts.
+     *
+     * @param receiver The BroadcastReceiver to handle the broadcast.
+     * @param filter Selects the Intent broadcasts to be received.
+     * @param executor The Executor which calls the receiver.
+     *
+     * @see #unregisterReceiver
+     */
+    public void registerReceiver(@NonNull BroadcastReceiver receiver,
+            @NonNull IntentFilter filter, @NonNull Executor executor) {
+        registerReceiverInternal(receiver, filter, executor);
+    }
+
+    private void registerReceiverInternal(BroadcastReceiver receiver, IntentFilter filter,
+            @Nullable Executor executor) {
         synchronized (mReceivers) {
-            ReceiverRecord entry = new ReceiverRecord(filter, receiver);
+            ReceiverRecord entry = new ReceiverRecord(filter, receiver, executor,
+                    mNextSequence++);
             ArrayList<ReceiverRecord> filters = mReceivers.get(receiver);
             if (filters == null) {
                 filters = new ArrayList<>(1);
@@ -143,9 +412,9 @@ public final class LocalBroadcastManager {
             filters.add(entry);
             for (int i=0; i<filter.countActions(); i++) {
                 String action = filter.getAction(i);
-                ArrayList<ReceiverRecord> entries = mActions.get(action);
+                ActionRecords entries = mActions.get(action);
                 if (entries == null) {
-                    entries = new ArrayList<ReceiverRecord>(1);
+                    entries = new ActionRecords();
                     mActions.put(action, entries);
                 }
                 entries.add(entry);
@@ -173,16 +442,10 @@ public final class LocalBroadcastManager {
                 filter.dead = true;
                 for (int j=0; j<filter.filter.countActions(); j++) {
                     final String action = filter.filter.getAction(j);
-                    final ArrayList<ReceiverRecord> receivers = mActions.get(action);
+                    final ActionRecords receivers = mActions.get(action);
                     if (receivers != null) {
-                        for (int k=receivers.size()-1; k>=0; k--) {
-                            final ReceiverRecord rec = receivers.get(k);
-                            if (rec.receiver == receiver) {
-                                rec.dead = true;
-                                receivers.remove(k);
-                            }
-                        }
-                        if (receivers.size() <= 0) {
+                        receivers.remove(receiver);
+                        if (receivers.size <= 0) {
                             mActions.remove(action);
                         }
                     }
@@ -206,6 +469,8 @@ public final class LocalBroadcastManager {
      * receivers is unregistered before it is dispatched.)
      */
     public boolean sendBroadcast(Intent intent) {
+        final long sendTimeNanos = System.nanoTime();
+        ArrayList<ReceiverRecord> executorReceivers = null;
         synchronized (mReceivers) {
             final String action = intent.getAction();
             final String type = intent.resolveTypeIfNeeded(
@@ -220,7 +485,9 @@ public final class LocalBroadcastManager {
                     TAG, "Resolving type " + type + " scheme " + scheme
                     + " of intent " + intent);
 
-            ArrayList<ReceiverRecord> entries = mActions.get(intent.getAction());
+            ActionRecords actionRecords = mActions.get(intent.getAction());
+            ArrayList<ReceiverRecord> entries = actionRecords == null
+                    ? null : actionRecords.candidates(type, scheme, data);
             if (entries != null) {
                 if (debug) Log.v(TAG, "Action list: " + entries);
 
@@ -241,10 +508,17 @@ public final class LocalBroadcastManager {
                     if (match >= 0) {
                         if (debug) Log.v(TAG, "  Filter matched!  match=0x" +
                                 Integer.toHexString(match));
-                        if (receivers == null) {
-                            receivers = new ArrayList<ReceiverRecord>();
+                        if (receiver.executor != null) {
+                            if (executorReceivers == null) {
+                                executorReceivers = new ArrayList<ReceiverRecord>();
+                            }
+                            executorReceivers.add(receiver);
+                        } else {
+                            if (receivers == null) {
+                                receivers = new ArrayList<ReceiverRecord>();
+                            }
+                            receivers.add(receiver);
                         }
-                        receivers.add(receiver);
                         receiver.broadcasting = true;
                     } else {
                         if (debug) {
@@ -261,25 +535,42 @@ public final class LocalBroadcastManager {
                     }
                 }
 
+                if (executorReceivers != null) {
+                    for (int i=0; i<executorReceivers.size(); i++) {
+                        executorReceivers.get(i).broadcasting = false;
+                    }
+                }
                 if (receivers != null) {
                     for (int i=0; i<receivers.size(); i++) {
                         receivers.get(i).broadcasting = false;
                     }
-                    mPendingBroadcasts.add(new BroadcastRecord(intent, receivers));
+                    mPendingBroadcasts.add(new BroadcastRecord(intent, receivers, sendTimeNanos));
                     if (!mHandler.hasMessages(MSG_EXEC_PENDING_BROADCASTS)) {
                         mHandler.sendEmptyMessage(MSG_EXEC_PENDING_BROADCASTS);
                     }
-                    return true;
                 }
+                if (receivers == null && executorReceivers == null) {
+                    return false;
+                }
+            } else {
+                return false;
             }
         }
-        return false;
+        // outside of the lock, since an executor may run the receiver right away
+        if (executorReceivers != null) {
+            for (int i=0; i<executorReceivers.size(); i++) {
+                final ReceiverRecord rec = executorReceivers.get(i);
+                rec.executor.execute(new Delivery(rec, intent, sendTimeNanos));
+            }
+        }
+        return true;
     }
 
     /**
      * Like {@link #sendBroadcast(Intent)}, but if there are any receivers for
      * the Intent this function will block and immediately dispatch them before
-     * returning.
+     * returning. Receivers registered with an Executor or a Handler are still
+     * called by them.
      */
     public void sendBroadcastSync(Intent intent) {
         if (sendBroadcast(intent)) {
@@ -305,10 +596,52 @@ public final class LocalBroadcastManager {
                 for (int j=0; j<nbr; j++) {
                     final ReceiverRecord rec = br.receivers.get(j);
                     if (!rec.dead) {
+                        recordDelivery(br.intent.getAction(),
+                                System.nanoTime() - br.sendTimeNanos);
                         rec.receiver.onReceive(mAppContext, br.intent);
                     }
                 }
             }
         }
     }
+
+    void recordDelivery(String action, long latencyNanos) {
+        synchronized (mDeliveryStats) {
+            DeliveryStats stats = mDeliveryStats.get(action);
+            if (stats == null) {
+                stats = new DeliveryStats();
+                mDeliveryStats.put(action, stats);
+            }
+            stats.mDeliveryCount++;
+            stats.mTotalLatencyNanos += latencyNanos;
+            if (latencyNanos > stats.mMaxLatencyNanos) {
+                stats.mMaxLatencyNanos = latencyNanos;
+            }
+        }
+    }
+
+    /**
+     * Returns the delivery latency statistics of the broadcasts sent with the
+     * given action since this manager was created or the statistics were reset.
+     *
+     * @param action The action of the broadcasts.
+     * @return A snapshot of the statistics, or null if no broadcast with the
+     * action was delivered.
+     */
+    @Nullable
+    public DeliveryStats getDeliveryStats(String action) {
+        synchronized (mDeliveryStats) {
+            DeliveryStats stats = mDeliveryStats.get(action);
+            return stats == null ? null : new DeliveryStats(stats);
+        }
+    }
+
+    /**
+     * Clears the statistics returned by {@link #getDeliveryStats(String)}.
+     */
+    public void resetDeliveryStats() {
+        synchronized (mDeliveryStats) {
+            mDeliveryStats.clear();
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LocalBroadcastManagerTest {
+    private static final String ACTION = "android.support.v4.content.TEST_ACTION";
+
+    private final LocalBroadcastManager mManager =
+            LocalBroadcastManager.getInstance(InstrumentationRegistry.getContext());
+    private final List<BroadcastReceiver> mRegistered = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (BroadcastReceiver receiver : mRegistered) {
+            mManager.unregisterReceiver(receiver);
+        }
+    }
+
+    @Test
+    public void testDataMatching() {
+        RecordingReceiver noData = register(new IntentFilter(ACTION));
+        IntentFilter httpFilter = new IntentFilter(ACTION);
+        httpFilter.addDataScheme("http");
+        httpFilter.addDataScheme("https");
+        RecordingReceiver http = register(httpFilter);
+        IntentFilter imageFilter = new IntentFilter(ACTION);
+        imageFilter.addDataType("image/*");
+        RecordingReceiver image = register(imageFilter);
+
+        mManager.sendBroadcastSync(new Intent(ACTION));
+        mManager.sendBroadcastSync(new Intent(ACTION, Uri.parse("https://example.com")));
+        mManager.sendBroadcastSync(new Intent(ACTION).setType("image/png"));
+        assertFalse(mManager.sendBroadcast(new Intent(ACTION, Uri.parse("ftp://example.com"))));
+
+        assertEquals(1, noData.mCount);
+        assertEquals(1, http.mCount);
+        assertEquals(1, image.mCount);
+    }
+
+    @Test
+    public void testUnregisterMultipleSchemes() {
+        IntentFilter filter = new IntentFilter(ACTION);
+        filter.addDataScheme("http");
+        filter.addDataScheme("https");
+        RecordingReceiver receiver = register(filter);
+        mManager.unregisterReceiver(receiver);
+        assertFalse(mManager.sendBroadcast(new Intent(ACTION, Uri.parse("http://example.com"))));
+        assertFalse(mManager.sendBroadcast(new Intent(ACTION, Uri.parse("https://example.com"))));
+    }
+
+    @Test
+    public void testExecutorDelivery() {
+        final List<Runnable> queue = new ArrayList<>();
+        RecordingReceiver receiver = new RecordingReceiver();
+        mRegistered.add(receiver);
+        mManager.registerReceiver(receiver, new IntentFilter(ACTION), new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                queue.add(command);
+            }
+        });
+
+        assertTrue(mManager.sendBroadcast(new Intent(ACTION)));
+        assertEquals(1, queue.size());
+        assertEquals(0, receiver.mCount);
+        queue.get(0).run();
+        assertEquals(1, receiver.mCount);
+
+        // a receiver unregistered before the executor runs is not called
+        assertTrue(mManager.sendBroadcast(new Intent(ACTION)));
+        mManager.unregisterReceiver(receiver);
+        queue.get(1).run();
+        assertEquals(1, receiver.mCount);
+    }
+
+    @Test
+    public void testHandlerDelivery() throws InterruptedException {
+        HandlerThread thread = new HandlerThread("LocalBroadcastManagerTest");
+        thread.start();
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final Thread[] receivedOn = new Thread[1];
+            BroadcastReceiver receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    receivedOn[0] = Thread.currentThread();
+                    latch.countDown();
+                }
+            };
+            mRegistered.add(receiver);
+            mManager.registerReceiver(receiver, new IntentFilter(ACTION),
+                    new Handler(thread.getLooper()));
+            mManager.sendBroadcast(new Intent(ACTION));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(thread, receivedOn[0]);
+        } finally {
+            thread.quit();
+        }
+    }
+
+    @Test
+    public void testDeliveryStats() {
+        String action = ACTION + ".STATS";
+        mManager.resetDeliveryStats();
+        assertNull(mManager.getDeliveryStats(action));
+        register(new IntentFilter(action));
+        register(new IntentFilter(action));
+        mManager.sendBroadcastSync(new Intent(action));
+        mManager.sendBroadcastSync(new Intent(action));
+
+        LocalBroadcastManager.DeliveryStats stats = mManager.getDeliveryStats(action);
+        assertNotNull(stats);
+        assertEquals(4, stats.getDeliveryCount());
+        assertTrue(stats.getMaxLatencyNanos() >= stats.getAverageLatencyNanos());
+        mManager.resetDeliveryStats();
+        assertNull(mManager.getDeliveryStats(action));
+    }
+
+    private RecordingReceiver register(IntentFilter filter) {
+        RecordingReceiver receiver = new RecordingReceiver();
+        mRegistered.add(receiver);
+        mManager.registerReceiver(receiver, filter);
+        return receiver;
+    }
+
+    private static class RecordingReceiver extends BroadcastReceiver {
+        int mCount;
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mCount++;
+        }
+    }
+}
@@ -24,6 +24,8 @@ import android.support.text.emoji.EmojiCompat;
 import android.support.text.emoji.MetadataRepo;
 import android.support.v4.util.Preconditions;
 
+import java.io.File;
+
 /**
  * {@link EmojiCompat.Config} implementation that loads the metadata using AssetManager and
  * bundled resources.
@@ -43,18 +45,37 @@ public class BundledEmojiCompatConfig extends EmojiCompat.Config {
         super(new BundledMetadataLoader(context));
     }
 
+    /**
+     * Sets whether a snapshot of the emoji metadata is kept in the cache directory of the
+     * application. When enabled, later initializations read the snapshot instead of reading and
+     * indexing the metadata in the bundled font. The snapshot is replaced when the font changes.
+     * Disabled by default.
+     *
+     * @param enabled whether to keep a snapshot of the emoji metadata
+     */
+    public BundledEmojiCompatConfig setMetadataCacheEnabled(boolean enabled) {
+        ((BundledMetadataLoader) getMetadataRepoLoader()).setMetadataCacheEnabled(enabled);
+        return this;
+    }
+
     private static class BundledMetadataLoader implements EmojiCompat.MetadataRepoLoader {
         private final Context mContext;
+        private boolean mMetadataCacheEnabled;
 
         private BundledMetadataLoader(@NonNull Context context) {
             mContext = context.getApplicationContext();
         }
 
+        void setMetadataCacheEnabled(boolean enabled) {
+            mMetadataCacheEnabled = enabled;
+        }
+
         @Override
         @RequiresApi(19)
         public void load(@NonNull EmojiCompat.MetadataRepoLoaderCallback loaderCallback) {
             Preconditions.checkNotNull(loaderCallback, "loaderCallback cannot be null");
-            final InitRunnable runnable = new InitRunnable(mContext, loaderCallback);
+            final InitRunnable runnable = new InitRunnable(mContext, loaderCallback,
+                    mMetadataCacheEnabled);
             final Thread thread = new Thread(runnable);
             thread.setDaemon(false);
             thread.start();
@@ -64,20 +85,30 @@ public class BundledEmojiCompatConfig extends EmojiCompat.Config {
     @RequiresApi(19)
     private static class InitRunnable implements Runnable {
         private static final String FONT_NAME = "NotoColorEmojiCompat.ttf";
+        private static final String CACHE_FILE_NAME = "emojicompat_bundled_metadata";
         private final EmojiCompat.MetadataRepoLoaderCallback mLoaderCallback;
         private final Context mContext;
+        private final boolean mMetadataCacheEnabled;
 
         private InitRunnable(final Context context,
-                final EmojiCompat.MetadataRepoLoaderCallback loaderCallback) {
+                final EmojiCompat.MetadataRepoLoaderCallback loaderCallback,
+                final boolean metadataCacheEnabled) {
             mContext = context;
             mLoaderCallback = loaderCallback;
+            mMetadataCacheEnabled = metadataCacheEnabled;
         }
 
         @Override
         public void run() {
             try {
                 final AssetManager assetManager = mContext.getAssets();
-                final MetadataRepo resourceIndex = MetadataRepo.create(assetManager, FONT_NAME);
+                final MetadataRepo resourceIndex;
+                if (mMetadataCacheEnabled) {
+                    resourceIndex = MetadataRepo.create(assetManager, FONT_NAME,
+                            new File(mContext.getCacheDir(), CACHE_FILE_NAME));
+                } else {
+                    resourceIndex = MetadataRepo.create(assetManager, FONT_NAME);
+                }
                 mLoaderCallback.onLoaded(resourceIndex);
             } catch (Throwable t) {
                 mLoaderCallback.onFailed(t);
@@ -32,6 +32,7 @@ import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.support.annotation.RestrictTo;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 import android.support.v4.util.ArraySet;
 import android.support.v4.util.Preconditions;
 import android.text.Editable;
@@ -188,6 +189,11 @@ public class EmojiCompat {
      */
     private final boolean mEmojiSpanIndicatorEnabled;
 
+    /**
+     * @see Config#setPrecomputeGlyphChecks(boolean)
+     */
+    private final boolean mPrecomputeGlyphChecks;
+
     /**
      * @see Config#setEmojiSpanIndicatorColor(int)
      */
@@ -202,6 +208,7 @@ public class EmojiCompat {
         mInitLock = new ReentrantReadWriteLock();
         mReplaceAll = config.mReplaceAll;
         mEmojiSpanIndicatorEnabled = config.mEmojiSpanIndicatorEnabled;
+        mPrecomputeGlyphChecks = config.mPrecomputeGlyphChecks;
         mEmojiSpanIndicatorColor = config.mEmojiSpanIndicatorColor;
         mMetadataLoader = config.mMetadataLoader;
         mMainHandler = new Handler(Looper.getMainLooper());
@@ -651,21 +658,78 @@ public class EmojiCompat {
             return charSequence;
         }
 
-        final boolean replaceAll;
+        return mHelper.process(charSequence, start, end, maxEmojiCount,
+                isReplaceAll(replaceStrategy));
+    }
+
+    /**
+     * Checks each CharSequence in a list for emojis, and adds EmojiSpans if any emojis are found.
+     * Meant to prepare a large number of CharSequences on a background thread, such as the
+     * messages that a list is about to display, so that the UI thread only has to set the
+     * results. Processing a list is faster than calling {@link #process(CharSequence)} for each
+     * CharSequence, since the state used for processing and the EmojiSpans for the same emoji
+     * are shared across the list, and CharSequences that cannot have emojis are skipped.
+     * <p>
+     * The given CharSequences are not modified:
+     * <ul>
+     * <li>A CharSequence that is not a {@link android.text.Spanned} (such as String), and has no
+     * emojis, is returned as it is.</li>
+     * <li>A CharSequence that is not a Spanned, and has at least one emoji, is returned as a new
+     * {@link android.text.SpannedString}.</li>
+     * <li>A Spanned is returned as a new SpannedString that has the spans of the given one.</li>
+     * </ul>
+     * None of the returned CharSequences is a {@link android.text.Spannable}. When used on
+     * devices running API 18 or below, returns a copy of the list without processing it.
+     *
+     * @param charSequences CharSequences to add the EmojiSpans, can contain {@code null}
+     *
+     * @return processed CharSequences in the order of {@code charSequences}
+     *
+     * @throws IllegalStateException if not initialized yet
+     * @see #processAll(List, int)
+     */
+    @WorkerThread
+    @NonNull
+    @CheckResult
+    public List<CharSequence> processAll(
+            @NonNull final List<? extends CharSequence> charSequences) {
+        return processAll(charSequences, REPLACE_STRATEGY_DEFAULT);
+    }
+
+    /**
+     * Checks each CharSequence in a list for emojis, and adds EmojiSpans if any emojis are found.
+     * See {@link #processAll(List)} for the details.
+     *
+     * @param charSequences CharSequences to add the EmojiSpans, can contain {@code null}
+     * @param replaceStrategy whether to replace all emoji with {@link EmojiSpan}s, should be one of
+     *                        {@link #REPLACE_STRATEGY_DEFAULT},
+     *                        {@link #REPLACE_STRATEGY_NON_EXISTENT},
+     *                        {@link #REPLACE_STRATEGY_ALL}
+     *
+     * @return processed CharSequences in the order of {@code charSequences}
+     *
+     * @throws IllegalStateException if not initialized yet
+     */
+    @WorkerThread
+    @NonNull
+    @CheckResult
+    public List<CharSequence> processAll(@NonNull final List<? extends CharSequence> charSequences,
+            @ReplaceStrategy int replaceStrategy) {
+        Preconditions.checkState(isInitialized(), "Not initialized yet");
+        Preconditions.checkNotNull(charSequences, "charSequences cannot be null");
+        return mHelper.processAll(charSequences, isReplaceAll(replaceStrategy));
+    }
+
+    private boolean isReplaceAll(@ReplaceStrategy final int replaceStrategy) {
         switch (replaceStrategy) {
             case REPLACE_STRATEGY_ALL:
-                replaceAll = true;
-                break;
+                return true;
             case REPLACE_STRATEGY_NON_EXISTENT:
-                replaceAll = false;
-                break;
+                return false;
             case REPLACE_STRATEGY_DEFAULT:
             default:
-                replaceAll = mReplaceAll;
-                break;
+                return mReplaceAll;
         }
-
-        return mHelper.process(charSequence, start, end, maxEmojiCount, replaceAll);
     }
 
     /**
@@ -681,6 +745,23 @@ public class EmojiCompat {
         return mHelper.getAssetSignature();
     }
 
+    /**
+     * Drops the cached results of checking whether the system can render each emoji, see
+     * {@link #REPLACE_STRATEGY_NON_EXISTENT}. The emojis are checked again the next time they
+     * are processed, even when {@link Config#setPrecomputeGlyphChecks(boolean)} is enabled.
+     * <p/>
+     * The platform does not notify about changes of the system fonts, therefore this should be
+     * called when the fonts that emojis are rendered with may have changed, e.g. from
+     * {@link android.content.ComponentCallbacks#onConfigurationChanged} when the locale changes,
+     * since the fallback fonts depend on the locale. When used on devices running API 18 or
+     * below, or before the metadata is loaded, does nothing.
+     */
+    public void invalidateGlyphChecks() {
+        if (isInitialized()) {
+            mHelper.invalidateGlyphChecks();
+        }
+    }
+
     /**
      * Updates the EditorInfo attributes in order to communicate information to Keyboards. When
      * used on devices running API 18 or below, does not update EditorInfo attributes.
@@ -787,6 +868,7 @@ public class EmojiCompat {
         private Set<InitCallback> mInitCallbacks;
         private boolean mEmojiSpanIndicatorEnabled;
         private int mEmojiSpanIndicatorColor = Color.GREEN;
+        private boolean mPrecomputeGlyphChecks;
 
         /**
          * Default constructor.
@@ -845,6 +927,21 @@ public class EmojiCompat {
             return this;
         }
 
+        /**
+         * Determines whether EmojiCompat checks if the system can render each emoji right after
+         * the metadata is loaded, on the thread that loaded it. Otherwise each emoji is checked
+         * the first time it is found. The checks are only used for the emojis that are not
+         * replaced, see {@link #setReplaceAll(boolean)}.
+         *
+         * @param precomputeGlyphChecks whether to check all emojis after the metadata is loaded
+         *
+         * @return EmojiCompat.Config instance
+         */
+        public Config setPrecomputeGlyphChecks(final boolean precomputeGlyphChecks) {
+            mPrecomputeGlyphChecks = precomputeGlyphChecks;
+            return this;
+        }
+
         /**
          * Determines whether a background will be drawn for the emojis that are found and
          * replaced by EmojiCompat. Should be used only for debugging purposes. The indicator color
@@ -957,6 +1054,12 @@ public class EmojiCompat {
             return charSequence;
         }
 
+        List<CharSequence> processAll(@NonNull final List<? extends CharSequence> charSequences,
+                final boolean replaceAll) {
+            // Returns the given charSequences as they are.
+            return new ArrayList<CharSequence>(charSequences);
+        }
+
         void updateEditorInfoAttrs(@NonNull final EditorInfo outAttrs) {
             // Does not add any EditorInfo attributes.
         }
@@ -965,6 +1068,10 @@ public class EmojiCompat {
             // intentionally empty
         }
 
+        void invalidateGlyphChecks() {
+            // intentionally empty
+        }
+
         String getAssetSignature() {
             return "";
         }
@@ -1020,6 +1127,10 @@ public class EmojiCompat {
             mProcessor = new EmojiProcessor(mMetadataRepo, new SpanFactory());
 
             mEmojiCompat.onMetadataLoadSuccess();
+
+            if (mEmojiCompat.mPrecomputeGlyphChecks) {
+                mProcessor.precomputeGlyphChecks();
+            }
         }
 
         @Override
@@ -1039,6 +1150,12 @@ public class EmojiCompat {
             return mProcessor.process(charSequence, start, end, maxEmojiCount, replaceAll);
         }
 
+        @Override
+        List<CharSequence> processAll(@NonNull List<? extends CharSequence> charSequences,
+                boolean replaceAll) {
+            return mProcessor.processAll(charSequences, replaceAll);
+        }
+
         @Override
         void updateEditorInfoAttrs(@NonNull EditorInfo outAttrs) {
             outAttrs.extras.putInt(EDITOR_INFO_METAVERSION_KEY, mMetadataRepo.getMetadataVersion());
@@ -1050,6 +1167,11 @@ public class EmojiCompat {
             mProcessor.setGlyphChecker(glyphChecker);
         }
 
+        @Override
+        void invalidateGlyphChecks() {
+            mProcessor.invalidateGlyphCache();
+        }
+
         @Override
         String getAssetSignature() {
             final String sha = mMetadataRepo.getMetadataList().sourceSha();
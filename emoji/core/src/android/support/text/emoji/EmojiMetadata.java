@@ -79,12 +79,6 @@ public class EmojiMetadata {
      */
     private final MetadataRepo mMetadataRepo;
 
-    /**
-     * Whether the system can render the emoji. Calculated at runtime on the device.
-     */
-    @HasGlyph
-    private volatile int mHasGlyph = HAS_GLYPH_UNKNOWN;
-
     EmojiMetadata(@NonNull final MetadataRepo metadataRepo, @IntRange(from = 0) final int index) {
         mMetadataRepo = metadataRepo;
         mIndex = index;
@@ -113,6 +107,13 @@ public class EmojiMetadata {
         paint.setTypeface(oldTypeface);
     }
 
+    /**
+     * @return index of this EmojiMetadata in the {@link MetadataList}
+     */
+    int getIndex() {
+        return mIndex;
+    }
+
     /**
      * @return return typeface to be used to render this metadata
      */
@@ -175,24 +176,6 @@ public class EmojiMetadata {
         return getMetadataItem().sdkAdded();
     }
 
-    /**
-     * @return whether the emoji is in Emoji Presentation by default (without emoji
-     * style selector 0xFE0F)
-     */
-    @HasGlyph
-    public int getHasGlyph() {
-        return mHasGlyph;
-    }
-
-    /**
-     * Set whether the system can render the emoji.
-     *
-     * @param hasGlyph {@code true} if system can render the emoji
-     */
-    public void setHasGlyph(boolean hasGlyph) {
-        mHasGlyph = hasGlyph ? HAS_GLYPH_EXISTS : HAS_GLYPH_ABSENT;
-    }
-
     /**
      * @return whether the emoji is in Emoji Presentation by default (without emoji
      *         style selector 0xFE0F)
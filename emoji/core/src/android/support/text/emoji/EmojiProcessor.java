@@ -22,8 +22,10 @@ import android.support.annotation.AnyThread;
 import android.support.annotation.IntDef;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.support.annotation.RestrictTo;
+import android.support.text.emoji.flatbuffer.MetadataList;
 import android.support.text.emoji.widget.SpannableBuilder;
 import android.support.v4.graphics.PaintCompat;
 import android.support.v4.util.Preconditions;
@@ -32,6 +34,7 @@ import android.text.Selection;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.Spanned;
+import android.text.SpannedString;
 import android.text.TextPaint;
 import android.text.method.KeyListener;
 import android.text.method.MetaKeyKeyListener;
@@ -40,6 +43,9 @@ import android.view.inputmethod.InputConnection;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Processes the CharSequence and adds the emojis.
@@ -90,14 +96,28 @@ final class EmojiProcessor {
      */
     private GlyphChecker mGlyphChecker = new GlyphChecker();
 
+    /**
+     * Results of {@link GlyphChecker#hasGlyph(CharSequence, int, int)} for the emojis in
+     * {@link #mMetadataRepo}.
+     */
+    private volatile GlyphCache mGlyphCache;
+
+    /**
+     * Whether a CharSequence that only contains ASCII characters can have an emoji. Used by
+     * {@link #processAll(List, boolean)} to skip such CharSequences without walking the trie.
+     */
+    private final boolean mAsciiHasEmoji;
+
     EmojiProcessor(@NonNull final MetadataRepo metadataRepo,
             @NonNull final EmojiCompat.SpanFactory spanFactory) {
         mSpanFactory = spanFactory;
         mMetadataRepo = metadataRepo;
+        mGlyphCache = newGlyphCache();
+        mAsciiHasEmoji = hasAsciiEmoji(metadataRepo.getTrie());
     }
 
     EmojiMetadata getEmojiMetadata(@NonNull final CharSequence charSequence) {
-        final ProcessorSm sm = new ProcessorSm(mMetadataRepo.getRootNode());
+        final ProcessorSm sm = new ProcessorSm(mMetadataRepo.getTrie());
         final int end = charSequence.length();
         int currentOffset = 0;
 
@@ -141,6 +161,64 @@ final class EmojiProcessor {
     CharSequence process(@NonNull final CharSequence charSequence, @IntRange(from = 0) int start,
             @IntRange(from = 0) int end, @IntRange(from = 0) int maxEmojiCount,
             final boolean replaceAll) {
+        return process(charSequence, start, end, maxEmojiCount, replaceAll,
+                new ProcessorSm(mMetadataRepo.getTrie()), null /*spanCache*/);
+    }
+
+    /**
+     * Checks each CharSequence in a list for emojis, and adds EmojiSpans if any emojis are found.
+     * The given CharSequences are not modified, and none of the returned ones is a
+     * {@link Spannable}:
+     * <ul>
+     * <li>A CharSequence that is not a {@link Spanned}, and has no emojis, is returned as it
+     * is.</li>
+     * <li>A CharSequence that is not a Spanned, and has emojis, is returned as a
+     * {@link SpannedString} with the EmojiSpans.</li>
+     * <li>A Spanned is copied into a SpannedString that keeps its spans, except for the
+     * EmojiSpans that are replaced.</li>
+     * </ul>
+     * One ProcessorSm is used for the whole list, CharSequences that only contain ASCII
+     * characters are skipped when no emoji can be made of ASCII characters, and the same
+     * emoji in different CharSequences shares its EmojiSpan.
+     *
+     * @param charSequences CharSequences to add the EmojiSpans, can contain {@code null}
+     * @param replaceAll whether to replace all emoji with {@link EmojiSpan}s
+     *
+     * @return processed CharSequences in the order of {@code charSequences}
+     */
+    List<CharSequence> processAll(@NonNull final List<? extends CharSequence> charSequences,
+            final boolean replaceAll) {
+        final List<CharSequence> result = new ArrayList<>(charSequences.size());
+        final ProcessorSm sm = new ProcessorSm(mMetadataRepo.getTrie());
+        final SpanCache spanCache = new SpanCache(mSpanFactory);
+        for (CharSequence charSequence : charSequences) {
+            if (charSequence == null || charSequence.length() == 0) {
+                result.add(charSequence);
+                continue;
+            }
+
+            final boolean isSpanned = charSequence instanceof Spanned;
+            if (!isSpanned && !mAsciiHasEmoji && isAscii(charSequence)) {
+                result.add(charSequence);
+                continue;
+            }
+
+            // copy a Spanned so that existing EmojiSpans are replaced without modifying it
+            final CharSequence input = isSpanned ? new SpannableString(charSequence)
+                    : charSequence;
+            sm.restart();
+            spanCache.startCharSequence();
+            final CharSequence processed = process(input, 0, input.length(),
+                    EmojiCompat.EMOJI_COUNT_UNLIMITED, replaceAll, sm, spanCache);
+            result.add(processed instanceof Spanned ? new SpannedString(processed) : processed);
+        }
+        return result;
+    }
+
+    private CharSequence process(@NonNull final CharSequence charSequence,
+            @IntRange(from = 0) int start, @IntRange(from = 0) int end,
+            @IntRange(from = 0) int maxEmojiCount, final boolean replaceAll,
+            @NonNull final ProcessorSm sm, @Nullable final SpanCache spanCache) {
         final boolean isSpannableBuilder = charSequence instanceof SpannableBuilder;
         if (isSpannableBuilder) {
             ((SpannableBuilder) charSequence).beginBatchEdit();
@@ -189,7 +267,6 @@ final class EmojiProcessor {
             }
             // add new ones
             int addedCount = 0;
-            final ProcessorSm sm = new ProcessorSm(mMetadataRepo.getRootNode());
 
             int currentOffset = start;
             int codePoint = Character.codePointAt(charSequence, currentOffset);
@@ -217,7 +294,8 @@ final class EmojiProcessor {
                             if (spannable == null) {
                                 spannable = new SpannableString(charSequence);
                             }
-                            addEmoji(spannable, sm.getFlushMetadata(), start, currentOffset);
+                            addEmoji(spannable, sm.getFlushMetadata(), start, currentOffset,
+                                    spanCache);
                             addedCount++;
                         }
                         start = currentOffset;
@@ -235,7 +313,8 @@ final class EmojiProcessor {
                     if (spannable == null) {
                         spannable = new SpannableString(charSequence);
                     }
-                    addEmoji(spannable, sm.getCurrentMetadata(), start, currentOffset);
+                    addEmoji(spannable, sm.getCurrentMetadata(), start, currentOffset,
+                            spanCache);
                     addedCount++;
                 }
             }
@@ -404,11 +483,49 @@ final class EmojiProcessor {
     }
 
     private void addEmoji(@NonNull final Spannable spannable, final EmojiMetadata metadata,
-            final int start, final int end) {
-        final EmojiSpan span = mSpanFactory.createSpan(metadata);
+            final int start, final int end, @Nullable final SpanCache spanCache) {
+        final EmojiSpan span = spanCache == null ? mSpanFactory.createSpan(metadata)
+                : spanCache.obtain(metadata);
         spannable.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
     }
 
+    private static boolean isAscii(@NonNull final CharSequence charSequence) {
+        final int length = charSequence.length();
+        for (int i = 0; i < length; i++) {
+            if (charSequence.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the ProcessorSm can find an emoji in a CharSequence that only contains
+     * ASCII characters, which requires an emoji whose codepoints are all ASCII and that is either
+     * a default emoji or a sequence.
+     */
+    private static boolean hasAsciiEmoji(@NonNull final MetadataRepo.Trie trie) {
+        final int nodeCount = trie.getNodeCount();
+        for (int node = 0; node < nodeCount; node++) {
+            final EmojiMetadata metadata = trie.getData(node);
+            if (metadata == null) {
+                continue;
+            }
+            final int codepointsLength = metadata.getCodepointsLength();
+            if (codepointsLength == 1 && !metadata.isDefaultEmoji()) {
+                continue;
+            }
+            boolean isAscii = true;
+            for (int i = 0; i < codepointsLength && isAscii; i++) {
+                isAscii = metadata.getCodepointAt(i) < 0x80;
+            }
+            if (isAscii) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Checks whether the current OS can render a given emoji. Used by the system to decide if an
      * emoji span should be added. If the system cannot render it, an emoji span will be added.
@@ -430,13 +547,61 @@ final class EmojiProcessor {
             return false;
         }
 
+        final GlyphCache glyphCache = mGlyphCache;
+        final int index = metadata.getIndex();
+        final int cached = glyphCache.get(index);
         // if the existence is not calculated yet
-        if (metadata.getHasGlyph() == EmojiMetadata.HAS_GLYPH_UNKNOWN) {
+        if (cached == EmojiMetadata.HAS_GLYPH_UNKNOWN) {
             final boolean hasGlyph = mGlyphChecker.hasGlyph(charSequence, start, end);
-            metadata.setHasGlyph(hasGlyph);
+            glyphCache.set(index, hasGlyph);
+            return hasGlyph;
         }
 
-        return metadata.getHasGlyph() == EmojiMetadata.HAS_GLYPH_EXISTS;
+        return cached == EmojiMetadata.HAS_GLYPH_EXISTS;
+    }
+
+    /**
+     * Checks whether the system can render each emoji in the MetadataRepo, so that processing
+     * text does not have to. Takes a while, therefore should be called on a background thread.
+     * Can be called while text is processed on other threads.
+     */
+    void precomputeGlyphChecks() {
+        final GlyphCache glyphCache = mGlyphCache;
+        final MetadataRepo.Trie trie = mMetadataRepo.getTrie();
+        final StringBuilder builder = new StringBuilder();
+        final int nodeCount = trie.getNodeCount();
+        for (int node = 0; node < nodeCount; node++) {
+            final EmojiMetadata metadata = trie.getData(node);
+            if (metadata == null
+                    || glyphCache.get(metadata.getIndex()) != EmojiMetadata.HAS_GLYPH_UNKNOWN
+                    || (Build.VERSION.SDK_INT < 23
+                            && metadata.getSdkAdded() > Build.VERSION.SDK_INT)) {
+                continue;
+            }
+            builder.setLength(0);
+            final int codepointsLength = metadata.getCodepointsLength();
+            for (int i = 0; i < codepointsLength; i++) {
+                builder.appendCodePoint(metadata.getCodepointAt(i));
+            }
+            glyphCache.set(metadata.getIndex(),
+                    mGlyphChecker.hasGlyph(builder, 0, builder.length()));
+        }
+    }
+
+    /**
+     * Drops the cached results of the glyph checks, so that each emoji is checked again the next
+     * time it is processed. Used when the fonts that the system renders emojis with may have
+     * changed.
+     */
+    void invalidateGlyphCache() {
+        mGlyphCache = newGlyphCache();
+    }
+
+    private GlyphCache newGlyphCache() {
+        // the MetadataRepo created for tests has no MetadataList, and its EmojiMetadata do not
+        // have distinct indices
+        final MetadataList metadataList = mMetadataRepo.getMetadataList();
+        return new GlyphCache(metadataList == null ? 0 : metadataList.listLength());
     }
 
     /**
@@ -445,6 +610,7 @@ final class EmojiProcessor {
     void setGlyphChecker(@NonNull final GlyphChecker glyphChecker) {
         Preconditions.checkNotNull(glyphChecker);
         mGlyphChecker = glyphChecker;
+        mGlyphCache = newGlyphCache();
     }
 
     /**
@@ -458,20 +624,20 @@ final class EmojiProcessor {
         private int mState = STATE_DEFAULT;
 
         /**
-         * Root of the trie
+         * The trie that is walked.
          */
-        private final MetadataRepo.Node mRootNode;
+        private final MetadataRepo.Trie mTrie;
 
         /**
          * Pointer to the node after last codepoint.
          */
-        private MetadataRepo.Node mCurrentNode;
+        private int mCurrentNode = MetadataRepo.Trie.ROOT;
 
         /**
          * The node where ACTION_FLUSH is called. Required since after flush action is
          * returned mCurrentNode is reset to be the root.
          */
-        private MetadataRepo.Node mFlushNode;
+        private int mFlushNode = MetadataRepo.Trie.NO_NODE;
 
         /**
          * The code point that was checked.
@@ -483,30 +649,29 @@ final class EmojiProcessor {
          */
         private int mCurrentDepth;
 
-        ProcessorSm(MetadataRepo.Node rootNode) {
-            mRootNode = rootNode;
-            mCurrentNode = rootNode;
+        ProcessorSm(MetadataRepo.Trie trie) {
+            mTrie = trie;
         }
 
         @Action
         int check(final int codePoint) {
             final int action;
-            MetadataRepo.Node node = mCurrentNode.get(codePoint);
+            final int node = mTrie.get(mCurrentNode, codePoint);
             switch (mState) {
                 case STATE_WALKING:
-                    if (node != null) {
+                    if (node != MetadataRepo.Trie.NO_NODE) {
                         mCurrentNode = node;
                         mCurrentDepth += 1;
                         action = ACTION_ADVANCE_END;
                     } else {
+                        final EmojiMetadata data = mTrie.getData(mCurrentNode);
                         if (isTextStyle(codePoint)) {
                             action = reset();
                         } else if (isEmojiStyle(codePoint)) {
                             action = ACTION_ADVANCE_END;
-                        } else if (mCurrentNode.getData() != null) {
+                        } else if (data != null) {
                             if (mCurrentDepth == 1) {
-                                if (mCurrentNode.getData().isDefaultEmoji()
-                                        || isEmojiStyle(mLastCodepoint)) {
+                                if (data.isDefaultEmoji() || isEmojiStyle(mLastCodepoint)) {
                                     mFlushNode = mCurrentNode;
                                     action = ACTION_FLUSH;
                                     reset();
@@ -525,7 +690,7 @@ final class EmojiProcessor {
                     break;
                 case STATE_DEFAULT:
                 default:
-                    if (node == null) {
+                    if (node == MetadataRepo.Trie.NO_NODE) {
                         action = reset();
                     } else {
                         mState = STATE_WALKING;
@@ -540,10 +705,19 @@ final class EmojiProcessor {
             return action;
         }
 
+        /**
+         * Resets the state machine so that it can be used for another CharSequence.
+         */
+        void restart() {
+            reset();
+            mFlushNode = MetadataRepo.Trie.NO_NODE;
+            mLastCodepoint = 0;
+        }
+
         @Action
         private int reset() {
             mState = STATE_DEFAULT;
-            mCurrentNode = mRootNode;
+            mCurrentNode = MetadataRepo.Trie.ROOT;
             mCurrentDepth = 0;
             return ACTION_ADVANCE_BOTH;
         }
@@ -552,14 +726,14 @@ final class EmojiProcessor {
          * @return the metadata node when ACTION_FLUSH is returned
          */
         EmojiMetadata getFlushMetadata() {
-            return mFlushNode.getData();
+            return mTrie.getData(mFlushNode);
         }
 
         /**
          * @return current pointer to the metadata node in the trie
          */
         EmojiMetadata getCurrentMetadata() {
-            return mCurrentNode.getData();
+            return mTrie.getData(mCurrentNode);
         }
 
         /**
@@ -570,8 +744,9 @@ final class EmojiProcessor {
          * @return whether the current state requires an emoji to be added
          */
         boolean isInFlushableState() {
-            return mState == STATE_WALKING && mCurrentNode.getData() != null
-                    && (mCurrentNode.getData().isDefaultEmoji()
+            final EmojiMetadata data = mTrie.getData(mCurrentNode);
+            return mState == STATE_WALKING && data != null
+                    && (data.isDefaultEmoji()
                     || isEmojiStyle(mLastCodepoint)
                     || mCurrentDepth > 1);
         }
@@ -715,6 +890,104 @@ final class EmojiProcessor {
         }
     }
 
+    /**
+     * Caches whether the system can render each emoji of a MetadataRepo, using two bits per
+     * emoji indexed by {@link EmojiMetadata#getIndex()}. The platform does not notify about font
+     * changes, so the cache is replaced when {@link EmojiCompat#invalidateGlyphChecks()} is
+     * called.
+     * <p/>
+     * The bits are updated without synchronization. Concurrent updates of emojis that share an
+     * int can lose one of the updates, in which case that emoji is checked again. Since an entry
+     * only changes from unknown to the result of the check, a lost update never results in a
+     * wrong answer.
+     */
+    private static final class GlyphCache {
+        private static final int BITS_PER_ENTRY = 2;
+        private static final int ENTRIES_PER_INT_SHIFT = 4;
+        private static final int ENTRY_MASK = 0x3;
+
+        private final int mSize;
+        private final int[] mEntries;
+
+        GlyphCache(final int size) {
+            mSize = size;
+            mEntries = new int[(size + (1 << ENTRIES_PER_INT_SHIFT) - 1) >>> ENTRIES_PER_INT_SHIFT];
+        }
+
+        @EmojiMetadata.HasGlyph
+        int get(final int index) {
+            if (index < 0 || index >= mSize) {
+                return EmojiMetadata.HAS_GLYPH_UNKNOWN;
+            }
+            return (mEntries[index >>> ENTRIES_PER_INT_SHIFT] >>> shift(index)) & ENTRY_MASK;
+        }
+
+        void set(final int index, final boolean hasGlyph) {
+            if (index < 0 || index >= mSize) {
+                return;
+            }
+            final int value = hasGlyph ? EmojiMetadata.HAS_GLYPH_EXISTS
+                    : EmojiMetadata.HAS_GLYPH_ABSENT;
+            final int intIndex = index >>> ENTRIES_PER_INT_SHIFT;
+            final int shift = shift(index);
+            mEntries[intIndex] = (mEntries[intIndex] & ~(ENTRY_MASK << shift)) | (value << shift);
+        }
+
+        private static int shift(final int index) {
+            return (index & ((1 << ENTRIES_PER_INT_SHIFT) - 1)) * BITS_PER_ENTRY;
+        }
+    }
+
+    /**
+     * Hands out the EmojiSpans for {@link #processAll(List, boolean)}, so that the same emoji in
+     * different CharSequences shares an EmojiSpan. A span can be set only once on a Spannable,
+     * therefore the n-th occurrence of an emoji in a CharSequence gets the n-th EmojiSpan created
+     * for that emoji.
+     * <p/>
+     * EmojiSpans keep the size that they were last measured with, therefore the CharSequences
+     * that share them should be measured and drawn on the same thread.
+     */
+    private static final class SpanCache {
+        private final EmojiCompat.SpanFactory mSpanFactory;
+        private final HashMap<EmojiMetadata, Entry> mEntries = new HashMap<>();
+
+        /**
+         * Incremented for each CharSequence, so that the use counts of the entries do not have
+         * to be cleared.
+         */
+        private int mGeneration;
+
+        SpanCache(@NonNull final EmojiCompat.SpanFactory spanFactory) {
+            mSpanFactory = spanFactory;
+        }
+
+        void startCharSequence() {
+            mGeneration++;
+        }
+
+        EmojiSpan obtain(@NonNull final EmojiMetadata metadata) {
+            Entry entry = mEntries.get(metadata);
+            if (entry == null) {
+                entry = new Entry();
+                mEntries.put(metadata, entry);
+            }
+            if (entry.mGeneration != mGeneration) {
+                entry.mGeneration = mGeneration;
+                entry.mUsed = 0;
+            }
+            if (entry.mUsed == entry.mSpans.size()) {
+                entry.mSpans.add(mSpanFactory.createSpan(metadata));
+            }
+            return entry.mSpans.get(entry.mUsed++);
+        }
+
+        private static final class Entry {
+            final ArrayList<EmojiSpan> mSpans = new ArrayList<>(1);
+            int mGeneration;
+            int mUsed;
+        }
+    }
+
     /**
      * Utility class that checks if the system can render a given glyph.
      *
@@ -36,6 +36,7 @@ import android.support.v4.provider.FontsContractCompat;
 import android.support.v4.provider.FontsContractCompat.FontFamilyResult;
 import android.support.v4.util.Preconditions;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 
 /**
@@ -157,11 +158,26 @@ public class FontRequestEmojiCompatConfig extends EmojiCompat.Config {
         return this;
     }
 
+    /**
+     * Sets whether a snapshot of the emoji metadata is kept in the cache directory of the
+     * application. When enabled, later initializations read the snapshot instead of reading and
+     * indexing the metadata in the font. The snapshot is replaced when the font changes.
+     * Disabled by default.
+     *
+     * @param enabled whether to keep a snapshot of the emoji metadata
+     */
+    public FontRequestEmojiCompatConfig setMetadataCacheEnabled(boolean enabled) {
+        ((FontRequestMetadataLoader) getMetadataRepoLoader()).setMetadataCacheEnabled(enabled);
+        return this;
+    }
+
     /**
      * MetadataRepoLoader implementation that uses FontsContractCompat and TypefaceCompat to load a
      * given FontRequest.
      */
     private static class FontRequestMetadataLoader implements EmojiCompat.MetadataRepoLoader {
+        private static final String CACHE_FILE_NAME = "emojicompat_metadata";
+
         private final Context mContext;
         private final FontRequest mRequest;
         private final FontProviderHelper mFontProviderHelper;
@@ -173,6 +189,8 @@ public class FontRequestEmojiCompatConfig extends EmojiCompat.Config {
         private HandlerThread mThread;
         @GuardedBy("mLock")
         private @Nullable RetryPolicy mRetryPolicy;
+        @GuardedBy("mLock")
+        private boolean mMetadataCacheEnabled;
 
         // Following three variables must be touched only on the thread associated with mHandler.
         private EmojiCompat.MetadataRepoLoaderCallback mCallback;
@@ -200,6 +218,12 @@ public class FontRequestEmojiCompatConfig extends EmojiCompat.Config {
             }
         }
 
+        public void setMetadataCacheEnabled(boolean enabled) {
+            synchronized (mLock) {
+                mMetadataCacheEnabled = enabled;
+            }
+        }
+
         @Override
         @RequiresApi(19)
         public void load(@NonNull final EmojiCompat.MetadataRepoLoaderCallback loaderCallback) {
@@ -313,7 +337,18 @@ public class FontRequestEmojiCompatConfig extends EmojiCompat.Config {
                 if (buffer == null) {
                     throw new RuntimeException("Unable to open file.");
                 }
-                mCallback.onLoaded(MetadataRepo.create(typeface, buffer));
+                final boolean metadataCacheEnabled;
+                synchronized (mLock) {
+                    metadataCacheEnabled = mMetadataCacheEnabled;
+                }
+                final MetadataRepo metadataRepo;
+                if (metadataCacheEnabled) {
+                    metadataRepo = MetadataRepo.create(typeface, buffer,
+                            new File(mContext.getCacheDir(), CACHE_FILE_NAME));
+                } else {
+                    metadataRepo = MetadataRepo.create(typeface, buffer);
+                }
+                mCallback.onLoaded(metadataRepo);
                 cleanUp();
             } catch (Throwable t) {
                 mCallback.onFailed(t);
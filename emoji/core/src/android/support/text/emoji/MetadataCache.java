@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.text.emoji;
+
+import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+import android.graphics.Typeface;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+import android.support.annotation.RestrictTo;
+import android.support.text.emoji.flatbuffer.MetadataList;
+import android.support.v4.util.AtomicFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes snapshots of a {@link MetadataRepo}, so that the emoji metadata does not
+ * have to be read from the font and indexed again on every start.
+ * <p/>
+ * A snapshot holds a header, the emoji metadata copied from the font, the char presentation of
+ * the emojis and the serialized {@link MetadataRepo.Trie}. The header holds the format version,
+ * a fingerprint of the font that the snapshot was written for and a CRC32 of the rest of the
+ * file. A snapshot that does not match is ignored, and is replaced when the MetadataRepo is
+ * created from the font again. Snapshots are memory mapped when read, and the emoji metadata is
+ * used directly from the mapping.
+ *
+ * @hide
+ */
+@RestrictTo(LIBRARY_GROUP)
+@AnyThread
+@RequiresApi(19)
+final class MetadataCache {
+    /**
+     * int representation for "EMCS"
+     */
+    private static final int MAGIC = 'E' << 24 | 'M' << 16 | 'C' << 8 | 'S';
+
+    /**
+     * Version of the snapshot format. Must be incremented when the format, or the layout of
+     * {@link MetadataRepo.Trie}, changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Magic, format version, fingerprint, metadata list length, metadata byte count, trie node
+     * count and CRC32 of the content.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    private static final int CRC_BUFFER_SIZE = 8192;
+
+    private MetadataCache() {
+    }
+
+    /**
+     * Reads the MetadataRepo from a snapshot.
+     *
+     * @param file file that holds the snapshot
+     * @param fingerprint fingerprint of the font
+     * @param typeface Typeface to be used to render emojis
+     *
+     * @return the MetadataRepo, or {@code null} if there is no snapshot, if it was written for
+     * another font or format version, or if it is corrupted
+     */
+    @Nullable
+    static MetadataRepo read(@NonNull final File file, final long fingerprint,
+            @NonNull final Typeface typeface) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileInputStream fis = new FileInputStream(file)) {
+            final FileChannel channel = fis.getChannel();
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                    || buffer.getLong() != fingerprint) {
+                return null;
+            }
+            final int listLength = buffer.getInt();
+            final int metadataLength = buffer.getInt();
+            final int nodeCount = buffer.getInt();
+            final int crc = buffer.getInt();
+            if (listLength < 0 || metadataLength < 0 || nodeCount < 1
+                    || size != getSize(listLength, metadataLength, nodeCount)
+                    || crc != getCrc(buffer, HEADER_SIZE, (int) size)) {
+                return null;
+            }
+
+            buffer.position(HEADER_SIZE);
+            buffer.limit(HEADER_SIZE + metadataLength);
+            final MetadataList metadataList = MetadataList.getRootAsMetadataList(buffer.slice());
+            if (metadataList.listLength() != listLength) {
+                return null;
+            }
+
+            buffer.limit((int) size);
+            buffer.position(HEADER_SIZE + align(metadataLength));
+            final char[] emojiCharArray = new char[listLength * 2];
+            buffer.asCharBuffer().get(emojiCharArray);
+            buffer.position(buffer.position() + emojiCharArray.length * 2);
+            return new MetadataRepo(typeface, metadataList, emojiCharArray, buffer.asIntBuffer(),
+                    nodeCount);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the MetadataRepo. Failures are ignored, since the snapshot is only
+     * used to speed up the next start.
+     *
+     * @param file file to write the snapshot to
+     * @param fingerprint fingerprint of the font
+     * @param metadataRepo MetadataRepo to write
+     * @param metadata the emoji metadata that {@code metadataRepo} was created from, between
+     *                 its position and limit
+     *
+     * @return {@code true} if the snapshot is written
+     */
+    static boolean write(@NonNull final File file, final long fingerprint,
+            @NonNull final MetadataRepo metadataRepo, @NonNull final ByteBuffer metadata) {
+        final int listLength = metadataRepo.getMetadataList().listLength();
+        final int metadataLength = metadata.remaining();
+        final int nodeCount = metadataRepo.getTrie().getNodeCount();
+        final long size = getSize(listLength, metadataLength, nodeCount);
+        if (size > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.position(HEADER_SIZE);
+        buffer.put(metadata.duplicate());
+        buffer.position(HEADER_SIZE + align(metadataLength));
+        buffer.asCharBuffer().put(metadataRepo.getEmojiCharArray(), 0, listLength * 2);
+        buffer.position(buffer.position() + listLength * 4);
+        metadataRepo.getTrie().write(buffer.asIntBuffer());
+
+        buffer.position(0);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(fingerprint);
+        buffer.putInt(listLength);
+        buffer.putInt(metadataLength);
+        buffer.putInt(nodeCount);
+        buffer.putInt(getCrc(buffer, HEADER_SIZE, (int) size));
+
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            out.write(buffer.array());
+            atomicFile.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            if (out != null) {
+                atomicFile.failWrite(out);
+            }
+            return false;
+        }
+    }
+
+    private static long getSize(final int listLength, final int metadataLength,
+            final int nodeCount) {
+        return HEADER_SIZE + align(metadataLength) + listLength * 4L
+                + MetadataRepo.Trie.getSerializedSize(nodeCount) * 4L;
+    }
+
+    /**
+     * Rounds up to a multiple of 4, so that the arrays that follow the metadata are aligned.
+     */
+    private static int align(final int byteCount) {
+        return (byteCount + 3) & ~3;
+    }
+
+    /**
+     * Computes the CRC32 of {@code buffer[start..end)} without changing its position.
+     */
+    private static int getCrc(final ByteBuffer buffer, final int start, final int end) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer content = buffer.duplicate();
+        content.position(start);
+        content.limit(end);
+        if (content.hasArray()) {
+            crc.update(content.array(), content.arrayOffset() + start, end - start);
+        } else {
+            final byte[] chunk = new byte[Math.min(CRC_BUFFER_SIZE, end - start)];
+            while (content.hasRemaining()) {
+                final int count = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, count);
+                crc.update(chunk, 0, count);
+            }
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.zip.CRC32;
 
 /**
  * Reads the emoji metadata from a given InputStream or ByteBuffer.
@@ -66,6 +67,16 @@ class MetadataListReader {
      * @param inputStream InputStream to read emoji metadata from
      */
     static MetadataList read(InputStream inputStream) throws IOException {
+        return MetadataList.getRootAsMetadataList(readMetadata(inputStream));
+    }
+
+    /**
+     * Reads the emoji metadata from an input stream into a ByteBuffer. Does not close the given
+     * InputStream, therefore it is caller's responsibility to properly close the stream.
+     *
+     * @param inputStream InputStream to read emoji metadata from
+     */
+    static ByteBuffer readMetadata(InputStream inputStream) throws IOException {
         final OpenTypeReader openTypeReader = new InputStreamOpenTypeReader(inputStream);
         final OffsetInfo offsetInfo = findOffsetInfo(openTypeReader);
         // skip to where metadata is
@@ -77,7 +88,7 @@ class MetadataListReader {
             throw new IOException("Needed " + offsetInfo.getLength() + " bytes, got " + numRead);
         }
 
-        return MetadataList.getRootAsMetadataList(buffer);
+        return buffer;
     }
 
     /**
@@ -86,12 +97,23 @@ class MetadataListReader {
      * @param byteBuffer ByteBuffer to read emoji metadata from
      */
     static MetadataList read(final ByteBuffer byteBuffer) throws IOException {
+        return MetadataList.getRootAsMetadataList(readMetadata(byteBuffer));
+    }
+
+    /**
+     * Returns a ByteBuffer that shares the content of the given byte buffer, and that is limited
+     * to the emoji metadata.
+     *
+     * @param byteBuffer ByteBuffer to read emoji metadata from
+     */
+    static ByteBuffer readMetadata(final ByteBuffer byteBuffer) throws IOException {
         final ByteBuffer newBuffer = byteBuffer.duplicate();
         final OpenTypeReader reader = new ByteBufferReader(newBuffer);
         final OffsetInfo offsetInfo = findOffsetInfo(reader);
         // skip to where metadata is
         newBuffer.position((int) offsetInfo.getStartOffset());
-        return MetadataList.getRootAsMetadataList(newBuffer);
+        newBuffer.limit((int) (offsetInfo.getStartOffset() + offsetInfo.getLength()));
+        return newBuffer.slice();
     }
 
     /**
@@ -108,6 +130,73 @@ class MetadataListReader {
         }
     }
 
+    /**
+     * Reads the emoji metadata from an asset into a ByteBuffer.
+     *
+     * @param assetManager AssetManager instance
+     * @param assetPath asset manager path of the font
+     */
+    static ByteBuffer readMetadata(AssetManager assetManager, String assetPath)
+            throws IOException {
+        try (InputStream inputStream = assetManager.open(assetPath)) {
+            return readMetadata(inputStream);
+        }
+    }
+
+    /**
+     * Computes a fingerprint of the font from its table directory. The directory holds the
+     * checksum, offset and length of every table, therefore the fingerprint changes when any
+     * table, including the emoji metadata, changes. Only the start of the font is read.
+     *
+     * @param byteBuffer ByteBuffer that contains the font
+     */
+    static long readFingerprint(final ByteBuffer byteBuffer) throws IOException {
+        return readFingerprint(new ByteBufferReader(byteBuffer.duplicate()));
+    }
+
+    /**
+     * Computes a fingerprint of the font in an asset.
+     *
+     * @param assetManager AssetManager instance
+     * @param assetPath asset manager path of the font
+     *
+     * @see #readFingerprint(ByteBuffer)
+     */
+    static long readFingerprint(AssetManager assetManager, String assetPath)
+            throws IOException {
+        try (InputStream inputStream = assetManager.open(assetPath)) {
+            return readFingerprint(new InputStreamOpenTypeReader(inputStream));
+        }
+    }
+
+    private static long readFingerprint(OpenTypeReader reader) throws IOException {
+        final CRC32 crc = new CRC32();
+        updateCrc(crc, reader.readUnsignedInt());
+        final int tableCount = reader.readUnsignedShort();
+        if (tableCount > 100) {
+            //something is wrong quit
+            throw new IOException("Cannot read metadata.");
+        }
+        updateCrc(crc, tableCount);
+        //skip to begining of tables data
+        reader.skip(OpenTypeReader.UINT16_BYTE_COUNT * 3);
+        for (int i = 0; i < tableCount; i++) {
+            // tag, checksum, offset and length
+            updateCrc(crc, reader.readTag());
+            updateCrc(crc, reader.readUnsignedInt());
+            updateCrc(crc, reader.readUnsignedInt());
+            updateCrc(crc, reader.readUnsignedInt());
+        }
+        return crc.getValue();
+    }
+
+    private static void updateCrc(final CRC32 crc, final long value) {
+        crc.update((int) (value >>> 24));
+        crc.update((int) (value >>> 16));
+        crc.update((int) (value >>> 8));
+        crc.update((int) value);
+    }
+
     /**
      * Finds the start offset and length of the emoji metadata in the font.
      *
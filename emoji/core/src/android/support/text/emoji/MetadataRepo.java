@@ -26,11 +26,13 @@ import android.support.annotation.RestrictTo;
 import android.support.annotation.VisibleForTesting;
 import android.support.text.emoji.flatbuffer.MetadataList;
 import android.support.v4.util.Preconditions;
-import android.util.SparseArray;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 
 /**
  * Class to hold the emoji metadata required to process and draw emojis.
@@ -38,11 +40,6 @@ import java.nio.ByteBuffer;
 @AnyThread
 @RequiresApi(19)
 public final class MetadataRepo {
-    /**
-     * The default children size of the root node.
-     */
-    private static final int DEFAULT_ROOT_SIZE = 1024;
-
     /**
      * MetadataList that contains the emoji metadata.
      */
@@ -55,9 +52,14 @@ public final class MetadataRepo {
     private final char[] mEmojiCharArray;
 
     /**
-     * Empty root node of the trie.
+     * Trie that maps codepoint sequences to EmojiMetadata.
      */
-    private final Node mRootNode;
+    private Trie mTrie;
+
+    /**
+     * EmojiMetadata added with {@link #put(EmojiMetadata)}. Only used by tests.
+     */
+    private final ArrayList<EmojiMetadata> mTestMetadata;
 
     /**
      * Typeface to be used to render emojis.
@@ -73,8 +75,9 @@ public final class MetadataRepo {
     MetadataRepo() {
         mTypeface = null;
         mMetadataList = null;
-        mRootNode = new Node(DEFAULT_ROOT_SIZE);
         mEmojiCharArray = new char[0];
+        mTestMetadata = new ArrayList<>();
+        mTrie = Trie.build(new EmojiMetadata[0], 0);
     }
 
     /**
@@ -87,11 +90,37 @@ public final class MetadataRepo {
             @NonNull final MetadataList metadataList) {
         mTypeface = typeface;
         mMetadataList = metadataList;
-        mRootNode = new Node(DEFAULT_ROOT_SIZE);
+        mTestMetadata = null;
         mEmojiCharArray = new char[mMetadataList.listLength() * 2];
         constructIndex(mMetadataList);
     }
 
+    /**
+     * Constructor used by {@link MetadataCache} to create a MetadataRepo from a snapshot.
+     *
+     * @param typeface Typeface to be used to render emojis
+     * @param metadataList MetadataList that contains the emoji metadata
+     * @param emojiCharArray char presentation of all EmojiMetadata's
+     * @param trie IntBuffer to read the trie from
+     * @param nodeCount number of nodes of the trie
+     *
+     * @throws IOException if the trie is not valid
+     */
+    MetadataRepo(@NonNull final Typeface typeface, @NonNull final MetadataList metadataList,
+            @NonNull final char[] emojiCharArray, @NonNull final IntBuffer trie,
+            final int nodeCount) throws IOException {
+        mTypeface = typeface;
+        mMetadataList = metadataList;
+        mEmojiCharArray = emojiCharArray;
+        mTestMetadata = null;
+        final int length = metadataList.listLength();
+        final EmojiMetadata[] metadata = new EmojiMetadata[length];
+        for (int i = 0; i < length; i++) {
+            metadata[i] = new EmojiMetadata(this, i);
+        }
+        mTrie = Trie.read(trie, nodeCount, metadata);
+    }
+
     /**
      * Construct MetadataRepo from an input stream. The library does not close the given
      * InputStream, therefore it is caller's responsibility to properly close the stream.
@@ -129,19 +158,73 @@ public final class MetadataRepo {
         return new MetadataRepo(typeface, MetadataListReader.read(assetManager, assetPath));
     }
 
+    /**
+     * Construct MetadataRepo from a byte buffer, using the snapshot in {@code cacheFile} if it
+     * was written for the same font. Otherwise the metadata is read from the font and the
+     * snapshot is written for the next time.
+     *
+     * @param typeface Typeface to be used to render emojis
+     * @param byteBuffer ByteBuffer to read emoji metadata from
+     * @param cacheFile file that holds the snapshot
+     *
+     * @hide
+     */
+    @RestrictTo(LIBRARY_GROUP)
+    public static MetadataRepo create(@NonNull final Typeface typeface,
+            @NonNull final ByteBuffer byteBuffer, @NonNull final File cacheFile)
+            throws IOException {
+        final long fingerprint = MetadataListReader.readFingerprint(byteBuffer);
+        MetadataRepo metadataRepo = MetadataCache.read(cacheFile, fingerprint, typeface);
+        if (metadataRepo == null) {
+            final ByteBuffer metadata = MetadataListReader.readMetadata(byteBuffer);
+            metadataRepo = new MetadataRepo(typeface,
+                    MetadataList.getRootAsMetadataList(metadata.duplicate()));
+            MetadataCache.write(cacheFile, fingerprint, metadataRepo, metadata);
+        }
+        return metadataRepo;
+    }
+
+    /**
+     * Construct MetadataRepo from an asset, using the snapshot in {@code cacheFile} if it was
+     * written for the same font.
+     *
+     * @param assetManager AssetManager instance
+     * @param assetPath asset manager path of the file that the Typeface and metadata will be
+     *                  created from
+     * @param cacheFile file that holds the snapshot
+     *
+     * @see #create(Typeface, ByteBuffer, File)
+     * @hide
+     */
+    @RestrictTo(LIBRARY_GROUP)
+    public static MetadataRepo create(@NonNull final AssetManager assetManager,
+            final String assetPath, @NonNull final File cacheFile) throws IOException {
+        final Typeface typeface = Typeface.createFromAsset(assetManager, assetPath);
+        final long fingerprint = MetadataListReader.readFingerprint(assetManager, assetPath);
+        MetadataRepo metadataRepo = MetadataCache.read(cacheFile, fingerprint, typeface);
+        if (metadataRepo == null) {
+            final ByteBuffer metadata = MetadataListReader.readMetadata(assetManager, assetPath);
+            metadataRepo = new MetadataRepo(typeface,
+                    MetadataList.getRootAsMetadataList(metadata.duplicate()));
+            MetadataCache.write(cacheFile, fingerprint, metadataRepo, metadata);
+        }
+        return metadataRepo;
+    }
+
     /**
      * Read emoji metadata list and construct the trie.
      */
     private void constructIndex(final MetadataList metadataList) {
         int length = metadataList.listLength();
+        final EmojiMetadata[] metadata = new EmojiMetadata[length];
         for (int i = 0; i < length; i++) {
-            final EmojiMetadata metadata = new EmojiMetadata(this, i);
+            metadata[i] = new EmojiMetadata(this, i);
             //since all emojis are mapped to a single codepoint in Private Use Area A they are 2
             //chars wide
             //noinspection ResultOfMethodCallIgnored
-            Character.toChars(metadata.getId(), mEmojiCharArray, i * 2);
-            put(metadata);
+            Character.toChars(metadata[i].getId(), mEmojiCharArray, i * 2);
         }
+        mTrie = Trie.build(metadata, length);
     }
 
     /**
@@ -164,8 +247,8 @@ public final class MetadataRepo {
      * @hide
      */
     @RestrictTo(LIBRARY_GROUP)
-    Node getRootNode() {
-        return mRootNode;
+    Trie getTrie() {
+        return mTrie;
     }
 
     /**
@@ -185,7 +268,8 @@ public final class MetadataRepo {
     }
 
     /**
-     * Add an EmojiMetadata to the index.
+     * Add an EmojiMetadata to the index. The trie is immutable, therefore it is rebuilt on each
+     * call. Only supported on the instances created for tests.
      *
      * @hide
      */
@@ -196,48 +280,297 @@ public final class MetadataRepo {
         Preconditions.checkArgument(data.getCodepointsLength() > 0,
                 "invalid metadata codepoint length");
 
-        mRootNode.put(data, 0, data.getCodepointsLength() - 1);
+        mTestMetadata.add(data);
+        final EmojiMetadata[] metadata = mTestMetadata.toArray(new EmojiMetadata[0]);
+        mTrie = Trie.build(metadata, metadata.length);
     }
 
     /**
-     * Trie node that holds mapping from emoji codepoint(s) to EmojiMetadata. A single codepoint
-     * emoji is represented by a child of the root node.
+     * Immutable trie that holds mapping from emoji codepoint(s) to EmojiMetadata. A single
+     * codepoint emoji is represented by a child of the root node.
+     * <p/>
+     * Nodes are identified by ints and numbered in breadth first order, so that the children of
+     * a node are consecutive and sorted by their codepoint. For a node {@code n}, its children
+     * are the nodes {@code mFirstChild[n]..mFirstChild[n + 1] - 1} and {@code mKeys[n]} is the
+     * codepoint on the edge from its parent. Walking the trie therefore does not allocate, and
+     * the whole trie is held in three arrays instead of an object per node.
      *
      * @hide
      */
     @RestrictTo(LIBRARY_GROUP)
-    static class Node {
-        private final SparseArray<Node> mChildren;
-        private EmojiMetadata mData;
+    static final class Trie {
+        /**
+         * Id of the root node.
+         */
+        static final int ROOT = 0;
+
+        /**
+         * Returned by {@link #get(int, int)} when there is no such child.
+         */
+        static final int NO_NODE = -1;
+
+        /**
+         * Index of the first child of each node, with an extra element that is the node count.
+         */
+        private final int[] mFirstChild;
+
+        /**
+         * Codepoint on the edge from the parent of each node. Unused for the root.
+         */
+        private final int[] mKeys;
+
+        /**
+         * Metadata of the emoji that ends at each node, or {@code null}.
+         */
+        private final EmojiMetadata[] mData;
+
+        private Trie(final int[] firstChild, final int[] keys, final EmojiMetadata[] data) {
+            mFirstChild = firstChild;
+            mKeys = keys;
+            mData = data;
+        }
+
+        /**
+         * @param node id of the parent node
+         * @param codePoint codepoint on the edge to the child
+         *
+         * @return id of the child node, or {@link #NO_NODE} if there is no such child
+         */
+        int get(final int node, final int codePoint) {
+            int lo = mFirstChild[node];
+            int hi = mFirstChild[node + 1] - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                final int midKey = mKeys[mid];
+                if (midKey < codePoint) {
+                    lo = mid + 1;
+                } else if (midKey > codePoint) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return NO_NODE;
+        }
+
+        /**
+         * @return metadata of the emoji that ends at {@code node}, or {@code null}
+         */
+        EmojiMetadata getData(final int node) {
+            return mData[node];
+        }
 
-        private Node() {
-            this(1);
+        /**
+         * @return number of nodes including the root
+         */
+        int getNodeCount() {
+            return mData.length;
         }
 
-        private Node(final int defaultChildrenSize) {
-            mChildren = new SparseArray<>(defaultChildrenSize);
+        /**
+         * Writes the trie to {@code buffer}. The metadata of the nodes are written as their index
+         * in the {@link MetadataList}.
+         *
+         * @see #read(IntBuffer, int, EmojiMetadata[])
+         */
+        void write(@NonNull final IntBuffer buffer) {
+            buffer.put(mFirstChild);
+            buffer.put(mKeys);
+            for (int i = 0; i < mData.length; i++) {
+                buffer.put(mData[i] == null ? NO_NODE : mData[i].getIndex());
+            }
         }
 
-        Node get(final int key) {
-            return mChildren == null ? null : mChildren.get(key);
+        /**
+         * @return number of ints written by {@link #write(IntBuffer)} for a trie of
+         * {@code nodeCount} nodes
+         */
+        static int getSerializedSize(final int nodeCount) {
+            return 3 * nodeCount + 1;
         }
 
-        final EmojiMetadata getData() {
-            return mData;
+        /**
+         * Reads a trie written by {@link #write(IntBuffer)}.
+         *
+         * @param buffer IntBuffer to read the trie from
+         * @param nodeCount number of nodes of the trie
+         * @param metadata metadata of the repo, indexed like the {@link MetadataList}
+         *
+         * @throws IOException if the trie is not valid
+         */
+        static Trie read(@NonNull final IntBuffer buffer, final int nodeCount,
+                @NonNull final EmojiMetadata[] metadata) throws IOException {
+            if (nodeCount < 1 || buffer.remaining() < getSerializedSize(nodeCount)) {
+                throw new IOException("Invalid trie size");
+            }
+            final int[] firstChild = new int[nodeCount + 1];
+            final int[] keys = new int[nodeCount];
+            final EmojiMetadata[] data = new EmojiMetadata[nodeCount];
+            buffer.get(firstChild);
+            buffer.get(keys);
+            for (int i = 0; i < nodeCount; i++) {
+                // children are numbered after their parent
+                if (firstChild[i] <= i || firstChild[i] > firstChild[i + 1]) {
+                    throw new IOException("Invalid trie node " + i);
+                }
+                final int index = buffer.get();
+                if (index != NO_NODE) {
+                    if (index < 0 || index >= metadata.length) {
+                        throw new IOException("Invalid metadata index " + index);
+                    }
+                    data[i] = metadata[index];
+                }
+            }
+            if (firstChild[nodeCount] != nodeCount) {
+                throw new IOException("Invalid trie size");
+            }
+            return new Trie(firstChild, keys, data);
+        }
+
+        /**
+         * Builds the trie for the given metadata. When several metadata have the same codepoints
+         * the last one is kept.
+         *
+         * @param metadata metadata to index
+         * @param count number of elements of {@code metadata} to index
+         */
+        static Trie build(@NonNull final EmojiMetadata[] metadata, final int count) {
+            // read the codepoints once, the comparisons below would be costly on the flatbuffer
+            final int[] offsets = new int[count + 1];
+            int total = 0;
+            for (int i = 0; i < count; i++) {
+                offsets[i] = total;
+                final int length = metadata[i].getCodepointsLength();
+                Preconditions.checkArgument(length > 0, "invalid metadata codepoint length");
+                total += length;
+            }
+            offsets[count] = total;
+            final int[] codepoints = new int[total];
+            int maxLength = 0;
+            for (int i = 0; i < count; i++) {
+                final int length = offsets[i + 1] - offsets[i];
+                for (int j = 0; j < length; j++) {
+                    codepoints[offsets[i] + j] = metadata[i].getCodepointAt(j);
+                }
+                maxLength = Math.max(maxLength, length);
+            }
+
+            final int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            sort(order, new int[count], 0, count, offsets, codepoints);
+
+            // Insert the sequences in lexicographic order. A new child is then always added after
+            // the existing children of its parent, and the children of a node are sorted.
+            final int maxNodes = total + 1;
+            final int[] keys = new int[maxNodes];
+            final int[] dataIndex = new int[maxNodes];
+            final int[] firstChild = new int[maxNodes];
+            final int[] lastChild = new int[maxNodes];
+            final int[] nextSibling = new int[maxNodes];
+            final int[] path = new int[maxLength + 1];
+            dataIndex[ROOT] = NO_NODE;
+            firstChild[ROOT] = NO_NODE;
+            int nodeCount = 1;
+            int previous = NO_NODE;
+            for (int i = 0; i < count; i++) {
+                final int current = order[i];
+                final int start = offsets[current];
+                final int length = offsets[current + 1] - start;
+                int depth = 0;
+                if (previous != NO_NODE) {
+                    final int previousStart = offsets[previous];
+                    final int common = Math.min(length, offsets[previous + 1] - previousStart);
+                    while (depth < common
+                            && codepoints[start + depth] == codepoints[previousStart + depth]) {
+                        depth++;
+                    }
+                }
+                for (; depth < length; depth++) {
+                    final int parent = path[depth];
+                    final int node = nodeCount++;
+                    keys[node] = codepoints[start + depth];
+                    dataIndex[node] = NO_NODE;
+                    firstChild[node] = NO_NODE;
+                    nextSibling[node] = NO_NODE;
+                    if (firstChild[parent] == NO_NODE) {
+                        firstChild[parent] = node;
+                    } else {
+                        nextSibling[lastChild[parent]] = node;
+                    }
+                    lastChild[parent] = node;
+                    path[depth + 1] = node;
+                }
+                dataIndex[path[length]] = current;
+                previous = current;
+            }
+
+            // renumber the nodes in breadth first order
+            final int[] bfsFirstChild = new int[nodeCount + 1];
+            final int[] bfsKeys = new int[nodeCount];
+            final EmojiMetadata[] bfsData = new EmojiMetadata[nodeCount];
+            final int[] queue = lastChild;
+            queue[0] = ROOT;
+            int next = 1;
+            for (int i = 0; i < nodeCount; i++) {
+                final int node = queue[i];
+                bfsFirstChild[i] = next;
+                bfsKeys[i] = keys[node];
+                if (dataIndex[node] != NO_NODE) {
+                    bfsData[i] = metadata[dataIndex[node]];
+                }
+                for (int child = firstChild[node]; child != NO_NODE;
+                        child = nextSibling[child]) {
+                    queue[next++] = child;
+                }
+            }
+            bfsFirstChild[nodeCount] = nodeCount;
+            return new Trie(bfsFirstChild, bfsKeys, bfsData);
         }
 
-        private void put(@NonNull final EmojiMetadata data, final int start, final int end) {
-            Node node = get(data.getCodepointAt(start));
-            if (node == null) {
-                node = new Node();
-                mChildren.put(data.getCodepointAt(start), node);
+        /**
+         * Stable merge sort of {@code order[from..to)} by the codepoints of each metadata.
+         */
+        private static void sort(final int[] order, final int[] buffer, final int from,
+                final int to, final int[] offsets, final int[] codepoints) {
+            if (to - from < 2) {
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            sort(order, buffer, from, middle, offsets, codepoints);
+            sort(order, buffer, middle, to, offsets, codepoints);
+            if (compare(order[middle - 1], order[middle], offsets, codepoints) <= 0) {
+                return;
             }
+            System.arraycopy(order, from, buffer, from, to - from);
+            int left = from;
+            int right = middle;
+            for (int i = from; i < to; i++) {
+                if (right >= to || (left < middle
+                        && compare(buffer[left], buffer[right], offsets, codepoints) <= 0)) {
+                    order[i] = buffer[left++];
+                } else {
+                    order[i] = buffer[right++];
+                }
+            }
+        }
 
-            if (end > start) {
-                node.put(data, start + 1, end);
-            } else {
-                node.mData = data;
+        private static int compare(final int first, final int second, final int[] offsets,
+                final int[] codepoints) {
+            final int firstStart = offsets[first];
+            final int firstLength = offsets[first + 1] - firstStart;
+            final int secondStart = offsets[second];
+            final int secondLength = offsets[second + 1] - secondStart;
+            final int length = Math.min(firstLength, secondLength);
+            for (int i = 0; i < length; i++) {
+                final int firstCodepoint = codepoints[firstStart + i];
+                final int secondCodepoint = codepoints[secondStart + i];
+                if (firstCodepoint != secondCodepoint) {
+                    return firstCodepoint < secondCodepoint ? -1 : 1;
+                }
             }
+            return firstLength - secondLength;
         }
     }
 }
@@ -50,12 +50,14 @@ import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
@@ -67,6 +69,7 @@ import static org.mockito.Mockito.when;
 import android.annotation.SuppressLint;
 import android.os.Bundle;
 import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
 import android.support.test.filters.SdkSuppress;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
@@ -78,7 +81,9 @@ import android.text.Selection;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.text.SpannedString;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
@@ -87,13 +92,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 import java.util.Set;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class EmojiCompatTest {
+    private static final String TAG = "EmojiCompatTest";
 
     @Before
     public void setup() {
@@ -544,6 +556,206 @@ public class EmojiCompatTest {
         assertThat(processed, hasEmoji(EMOJI_SINGLE_CODEPOINT));
     }
 
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testProcess_withReplaceNonExistent_cachesGlyphCheck() {
+        final EmojiProcessor.GlyphChecker glyphChecker = mock(EmojiProcessor.GlyphChecker.class);
+        when(glyphChecker.hasGlyph(any(CharSequence.class), anyInt(), anyInt())).thenReturn(false);
+        EmojiCompat.get().setGlyphChecker(glyphChecker);
+
+        final String original = new TestString(EMOJI_SINGLE_CODEPOINT).withPrefix()
+                .withSuffix().toString();
+        for (int i = 0; i < 3; i++) {
+            final CharSequence processed = EmojiCompat.get().process(original, 0,
+                    original.length(), Integer.MAX_VALUE /*maxEmojiCount*/,
+                    EmojiCompat.REPLACE_STRATEGY_NON_EXISTENT);
+            // the system cannot render the emoji, therefore it is replaced every time
+            assertThat(processed, hasEmojiCount(1));
+        }
+
+        // the result of the first check is reused
+        verify(glyphChecker, times(1)).hasGlyph(any(CharSequence.class), anyInt(), anyInt());
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testSetGlyphChecker_clearsGlyphCheckCache() {
+        final EmojiProcessor.GlyphChecker glyphChecker = mock(EmojiProcessor.GlyphChecker.class);
+        when(glyphChecker.hasGlyph(any(CharSequence.class), anyInt(), anyInt())).thenReturn(true);
+        EmojiCompat.get().setGlyphChecker(glyphChecker);
+        final String original = new TestString(EMOJI_SINGLE_CODEPOINT).toString();
+        CharSequence processed = EmojiCompat.get().process(original, 0, original.length(),
+                Integer.MAX_VALUE /*maxEmojiCount*/, EmojiCompat.REPLACE_STRATEGY_NON_EXISTENT);
+        assertThat(processed, not(hasEmoji()));
+
+        final EmojiProcessor.GlyphChecker otherGlyphChecker =
+                mock(EmojiProcessor.GlyphChecker.class);
+        when(otherGlyphChecker.hasGlyph(any(CharSequence.class), anyInt(), anyInt()))
+                .thenReturn(false);
+        EmojiCompat.get().setGlyphChecker(otherGlyphChecker);
+        processed = EmojiCompat.get().process(original, 0, original.length(),
+                Integer.MAX_VALUE /*maxEmojiCount*/, EmojiCompat.REPLACE_STRATEGY_NON_EXISTENT);
+
+        verify(otherGlyphChecker, times(1)).hasGlyph(any(CharSequence.class), anyInt(),
+                anyInt());
+        assertThat(processed, hasEmojiCount(1));
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testInvalidateGlyphChecks_checksAgain() {
+        final EmojiProcessor.GlyphChecker glyphChecker = mock(EmojiProcessor.GlyphChecker.class);
+        when(glyphChecker.hasGlyph(any(CharSequence.class), anyInt(), anyInt())).thenReturn(true);
+        EmojiCompat.get().setGlyphChecker(glyphChecker);
+        final String original = new TestString(EMOJI_SINGLE_CODEPOINT).toString();
+        CharSequence processed = EmojiCompat.get().process(original, 0, original.length(),
+                Integer.MAX_VALUE /*maxEmojiCount*/, EmojiCompat.REPLACE_STRATEGY_NON_EXISTENT);
+        assertThat(processed, not(hasEmoji()));
+
+        // the system can no longer render the emoji, which is only noticed after invalidating
+        when(glyphChecker.hasGlyph(any(CharSequence.class), anyInt(), anyInt())).thenReturn(false);
+        processed = EmojiCompat.get().process(original, 0, original.length(),
+                Integer.MAX_VALUE /*maxEmojiCount*/, EmojiCompat.REPLACE_STRATEGY_NON_EXISTENT);
+        assertThat(processed, not(hasEmoji()));
+
+        EmojiCompat.get().invalidateGlyphChecks();
+        processed = EmojiCompat.get().process(original, 0, original.length(),
+                Integer.MAX_VALUE /*maxEmojiCount*/, EmojiCompat.REPLACE_STRATEGY_NON_EXISTENT);
+
+        verify(glyphChecker, times(2)).hasGlyph(any(CharSequence.class), anyInt(), anyInt());
+        assertThat(processed, hasEmojiCount(1));
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testPrecomputeGlyphChecks() {
+        final MetadataRepo metadataRepo = TestConfigBuilder.TestEmojiDataLoader.sMetadataRepo;
+        final EmojiProcessor processor = new EmojiProcessor(metadataRepo,
+                new EmojiCompat.SpanFactory());
+        final EmojiProcessor.GlyphChecker glyphChecker = mock(EmojiProcessor.GlyphChecker.class);
+        when(glyphChecker.hasGlyph(any(CharSequence.class), anyInt(), anyInt())).thenReturn(true);
+        processor.setGlyphChecker(glyphChecker);
+
+        processor.precomputeGlyphChecks();
+        verify(glyphChecker, atLeastOnce()).hasGlyph(any(CharSequence.class), anyInt(),
+                anyInt());
+        reset(glyphChecker);
+
+        final String original = new TestString(EMOJI_SINGLE_CODEPOINT).toString();
+        final CharSequence processed = processor.process(original, 0, original.length(),
+                Integer.MAX_VALUE /*maxEmojiCount*/, false /*replaceAll*/);
+
+        verifyNoMoreInteractions(glyphChecker);
+        assertThat(processed, not(hasEmoji()));
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testProcessAll() {
+        final String plain = "plain text";
+        final String emoji = new TestString(EMOJI_SINGLE_CODEPOINT).withPrefix().withSuffix()
+                .toString();
+        final List<CharSequence> result = EmojiCompat.get().processAll(
+                Arrays.asList(plain, emoji, null, "", emoji));
+
+        assertEquals(5, result.size());
+        assertSame(plain, result.get(0));
+        assertThat(result.get(1), hasEmoji(EMOJI_SINGLE_CODEPOINT));
+        assertThat(result.get(1), instanceOf(SpannedString.class));
+        assertNull(result.get(2));
+        assertEquals("", result.get(3));
+        assertThat(result.get(4), hasEmoji(EMOJI_SINGLE_CODEPOINT));
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testProcessAll_sharesEmojiSpans() {
+        final String single = new TestString(EMOJI_SINGLE_CODEPOINT).withPrefix().toString();
+        final String twice = new TestString(EMOJI_SINGLE_CODEPOINT).append(EMOJI_WITH_ZWJ)
+                .append(EMOJI_SINGLE_CODEPOINT).toString();
+        final List<CharSequence> result = EmojiCompat.get().processAll(
+                Arrays.asList(single, twice));
+
+        final EmojiSpan[] singleSpans = getEmojiSpans(result.get(0));
+        final EmojiSpan[] twiceSpans = getEmojiSpans(result.get(1));
+        assertEquals(1, singleSpans.length);
+        assertEquals(3, twiceSpans.length);
+        // each occurrence in a CharSequence has its own span, which is shared with the other
+        // CharSequences
+        assertSame(singleSpans[0], twiceSpans[0]);
+        assertNotSame(twiceSpans[0], twiceSpans[2]);
+        assertEquals(twiceSpans[0].getId(), twiceSpans[2].getId());
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testProcessAll_doesNotModifySpannable() {
+        final TestString testString = new TestString(EMOJI_SINGLE_CODEPOINT).withPrefix();
+        final SpannableString spannable = new SpannableString(testString.toString());
+        final Object span = new Object();
+        spannable.setSpan(span, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        final List<CharSequence> result = EmojiCompat.get().processAll(
+                Collections.singletonList(spannable));
+
+        assertThat(spannable, not(hasEmoji()));
+        assertThat(result.get(0), instanceOf(SpannedString.class));
+        assertThat(result.get(0), hasEmojiAt(EMOJI_SINGLE_CODEPOINT,
+                testString.emojiStartIndex(), testString.emojiEndIndex()));
+        assertEquals(0, ((Spanned) result.get(0)).getSpanStart(span));
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testProcessAll_matchesProcess() {
+        final List<CharSequence> messages = createMessages(500);
+        final List<CharSequence> result = EmojiCompat.get().processAll(messages,
+                EmojiCompat.REPLACE_STRATEGY_ALL);
+
+        for (int i = 0; i < messages.size(); i++) {
+            final CharSequence expected = EmojiCompat.get().process(messages.get(i), 0,
+                    messages.get(i).length(), Integer.MAX_VALUE /*maxEmojiCount*/,
+                    EmojiCompat.REPLACE_STRATEGY_ALL);
+            final EmojiSpan[] expectedSpans = getEmojiSpans(expected);
+            final EmojiSpan[] spans = getEmojiSpans(result.get(i));
+            assertEquals(expectedSpans.length, spans.length);
+            for (int j = 0; j < spans.length; j++) {
+                assertEquals(expectedSpans[j].getId(), spans[j].getId());
+                assertEquals(((Spanned) expected).getSpanStart(expectedSpans[j]),
+                        ((Spanned) result.get(i)).getSpanStart(spans[j]));
+            }
+        }
+    }
+
+    /**
+     * Logs the time taken to process a chat like corpus one message at a time and as a batch.
+     * The timings are only logged since they depend on the device.
+     */
+    @LargeTest
+    @Test
+    @SdkSuppress(minSdkVersion = 19)
+    public void testProcessAll_throughput() {
+        final List<CharSequence> messages = createMessages(20000);
+        final int rounds = 5;
+        long processNanos = 0;
+        long processAllNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < messages.size(); i++) {
+                EmojiCompat.get().process(messages.get(i));
+            }
+            processNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            EmojiCompat.get().processAll(messages);
+            processAllNanos += System.nanoTime() - start;
+        }
+        Log.d(TAG, String.format(Locale.US, "%d messages: process %d messages/ms, processAll "
+                        + "%d messages/ms", messages.size(),
+                (long) messages.size() * rounds * 1000000 / Math.max(processNanos, 1),
+                (long) messages.size() * rounds * 1000000 / Math.max(processAllNanos, 1)));
+    }
+
     @Test(expected = NullPointerException.class)
     public void testHasEmojiGlyph_withNullCharSequence() {
         EmojiCompat.get().hasEmojiGlyph(null);
@@ -729,6 +941,57 @@ public class EmojiCompatTest {
         assertFalse(EmojiCompat.handleOnKeyDown(editable, event.getKeyCode(), event));
     }
 
+    private static EmojiSpan[] getEmojiSpans(CharSequence charSequence) {
+        if (!(charSequence instanceof Spanned)) {
+            return new EmojiSpan[0];
+        }
+        final Spanned spanned = (Spanned) charSequence;
+        final EmojiSpan[] spans = spanned.getSpans(0, spanned.length(), EmojiSpan.class);
+        Arrays.sort(spans, new Comparator<EmojiSpan>() {
+            @Override
+            public int compare(EmojiSpan lhs, EmojiSpan rhs) {
+                return spanned.getSpanStart(lhs) - spanned.getSpanStart(rhs);
+            }
+        });
+        return spans;
+    }
+
+    /**
+     * Creates chat like messages: most are short ASCII sentences, some are in other scripts, and
+     * about a third have one to three emojis.
+     */
+    private static List<CharSequence> createMessages(int count) {
+        final String[] words = {"ok", "see", "you", "at", "5", "lunch?", "haha", "sure", "thanks",
+                "on", "my", "way", "call", "me", "later", "#1", "*", "really", "nice", "photo"};
+        final String[] otherScripts = {"\u043f\u0440\u0438\u0432\u0435\u0442",
+                "\u3053\u3093\u306b\u3061\u306f", "\u00e7a va", "gr\u00fc\u00df dich"};
+        final EmojiMapping[] emojis = {EMOJI_SINGLE_CODEPOINT, EMOJI_WITH_ZWJ, EMOJI_FLAG,
+                EMOJI_GENDER, EMOJI_SKIN_MODIFIER, EMOJI_DIGIT_KEYCAP};
+        final Random random = new Random(0);
+        final List<CharSequence> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final StringBuilder builder = new StringBuilder();
+            final int wordCount = 1 + random.nextInt(12);
+            for (int j = 0; j < wordCount; j++) {
+                if (j > 0) {
+                    builder.append(' ');
+                }
+                builder.append(words[random.nextInt(words.length)]);
+            }
+            final int kind = random.nextInt(10);
+            if (kind < 3) {
+                final int emojiCount = 1 + random.nextInt(3);
+                for (int j = 0; j < emojiCount; j++) {
+                    builder.append(new TestString(emojis[random.nextInt(emojis.length)]));
+                }
+            } else if (kind == 3) {
+                builder.append(' ').append(otherScripts[random.nextInt(otherScripts.length)]);
+            }
+            messages.add(builder.toString());
+        }
+        return messages;
+    }
+
     private void assertCodePointMatch(EmojiMapping emoji) {
         assertCodePointMatch(emoji.id(), emoji.codepoints());
     }
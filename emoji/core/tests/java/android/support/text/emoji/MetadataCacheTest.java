@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.text.emoji;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.AssetManager;
+import android.graphics.Typeface;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.text.emoji.flatbuffer.MetadataItem;
+import android.support.text.emoji.flatbuffer.MetadataList;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 19)
+public class MetadataCacheTest {
+    private static final String TAG = "MetadataCacheTest";
+    private static final String FONT_NAME = "NotoColorEmojiCompat.ttf";
+
+    private Typeface mTypeface;
+    private ByteBuffer mFont;
+    private File mCacheFile;
+
+    @Before
+    public void setup() throws IOException {
+        final AssetManager assetManager = InstrumentationRegistry.getContext().getAssets();
+        mTypeface = Typeface.createFromAsset(assetManager, FONT_NAME);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream inputStream = assetManager.open(FONT_NAME)) {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+        mFont = ByteBuffer.wrap(out.toByteArray());
+        mCacheFile = new File(InstrumentationRegistry.getContext().getCacheDir(),
+                "MetadataCacheTest");
+        mCacheFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mCacheFile.delete();
+    }
+
+    @Test
+    public void testCreate_writesSnapshot() throws IOException {
+        final MetadataRepo metadataRepo = MetadataRepo.create(mTypeface, mFont, mCacheFile);
+        assertTrue(mCacheFile.isFile());
+        assertSameEmojis(MetadataRepo.create(mTypeface, mFont), metadataRepo);
+    }
+
+    @Test
+    public void testRead_snapshotMatchesFont() throws IOException {
+        MetadataRepo.create(mTypeface, mFont, mCacheFile);
+        final long fingerprint = MetadataListReader.readFingerprint(mFont);
+
+        final MetadataRepo metadataRepo = MetadataCache.read(mCacheFile, fingerprint, mTypeface);
+
+        assertNotNull(metadataRepo);
+        assertSameEmojis(MetadataRepo.create(mTypeface, mFont), metadataRepo);
+    }
+
+    @Test
+    public void testRead_ignoresSnapshotOfAnotherFont() throws IOException {
+        MetadataRepo.create(mTypeface, mFont, mCacheFile);
+        final long fingerprint = MetadataListReader.readFingerprint(mFont);
+
+        assertNull(MetadataCache.read(mCacheFile, fingerprint + 1, mTypeface));
+    }
+
+    @Test
+    public void testRead_ignoresCorruptedSnapshot() throws IOException {
+        MetadataRepo.create(mTypeface, mFont, mCacheFile);
+        final long fingerprint = MetadataListReader.readFingerprint(mFont);
+        try (RandomAccessFile file = new RandomAccessFile(mCacheFile, "rw")) {
+            file.seek(file.length() / 2);
+            final int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0xFF);
+        }
+
+        assertNull(MetadataCache.read(mCacheFile, fingerprint, mTypeface));
+        // the snapshot is written again
+        assertSameEmojis(MetadataRepo.create(mTypeface, mFont),
+                MetadataRepo.create(mTypeface, mFont, mCacheFile));
+        assertNotNull(MetadataCache.read(mCacheFile, fingerprint, mTypeface));
+    }
+
+    /**
+     * Logs the time taken to create the MetadataRepo from the font without a snapshot, when the
+     * snapshot is written and when it is read. The timings are only logged since they depend on
+     * the device.
+     */
+    @LargeTest
+    @Test
+    public void testCreateLatency() throws IOException {
+        final int rounds = 10;
+        long fontNanos = 0;
+        long writeNanos = 0;
+        long readNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            MetadataRepo.create(mTypeface, mFont);
+            fontNanos += System.nanoTime() - start;
+
+            mCacheFile.delete();
+            start = System.nanoTime();
+            MetadataRepo.create(mTypeface, mFont, mCacheFile);
+            writeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            MetadataRepo.create(mTypeface, mFont, mCacheFile);
+            readNanos += System.nanoTime() - start;
+        }
+        Log.d(TAG, String.format(Locale.US, "create from font %dus, writing the snapshot %dus, "
+                        + "from the snapshot %dus (%d bytes)", fontNanos / rounds / 1000,
+                writeNanos / rounds / 1000, readNanos / rounds / 1000, mCacheFile.length()));
+    }
+
+    private static void assertSameEmojis(final MetadataRepo expected,
+            final MetadataRepo actual) {
+        assertArrayEquals(expected.getEmojiCharArray(), actual.getEmojiCharArray());
+        assertEquals(expected.getTrie().getNodeCount(), actual.getTrie().getNodeCount());
+        final MetadataList metadataList = expected.getMetadataList();
+        final int length = metadataList.listLength();
+        assertEquals(length, actual.getMetadataList().listLength());
+        for (int i = 0; i < length; i++) {
+            final MetadataItem item = metadataList.list(i);
+            int node = MetadataRepo.Trie.ROOT;
+            for (int j = 0; j < item.codepointsLength(); j++) {
+                node = actual.getTrie().get(node, item.codepoints(j));
+            }
+            final EmojiMetadata metadata = actual.getTrie().getData(node);
+            assertEquals(item.id(), metadata.getId());
+            assertEquals(item.codepointsLength(), metadata.getCodepointsLength());
+        }
+    }
+}
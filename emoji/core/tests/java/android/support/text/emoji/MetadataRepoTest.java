@@ -16,21 +16,34 @@
 package android.support.text.emoji;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 
+import android.content.res.AssetManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
 import android.support.test.filters.SdkSuppress;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
-import android.support.text.emoji.MetadataRepo.Node;
+import android.support.text.emoji.MetadataRepo.Trie;
+import android.support.text.emoji.flatbuffer.MetadataItem;
+import android.support.text.emoji.flatbuffer.MetadataList;
+import android.util.Log;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 @SdkSuppress(minSdkVersion = 19)
 public class MetadataRepoTest {
+    private static final String TAG = "MetadataRepoTest";
 
     MetadataRepo mMetadataRepo;
 
@@ -93,16 +106,109 @@ public class MetadataRepoTest {
         assertEquals(null, getNode(new int[]{1, 2, 3, 4, 5}));
     }
 
+    @Test
+    public void testPut_sameCodePoints() {
+        final int[] codePoint = new int[]{1, 2};
+        final EmojiMetadata metadata1 = new TestEmojiMetadata(codePoint, 1);
+        final EmojiMetadata metadata2 = new TestEmojiMetadata(codePoint, 2);
+
+        mMetadataRepo.put(metadata1);
+        mMetadataRepo.put(metadata2);
+
+        assertSame(metadata2, getNode(codePoint));
+    }
+
+    @Test
+    public void testPut_branchingCodePoints() {
+        final Random random = new Random(1);
+        final int[][] codePoints = new int[200][];
+        final EmojiMetadata[] metadata = new EmojiMetadata[codePoints.length];
+        for (int i = 0; i < codePoints.length; i++) {
+            // a small alphabet creates many shared prefixes
+            codePoints[i] = new int[1 + random.nextInt(5)];
+            for (int j = 0; j < codePoints[i].length; j++) {
+                codePoints[i][j] = 0x1F600 + random.nextInt(4) * 0x100;
+            }
+            metadata[i] = new TestEmojiMetadata(codePoints[i], i);
+            mMetadataRepo.put(metadata[i]);
+        }
+
+        for (int i = 0; i < codePoints.length; i++) {
+            // the last metadata put with the same codepoints is kept
+            int expected = i;
+            for (int j = i + 1; j < codePoints.length; j++) {
+                if (Arrays.equals(codePoints[i], codePoints[j])) {
+                    expected = j;
+                }
+            }
+            assertSame(metadata[expected], getNode(codePoints[i]));
+            assertNull(getNode(concat(codePoints[i], 0x1F601)));
+        }
+    }
+
+    /**
+     * Logs the time taken to create the MetadataRepo for the bundled font, the size of its trie
+     * and the time taken to look up every emoji in it. The timings are only logged since they
+     * depend on the device.
+     */
+    @LargeTest
+    @Test
+    public void testCreateAndLookUp() throws IOException {
+        final AssetManager assetManager = InstrumentationRegistry.getContext().getAssets();
+        // warm up
+        MetadataRepo.create(assetManager, "NotoColorEmojiCompat.ttf");
+
+        long start = System.nanoTime();
+        final MetadataRepo metadataRepo =
+                MetadataRepo.create(assetManager, "NotoColorEmojiCompat.ttf");
+        final long createNanos = System.nanoTime() - start;
+
+        final MetadataList metadataList = metadataRepo.getMetadataList();
+        final int length = metadataList.listLength();
+        final int[][] codePoints = new int[length][];
+        for (int i = 0; i < length; i++) {
+            final MetadataItem item = metadataList.list(i);
+            codePoints[i] = new int[item.codepointsLength()];
+            for (int j = 0; j < codePoints[i].length; j++) {
+                codePoints[i][j] = item.codepoints(j);
+            }
+        }
+
+        mMetadataRepo = metadataRepo;
+        final int rounds = 100;
+        int found = 0;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < length; i++) {
+                if (getNode(codePoints[i]) != null) {
+                    found++;
+                }
+            }
+        }
+        final long lookUpNanos = System.nanoTime() - start;
+
+        assertEquals(rounds * length, found);
+        Log.d(TAG, String.format(Locale.US, "%d emojis, %d trie nodes: create %dms, "
+                        + "look up %dns/emoji", length, metadataRepo.getTrie().getNodeCount(),
+                createNanos / 1000000, lookUpNanos / ((long) rounds * length)));
+    }
+
+    private static int[] concat(final int[] codePoints, final int codePoint) {
+        final int[] result = Arrays.copyOf(codePoints, codePoints.length + 1);
+        result[codePoints.length] = codePoint;
+        return result;
+    }
+
     final EmojiMetadata getNode(final int[] codepoints) {
-        return getNode(mMetadataRepo.getRootNode(), codepoints, 0);
+        return getNode(mMetadataRepo.getTrie(), Trie.ROOT, codepoints, 0);
     }
 
-    final EmojiMetadata getNode(Node node, final int[] codepoints, int start) {
+    final EmojiMetadata getNode(Trie trie, int node, final int[] codepoints, int start) {
         if (codepoints.length < start) return null;
-        if (codepoints.length == start) return node.getData();
+        if (codepoints.length == start) return trie.getData(node);
 
-        final Node childNode = node.get(codepoints[start]);
-        if (childNode == null) return null;
-        return getNode(childNode, codepoints, start + 1);
+        final int childNode = trie.get(node, codepoints[start]);
+        if (childNode == Trie.NO_NODE) return null;
+        return getNode(trie, childNode, codepoints, start + 1);
     }
 }
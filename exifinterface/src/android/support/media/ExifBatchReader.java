@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.media;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the same Exif tags from many image files on a bounded number of threads.
+ * <p>
+ * Each file is read like {@link ExifInterface#ExifInterface(String, String[])} does, so only the
+ * requested tags are kept. The threads reuse their read buffers across files, and the values are
+ * stored in one array per tag, which is much more compact than keeping an
+ * {@link ExifInterface} for each file. A file that cannot be read does not affect the others, see
+ * {@link Result#getFailure(int)}.
+ */
+public final class ExifBatchReader {
+    private final String[] mTags;
+    private final HashSet<String> mTagsToRead;
+    private final int mThreadCount;
+
+    /**
+     * Creates a reader that uses as many threads as there are available processors.
+     *
+     * @param tags the names of the tags to read, e.g. {@link ExifInterface#TAG_ORIENTATION}.
+     */
+    public ExifBatchReader(@NonNull String[] tags) {
+        this(tags, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param tags the names of the tags to read, e.g. {@link ExifInterface#TAG_ORIENTATION}.
+     * @param threadCount the maximum number of threads reading files at the same time,
+     *                    including the calling thread.
+     */
+    public ExifBatchReader(@NonNull String[] tags, int threadCount) {
+        if (tags == null) {
+            throw new IllegalArgumentException("tags cannot be null");
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        mTags = tags.clone();
+        mTagsToRead = ExifInterface.getTagsToRead(mTags);
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Reads the tags from the image files. The calling thread reads files too, and this returns
+     * once all of them are read.
+     *
+     * @param filenames the names of the image files.
+     * @throws InterruptedException if the calling thread is interrupted, in which case the files
+     *                              that are not read yet are skipped.
+     */
+    @WorkerThread
+    @NonNull
+    public Result read(@NonNull String[] filenames) throws InterruptedException {
+        if (filenames == null) {
+            throw new IllegalArgumentException("filenames cannot be null");
+        }
+        return read(filenames, null, filenames.length);
+    }
+
+    /**
+     * Reads the tags from the image file descriptors. The file descriptors are read without
+     * changing their offsets, and they are not closed. The calling thread reads files too, and
+     * this returns once all of them are read.
+     *
+     * @param fileDescriptors the file descriptors of the image files.
+     * @throws InterruptedException if the calling thread is interrupted, in which case the files
+     *                              that are not read yet are skipped.
+     */
+    @WorkerThread
+    @NonNull
+    public Result read(@NonNull FileDescriptor[] fileDescriptors) throws InterruptedException {
+        if (fileDescriptors == null) {
+            throw new IllegalArgumentException("fileDescriptors cannot be null");
+        }
+        return read(null, fileDescriptors, fileDescriptors.length);
+    }
+
+    private Result read(final String[] filenames, final FileDescriptor[] fileDescriptors,
+            final int count) throws InterruptedException {
+        final Result result = new Result(mTags, count);
+        // Files are handed out one at a time, so that slow files don't keep the other threads
+        // waiting.
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                final ByteBuffer buffer = ByteBuffer.allocate(ExifInterface.READ_BUFFER_SIZE);
+                final HashMap<String, String> strings = new HashMap<>();
+                int index;
+                while ((index = nextIndex.getAndIncrement()) < count) {
+                    try {
+                        final ExifInterface exifInterface = new ExifInterface(
+                                filenames != null ? filenames[index] : null,
+                                fileDescriptors != null ? fileDescriptors[index] : null,
+                                mTagsToRead, buffer);
+                        result.set(index, exifInterface, strings);
+                    } catch (Exception e) {
+                        result.mFailures[index] = e;
+                    }
+                }
+            }
+        };
+
+        final Thread[] threads = new Thread[Math.max(0, Math.min(mThreadCount, count) - 1)];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(worker, "ExifBatchReader-" + i);
+            threads[i].start();
+        }
+        worker.run();
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            nextIndex.set(count);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * The tags read from a batch of image files, in the order of the files.
+     */
+    public static final class Result {
+        private final HashMap<String, Column> mColumns = new HashMap<>();
+        private final Column[] mColumnArray;
+        private final Exception[] mFailures;
+
+        Result(String[] tags, int count) {
+            mColumnArray = new Column[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                Column column = mColumns.get(tags[i]);
+                if (column == null) {
+                    column = new Column(tags[i], count);
+                    mColumns.put(tags[i], column);
+                }
+                mColumnArray[i] = column;
+            }
+            mFailures = new Exception[count];
+        }
+
+        /**
+         * Returns the number of image files.
+         */
+        public int size() {
+            return mFailures.length;
+        }
+
+        /**
+         * Returns the exception thrown while reading the image file at the given index, or
+         * {@code null} if it was read. Files that are not in a supported format are read
+         * without an exception, like {@link ExifInterface} does, and have no values.
+         */
+        @Nullable
+        public Exception getFailure(int index) {
+            return mFailures[index];
+        }
+
+        /**
+         * Returns the value of the tag for the image file at the given index, or {@code null} if
+         * the file doesn't have the tag. Single numeric values are stored as numbers, and they
+         * are returned in decimal form rather than e.g. as rationals.
+         *
+         * @param index the index of the image file.
+         * @param tag the name of the tag, which needs to be one of the tags that were read.
+         */
+        @Nullable
+        public String getAttribute(int index, @NonNull String tag) {
+            Column column = getColumn(tag);
+            if (column.mNumbers != null) {
+                double value = column.mNumbers[index];
+                if (!Double.isNaN(value)) {
+                    long longValue = (long) value;
+                    return longValue == value ? Long.toString(longValue) : Double.toString(value);
+                }
+            }
+            String[] strings = column.getStrings(false);
+            return strings != null ? strings[index] : null;
+        }
+
+        /**
+         * Returns the integer value of the tag for the image file at the given index, or
+         * {@code defaultValue} if the file doesn't have the tag or if its value is not a single
+         * number. Unlike {@link ExifInterface#getAttributeInt(String, int)}, rational values are
+         * rounded towards zero rather than ignored.
+         *
+         * @param index the index of the image file.
+         * @param tag the name of the tag, which needs to be one of the tags that were read.
+         * @param defaultValue the value to return if the tag is not available.
+         */
+        public int getAttributeInt(int index, @NonNull String tag, int defaultValue) {
+            double value = getAttributeDouble(index, tag, Double.NaN);
+            return Double.isNaN(value) ? defaultValue : (int) value;
+        }
+
+        /**
+         * Returns the double value of the tag for the image file at the given index, or
+         * {@code defaultValue} if the file doesn't have the tag or if its value is not a single
+         * number.
+         *
+         * @param index the index of the image file.
+         * @param tag the name of the tag, which needs to be one of the tags that were read.
+         * @param defaultValue the value to return if the tag is not available.
+         */
+        public double getAttributeDouble(int index, @NonNull String tag, double defaultValue) {
+            Column column = getColumn(tag);
+            if (column.mNumbers == null || Double.isNaN(column.mNumbers[index])) {
+                return defaultValue;
+            }
+            return column.mNumbers[index];
+        }
+
+        private Column getColumn(String tag) {
+            Column column = mColumns.get(tag);
+            if (column == null) {
+                throw new IllegalArgumentException("The tag was not read: " + tag);
+            }
+            return column;
+        }
+
+        // Stores the values of the image file at the given index. Each index is only set by
+        // one thread, and the strings are shared by the files that the thread reads.
+        void set(int index, ExifInterface exifInterface, HashMap<String, String> strings) {
+            for (Column column : mColumnArray) {
+                if (column.mNumbers != null) {
+                    double value = exifInterface.getAttributeDouble(column.mTag, Double.NaN);
+                    column.mNumbers[index] = value;
+                    if (!Double.isNaN(value)) {
+                        continue;
+                    }
+                }
+                String value = exifInterface.getAttribute(column.mTag);
+                if (value != null) {
+                    String sharedValue = strings.get(value);
+                    if (sharedValue == null) {
+                        strings.put(value, value);
+                        sharedValue = value;
+                    }
+                    column.getStrings(true)[index] = sharedValue;
+                }
+            }
+        }
+    }
+
+    // The values of one tag for all of the image files. Numeric tags keep single values in an
+    // array of doubles, where NaN stands for a missing value, and only allocate the array of
+    // strings for values with several components, e.g. TAG_GPS_LATITUDE.
+    private static final class Column {
+        final String mTag;
+        final double[] mNumbers;
+        private final int mCount;
+        private String[] mStrings;
+
+        Column(String tag, int count) {
+            mTag = tag;
+            mCount = count;
+            if (ExifInterface.isNumericTag(tag)) {
+                mNumbers = new double[count];
+                Arrays.fill(mNumbers, Double.NaN);
+            } else {
+                mNumbers = null;
+                mStrings = new String[count];
+            }
+        }
+
+        synchronized String[] getStrings(boolean create) {
+            if (mStrings == null && create) {
+                mStrings = new String[mCount];
+            }
+            return mStrings;
+        }
+    }
+}
@@ -27,11 +27,13 @@ import android.util.Pair;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -39,13 +41,16 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -2823,6 +2828,8 @@ public class ExifInterface {
 
     // Maximum size for checking file type signature (see image_type_recognition_lite.cc)
     private static final int SIGNATURE_CHECK_SIZE = 5000;
+    // Size of the buffer for reading files with positional reads
+    static final int READ_BUFFER_SIZE = 8192;
 
     static final byte[] JPEG_SIGNATURE = new byte[] {(byte) 0xff, (byte) 0xd8, (byte) 0xff};
     private static final String RAF_SIGNATURE = "FUJIFILMCCD-RAW";
@@ -3599,6 +3606,17 @@ public class ExifInterface {
     private static final HashSet<String> sTagSetForCompatibility = new HashSet<>(Arrays.asList(
             TAG_F_NUMBER, TAG_DIGITAL_ZOOM_RATIO, TAG_EXPOSURE_TIME, TAG_SUBJECT_DISTANCE,
             TAG_GPS_TIMESTAMP));
+    // Tags that are read even if they are not requested, since they are needed to parse the image
+    // and to locate the thumbnail.
+    private static final HashSet<String> sTagSetForParsing = new HashSet<>(Arrays.asList(
+            TAG_BITS_PER_SAMPLE, TAG_COMPRESSION, TAG_DEFAULT_CROP_SIZE, TAG_DNG_VERSION,
+            TAG_IMAGE_LENGTH, TAG_IMAGE_WIDTH, TAG_JPEG_INTERCHANGE_FORMAT,
+            TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, TAG_MAKE, TAG_MODEL, TAG_ORF_ASPECT_FRAME,
+            TAG_ORF_PREVIEW_IMAGE_LENGTH, TAG_ORF_PREVIEW_IMAGE_START, TAG_ORF_THUMBNAIL_IMAGE,
+            TAG_PHOTOMETRIC_INTERPRETATION, TAG_PIXEL_X_DIMENSION, TAG_PIXEL_Y_DIMENSION,
+            TAG_RW2_JPG_FROM_RAW, TAG_RW2_SENSOR_BOTTOM_BORDER, TAG_RW2_SENSOR_LEFT_BORDER,
+            TAG_RW2_SENSOR_RIGHT_BORDER, TAG_RW2_SENSOR_TOP_BORDER, TAG_STRIP_BYTE_COUNTS,
+            TAG_STRIP_OFFSETS));
     // Mappings from tag number to IFD type for pointer tags.
     @SuppressWarnings("unchecked")
     private static final HashMap<Integer, Integer> sExifPointerTagMap = new HashMap();
@@ -3611,6 +3629,9 @@ public class ExifInterface {
     private static final Charset ASCII = Charset.forName("US-ASCII");
     // Identifier for EXIF APP1 segment in JPEG
     static final byte[] IDENTIFIER_EXIF_APP1 = "Exif\0\0".getBytes(ASCII);
+    // Number of bytes reserved after the EXIF data when a JPEG file is rewritten, so that later
+    // changes can be saved in place
+    private static final int EXIF_SEGMENT_PADDING = 512;
     // JPEG segment markers, that each marker consumes two bytes beginning with 0xff and ending with
     // the indicator. There is no SOF4, SOF8, SOF16 markers in JPEG and SOFx markers indicates start
     // of frame(baseline DCT) and the image size info exists in its beginning part.
@@ -3673,6 +3694,10 @@ public class ExifInterface {
 
     private final String mFilename;
     private final AssetManager.AssetInputStream mAssetInputStream;
+    // Null if the image was read from a non-seekable file descriptor, which cannot be read again.
+    private FileDescriptor mFileDescriptor;
+    // Names of the tags to keep while parsing, or null to keep all of them.
+    private HashSet<String> mTagsToRead;
     private int mMimeType;
     @SuppressWarnings("unchecked")
     private final HashMap<String, ExifAttribute>[] mAttributes = new HashMap[EXIF_TAGS.length];
@@ -3682,6 +3707,10 @@ public class ExifInterface {
     private int mThumbnailOffset;
     private int mThumbnailLength;
     private byte[] mThumbnailBytes;
+    // Strips of an uncompressed thumbnail, which are read on the first call to
+    // getThumbnailBytes().
+    private long[] mThumbnailStripOffsets;
+    private long[] mThumbnailStripByteCounts;
     private int mThumbnailCompression;
     private int mExifOffset;
     private int mOrfMakerNoteOffset;
@@ -3700,18 +3729,75 @@ public class ExifInterface {
      * Reads Exif tags from the specified image file.
      */
     public ExifInterface(String filename) throws IOException {
+        this(filename, null);
+    }
+
+    /**
+     * Reads the specified Exif tags from the specified image file. The values of other tags are
+     * skipped without being copied, which is much faster than reading all tags when only a few
+     * are needed, e.g. {@link #TAG_ORIENTATION} and {@link #TAG_DATETIME} to sort photos.
+     * {@link #getAttribute(String)} returns {@code null} for the tags that were not requested,
+     * although some of them are read anyway since they are needed to parse the image.
+     * Saving attributes is not supported when only some of the tags are read.
+     *
+     * @param filename the name of the image file.
+     * @param tags the names of the tags to read, or {@code null} to read all tags.
+     */
+    public ExifInterface(String filename, String[] tags) throws IOException {
         if (filename == null) {
             throw new IllegalArgumentException("filename cannot be null");
         }
-        FileInputStream in = null;
         mAssetInputStream = null;
+        mFileDescriptor = null;
         mFilename = filename;
-        try {
-            in = new FileInputStream(filename);
-            loadAttributes(in);
-        } finally {
-            closeQuietly(in);
+        mTagsToRead = getTagsToRead(tags);
+        loadFile(ByteBuffer.allocate(READ_BUFFER_SIZE));
+    }
+
+    /**
+     * Reads Exif tags from the specified image file descriptor. The file descriptor is read
+     * without changing its offset, and it is not closed. Attribute mutation is not supported for
+     * file descriptors. The file descriptor needs to stay open for {@link #getThumbnailBytes()}
+     * and the other methods that read the thumbnail.
+     * <p>
+     * A file descriptor that does not support seeking, such as a pipe or a socket, is read like
+     * an input stream instead: it is read from its current offset, which proceeds, and the
+     * thumbnail is kept in memory.
+     */
+    public ExifInterface(FileDescriptor fileDescriptor) throws IOException {
+        this(fileDescriptor, null);
+    }
+
+    /**
+     * Reads the specified Exif tags from the specified image file descriptor. See
+     * {@link #ExifInterface(String, String[])} and {@link #ExifInterface(FileDescriptor)}.
+     *
+     * @param fileDescriptor the file descriptor of the image file.
+     * @param tags the names of the tags to read, or {@code null} to read all tags.
+     */
+    public ExifInterface(FileDescriptor fileDescriptor, String[] tags) throws IOException {
+        if (fileDescriptor == null) {
+            throw new IllegalArgumentException("fileDescriptor cannot be null");
         }
+        mAssetInputStream = null;
+        mFileDescriptor = fileDescriptor;
+        mFilename = null;
+        mTagsToRead = getTagsToRead(tags);
+        loadFile(ByteBuffer.allocate(READ_BUFFER_SIZE));
+    }
+
+    /**
+     * Reads Exif tags from the image file, or from the file descriptor if the file name is null.
+     * Used by {@link ExifBatchReader}, which shares the tags to read and reuses the read buffer
+     * across images.
+     */
+    ExifInterface(String filename, FileDescriptor fileDescriptor, HashSet<String> tagsToRead,
+            ByteBuffer buffer) throws IOException {
+        mAssetInputStream = null;
+        mFileDescriptor = fileDescriptor;
+        mFilename = filename;
+        mTagsToRead = tagsToRead;
+        loadFile(buffer);
     }
 
     /**
@@ -3725,6 +3811,7 @@ public class ExifInterface {
             throw new IllegalArgumentException("inputStream cannot be null");
         }
         mFilename = null;
+        mFileDescriptor = null;
         if (inputStream instanceof AssetManager.AssetInputStream) {
             mAssetInputStream = (AssetManager.AssetInputStream) inputStream;
         } else {
@@ -3733,6 +3820,89 @@ public class ExifInterface {
         loadAttributes(inputStream);
     }
 
+    // Reads the image file from its name or its file descriptor with positional reads, or as a
+    // stream if the file descriptor is not seekable.
+    private void loadFile(ByteBuffer buffer) throws IOException {
+        FileInputStream in = null;
+        try {
+            in = mFilename != null
+                    ? new FileInputStream(mFilename) : new FileInputStream(mFileDescriptor);
+            if (mFilename == null && !isSeekable(in.getChannel())) {
+                if (DEBUG) {
+                    Log.d(TAG, "The file descriptor is not seekable, reading it as a stream");
+                }
+                mFileDescriptor = null;
+                loadAttributes(in);
+                return;
+            }
+            loadAttributes(new SeekableFileInputStream(in.getChannel(), buffer));
+        } finally {
+            // The file descriptor is not closed.
+            if (mFilename != null) {
+                closeQuietly(in);
+            }
+        }
+    }
+
+    // Returns false for pipes and sockets, whose size is unknown and which cannot be read at a
+    // given position.
+    private static boolean isSeekable(FileChannel channel) {
+        try {
+            // Seeking fails with ESPIPE.
+            channel.position();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Returns the names of the tags to keep while parsing, or null to keep all of them.
+    static HashSet<String> getTagsToRead(String[] tags) {
+        if (tags == null) {
+            return null;
+        }
+        HashSet<String> tagsToRead = new HashSet<>(sTagSetForParsing);
+        for (String tag : tags) {
+            if (TAG_ISO_SPEED_RATINGS.equals(tag) || TAG_PHOTOGRAPHIC_SENSITIVITY.equals(tag)) {
+                // See getExifAttribute() and getRw2Attributes().
+                tagsToRead.add(TAG_PHOTOGRAPHIC_SENSITIVITY);
+                tagsToRead.add(TAG_RW2_ISO);
+            } else if (TAG_DATETIME.equals(tag)) {
+                // See addDefaultValuesForCompatibility().
+                tagsToRead.add(TAG_DATETIME);
+                tagsToRead.add(TAG_DATETIME_ORIGINAL);
+            } else {
+                tagsToRead.add(tag);
+            }
+        }
+        return tagsToRead;
+    }
+
+    // Returns true if the values of the tag are numbers, rather than strings or undefined bytes.
+    static boolean isNumericTag(String tag) {
+        if (TAG_ISO_SPEED_RATINGS.equals(tag)) {
+            tag = TAG_PHOTOGRAPHIC_SENSITIVITY;
+        }
+        for (int i = 0; i < EXIF_TAGS.length; ++i) {
+            ExifTag exifTag = sExifTagMapsForWriting[i].get(tag);
+            if (exifTag != null) {
+                return exifTag.primaryFormat != IFD_FORMAT_STRING
+                        && exifTag.primaryFormat != IFD_FORMAT_UNDEFINED;
+            }
+        }
+        return false;
+    }
+
+    // Returns true if the value of the tag needs to be kept while parsing.
+    private boolean isTagToRead(String tag) {
+        if (mTagsToRead == null || mTagsToRead.contains(tag)) {
+            return true;
+        }
+        // ORF and PEF files keep more tags inside the MakerNote.
+        return TAG_MAKER_NOTE.equals(tag)
+                && (mMimeType == IMAGE_TYPE_ORF || mMimeType == IMAGE_TYPE_PEF);
+    }
+
     /**
      * Returns the EXIF attribute of the specified tag or {@code null} if there is no such tag in
      * the image file.
@@ -4192,8 +4362,10 @@ public class ExifInterface {
             }
 
             // Check file type
-            in = new BufferedInputStream(in, SIGNATURE_CHECK_SIZE);
-            mMimeType = getMimeType((BufferedInputStream) in);
+            if (!(in instanceof SeekableFileInputStream)) {
+                in = new BufferedInputStream(in, SIGNATURE_CHECK_SIZE);
+            }
+            mMimeType = getMimeType(in);
 
             // Create byte-ordered input stream
             ByteOrderedDataInputStream inputStream = new ByteOrderedDataInputStream(in);
@@ -4264,10 +4436,11 @@ public class ExifInterface {
     }
 
     /**
-     * Save the tag data into the original image file. This is expensive because it involves
-     * copying all the data from one file to another and deleting the old file and renaming the
-     * other. It's best to use {@link #setAttribute(String,String)} to set all attributes to write
-     * and make a single call rather than multiple calls for each attribute.
+     * Save the tag data into the original image file. If the new EXIF data fits in the space of
+     * the old one, only the EXIF segment of the file is written. Otherwise this is expensive
+     * because it involves copying all the data from one file to another and deleting the old file
+     * and renaming the other. It's best to use {@link #setAttribute(String,String)} to set all
+     * attributes to write and make a single call rather than multiple calls for each attribute.
      * <p>
      * This method is only supported for JPEG files.
      * </p>
@@ -4280,27 +4453,33 @@ public class ExifInterface {
             throw new IOException(
                     "ExifInterface does not support saving attributes for the current input.");
         }
+        if (mTagsToRead != null) {
+            throw new IOException("ExifInterface does not support saving attributes when only "
+                    + "some of the tags are read.");
+        }
 
         // Keep the thumbnail in memory
         mThumbnailBytes = getThumbnail();
 
-        File tempFile = new File(mFilename + ".tmp");
-        File originalFile = new File(mFilename);
-        if (!originalFile.renameTo(tempFile)) {
-            throw new IOException("Could not rename to " + tempFile.getAbsolutePath());
-        }
+        if (!saveJpegAttributesInPlace()) {
+            File tempFile = new File(mFilename + ".tmp");
+            File originalFile = new File(mFilename);
+            if (!originalFile.renameTo(tempFile)) {
+                throw new IOException("Could not rename to " + tempFile.getAbsolutePath());
+            }
 
-        FileInputStream in = null;
-        FileOutputStream out = null;
-        try {
-            // Save the new file.
-            in = new FileInputStream(tempFile);
-            out = new FileOutputStream(mFilename);
-            saveJpegAttributes(in, out);
-        } finally {
-            closeQuietly(in);
-            closeQuietly(out);
-            tempFile.delete();
+            FileInputStream in = null;
+            FileOutputStream out = null;
+            try {
+                // Save the new file.
+                in = new FileInputStream(tempFile);
+                out = new FileOutputStream(mFilename);
+                saveJpegAttributes(in.getChannel(), out.getChannel());
+            } finally {
+                closeQuietly(in);
+                closeQuietly(out);
+                tempFile.delete();
+            }
         }
 
         // Discard the thumbnail in memory
@@ -4342,6 +4521,20 @@ public class ExifInterface {
         // Read the thumbnail.
         InputStream in = null;
         try {
+            if (mThumbnailStripOffsets != null) {
+                // Uncompressed thumbnails are concatenated from their strips.
+                FileInputStream fileInputStream;
+                if (mFilename != null) {
+                    fileInputStream = new FileInputStream(mFilename);
+                    in = fileInputStream;
+                } else {
+                    // The file descriptor is not closed.
+                    fileInputStream = new FileInputStream(mFileDescriptor);
+                }
+                mThumbnailBytes = readThumbnailStrips(new ByteOrderedDataInputStream(
+                        new SeekableFileInputStream(fileInputStream.getChannel())));
+                return mThumbnailBytes;
+            }
             if (mAssetInputStream != null) {
                 in = mAssetInputStream;
                 if (in.markSupported()) {
@@ -4352,6 +4545,9 @@ public class ExifInterface {
                 }
             } else if (mFilename != null) {
                 in = new FileInputStream(mFilename);
+            } else if (mFileDescriptor != null) {
+                in = new SeekableFileInputStream(
+                        new FileInputStream(mFileDescriptor).getChannel());
             }
             if (in == null) {
                 // Should not be reached this.
@@ -4666,8 +4862,8 @@ public class ExifInterface {
         return degrees + "/1," + minutes + "/1," + seconds + "/10000000";
     }
 
-    // Checks the type of image file
-    private int getMimeType(BufferedInputStream in) throws IOException {
+    // Checks the type of image file. The input stream needs to support mark and reset.
+    private int getMimeType(InputStream in) throws IOException {
         in.mark(SIGNATURE_CHECK_SIZE);
         byte[] signatureCheckBytes = new byte[SIGNATURE_CHECK_SIZE];
         if (in.read(signatureCheckBytes) != SIGNATURE_CHECK_SIZE) {
@@ -5119,101 +5315,137 @@ public class ExifInterface {
         }
     }
 
-    // Stores a new JPEG image with EXIF attributes into a given output stream.
-    private void saveJpegAttributes(InputStream inputStream, OutputStream outputStream)
-            throws IOException {
-        // See JPEG File Interchange Format Specification, "JFIF Specification"
-        if (DEBUG) {
-            Log.d(TAG, "saveJpegAttributes starting with (inputStream: " + inputStream
-                    + ", outputStream: " + outputStream + ")");
+    // Writes the EXIF APP1 segment of a JPEG file in place, if the new segment fits in the space
+    // of the old one. Returns false if it doesn't, or if there is not exactly one EXIF segment.
+    private boolean saveJpegAttributesInPlace() throws IOException {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFilename, "rw");
+            FileChannel channel = file.getChannel();
+            JpegSegment exifSegment = null;
+            for (JpegSegment segment : getJpegSegments(channel)) {
+                if (segment.isExif) {
+                    if (exifSegment != null) {
+                        // Let saveJpegAttributes() replace all of them with a single segment.
+                        return false;
+                    }
+                    exifSegment = segment;
+                }
+            }
+            if (exifSegment == null) {
+                return false;
+            }
+            byte[] bytes = createExifSegment(exifSegment.offset);
+            // The old segment length does not count the marker.
+            int length = exifSegment.length - 2;
+            if (bytes.length > length) {
+                return false;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Writing the EXIF segment in place at " + exifSegment.offset);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(padExifSegment(bytes, length));
+            long position = exifSegment.offset + 2;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            return true;
+        } finally {
+            closeQuietly(file);
         }
-        DataInputStream dataInputStream = new DataInputStream(inputStream);
-        ByteOrderedDataOutputStream dataOutputStream =
-                new ByteOrderedDataOutputStream(outputStream, ByteOrder.BIG_ENDIAN);
-        if (dataInputStream.readByte() != MARKER) {
-            throw new IOException("Invalid marker");
+    }
+
+    // Stores a new JPEG image with EXIF attributes into a given output channel. The new EXIF
+    // segment follows the SOI marker, and the other segments and the image data are copied with
+    // FileChannel#transferTo().
+    private void saveJpegAttributes(FileChannel in, FileChannel out) throws IOException {
+        // See JPEG File Interchange Format Specification, "JFIF Specification"
+        ArrayList<JpegSegment> segments = getJpegSegments(in);
+
+        byte[] bytes = createExifSegment(2);
+        bytes = padExifSegment(bytes,
+                Math.max(bytes.length, Math.min(bytes.length + EXIF_SEGMENT_PADDING, 0xffff)));
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+        buffer.put(MARKER).put(MARKER_SOI).put(MARKER).put(MARKER_APP1).put(bytes);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
         }
-        dataOutputStream.writeByte(MARKER);
-        if (dataInputStream.readByte() != MARKER_SOI) {
-            throw new IOException("Invalid marker");
+
+        // Copy the other segments, and all the remaining data from the SOS or EOI marker.
+        long dataOffset = 2;
+        for (JpegSegment segment : segments) {
+            if (!segment.isExif) {
+                transfer(in, segment.offset, segment.length, out);
+            }
+            dataOffset = segment.offset + segment.length;
         }
-        dataOutputStream.writeByte(MARKER_SOI);
+        transfer(in, dataOffset, in.size() - dataOffset, out);
+    }
 
-        // Write EXIF APP1 segment
-        dataOutputStream.writeByte(MARKER);
-        dataOutputStream.writeByte(MARKER_APP1);
-        writeExifSegment(dataOutputStream, 6);
+    // Returns the EXIF APP1 segment for the current attributes, starting with its length and
+    // without the marker, which is written at the given offset in the file.
+    private byte[] createExifSegment(long offset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // The TIFF header follows the marker, the length and the identifier.
+        writeExifSegment(new ByteOrderedDataOutputStream(bytes, ByteOrder.BIG_ENDIAN),
+                (int) offset + 4 + IDENTIFIER_EXIF_APP1.length);
+        return bytes.toByteArray();
+    }
 
-        byte[] bytes = new byte[4096];
+    // Fills the EXIF APP1 segment with zeros up to the given length. The EXIF data is located by
+    // offsets, so it is not affected by the padding.
+    private static byte[] padExifSegment(byte[] segment, int length) {
+        byte[] paddedSegment = Arrays.copyOf(segment, length);
+        paddedSegment[0] = (byte) (length >> 8);
+        paddedSegment[1] = (byte) length;
+        return paddedSegment;
+    }
 
+    // Returns the segments of a JPEG file that precede the SOS or EOI marker.
+    private static ArrayList<JpegSegment> getJpegSegments(FileChannel channel)
+            throws IOException {
+        ByteOrderedDataInputStream in =
+                new ByteOrderedDataInputStream(new SeekableFileInputStream(channel));
+        if (in.readByte() != MARKER || in.readByte() != MARKER_SOI) {
+            throw new IOException("Invalid marker");
+        }
+        ArrayList<JpegSegment> segments = new ArrayList<>();
+        byte[] identifier = new byte[IDENTIFIER_EXIF_APP1.length];
         while (true) {
-            byte marker = dataInputStream.readByte();
-            if (marker != MARKER) {
+            int offset = in.peek();
+            if (in.readByte() != MARKER) {
                 throw new IOException("Invalid marker");
             }
-            marker = dataInputStream.readByte();
-            switch (marker) {
-                case MARKER_APP1: {
-                    int length = dataInputStream.readUnsignedShort() - 2;
-                    if (length < 0) {
-                        throw new IOException("Invalid length");
-                    }
-                    byte[] identifier = new byte[6];
-                    if (length >= 6) {
-                        if (dataInputStream.read(identifier) != 6) {
-                            throw new IOException("Invalid exif");
-                        }
-                        if (Arrays.equals(identifier, IDENTIFIER_EXIF_APP1)) {
-                            // Skip the original EXIF APP1 segment.
-                            if (dataInputStream.skipBytes(length - 6) != length - 6) {
-                                throw new IOException("Invalid length");
-                            }
-                            break;
-                        }
-                    }
-                    // Copy non-EXIF APP1 segment.
-                    dataOutputStream.writeByte(MARKER);
-                    dataOutputStream.writeByte(marker);
-                    dataOutputStream.writeUnsignedShort(length + 2);
-                    if (length >= 6) {
-                        length -= 6;
-                        dataOutputStream.write(identifier);
-                    }
-                    int read;
-                    while (length > 0 && (read = dataInputStream.read(
-                            bytes, 0, Math.min(length, bytes.length))) >= 0) {
-                        dataOutputStream.write(bytes, 0, read);
-                        length -= read;
-                    }
-                    break;
-                }
-                case MARKER_EOI:
-                case MARKER_SOS: {
-                    dataOutputStream.writeByte(MARKER);
-                    dataOutputStream.writeByte(marker);
-                    // Copy all the remaining data
-                    copy(dataInputStream, dataOutputStream);
-                    return;
-                }
-                default: {
-                    // Copy JPEG segment
-                    dataOutputStream.writeByte(MARKER);
-                    dataOutputStream.writeByte(marker);
-                    int length = dataInputStream.readUnsignedShort();
-                    dataOutputStream.writeUnsignedShort(length);
-                    length -= 2;
-                    if (length < 0) {
-                        throw new IOException("Invalid length");
-                    }
-                    int read;
-                    while (length > 0 && (read = dataInputStream.read(
-                            bytes, 0, Math.min(length, bytes.length))) >= 0) {
-                        dataOutputStream.write(bytes, 0, read);
-                        length -= read;
-                    }
-                    break;
-                }
+            byte marker = in.readByte();
+            if (marker == MARKER_EOI || marker == MARKER_SOS) {
+                return segments;
+            }
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("Invalid length");
+            }
+            boolean isExif = false;
+            if (marker == MARKER_APP1 && length >= 2 + identifier.length) {
+                in.readFully(identifier);
+                isExif = Arrays.equals(identifier, IDENTIFIER_EXIF_APP1);
+            }
+            segments.add(new JpegSegment(offset, length + 2, isExif));
+            in.seek(offset + length + 2);
+        }
+    }
+
+    // Copies bytes between the channels, which may avoid copying them through the Java heap.
+    private static void transfer(FileChannel in, long position, long count, FileChannel out)
+            throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("Invalid JPEG data");
             }
+            position += transferred;
+            count -= transferred;
         }
     }
 
@@ -5453,6 +5685,11 @@ public class ExifInterface {
                 continue;
             }
 
+            if (!isTagToRead(tag.name)) {
+                dataInputStream.seek(nextEntryOffset);
+                continue;
+            }
+
             byte[] bytes = new byte[(int) byteCount];
             dataInputStream.readFully(bytes);
             ExifAttribute attribute = new ExifAttribute(dataFormat, numberOfComponents, bytes);
@@ -5586,7 +5823,7 @@ public class ExifInterface {
                 mHasThumbnail = true;
                 mThumbnailOffset = thumbnailOffset;
                 mThumbnailLength = thumbnailLength;
-                if (mFilename == null && mAssetInputStream == null) {
+                if (mFilename == null && mAssetInputStream == null && mFileDescriptor == null) {
                     // Save the thumbnail in memory if the input doesn't support reading again.
                     byte[] thumbnailBytes = new byte[thumbnailLength];
                     in.seek(thumbnailOffset);
@@ -5620,45 +5857,46 @@ public class ExifInterface {
                 return;
             }
 
+            if (stripOffsets.length != stripByteCounts.length) {
+                Log.w(TAG, "stripOffsets and stripByteCounts should have the same length.");
+                return;
+            }
+
             long totalStripByteCount = 0;
             for (long byteCount : stripByteCounts) {
                 totalStripByteCount += byteCount;
             }
-
-            // Set thumbnail byte array data for non-consecutive strip bytes
-            byte[] totalStripBytes = new byte[(int) totalStripByteCount];
-
-            int bytesRead = 0;
-            int bytesAdded = 0;
-            for (int i = 0; i < stripOffsets.length; i++) {
-                int stripOffset = (int) stripOffsets[i];
-                int stripByteCount = (int) stripByteCounts[i];
-
-                // Skip to offset
-                int skipBytes = stripOffset - bytesRead;
-                if (skipBytes < 0) {
-                    Log.d(TAG, "Invalid strip offset value");
-                }
-                in.seek(skipBytes);
-                bytesRead += skipBytes;
-
-                // Read strip bytes
-                byte[] stripBytes = new byte[stripByteCount];
-                in.read(stripBytes);
-                bytesRead += stripByteCount;
-
-                // Add bytes to array
-                System.arraycopy(stripBytes, 0, totalStripBytes, bytesAdded,
-                        stripBytes.length);
-                bytesAdded += stripBytes.length;
+            if (totalStripByteCount > Integer.MAX_VALUE) {
+                Log.w(TAG, "Invalid strip byte counts");
+                return;
             }
 
             mHasThumbnail = true;
-            mThumbnailBytes = totalStripBytes;
-            mThumbnailLength = totalStripBytes.length;
+            mThumbnailLength = (int) totalStripByteCount;
+            mThumbnailStripOffsets = stripOffsets;
+            mThumbnailStripByteCounts = stripByteCounts;
+            if (mFilename == null && mFileDescriptor == null) {
+                // Read the strips now if the input doesn't support seeking to them again.
+                mThumbnailBytes = readThumbnailStrips(in);
+                mThumbnailStripOffsets = null;
+                mThumbnailStripByteCounts = null;
+            }
         }
     }
 
+    // Reads the strips of an uncompressed thumbnail and concatenates them
+    private byte[] readThumbnailStrips(ByteOrderedDataInputStream in) throws IOException {
+        byte[] totalStripBytes = new byte[mThumbnailLength];
+        int bytesAdded = 0;
+        for (int i = 0; i < mThumbnailStripOffsets.length; i++) {
+            int stripByteCount = (int) mThumbnailStripByteCounts[i];
+            in.seek(mThumbnailStripOffsets[i]);
+            in.readFully(totalStripBytes, bytesAdded, stripByteCount);
+            bytesAdded += stripByteCount;
+        }
+        return totalStripBytes;
+    }
+
     // Check if thumbnail data type is currently supported or not
     private boolean isSupportedDataType(HashMap thumbnailData) throws IOException {
         ExifAttribute bitsPerSampleAttribute =
@@ -6317,6 +6555,139 @@ public class ExifInterface {
         }
     }
 
+    // A segment of a JPEG file, see getJpegSegments().
+    private static class JpegSegment {
+        // Offset of the marker in the file
+        public final long offset;
+        // Length of the segment, including the marker
+        public final int length;
+        public final boolean isExif;
+
+        JpegSegment(long offset, int length, boolean isExif) {
+            this.offset = offset;
+            this.length = length;
+            this.isExif = isExif;
+        }
+    }
+
+    // An input stream that reads a file with positional reads on its channel, so that seeking
+    // does not read the skipped bytes and the file offset of the file descriptor is not changed.
+    // Seeking backwards is supported with mark() and reset(). The file is not closed.
+    private static class SeekableFileInputStream extends InputStream {
+        private final FileChannel mChannel;
+        private final long mSize;
+        private final ByteBuffer mBuffer;
+        // The position in the file of the first byte in mBuffer
+        private long mBufferPosition;
+        private long mPosition;
+        private long mMarkPosition;
+
+        public SeekableFileInputStream(FileChannel channel) throws IOException {
+            this(channel, ByteBuffer.allocate(READ_BUFFER_SIZE));
+        }
+
+        public SeekableFileInputStream(FileChannel channel, ByteBuffer buffer)
+                throws IOException {
+            mChannel = channel;
+            mSize = mChannel.size();
+            mBuffer = buffer;
+            mBuffer.clear();
+            mBuffer.limit(0);
+        }
+
+        public void seek(long position) throws IOException {
+            if (position < 0) {
+                throw new IOException("Invalid position: " + position);
+            }
+            mPosition = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fillBuffer()) {
+                return -1;
+            }
+            return mBuffer.get((int) (mPosition++ - mBufferPosition)) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (len >= mBuffer.capacity()) {
+                // Read large values directly into the array.
+                int bytesRead = 0;
+                while (bytesRead < len) {
+                    int count = mChannel.read(ByteBuffer.wrap(b, off + bytesRead, len - bytesRead),
+                            mPosition);
+                    if (count < 0) {
+                        break;
+                    }
+                    bytesRead += count;
+                    mPosition += count;
+                }
+                return bytesRead == 0 ? -1 : bytesRead;
+            }
+            if (!fillBuffer()) {
+                return -1;
+            }
+            int start = (int) (mPosition - mBufferPosition);
+            int count = Math.min(len, mBuffer.limit() - start);
+            mBuffer.position(start);
+            mBuffer.get(b, off, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = Math.max(0, Math.min(byteCount, mSize - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.max(0, Math.min(mSize - mPosition, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mMarkPosition = mPosition;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            mPosition = mMarkPosition;
+        }
+
+        // Makes sure that mBuffer holds the byte at mPosition, unless it is at the end of file.
+        private boolean fillBuffer() throws IOException {
+            if (mPosition >= mBufferPosition && mPosition < mBufferPosition + mBuffer.limit()) {
+                return true;
+            }
+            if (mPosition >= mSize) {
+                return false;
+            }
+            mBuffer.clear();
+            mBufferPosition = mPosition;
+            while (mBuffer.hasRemaining()) {
+                int count = mChannel.read(mBuffer, mBufferPosition + mBuffer.position());
+                if (count < 0) {
+                    break;
+                }
+            }
+            mBuffer.flip();
+            return mBuffer.hasRemaining();
+        }
+    }
+
     // An output stream to write EXIF data area, which can be written in either little or big endian
     // order.
     private static class ByteOrderedDataOutputStream extends FilterOutputStream {
@@ -6436,21 +6807,6 @@ public class ExifInterface {
         }
     }
 
-    /**
-     * Copies all of the bytes from {@code in} to {@code out}. Neither stream is closed.
-     * Returns the total number of bytes transferred.
-     */
-    private static int copy(InputStream in, OutputStream out) throws IOException {
-        int total = 0;
-        byte[] buffer = new byte[8192];
-        int c;
-        while ((c = in.read(buffer)) != -1) {
-            total += c;
-            out.write(buffer, 0, c);
-        }
-        return total;
-    }
-
     /**
      * Convert given int[] to long[]. If long[] is given, just return it.
      * Return null for other types of input.
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.media;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+import android.os.Environment;
+import android.support.exifinterface.test.R;
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Test {@link ExifBatchReader}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ExifBatchReaderTest {
+    private static final String TAG = ExifBatchReader.class.getSimpleName();
+    private static final double DELTA = 1e-8;
+
+    private static final int[] IMAGE_RESOURCES = new int[] {
+            R.raw.image_exif_byte_order_ii, R.raw.image_exif_byte_order_mm, R.raw.lg_g4_iso_800};
+    private static final String[] IMAGE_FILENAMES = new String[] {
+            "image_exif_byte_order_ii.jpg", "image_exif_byte_order_mm.jpg", "lg_g4_iso_800.dng"};
+    private static final String[] TAGS = new String[] {
+            ExifInterface.TAG_ORIENTATION, ExifInterface.TAG_DATETIME, ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_F_NUMBER, ExifInterface.TAG_EXPOSURE_TIME, ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_GPS_LATITUDE, ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_IMAGE_WIDTH};
+
+    private String[] mPaths;
+
+    @Before
+    public void setUp() throws Exception {
+        mPaths = new String[IMAGE_RESOURCES.length];
+        for (int i = 0; i < IMAGE_RESOURCES.length; ++i) {
+            mPaths[i] = new File(Environment.getExternalStorageDirectory(), IMAGE_FILENAMES[i])
+                    .getAbsolutePath();
+            InputStream in = getContext().getResources().openRawResource(IMAGE_RESOURCES[i]);
+            try {
+                FileOutputStream out = new FileOutputStream(mPaths[i]);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (String path : mPaths) {
+            new File(path).delete();
+        }
+    }
+
+    @Test
+    public void testRead_matchesExifInterface() throws Exception {
+        // more files than threads, so that the threads read several files each
+        String[] filenames = new String[mPaths.length * 8];
+        for (int i = 0; i < filenames.length; i++) {
+            filenames[i] = mPaths[i % mPaths.length];
+        }
+
+        ExifBatchReader.Result result = new ExifBatchReader(TAGS, 4).read(filenames);
+
+        assertEquals(filenames.length, result.size());
+        for (int i = 0; i < filenames.length; i++) {
+            assertNull(result.getFailure(i));
+            assertSameAttributes(new ExifInterface(filenames[i]), result, i);
+        }
+    }
+
+    @Test
+    public void testRead_fromFileDescriptors() throws Exception {
+        FileInputStream[] streams = new FileInputStream[mPaths.length];
+        FileDescriptor[] fileDescriptors = new FileDescriptor[mPaths.length];
+        try {
+            for (int i = 0; i < mPaths.length; i++) {
+                streams[i] = new FileInputStream(mPaths[i]);
+                fileDescriptors[i] = streams[i].getFD();
+            }
+
+            ExifBatchReader.Result result = new ExifBatchReader(TAGS).read(fileDescriptors);
+
+            for (int i = 0; i < mPaths.length; i++) {
+                assertNull(result.getFailure(i));
+                assertSameAttributes(new ExifInterface(mPaths[i]), result, i);
+                // the file descriptors are still open, at their original offsets
+                assertEquals(0, streams[i].getChannel().position());
+            }
+        } finally {
+            for (FileInputStream stream : streams) {
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRead_isolatesFailures() throws Exception {
+        String[] filenames = new String[] {mPaths[0],
+                new File(Environment.getExternalStorageDirectory(), "missing.jpg")
+                        .getAbsolutePath(), mPaths[1]};
+
+        ExifBatchReader.Result result = new ExifBatchReader(TAGS, 2).read(filenames);
+
+        assertNull(result.getFailure(0));
+        assertNotNull(result.getFailure(1));
+        assertNull(result.getAttribute(1, ExifInterface.TAG_ORIENTATION));
+        assertNull(result.getFailure(2));
+        assertSameAttributes(new ExifInterface(mPaths[0]), result, 0);
+        assertSameAttributes(new ExifInterface(mPaths[1]), result, 2);
+    }
+
+    @Test
+    public void testGetAttribute_tagNotRead() throws Exception {
+        ExifBatchReader.Result result = new ExifBatchReader(TAGS).read(mPaths);
+        try {
+            result.getAttribute(0, ExifInterface.TAG_MODEL);
+            fail("Tags that were not read should not be accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Reads a batch of files with 1, 2, 4... threads, up to the number of available processors,
+     * and logs the throughput of each. The timings are only logged since they depend on the
+     * device.
+     */
+    @LargeTest
+    @Test
+    public void testReadThroughput() throws Exception {
+        final int rounds = 5;
+        String[] filenames = new String[600];
+        for (int i = 0; i < filenames.length; i++) {
+            filenames[i] = mPaths[i % mPaths.length];
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        long singleThreadNanos = 0;
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            ExifBatchReader reader = new ExifBatchReader(TAGS, threads);
+            // warms up the page cache and the code
+            reader.read(filenames);
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                reader.read(filenames);
+            }
+            long nanos = Math.max(System.nanoTime() - start, 1);
+            if (threads == 1) {
+                singleThreadNanos = nanos;
+            }
+            Log.d(TAG, String.format(Locale.US, "%d threads: %d files/s, %.2fx", threads,
+                    (long) filenames.length * rounds * 1000000000L / nanos,
+                    (double) singleThreadNanos / nanos));
+        }
+    }
+
+    private static void assertSameAttributes(ExifInterface expected,
+            ExifBatchReader.Result result, int index) {
+        for (String tag : TAGS) {
+            double value = expected.getAttributeDouble(tag, Double.NaN);
+            if (!Double.isNaN(value)) {
+                assertEquals(tag, value, result.getAttributeDouble(index, tag, Double.NaN), DELTA);
+            } else {
+                assertEquals(tag, expected.getAttribute(tag), result.getAttribute(index, tag));
+            }
+        }
+    }
+}
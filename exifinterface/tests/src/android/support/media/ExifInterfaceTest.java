@@ -21,12 +21,14 @@ import static android.support.test.InstrumentationRegistry.getContext;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.location.Location;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.support.exifinterface.test.R;
 import android.support.test.filters.LargeTest;
 import android.support.test.filters.SmallTest;
@@ -41,6 +43,7 @@ import org.junit.runner.RunWith;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -49,7 +52,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -647,6 +652,250 @@ public class ExifInterfaceTest {
         assertEquals(isoValue, exif.getAttribute(newTag));
     }
 
+    @Test
+    @SmallTest
+    public void testReadSpecifiedTags() throws IOException {
+        final String[] tags = new String[] {ExifInterface.TAG_ORIENTATION,
+                ExifInterface.TAG_DATETIME, ExifInterface.TAG_ISO_SPEED_RATINGS};
+        for (String fileName : IMAGE_FILENAMES) {
+            String path = new File(Environment.getExternalStorageDirectory(), fileName)
+                    .getAbsolutePath();
+            ExifInterface exif = new ExifInterface(path);
+            ExifInterface specifiedTagsExif = new ExifInterface(path, tags);
+            for (String tag : tags) {
+                assertEquals(exif.getAttribute(tag), specifiedTagsExif.getAttribute(tag));
+            }
+            assertNull(specifiedTagsExif.getAttribute(ExifInterface.TAG_F_NUMBER));
+            assertNull(specifiedTagsExif.getAttribute(ExifInterface.TAG_WHITE_BALANCE));
+            assertEquals(exif.hasThumbnail(), specifiedTagsExif.hasThumbnail());
+            assertTrue(Arrays.equals(exif.getThumbnailBytes(),
+                    specifiedTagsExif.getThumbnailBytes()));
+            try {
+                specifiedTagsExif.saveAttributes();
+                fail("Saving attributes should fail when only some of the tags are read");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testReadFromFileDescriptor_keepsOffset() throws IOException {
+        String path = new File(Environment.getExternalStorageDirectory(), LG_G4_ISO_800_DNG)
+                .getAbsolutePath();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            in.getChannel().position(100);
+            ExifInterface exif = new ExifInterface(in.getFD());
+            assertTrue(exif.hasThumbnail());
+            assertNotNull(exif.getThumbnailBytes());
+            assertEquals(100, in.getChannel().position());
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testReadFromFileDescriptor_pipe() throws Throwable {
+        final File imageFile = new File(Environment.getExternalStorageDirectory(),
+                EXIF_BYTE_ORDER_II_JPEG);
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = null;
+                OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+                try {
+                    in = new FileInputStream(imageFile);
+                    copy(in, out);
+                } catch (IOException e) {
+                    // The reader may close the pipe before the whole image is written.
+                } finally {
+                    closeQuietly(in);
+                    closeQuietly(out);
+                }
+            }
+        });
+        writer.start();
+        try {
+            ExifInterface exif = new ExifInterface(imageFile.getAbsolutePath());
+            ExifInterface pipeExif = new ExifInterface(pipe[0].getFileDescriptor());
+            assertEquals(exif.getAttribute(ExifInterface.TAG_ORIENTATION),
+                    pipeExif.getAttribute(ExifInterface.TAG_ORIENTATION));
+            assertEquals(exif.getAttribute(ExifInterface.TAG_DATETIME),
+                    pipeExif.getAttribute(ExifInterface.TAG_DATETIME));
+            assertEquals(exif.getAttribute(ExifInterface.TAG_MAKE),
+                    pipeExif.getAttribute(ExifInterface.TAG_MAKE));
+            assertTrue(pipeExif.hasThumbnail());
+            assertTrue(Arrays.equals(exif.getThumbnailBytes(), pipeExif.getThumbnailBytes()));
+        } finally {
+            closeQuietly(pipe[0]);
+            writer.join();
+        }
+    }
+
+    /**
+     * Reads the orientation and the date of the test images from an input stream, a file name,
+     * a file descriptor and with only these tags requested, and logs the time taken by each.
+     * The timings are only logged since they depend on the device.
+     */
+    @Test
+    @LargeTest
+    public void testReadSpecifiedTagsLatency() throws IOException {
+        final int rounds = 200;
+        final String[] tags = new String[] {ExifInterface.TAG_ORIENTATION,
+                ExifInterface.TAG_DATETIME};
+        for (String fileName : IMAGE_FILENAMES) {
+            String path = new File(Environment.getExternalStorageDirectory(), fileName)
+                    .getAbsolutePath();
+            long streamNanos = 0;
+            long fileNameNanos = 0;
+            long fileDescriptorNanos = 0;
+            long specifiedTagsNanos = 0;
+            for (int i = 0; i < rounds; i++) {
+                FileInputStream in = new FileInputStream(path);
+                try {
+                    long start = System.nanoTime();
+                    new ExifInterface(in).getAttribute(ExifInterface.TAG_ORIENTATION);
+                    streamNanos += System.nanoTime() - start;
+                } finally {
+                    closeQuietly(in);
+                }
+
+                long start = System.nanoTime();
+                new ExifInterface(path).getAttribute(ExifInterface.TAG_ORIENTATION);
+                fileNameNanos += System.nanoTime() - start;
+
+                in = new FileInputStream(path);
+                try {
+                    start = System.nanoTime();
+                    new ExifInterface(in.getFD()).getAttribute(ExifInterface.TAG_ORIENTATION);
+                    fileDescriptorNanos += System.nanoTime() - start;
+                } finally {
+                    closeQuietly(in);
+                }
+
+                start = System.nanoTime();
+                new ExifInterface(path, tags).getAttribute(ExifInterface.TAG_ORIENTATION);
+                specifiedTagsNanos += System.nanoTime() - start;
+            }
+            Log.d(TAG, String.format(Locale.US, "%s: input stream %dus, file name %dus, "
+                            + "file descriptor %dus, specified tags %dus", fileName,
+                    streamNanos / rounds / 1000, fileNameNanos / rounds / 1000,
+                    fileDescriptorNanos / rounds / 1000, specifiedTagsNanos / rounds / 1000));
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testSaveAttributes_inPlace() throws IOException {
+        File imageFile = new File(Environment.getExternalStorageDirectory(),
+                EXIF_BYTE_ORDER_II_JPEG);
+        byte[] original = readFile(imageFile);
+        ExifInterface exif = new ExifInterface(imageFile.getAbsolutePath());
+        byte[] thumbnail = exif.getThumbnail();
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION,
+                Integer.toString(ExifInterface.ORIENTATION_ROTATE_180));
+        exif.saveAttributes();
+
+        // Only the EXIF segment, which directly follows the SOI marker, is written.
+        byte[] saved = readFile(imageFile);
+        assertEquals(original.length, saved.length);
+        int exifSegmentEnd = 4 + ((original[4] & 0xff) << 8 | (original[5] & 0xff));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(original, exifSegmentEnd, original.length),
+                Arrays.copyOfRange(saved, exifSegmentEnd, saved.length)));
+
+        exif = new ExifInterface(imageFile.getAbsolutePath());
+        assertIntTag(exif, ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_ROTATE_180);
+        assertTrue(Arrays.equals(thumbnail, exif.getThumbnail()));
+    }
+
+    @Test
+    @SmallTest
+    public void testSaveAttributes_growingExifSegment() throws IOException {
+        File imageFile = new File(Environment.getExternalStorageDirectory(),
+                EXIF_BYTE_ORDER_MM_JPEG);
+        long originalLength = imageFile.length();
+        char[] description = new char[4096];
+        Arrays.fill(description, 'a');
+        ExifInterface exif = new ExifInterface(imageFile.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION, new String(description));
+        exif.saveAttributes();
+        long rewrittenLength = imageFile.length();
+        assertTrue(rewrittenLength > originalLength + description.length);
+
+        // The rewritten EXIF segment has room for small changes, which are saved in place.
+        exif = new ExifInterface(imageFile.getAbsolutePath());
+        assertEquals(new String(description),
+                exif.getAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION));
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION,
+                Integer.toString(ExifInterface.ORIENTATION_ROTATE_90));
+        exif.saveAttributes();
+        assertEquals(rewrittenLength, imageFile.length());
+
+        exif = new ExifInterface(imageFile.getAbsolutePath());
+        assertIntTag(exif, ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_ROTATE_90);
+        assertEquals(new String(description),
+                exif.getAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION));
+    }
+
+    /**
+     * Fixes the orientation of a batch of copies of a test image twice, and logs the time taken
+     * by each pass. The first pass rewrites the files since their EXIF segments grow, and the
+     * second pass saves in place. The timings are only logged since they depend on the device.
+     */
+    @Test
+    @LargeTest
+    public void testSaveAttributesLatency() throws IOException {
+        final int fileCount = 2000;
+        File dir = new File(Environment.getExternalStorageDirectory(), "ExifInterfaceTest");
+        dir.mkdirs();
+        File imageFile = new File(Environment.getExternalStorageDirectory(),
+                EXIF_BYTE_ORDER_MM_JPEG);
+        byte[] image = readFile(imageFile);
+        File[] files = new File[fileCount];
+        try {
+            for (int i = 0; i < fileCount; i++) {
+                files[i] = new File(dir, i + ".jpg");
+                FileOutputStream out = new FileOutputStream(files[i]);
+                try {
+                    out.write(image);
+                } finally {
+                    closeQuietly(out);
+                }
+            }
+            long rewriteNanos = saveOrientation(files, ExifInterface.ORIENTATION_ROTATE_90);
+            long inPlaceNanos = saveOrientation(files, ExifInterface.ORIENTATION_ROTATE_180);
+            Log.d(TAG, String.format(Locale.US, "%d files: rewrite %dus/file, in place %dus/file",
+                    fileCount, rewriteNanos / fileCount / 1000,
+                    inPlaceNanos / fileCount / 1000));
+        } finally {
+            for (File file : files) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private long saveOrientation(File[] files, int orientation) throws IOException {
+        long start = System.nanoTime();
+        for (File file : files) {
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, Integer.toString(orientation));
+            exif.saveAttributes();
+        }
+        long elapsed = System.nanoTime() - start;
+        for (File file : files) {
+            assertIntTag(new ExifInterface(file.getAbsolutePath()),
+                    ExifInterface.TAG_ORIENTATION, orientation);
+        }
+        return elapsed;
+    }
+
     private void printExifTagsAndValues(String fileName, ExifInterface exifInterface) {
         // Prints thumbnail information.
         if (exifInterface.hasThumbnail()) {
@@ -787,6 +1036,16 @@ public class ExifInterfaceTest {
         } finally {
             closeQuietly(in);
         }
+
+        FileInputStream fileInputStream = null;
+        // Creates via FileDescriptor.
+        try {
+            fileInputStream = new FileInputStream(imageFile.getAbsolutePath());
+            exifInterface = new ExifInterface(fileInputStream.getFD());
+            compareWithExpectedValue(exifInterface, expectedValue, verboseTag);
+        } finally {
+            closeQuietly(fileInputStream);
+        }
     }
 
     private void testSaveAttributes_withFileName(String fileName, ExpectedValue expectedValue)
@@ -883,6 +1142,18 @@ public class ExifInterfaceTest {
         return total;
     }
 
+    private byte[] readFile(File file) throws IOException {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(in, out);
+            return out.toByteArray();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
     private void assertLatLongValuesAreNotSet(ExifInterface exif) {
         assertNull(exif.getAttribute(ExifInterface.TAG_GPS_LATITUDE));
         assertNull(exif.getAttribute(ExifInterface.TAG_GPS_LATITUDE_REF));
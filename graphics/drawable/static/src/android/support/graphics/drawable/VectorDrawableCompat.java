@@ -18,6 +18,7 @@ import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
 
 import android.annotation.SuppressLint;
 import android.content.res.ColorStateList;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.Resources.Theme;
 import android.content.res.TypedArray;
@@ -47,6 +48,7 @@ import android.support.v4.content.res.TypedArrayUtils;
 import android.support.v4.graphics.PathParser;
 import android.support.v4.graphics.drawable.DrawableCompat;
 import android.support.v4.util.ArrayMap;
+import android.support.v4.util.LruCache;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -56,6 +58,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Stack;
 
@@ -74,6 +77,10 @@ import java.util.Stack;
  * used for different sizes, it is more efficient to create multiple VectorDrawables, one for each
  * size.
  * <p/>
+ * Alternatively, a {@link BitmapCache} can be set with {@link #setBitmapCache(BitmapCache)}, so
+ * that the bitmaps are shared by all of the VectorDrawableCompats that draw the same vector
+ * graphic at the same size, e.g. the same icon in every row of a list.
+ * <p/>
  * VectorDrawableCompat can be defined in an XML file with the <code>&lt;vector></code> element.
  * <p/>
  * The VectorDrawableCompat has the following elements:
@@ -217,6 +224,8 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
 
     private static final boolean DBG_VECTOR_DRAWABLE = false;
 
+    private static volatile BitmapCache sBitmapCache;
+
     private VectorDrawableCompatState mVectorState;
 
     private PorterDuffColorFilter mTintFilter;
@@ -332,13 +341,18 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
         // we offset to (0, 0);
         mTmpBounds.offsetTo(0, 0);
 
-        mVectorState.createCachedBitmapIfNeeded(scaledWidth, scaledHeight);
-        if (!mAllowCaching) {
-            mVectorState.updateCachedBitmap(scaledWidth, scaledHeight);
+        final BitmapCache bitmapCache = sBitmapCache;
+        if (mAllowCaching && bitmapCache != null) {
+            mVectorState.getSharedBitmap(bitmapCache, scaledWidth, scaledHeight);
         } else {
-            if (!mVectorState.canReuseCache()) {
+            mVectorState.createCachedBitmapIfNeeded(scaledWidth, scaledHeight);
+            if (!mAllowCaching) {
                 mVectorState.updateCachedBitmap(scaledWidth, scaledHeight);
-                mVectorState.updateCacheStates();
+            } else {
+                if (!mVectorState.canReuseCache()) {
+                    mVectorState.updateCachedBitmap(scaledWidth, scaledHeight);
+                    mVectorState.updateCacheStates();
+                }
             }
         }
         mVectorState.drawCachedBitmapWithRootAlpha(canvas, colorFilter, mTmpBounds);
@@ -535,6 +549,31 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
         return Math.min(scaleX, scaleY);
     }
 
+    /**
+     * Sets the cache of bitmaps that is shared by all of the VectorDrawableCompats, or
+     * {@code null} to let each VectorDrawableCompat keep its own bitmap, which is the default.
+     * <p/>
+     * The cache has no effect for API 24 and above, where VectorDrawableCompat delegates to the
+     * framework's {@link VectorDrawable}, and while a vector drawable is animated.
+     *
+     * @param cache the cache to use, or {@code null} to stop using it.
+     * @see BitmapCache
+     */
+    public static void setBitmapCache(@Nullable BitmapCache cache) {
+        sBitmapCache = cache;
+    }
+
+    /**
+     * Returns the cache of bitmaps that is shared by all of the VectorDrawableCompats, or
+     * {@code null} if none is set.
+     *
+     * @see #setBitmapCache(BitmapCache)
+     */
+    @Nullable
+    public static BitmapCache getBitmapCache() {
+        return sBitmapCache;
+    }
+
     /**
      * Create a VectorDrawableCompat object.
      *
@@ -565,7 +604,10 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
             if (type != XmlPullParser.START_TAG) {
                 throw new XmlPullParserException("No start tag found");
             }
-            return createFromXmlInner(res, parser, attrs, theme);
+            final VectorDrawableCompat drawable = createFromXmlInner(res, parser, attrs, theme);
+            // Drawables created from the same resource draw the same bitmaps.
+            drawable.mVectorState.mBitmapSource = new ResourceKey(res, resId, theme);
+            return drawable;
         } catch (XmlPullParserException e) {
             Log.e(LOGTAG, "parser error", e);
         } catch (IOException e) {
@@ -624,6 +666,7 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
         a.recycle();
         state.mChangingConfigurations = getChangingConfigurations();
         state.mCacheDirty = true;
+        state.mBitmapSource = new Object();
         inflateInternal(res, parser, attrs, theme);
 
         mTintFilter = updateTintFilter(mTintFilter, state.mTint, state.mTintMode);
@@ -923,6 +966,171 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
         }
     }
 
+    /**
+     * A cache of the bitmaps that VectorDrawableCompats draw, which can be shared by all of them
+     * with {@link VectorDrawableCompat#setBitmapCache(BitmapCache)}.
+     * <p/>
+     * Bitmaps are cached for the vector graphic and the size in pixels they are drawn at, so the
+     * VectorDrawableCompats that are created from the same resource, theme and configuration
+     * with {@link VectorDrawableCompat#create(Resources, int, Theme)}, or that share the same
+     * constant state, only draw their paths once for each size. The tint, color filter and alpha
+     * are applied when the bitmap is drawn, so they can differ. The cache is bounded by the
+     * number of bytes of the bitmaps, and the least recently used ones are evicted first. The
+     * themes are only weakly referenced by the cache. This class is thread safe.
+     */
+    public static final class BitmapCache {
+        final LruCache<BitmapKey, Bitmap> mBitmaps;
+
+        /**
+         * Constructor.
+         *
+         * @param maxBytes the maximum number of bytes of the bitmaps to keep
+         */
+        public BitmapCache(int maxBytes) {
+            mBitmaps = new LruCache<BitmapKey, Bitmap>(maxBytes) {
+                @Override
+                protected int sizeOf(BitmapKey key, Bitmap bitmap) {
+                    return bitmap.getRowBytes() * bitmap.getHeight();
+                }
+            };
+        }
+
+        /**
+         * Removes all of the cached bitmaps, e.g. when the memory is low. The
+         * VectorDrawableCompats that already drew a bitmap keep it until they draw at another
+         * size, and put it back in the cache when they draw it again.
+         */
+        public void evictAll() {
+            mBitmaps.evictAll();
+        }
+
+        /**
+         * Returns the number of bytes of the cached bitmaps.
+         */
+        public int size() {
+            return mBitmaps.size();
+        }
+
+        /**
+         * Returns the maximum number of bytes of the cached bitmaps.
+         */
+        public int maxSize() {
+            return mBitmaps.maxSize();
+        }
+
+        /**
+         * Returns the number of times a bitmap was found in the cache, including each time a
+         * VectorDrawableCompat draws a bitmap that it already got from the cache.
+         */
+        public int hitCount() {
+            return mBitmaps.hitCount();
+        }
+
+        /**
+         * Returns the number of times a bitmap was not found in the cache, which is either drawn
+         * or, if a VectorDrawableCompat still had it after it was evicted, put back.
+         */
+        public int missCount() {
+            return mBitmaps.missCount();
+        }
+
+        /**
+         * Returns the number of bitmaps that were evicted from the cache.
+         */
+        public int evictionCount() {
+            return mBitmaps.evictionCount();
+        }
+    }
+
+    /**
+     * Identifies a vector drawable resource, along with the theme and the configuration that it
+     * was inflated with. The package name is part of the key, since the resources of other
+     * packages, e.g. the icons loaded by a launcher, can use the same ids. The theme is compared
+     * by identity, and a key whose theme was collected never matches again, so that it is
+     * eventually evicted.
+     */
+    static final class ResourceKey {
+        private final int mResId;
+        private final String mPackageName;
+        private final int mDensity;
+        private final Configuration mConfiguration;
+        private final WeakReference<Theme> mTheme;
+        private final int mHashCode;
+
+        ResourceKey(Resources res, int resId, Theme theme) {
+            mResId = resId;
+            mPackageName = res.getResourcePackageName(resId);
+            mDensity = res.getDisplayMetrics().densityDpi;
+            mConfiguration = new Configuration(res.getConfiguration());
+            mTheme = theme != null ? new WeakReference<>(theme) : null;
+
+            int hashCode = mResId;
+            hashCode = 31 * hashCode + mPackageName.hashCode();
+            hashCode = 31 * hashCode + mDensity;
+            hashCode = 31 * hashCode + mConfiguration.hashCode();
+            mHashCode = 31 * hashCode + System.identityHashCode(theme);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResourceKey)) {
+                return false;
+            }
+            final ResourceKey key = (ResourceKey) o;
+            if (mResId != key.mResId || !mPackageName.equals(key.mPackageName)
+                    || mDensity != key.mDensity || !mConfiguration.equals(key.mConfiguration)) {
+                return false;
+            }
+            if (mTheme == null || key.mTheme == null) {
+                return mTheme == key.mTheme;
+            }
+            final Theme theme = mTheme.get();
+            return theme != null && theme == key.mTheme.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * Identifies a bitmap by the vector graphic it was drawn from, either a {@link ResourceKey}
+     * or an object that is unique to an inflated constant state, and its size.
+     */
+    static final class BitmapKey {
+        final Object mSource;
+        final int mWidth;
+        final int mHeight;
+
+        BitmapKey(Object source, int width, int height) {
+            mSource = source;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BitmapKey)) {
+                return false;
+            }
+            final BitmapKey key = (BitmapKey) o;
+            return mWidth == key.mWidth && mHeight == key.mHeight
+                    && mSource.equals(key.mSource);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * mSource.hashCode() + mWidth) + mHeight;
+        }
+    }
+
     private static class VectorDrawableCompatState extends ConstantState {
         int mChangingConfigurations;
         VPathRenderer mVPathRenderer;
@@ -931,6 +1139,10 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
         boolean mAutoMirrored;
 
         Bitmap mCachedBitmap;
+        // The key of mCachedBitmap in the BitmapCache, or null if the bitmap is not shared
+        BitmapKey mCachedBitmapKey;
+        // What the bitmaps are drawn from, see BitmapKey
+        Object mBitmapSource;
         int[] mCachedThemeAttrs;
         ColorStateList mCachedTint;
         Mode mCachedTintMode;
@@ -957,6 +1169,7 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
                 mTint = copy.mTint;
                 mTintMode = copy.mTintMode;
                 mAutoMirrored = copy.mAutoMirrored;
+                mBitmapSource = copy.mBitmapSource;
             }
         }
 
@@ -995,7 +1208,10 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
         }
 
         public void createCachedBitmapIfNeeded(int width, int height) {
-            if (mCachedBitmap == null || !canReuseBitmap(width, height)) {
+            // A shared bitmap is never drawn into again.
+            if (mCachedBitmap == null || mCachedBitmapKey != null
+                    || !canReuseBitmap(width, height)) {
+                mCachedBitmapKey = null;
                 mCachedBitmap = Bitmap.createBitmap(width, height,
                         Bitmap.Config.ARGB_8888);
                 mCacheDirty = true;
@@ -1003,6 +1219,30 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
 
         }
 
+        public void getSharedBitmap(BitmapCache cache, int width, int height) {
+            if (mCachedBitmapKey != null && mCachedBitmapKey.mSource == mBitmapSource
+                    && canReuseBitmap(width, height)) {
+                // Keeps the drawn bitmap recently used. If it was evicted, it is put back so that
+                // new drawables share it instead of drawing another copy.
+                final Bitmap bitmap = cache.mBitmaps.get(mCachedBitmapKey);
+                if (bitmap == null) {
+                    cache.mBitmaps.put(mCachedBitmapKey, mCachedBitmap);
+                } else {
+                    mCachedBitmap = bitmap;
+                }
+                return;
+            }
+            final BitmapKey key = new BitmapKey(mBitmapSource, width, height);
+            Bitmap bitmap = cache.mBitmaps.get(key);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mVPathRenderer.draw(new Canvas(bitmap), width, height, null);
+                cache.mBitmaps.put(key, bitmap);
+            }
+            mCachedBitmap = bitmap;
+            mCachedBitmapKey = key;
+        }
+
         public boolean canReuseBitmap(int width, int height) {
             if (width == mCachedBitmap.getWidth()
                     && height == mCachedBitmap.getHeight()) {
@@ -1034,6 +1274,7 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
 
         public VectorDrawableCompatState() {
             mVPathRenderer = new VPathRenderer();
+            mBitmapSource = new Object();
         }
 
         @Override
@@ -1514,6 +1755,9 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
      */
     private static class VPath {
         protected PathParser.PathDataNode[] mNodes = null;
+        // Whether mNodes come from the PathParser cache, in which case they are copied before
+        // being modified.
+        boolean mNodesShared;
         String mPathName;
         int mChangingConfigurations;
 
@@ -1546,7 +1790,12 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
         public VPath(VPath copy) {
             mPathName = copy.mPathName;
             mChangingConfigurations = copy.mChangingConfigurations;
-            mNodes = PathParser.deepCopyNodes(copy.mNodes);
+            if (copy.mNodesShared) {
+                mNodes = copy.mNodes;
+                mNodesShared = true;
+            } else {
+                mNodes = PathParser.deepCopyNodes(copy.mNodes);
+            }
         }
 
         public void toPath(Path path) {
@@ -1579,9 +1828,11 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
 
         @SuppressWarnings("unused")
         public void setPathData(PathParser.PathDataNode[] nodes) {
-            if (!PathParser.canMorph(mNodes, nodes)) {
-                // This should not happen in the middle of animation.
+            if (mNodesShared || !PathParser.canMorph(mNodes, nodes)) {
+                // This should not happen in the middle of animation, except for the first
+                // update of nodes shared with other paths.
                 mNodes = PathParser.deepCopyNodes(nodes);
+                mNodesShared = false;
             } else {
                 PathParser.updateNodes(mNodes, nodes);
             }
@@ -1625,7 +1876,8 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
             final String pathData =
                     a.getString(AndroidResources.STYLEABLE_VECTOR_DRAWABLE_CLIP_PATH_PATH_DATA);
             if (pathData != null) {
-                mNodes = PathParser.createNodesFromPathData(pathData);
+                mNodes = PathParser.getCachedNodesFromPathData(pathData);
+                mNodesShared = true;
             }
         }
 
@@ -1747,7 +1999,8 @@ public class VectorDrawableCompat extends VectorDrawableCommon {
             final String pathData =
                     a.getString(AndroidResources.STYLEABLE_VECTOR_DRAWABLE_PATH_PATH_DATA);
             if (pathData != null) {
-                mNodes = PathParser.createNodesFromPathData(pathData);
+                mNodes = PathParser.getCachedNodesFromPathData(pathData);
+                mNodesShared = true;
             }
 
             mFillColor = TypedArrayUtils.getNamedColor(a, parser, "fillColor",
@@ -18,12 +18,15 @@ package android.support.graphics.drawable.tests;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.Resources.Theme;
+import android.content.res.XmlResourceParser;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -33,10 +36,13 @@ import android.graphics.drawable.Drawable;
 import android.support.graphics.drawable.VectorDrawableCompat;
 import android.support.graphics.drawable.test.R;
 import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
 import android.support.test.filters.MediumTest;
+import android.support.test.filters.SdkSuppress;
 import android.support.test.runner.AndroidJUnit4;
 import android.util.Log;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -45,6 +51,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Locale;
 
 @RunWith(AndroidJUnit4.class)
 @MediumTest
@@ -147,11 +154,223 @@ public class VectorDrawableTest {
         mTheme = mContext.getTheme();
     }
 
+    @After
+    public void tearDown() {
+        VectorDrawableCompat.setBitmapCache(null);
+    }
+
     @Test
     public void testSimpleVectorDrawables() throws Exception {
         verifyVectorDrawables(ICON_RES_IDS, GOLDEN_IMAGES, null);
     }
 
+    @Test
+    public void testSimpleVectorDrawablesWithBitmapCache() throws Exception {
+        VectorDrawableCompat.setBitmapCache(new VectorDrawableCompat.BitmapCache(1024 * 1024));
+        assertNotNull(VectorDrawableCompat.getBitmapCache());
+
+        // The second time, the bitmaps come from the cache.
+        verifyVectorDrawables(ICON_RES_IDS, GOLDEN_IMAGES, null);
+        verifyVectorDrawables(ICON_RES_IDS, GOLDEN_IMAGES, null);
+    }
+
+    @SdkSuppress(maxSdkVersion = 23)
+    @Test
+    public void testBitmapCache_sharedByDrawables() {
+        final VectorDrawableCompat.BitmapCache cache =
+                new VectorDrawableCompat.BitmapCache(1024 * 1024);
+        VectorDrawableCompat.setBitmapCache(cache);
+        VectorDrawableCompat d1 = VectorDrawableCompat.create(mResources, TEST_ICON, mTheme);
+        VectorDrawableCompat d2 = VectorDrawableCompat.create(mResources, TEST_ICON, mTheme);
+        VectorDrawableCompat d3 = (VectorDrawableCompat) d1.getConstantState().newDrawable()
+                .mutate();
+        d2.setTint(Color.RED);
+        d3.setAlpha(0x80);
+
+        for (VectorDrawableCompat d : new VectorDrawableCompat[] {d1, d2, d3}) {
+            d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+            d.draw(mCanvas);
+        }
+
+        assertEquals(1, cache.missCount());
+        assertEquals(2, cache.hitCount());
+        assertEquals(IMAGE_WIDTH * IMAGE_HEIGHT * 4, cache.size());
+
+        // Another size is another bitmap.
+        d1.setBounds(0, 0, IMAGE_WIDTH / 2, IMAGE_HEIGHT / 2);
+        d1.draw(mCanvas);
+        assertEquals(2, cache.missCount());
+
+        // Drawables created from other resources don't share the bitmaps.
+        VectorDrawableCompat other = VectorDrawableCompat.create(mResources,
+                R.drawable.vector_icon_delete, mTheme);
+        other.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        other.draw(mCanvas);
+        assertEquals(3, cache.missCount());
+    }
+
+    @SdkSuppress(maxSdkVersion = 23)
+    @Test
+    public void testBitmapCache_keyedByPackage() {
+        // Resources of another package that use the same id for another drawable, like the
+        // icons that a launcher loads from other packages.
+        @SuppressWarnings("deprecation")
+        final Resources otherResources = new Resources(mResources.getAssets(),
+                mResources.getDisplayMetrics(), mResources.getConfiguration()) {
+            @Override
+            public XmlResourceParser getXml(int id) {
+                return super.getXml(id == TEST_ICON ? R.drawable.vector_icon_delete : id);
+            }
+
+            @Override
+            public String getResourcePackageName(int resId) {
+                return "com.example.other";
+            }
+        };
+        final Bitmap expected = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT,
+                Bitmap.Config.ARGB_8888);
+        VectorDrawableCompat d = VectorDrawableCompat.create(otherResources, TEST_ICON, null);
+        d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        d.draw(new Canvas(expected));
+
+        final VectorDrawableCompat.BitmapCache cache =
+                new VectorDrawableCompat.BitmapCache(1024 * 1024);
+        VectorDrawableCompat.setBitmapCache(cache);
+        d = VectorDrawableCompat.create(mResources, TEST_ICON, null);
+        d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        d.draw(mCanvas);
+        d = VectorDrawableCompat.create(otherResources, TEST_ICON, null);
+        d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        mBitmap.eraseColor(0);
+        d.draw(mCanvas);
+
+        assertEquals(2, cache.missCount());
+        assertEquals(0, cache.hitCount());
+        assertTrue(expected.sameAs(mBitmap));
+    }
+
+    @SdkSuppress(maxSdkVersion = 23)
+    @Test
+    public void testBitmapCache_drawsSameAsWithoutCache() {
+        final Bitmap expected = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT,
+                Bitmap.Config.ARGB_8888);
+        VectorDrawableCompat d = VectorDrawableCompat.create(mResources, TEST_ICON, mTheme);
+        d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        d.setTint(Color.RED);
+        d.setAlpha(0x80);
+        d.draw(new Canvas(expected));
+
+        VectorDrawableCompat.setBitmapCache(new VectorDrawableCompat.BitmapCache(1024 * 1024));
+        for (int i = 0; i < 2; i++) {
+            d = VectorDrawableCompat.create(mResources, TEST_ICON, mTheme);
+            d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+            d.setTint(Color.RED);
+            d.setAlpha(0x80);
+            mBitmap.eraseColor(0);
+            d.draw(mCanvas);
+            assertTrue(expected.sameAs(mBitmap));
+        }
+    }
+
+    @SdkSuppress(maxSdkVersion = 23)
+    @Test
+    public void testBitmapCache_evictsLeastRecentlyUsed() {
+        // Only room for one bitmap
+        final VectorDrawableCompat.BitmapCache cache =
+                new VectorDrawableCompat.BitmapCache(IMAGE_WIDTH * IMAGE_HEIGHT * 4);
+        VectorDrawableCompat.setBitmapCache(cache);
+        for (int resId : new int[] {TEST_ICON, R.drawable.vector_icon_delete, TEST_ICON}) {
+            VectorDrawableCompat d = VectorDrawableCompat.create(mResources, resId, mTheme);
+            d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+            d.draw(mCanvas);
+        }
+
+        assertEquals(3, cache.missCount());
+        assertEquals(2, cache.evictionCount());
+        assertEquals(cache.maxSize(), cache.size());
+
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        VectorDrawableCompat.setBitmapCache(null);
+        assertNull(VectorDrawableCompat.getBitmapCache());
+    }
+
+    @SdkSuppress(maxSdkVersion = 23)
+    @Test
+    public void testBitmapCache_drawKeepsBitmapRecentlyUsed() {
+        // Only room for two bitmaps
+        final VectorDrawableCompat.BitmapCache cache =
+                new VectorDrawableCompat.BitmapCache(2 * IMAGE_WIDTH * IMAGE_HEIGHT * 4);
+        VectorDrawableCompat.setBitmapCache(cache);
+        VectorDrawableCompat onScreen = VectorDrawableCompat.create(mResources, TEST_ICON, mTheme);
+        onScreen.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        onScreen.draw(mCanvas);
+        for (int resId : new int[] {R.drawable.vector_icon_delete, R.drawable.vector_icon_heart}) {
+            // The icon on screen is redrawn at each frame.
+            onScreen.draw(mCanvas);
+            VectorDrawableCompat d = VectorDrawableCompat.create(mResources, resId, mTheme);
+            d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+            d.draw(mCanvas);
+        }
+        assertEquals(3, cache.missCount());
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.evictionCount());
+
+        // The bitmap on screen was not evicted, so it is shared with a new drawable.
+        VectorDrawableCompat d = VectorDrawableCompat.create(mResources, TEST_ICON, mTheme);
+        d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        d.draw(mCanvas);
+        assertEquals(3, cache.missCount());
+        assertEquals(3, cache.hitCount());
+
+        // After the cache is cleared, the bitmap on screen is put back when it is drawn.
+        cache.evictAll();
+        onScreen.draw(mCanvas);
+        assertEquals(IMAGE_WIDTH * IMAGE_HEIGHT * 4, cache.size());
+    }
+
+    /**
+     * Logs the time taken to create and draw a screen of list rows that show the same few icons,
+     * with and without a {@link VectorDrawableCompat.BitmapCache}. The timings are only logged
+     * since they depend on the device.
+     */
+    @LargeTest
+    @Test
+    public void testBitmapCacheDrawLatency() {
+        final int rounds = 20;
+        final int rows = 20;
+        final int[] icons = new int[] {R.drawable.vector_icon_create,
+                R.drawable.vector_icon_delete, R.drawable.vector_icon_share};
+        final VectorDrawableCompat.BitmapCache cache =
+                new VectorDrawableCompat.BitmapCache(1024 * 1024);
+        long uncachedNanos = 0;
+        long cachedNanos = 0;
+        for (int i = 0; i <= rounds; i++) {
+            VectorDrawableCompat.setBitmapCache(null);
+            long start = System.nanoTime();
+            drawRows(rows, icons);
+            // The first round warms up the code and the cache.
+            uncachedNanos += i > 0 ? System.nanoTime() - start : 0;
+
+            VectorDrawableCompat.setBitmapCache(cache);
+            start = System.nanoTime();
+            drawRows(rows, icons);
+            cachedNanos += i > 0 ? System.nanoTime() - start : 0;
+        }
+        Log.d(LOGTAG, String.format(Locale.US, "%d rows: without cache %dus, with cache %dus "
+                        + "(%d hits, %d misses, %d bytes)", rows, uncachedNanos / rounds / 1000,
+                cachedNanos / rounds / 1000, cache.hitCount(), cache.missCount(), cache.size()));
+    }
+
+    private void drawRows(int rows, int[] icons) {
+        for (int i = 0; i < rows; i++) {
+            VectorDrawableCompat d = VectorDrawableCompat.create(mResources,
+                    icons[i % icons.length], mTheme);
+            d.setBounds(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+            d.draw(mCanvas);
+        }
+    }
+
     private void verifyVectorDrawables(int[] resIds, int[] goldenImages, int[] stateSet)
             throws XmlPullParserException, IOException {
         for (int i = 0; i < resIds.length; i++) {
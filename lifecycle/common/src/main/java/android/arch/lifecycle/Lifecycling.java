@@ -22,8 +22,7 @@ import android.support.annotation.RestrictTo;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Internal class to handle lifecycle conversion etc.
@@ -42,8 +41,10 @@ class Lifecycling {
         }
     }
 
-    private static Map<Class, Constructor<? extends GenericLifecycleObserver>> sCallbackCache =
-            new HashMap<>();
+    // observers may be registered from multiple threads, e.g. LifecycleRegistry instances of
+    // different owners, so the cache has to be thread safe.
+    private static final ConcurrentHashMap<Class, Constructor<? extends GenericLifecycleObserver>>
+            sCallbackCache = new ConcurrentHashMap<>();
 
     @NonNull
     static GenericLifecycleObserver getCallback(Object object) {
@@ -60,7 +61,7 @@ class Lifecycling {
             Constructor<? extends GenericLifecycleObserver> cachedConstructor = sCallbackCache.get(
                     klass);
             if (cachedConstructor != null) {
-                return cachedConstructor.newInstance(object);
+                return createCallback(cachedConstructor, object);
             }
             cachedConstructor = getGeneratedAdapterConstructor(klass);
             if (cachedConstructor != null) {
@@ -70,8 +71,8 @@ class Lifecycling {
             } else {
                 cachedConstructor = sREFLECTIVE;
             }
-            sCallbackCache.put(klass, cachedConstructor);
-            return cachedConstructor.newInstance(object);
+            sCallbackCache.putIfAbsent(klass, cachedConstructor);
+            return createCallback(cachedConstructor, object);
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
         } catch (InstantiationException e) {
@@ -81,6 +82,16 @@ class Lifecycling {
         }
     }
 
+    private static GenericLifecycleObserver createCallback(
+            Constructor<? extends GenericLifecycleObserver> constructor, Object object)
+            throws IllegalAccessException, InvocationTargetException, InstantiationException {
+        if (constructor == sREFLECTIVE) {
+            // no need to go through reflection to create the reflective observer
+            return new ReflectiveGenericLifecycleObserver(object);
+        }
+        return constructor.newInstance(object);
+    }
+
     @Nullable
     private static Constructor<? extends GenericLifecycleObserver> getGeneratedAdapterConstructor(
             Class<?> klass) {
@@ -25,15 +25,23 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An internal implementation of {@link GenericLifecycleObserver} that relies on reflection.
  */
 class ReflectiveGenericLifecycleObserver implements GenericLifecycleObserver {
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final Object mWrapped;
     private final CallbackInfo mInfo;
+    // argument arrays reused for each call to avoid allocating them per event. They are filled
+    // right before Method#invoke, which reads them before calling into the observer.
+    private final Object[] mProviderArgs = new Object[1];
+    private final Object[] mProviderWithEventArgs = new Object[2];
+    // classes are scanned once and the result is shared by all instances of that class.
     @SuppressWarnings("WeakerAccess")
-    static final Map<Class, CallbackInfo> sInfoCache = new HashMap<>();
+    static final ConcurrentHashMap<Class, CallbackInfo> sInfoCache = new ConcurrentHashMap<>();
 
     ReflectiveGenericLifecycleObserver(Object wrapped) {
         mWrapped = wrapped;
@@ -45,20 +53,11 @@ class ReflectiveGenericLifecycleObserver implements GenericLifecycleObserver {
         invokeCallbacks(mInfo, source, event);
     }
 
-    private void invokeMethodsForEvent(List<MethodReference> handlers, LifecycleOwner source,
-            Event event) {
-        if (handlers != null) {
-            for (int i = handlers.size() - 1; i >= 0; i--) {
-                MethodReference reference = handlers.get(i);
-                invokeCallback(reference, source, event);
-            }
-        }
-    }
-
-    @SuppressWarnings("ConstantConditions")
     private void invokeCallbacks(CallbackInfo info, LifecycleOwner source, Event event) {
-        invokeMethodsForEvent(info.mEventToHandlers.get(event), source, event);
-        invokeMethodsForEvent(info.mEventToHandlers.get(Event.ON_ANY), source, event);
+        final MethodReference[] handlers = info.mDispatchOrder[event.ordinal()];
+        for (MethodReference reference : handlers) {
+            invokeCallback(reference, source, event);
+        }
     }
 
     private void invokeCallback(MethodReference reference, LifecycleOwner source, Event event) {
@@ -66,29 +65,35 @@ class ReflectiveGenericLifecycleObserver implements GenericLifecycleObserver {
         try {
             switch (reference.mCallType) {
                 case CALL_TYPE_NO_ARG:
-                    reference.mMethod.invoke(mWrapped);
+                    reference.mMethod.invoke(mWrapped, NO_ARGS);
                     break;
                 case CALL_TYPE_PROVIDER:
-                    reference.mMethod.invoke(mWrapped, source);
+                    mProviderArgs[0] = source;
+                    reference.mMethod.invoke(mWrapped, mProviderArgs);
                     break;
                 case CALL_TYPE_PROVIDER_WITH_EVENT:
-                    reference.mMethod.invoke(mWrapped, source, event);
+                    mProviderWithEventArgs[0] = source;
+                    mProviderWithEventArgs[1] = event;
+                    reference.mMethod.invoke(mWrapped, mProviderWithEventArgs);
                     break;
             }
         } catch (InvocationTargetException e) {
             throw new RuntimeException("Failed to call observer method", e.getCause());
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
+        } finally {
+            // don't leak the owner
+            mProviderArgs[0] = null;
+            mProviderWithEventArgs[0] = null;
         }
     }
 
-    private static CallbackInfo getInfo(Class klass) {
+    static CallbackInfo getInfo(Class klass) {
         CallbackInfo existing = sInfoCache.get(klass);
         if (existing != null) {
             return existing;
         }
-        existing = createInfo(klass);
-        return existing;
+        return createInfo(klass);
     }
 
     private static void verifyAndPutHandler(Map<MethodReference, Event> handlers,
@@ -159,14 +164,19 @@ class ReflectiveGenericLifecycleObserver implements GenericLifecycleObserver {
             verifyAndPutHandler(handlerToEvent, methodReference, event, klass);
         }
         CallbackInfo info = new CallbackInfo(handlerToEvent);
-        sInfoCache.put(klass, info);
-        return info;
+        // if another thread scanned the same class meanwhile, keep the first result so that all
+        // instances share it.
+        CallbackInfo existing = sInfoCache.putIfAbsent(klass, info);
+        return existing != null ? existing : info;
     }
 
     @SuppressWarnings("WeakerAccess")
     static class CallbackInfo {
         final Map<Event, List<MethodReference>> mEventToHandlers;
         final Map<MethodReference, Event> mHandlerToEvent;
+        // for each event ordinal, the methods to call in order: the handlers of that event
+        // followed by the ON_ANY handlers.
+        final MethodReference[][] mDispatchOrder;
 
         CallbackInfo(Map<MethodReference, Event> handlerToEvent) {
             mHandlerToEvent = handlerToEvent;
@@ -180,6 +190,24 @@ class ReflectiveGenericLifecycleObserver implements GenericLifecycleObserver {
                 }
                 methodReferences.add(entry.getKey());
             }
+            final Event[] events = Event.values();
+            mDispatchOrder = new MethodReference[events.length][];
+            final List<MethodReference> anyHandlers = mEventToHandlers.get(Event.ON_ANY);
+            for (Event event : events) {
+                List<MethodReference> order = new ArrayList<>();
+                addInReverse(order, mEventToHandlers.get(event));
+                addInReverse(order, anyHandlers);
+                mDispatchOrder[event.ordinal()] = order.toArray(new MethodReference[order.size()]);
+            }
+        }
+
+        private static void addInReverse(List<MethodReference> target,
+                List<MethodReference> handlers) {
+            if (handlers != null) {
+                for (int i = handlers.size() - 1; i >= 0; i--) {
+                    target.add(handlers.get(i));
+                }
+            }
         }
     }
 
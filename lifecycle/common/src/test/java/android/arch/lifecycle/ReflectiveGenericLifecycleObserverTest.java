@@ -42,6 +42,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.Matchers;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 @RunWith(JUnit4.class)
 public class ReflectiveGenericLifecycleObserverTest {
     private LifecycleOwner mOwner;
@@ -362,4 +366,82 @@ public class ReflectiveGenericLifecycleObserverTest {
     public void testInvalidSuper3() {
         new ReflectiveGenericLifecycleObserver(new DerivedClass5());
     }
+
+    static class OrderedObserver implements LifecycleObserver {
+        final List<String> mCalls = new ArrayList<>();
+
+        @OnLifecycleEvent(ON_START)
+        void started(LifecycleOwner owner) {
+            mCalls.add("started " + (owner != null));
+        }
+
+        @OnLifecycleEvent(ON_ANY)
+        void any(LifecycleOwner owner, Lifecycle.Event event) {
+            mCalls.add("any " + event);
+        }
+    }
+
+    @Test
+    public void repeatedDispatch() {
+        OrderedObserver obj = new OrderedObserver();
+        ReflectiveGenericLifecycleObserver observer = new ReflectiveGenericLifecycleObserver(obj);
+        for (int i = 0; i < 3; i++) {
+            observer.onStateChanged(mOwner, ON_START);
+            observer.onStateChanged(mOwner, ON_STOP);
+        }
+        assertThat(obj.mCalls.size(), is(9));
+        for (int i = 0; i < 3; i++) {
+            assertThat(obj.mCalls.get(i * 3), is("started true"));
+            assertThat(obj.mCalls.get(i * 3 + 1), is("any ON_START"));
+            assertThat(obj.mCalls.get(i * 3 + 2), is("any ON_STOP"));
+        }
+    }
+
+    @Test
+    public void callbackInfoIsSharedPerClass() {
+        ReflectiveGenericLifecycleObserver.CallbackInfo info =
+                ReflectiveGenericLifecycleObserver.getInfo(OrderedObserver.class);
+        new ReflectiveGenericLifecycleObserver(new OrderedObserver());
+        assertThat(ReflectiveGenericLifecycleObserver.getInfo(OrderedObserver.class) == info,
+                is(true));
+    }
+
+    static class ConcurrentlyScannedObserver implements LifecycleObserver {
+        @OnLifecycleEvent(ON_START)
+        void started() {
+        }
+    }
+
+    @Test
+    public void concurrentScanning() throws InterruptedException {
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ReflectiveGenericLifecycleObserver.CallbackInfo[] infos =
+                new ReflectiveGenericLifecycleObserver.CallbackInfo[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    Lifecycling.getCallback(new ConcurrentlyScannedObserver());
+                    infos[index] = ReflectiveGenericLifecycleObserver.getInfo(
+                            ConcurrentlyScannedObserver.class);
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (ReflectiveGenericLifecycleObserver.CallbackInfo info : infos) {
+            assertThat(info == infos[0], is(true));
+        }
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.arch.lifecycle;
+
+import android.annotation.TargetApi;
+import android.arch.core.executor.AppToolkitTaskExecutor;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batches the values posted via {@link LiveData#postValue(Object)} across all LiveData instances
+ * and dispatches them together once per frame.
+ * <p>
+ * By default, each {@link LiveData#postValue(Object)} call that does not already have a pending
+ * value sends its own message to the main thread. When many LiveData instances are updated from
+ * a background thread, e.g. during a database sync, the main thread ends up handling a separate
+ * message for each of them and observers may run several times within the same frame. Once a
+ * dispatcher is {@link #install(BatchedLiveDataDispatcher) installed}, posted values are
+ * collected and set on their LiveData at the next frame. As with {@code postValue}, if a
+ * LiveData receives multiple values before the frame, only the last one is dispatched.
+ * <p>
+ * {@link LiveData#setValue(Object)} is not affected and still dispatches immediately.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BatchedLiveDataDispatcher {
+    // the installed dispatcher, read by LiveData#postValue
+    @Nullable
+    static volatile BatchedLiveDataDispatcher sInstance;
+
+    private final Object mLock = new Object();
+
+    private final FrameTicker mTicker;
+
+    // guarded by mLock
+    private ArrayList<Runnable> mPending = new ArrayList<>();
+    // guarded by mLock
+    private boolean mFrameScheduled;
+
+    // only accessed on the main thread
+    private ArrayList<Runnable> mDispatching = new ArrayList<>();
+
+    private volatile long mFrameCount;
+    private volatile long mDispatchCount;
+
+    private final Runnable mScheduleFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mTicker.postFrameCallback(mFrameRunnable);
+        }
+    };
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPendingValues();
+        }
+    };
+
+    /**
+     * Creates a dispatcher that dispatches values at each frame using the
+     * {@link Choreographer}, or using a frame-rate aligned message on devices older than
+     * {@link Build.VERSION_CODES#JELLY_BEAN}.
+     */
+    public BatchedLiveDataDispatcher() {
+        this(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new ChoreographerFrameTicker() : new HandlerFrameTicker());
+    }
+
+    /**
+     * Creates a dispatcher that dispatches values whenever the given ticker calls back.
+     *
+     * @param ticker The source of the frame callbacks.
+     */
+    public BatchedLiveDataDispatcher(@NonNull FrameTicker ticker) {
+        mTicker = ticker;
+    }
+
+    /**
+     * Installs the given dispatcher to be used by all {@link LiveData#postValue(Object)} calls.
+     * <p>
+     * Calling this method with {@code null} restores the default behavior of posting each value
+     * to the main thread separately. Values already queued in a previously installed dispatcher
+     * are still dispatched at its next frame.
+     *
+     * @param dispatcher The dispatcher to use or {@code null} to disable batching.
+     */
+    public static void install(@Nullable BatchedLiveDataDispatcher dispatcher) {
+        sInstance = dispatcher;
+    }
+
+    /**
+     * Returns the number of frames in which this dispatcher has dispatched values.
+     *
+     * @return The number of frames with dispatched values.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the number of values dispatched by this dispatcher.
+     *
+     * @return The number of dispatched values.
+     */
+    public long getDispatchCount() {
+        return mDispatchCount;
+    }
+
+    /**
+     * Queues the given runnable, which sets the pending value of a LiveData, to be run at the
+     * next frame. Can be called from any thread.
+     */
+    void enqueue(Runnable postValueRunnable) {
+        boolean scheduleFrame;
+        synchronized (mLock) {
+            mPending.add(postValueRunnable);
+            scheduleFrame = !mFrameScheduled;
+            mFrameScheduled = true;
+        }
+        if (scheduleFrame) {
+            AppToolkitTaskExecutor.getInstance().executeOnMainThread(mScheduleFrameRunnable);
+        }
+    }
+
+    @MainThread
+    void dispatchPendingValues() {
+        ArrayList<Runnable> dispatching;
+        synchronized (mLock) {
+            dispatching = mPending;
+            mPending = mDispatching;
+            mDispatching = dispatching;
+            mFrameScheduled = false;
+        }
+        final int size = dispatching.size();
+        if (size == 0) {
+            return;
+        }
+        int dispatched = 0;
+        try {
+            while (dispatched < size) {
+                dispatching.get(dispatched++).run();
+            }
+        } finally {
+            if (dispatched < size) {
+                // an observer threw, the values after it are dispatched at the next frame so
+                // that their LiveData can post again
+                requeue(dispatching.subList(dispatched, size));
+            }
+            dispatching.clear();
+            mFrameCount++;
+            mDispatchCount += dispatched;
+        }
+    }
+
+    @MainThread
+    private void requeue(List<Runnable> postValueRunnables) {
+        boolean scheduleFrame;
+        synchronized (mLock) {
+            mPending.addAll(0, postValueRunnables);
+            scheduleFrame = !mFrameScheduled;
+            mFrameScheduled = true;
+        }
+        if (scheduleFrame) {
+            AppToolkitTaskExecutor.getInstance().executeOnMainThread(mScheduleFrameRunnable);
+        }
+    }
+
+    /**
+     * Provides the frame callbacks to a {@link BatchedLiveDataDispatcher}.
+     * <p>
+     * A custom implementation can be used to control when values are dispatched, e.g. in tests.
+     */
+    public abstract static class FrameTicker {
+        /**
+         * Requests the given callback to be run on the main thread at the next frame.
+         * <p>
+         * This method is always called on the main thread.
+         *
+         * @param callback The callback to run.
+         */
+        @MainThread
+        public abstract void postFrameCallback(@NonNull Runnable callback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerFrameTicker extends FrameTicker {
+        private Choreographer mChoreographer;
+
+        @Override
+        public void postFrameCallback(@NonNull final Runnable callback) {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+            }
+            mChoreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    callback.run();
+                }
+            });
+        }
+    }
+
+    private static class HandlerFrameTicker extends FrameTicker {
+        private static final long FRAME_DELAY_MS = 10;
+        private Handler mHandler;
+        private long mLastFrameTime = -1;
+
+        @Override
+        public void postFrameCallback(@NonNull final Runnable callback) {
+            if (mHandler == null) {
+                mHandler = new Handler(Looper.getMainLooper());
+            }
+            long delay = FRAME_DELAY_MS - (SystemClock.uptimeMillis() - mLastFrameTime);
+            delay = Math.max(delay, 0);
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    mLastFrameTime = SystemClock.uptimeMillis();
+                    callback.run();
+                }
+            }, delay);
+        }
+    }
+}
@@ -17,43 +17,108 @@
 package android.arch.lifecycle;
 
 import android.arch.core.executor.AppToolkitTaskExecutor;
-import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
-import android.support.annotation.RestrictTo;
 import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A LiveData class that can be invalidated & computed on demand.
  * <p>
- * This is an internal class for now, might be public if we see the necessity.
+ * Computations run on the {@link Executor} given to the constructor, and only while the LiveData
+ * has active observers. Invalidations that arrive while a computation is already pending are
+ * merged into it, so a burst of {@link #invalidate()} calls results in a single call to
+ * {@link #compute()}.
+ * <p>
+ * A minimum recompute interval can be provided to rate limit computations. When an invalidation
+ * arrives sooner than the interval after the previous computation, the executor thread waits
+ * for the rest of the interval and any invalidations received meanwhile are handled by the same
+ * computation. Since the wait blocks the executor thread, prefer a dedicated executor when using
+ * long intervals.
  *
  * @param <T> The type of the live data
- * @hide internal
  */
-@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
 public abstract class ComputableLiveData<T> {
 
     private final LiveData<T> mLiveData;
 
+    private final Executor mExecutor;
+
+    private final long mMinRecomputeIntervalNs;
+
     private AtomicBoolean mInvalid = new AtomicBoolean(true);
     private AtomicBoolean mComputing = new AtomicBoolean(false);
+    // true while mRefreshRunnable is queued on the executor but has not started running yet.
+    private AtomicBoolean mRefreshPending = new AtomicBoolean(false);
+
+    // Tracked separately from LiveData#hasActiveObservers so that it can be safely read from
+    // the thread calling invalidate().
+    private volatile boolean mActive;
+
+    // System.nanoTime() at the end of the last computation, only accessed while computing.
+    private long mLastComputeEndNs;
+    private boolean mHasComputed;
+
+    private final AtomicLong mComputeCount = new AtomicLong();
+    private final AtomicLong mAvoidedComputeCount = new AtomicLong();
 
     /**
      * Creates a computable live data which is computed when there are active observers.
      * <p>
      * It can also be invalidated via {@link #invalidate()} which will result in a call to
      * {@link #compute()} if there are active observers (or when they start observing)
+     * <p>
+     * Computations run on the {@link AppToolkitTaskExecutor#getDiskReadExecutor() disk read
+     * executor}.
      */
     @SuppressWarnings("WeakerAccess")
     public ComputableLiveData() {
+        this(AppToolkitTaskExecutor.getDiskReadExecutor());
+    }
+
+    /**
+     * Creates a computable live data which is computed on the given executor when there are
+     * active observers.
+     *
+     * @param executor Executor to run {@link #compute()} on.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ComputableLiveData(@NonNull Executor executor) {
+        this(executor, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a computable live data which is computed on the given executor when there are
+     * active observers, at most once per {@code minRecomputeInterval}.
+     *
+     * @param executor              Executor to run {@link #compute()} on.
+     * @param minRecomputeInterval  Minimum time between the end of a computation and the start
+     *                              of the next one. Invalidations received within this window are
+     *                              coalesced into a single computation.
+     * @param unit                  The time unit of {@code minRecomputeInterval}.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ComputableLiveData(@NonNull Executor executor, long minRecomputeInterval,
+            @NonNull TimeUnit unit) {
+        if (minRecomputeInterval < 0) {
+            throw new IllegalArgumentException("minRecomputeInterval cannot be negative");
+        }
+        mExecutor = executor;
+        mMinRecomputeIntervalNs = unit.toNanos(minRecomputeInterval);
         mLiveData = new LiveData<T>() {
             @Override
             protected void onActive() {
-                // TODO if we make this class public, we should accept an executor
-                AppToolkitTaskExecutor.getInstance().executeOnDiskIO(mRefreshRunnable);
+                mActive = true;
+                scheduleRefresh();
+            }
+
+            @Override
+            protected void onInactive() {
+                mActive = false;
             }
         };
     }
@@ -69,11 +134,59 @@ public abstract class ComputableLiveData<T> {
         return mLiveData;
     }
 
+    /**
+     * Returns the number of times {@link #compute()} has been called.
+     *
+     * @return The number of computations.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public long getComputeCount() {
+        return mComputeCount.get();
+    }
+
+    /**
+     * Returns the number of {@link #invalidate()} calls that did not cause a computation of
+     * their own because they were merged into an already pending one.
+     *
+     * @return The number of computations avoided by coalescing invalidations.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public long getAvoidedComputeCount() {
+        return mAvoidedComputeCount.get();
+    }
+
+    private void scheduleRefresh() {
+        if (mRefreshPending.compareAndSet(false, true)) {
+            mExecutor.execute(mRefreshRunnable);
+        }
+    }
+
+    @WorkerThread
+    private void waitForRecomputeInterval() {
+        if (mMinRecomputeIntervalNs == 0 || !mHasComputed) {
+            return;
+        }
+        final long deadline = mLastComputeEndNs + mMinRecomputeIntervalNs;
+        long remaining = deadline - System.nanoTime();
+        while (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
     @VisibleForTesting
     final Runnable mRefreshRunnable = new Runnable() {
         @WorkerThread
         @Override
         public void run() {
+            // clear before checking the invalid flag so that any invalidation that arrives after
+            // this point schedules a new run.
+            mRefreshPending.set(false);
             boolean computed;
             do {
                 computed = false;
@@ -82,9 +195,23 @@ public abstract class ComputableLiveData<T> {
                     // as long as it is invalid, keep computing.
                     try {
                         T value = null;
-                        while (mInvalid.compareAndSet(true, false)) {
+                        while (mInvalid.get()) {
+                            // wait before clearing the flag so that invalidations arriving in
+                            // the meantime are handled by this computation.
+                            waitForRecomputeInterval();
+                            if (!mInvalid.compareAndSet(true, false)) {
+                                break;
+                            }
                             computed = true;
+                            mComputeCount.incrementAndGet();
                             value = compute();
+                            mLastComputeEndNs = System.nanoTime();
+                            mHasComputed = true;
+                            if (mMinRecomputeIntervalNs > 0) {
+                                // when rate limited, dispatch each value so that a continuous
+                                // stream of invalidations does not starve the observers.
+                                break;
+                            }
                         }
                         if (computed) {
                             mLiveData.postValue(value);
@@ -105,18 +232,19 @@ public abstract class ComputableLiveData<T> {
         }
     };
 
-    // invalidation check always happens on the main thread
+    // invalidation check can run on any thread, it only marks the data as invalid and schedules
+    // a refresh if there are active observers.
     @VisibleForTesting
     final Runnable mInvalidationRunnable = new Runnable() {
-        @MainThread
         @Override
         public void run() {
-            boolean isActive = mLiveData.hasActiveObservers();
             if (mInvalid.compareAndSet(false, true)) {
-                if (isActive) {
-                    // TODO if we make this class public, we should accept an executor.
-                    AppToolkitTaskExecutor.getInstance().executeOnDiskIO(mRefreshRunnable);
+                if (mActive) {
+                    scheduleRefresh();
                 }
+            } else {
+                // already invalid, the pending computation will pick up this change as well.
+                mAvoidedComputeCount.incrementAndGet();
             }
         }
     };
@@ -124,10 +252,11 @@ public abstract class ComputableLiveData<T> {
     /**
      * Invalidates the LiveData.
      * <p>
-     * When there are active observers, this will trigger a call to {@link #compute()}.
+     * When there are active observers, this will trigger a call to {@link #compute()}. This
+     * method can be called from any thread.
      */
     public void invalidate() {
-        AppToolkitTaskExecutor.getInstance().executeOnMainThread(mInvalidationRunnable);
+        mInvalidationRunnable.run();
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -20,14 +20,11 @@ import static android.arch.lifecycle.Lifecycle.State.DESTROYED;
 import static android.arch.lifecycle.Lifecycle.State.STARTED;
 
 import android.arch.core.executor.AppToolkitTaskExecutor;
-import android.arch.core.internal.SafeIterableMap;
+import android.arch.core.internal.SafeIterableArrayMap;
 import android.arch.lifecycle.Lifecycle.State;
 import android.support.annotation.MainThread;
 import android.support.annotation.Nullable;
 
-import java.util.Iterator;
-import java.util.Map;
-
 /**
  * LiveData is a data holder class that can be observed within a given lifecycle.
  * This means that an {@link Observer} can be added in a pair with a {@link LifecycleOwner}, and
@@ -82,8 +79,8 @@ public abstract class LiveData<T> {
         }
     };
 
-    private SafeIterableMap<Observer<T>, LifecycleBoundObserver> mObservers =
-            new SafeIterableMap<>();
+    private SafeIterableArrayMap<Observer<T>, LifecycleBoundObserver> mObservers =
+            new SafeIterableArrayMap<>();
 
     // how many observers are in active state
     private int mActiveCount = 0;
@@ -141,12 +138,21 @@ public abstract class LiveData<T> {
                 considerNotify(initiator);
                 initiator = null;
             } else {
-                for (Iterator<Map.Entry<Observer<T>, LifecycleBoundObserver>> iterator =
-                        mObservers.iteratorWithAdditions(); iterator.hasNext(); ) {
-                    considerNotify(iterator.next().getValue());
-                    if (mDispatchInvalidated) {
-                        break;
+                mObservers.beginIteration();
+                try {
+                    // include the observers added while dispatching
+                    for (int i = 0; i < mObservers.slotCount(); i++) {
+                        LifecycleBoundObserver observer = mObservers.valueAt(i);
+                        if (observer == null) {
+                            continue;
+                        }
+                        considerNotify(observer);
+                        if (mDispatchInvalidated) {
+                            break;
+                        }
                     }
+                } finally {
+                    mObservers.endIteration();
                 }
             }
         } while (mDispatchInvalidated);
@@ -243,10 +249,16 @@ public abstract class LiveData<T> {
     @MainThread
     public void removeObservers(final LifecycleOwner owner) {
         assertMainThread("removeObservers");
-        for (Map.Entry<Observer<T>, LifecycleBoundObserver> entry : mObservers) {
-            if (entry.getValue().owner == owner) {
-                removeObserver(entry.getKey());
+        final int end = mObservers.beginIteration();
+        try {
+            for (int i = 0; i < end; i++) {
+                LifecycleBoundObserver observer = mObservers.valueAt(i);
+                if (observer != null && observer.owner == owner) {
+                    removeObserver(observer.observer);
+                }
             }
+        } finally {
+            mObservers.endIteration();
         }
     }
 
@@ -262,6 +274,9 @@ public abstract class LiveData<T> {
      * <p>
      * If you called this method multiple times before a main thread executed a posted task, only
      * the last value would be dispatched.
+     * <p>
+     * If a {@link BatchedLiveDataDispatcher} is installed, the value is dispatched together with
+     * the values posted to other LiveData instances at the next frame.
      *
      * @param value The new value
      */
@@ -274,7 +289,12 @@ public abstract class LiveData<T> {
         if (!postTask) {
             return;
         }
-        AppToolkitTaskExecutor.getInstance().postToMainThread(mPostValueRunnable);
+        BatchedLiveDataDispatcher dispatcher = BatchedLiveDataDispatcher.sInstance;
+        if (dispatcher != null) {
+            dispatcher.enqueue(mPostValueRunnable);
+        } else {
+            AppToolkitTaskExecutor.getInstance().postToMainThread(mPostValueRunnable);
+        }
     }
 
     /**
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.arch.lifecycle;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import android.arch.core.executor.AppToolkitTaskExecutor;
+import android.arch.core.executor.TaskExecutor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+@RunWith(JUnit4.class)
+public class BatchedLiveDataDispatcherTest {
+    private static final int LIVE_DATA_COUNT = 60;
+    private static final int UPDATES_PER_FRAME = 10;
+
+    private QueueTaskExecutor mTaskExecutor;
+    private ManualFrameTicker mTicker;
+    private BatchedLiveDataDispatcher mDispatcher;
+
+    @Before
+    public void setup() {
+        mTaskExecutor = new QueueTaskExecutor();
+        AppToolkitTaskExecutor.getInstance().setDelegate(mTaskExecutor);
+        mTicker = new ManualFrameTicker(mTaskExecutor);
+        mDispatcher = new BatchedLiveDataDispatcher(mTicker);
+    }
+
+    @After
+    public void teardown() {
+        BatchedLiveDataDispatcher.install(null);
+        AppToolkitTaskExecutor.getInstance().setDelegate(null);
+    }
+
+    @Test
+    public void dispatchesAtFrame() {
+        BatchedLiveDataDispatcher.install(mDispatcher);
+        MutableLiveData<String> liveData = new MutableLiveData<>();
+        CountingObserver<String> observer = new CountingObserver<>();
+        observeOnMainThread(liveData, observer);
+
+        liveData.postValue("a");
+        liveData.postValue("b");
+        mTaskExecutor.drainMainThread();
+        assertThat(observer.mValues.size(), is(0));
+
+        mTicker.frame();
+        assertThat(observer.mValues.size(), is(1));
+        assertThat(observer.mValues.get(0), is("b"));
+        assertThat(mDispatcher.getFrameCount(), is(1L));
+        assertThat(mDispatcher.getDispatchCount(), is(1L));
+    }
+
+    @Test
+    public void uninstall() {
+        BatchedLiveDataDispatcher.install(mDispatcher);
+        MutableLiveData<String> liveData = new MutableLiveData<>();
+        CountingObserver<String> observer = new CountingObserver<>();
+        observeOnMainThread(liveData, observer);
+        liveData.postValue("a");
+        mTaskExecutor.drainMainThread();
+        BatchedLiveDataDispatcher.install(null);
+        mTicker.frame();
+        assertThat(observer.mValues.size(), is(1));
+        liveData.postValue("b");
+        assertThat(mTicker.mCallbacks.size(), is(0));
+        mTaskExecutor.drainMainThread();
+        assertThat(observer.mValues.get(1), is("b"));
+    }
+
+    @Test
+    public void postFromObserverGoesToNextFrame() {
+        BatchedLiveDataDispatcher.install(mDispatcher);
+        final MutableLiveData<Integer> liveData = new MutableLiveData<>();
+        final List<Integer> values = new ArrayList<>();
+        mTaskExecutor.mIsMainThread = true;
+        liveData.observeForever(new Observer<Integer>() {
+            @Override
+            public void onChanged(@Nullable Integer value) {
+                values.add(value);
+                //noinspection ConstantConditions
+                if (value < 3) {
+                    liveData.postValue(value + 1);
+                }
+            }
+        });
+        mTaskExecutor.mIsMainThread = false;
+        liveData.postValue(1);
+        mTaskExecutor.drainMainThread();
+        mTicker.frame();
+        assertThat(values.size(), is(1));
+        mTicker.frame();
+        mTicker.frame();
+        mTicker.frame();
+        assertThat(values.size(), is(3));
+        assertThat(values.get(2), is(3));
+    }
+
+    @Test
+    public void throwingObserverDoesNotDropOtherValues() {
+        BatchedLiveDataDispatcher.install(mDispatcher);
+        MutableLiveData<String> first = new MutableLiveData<>();
+        MutableLiveData<String> throwing = new MutableLiveData<>();
+        MutableLiveData<String> last = new MutableLiveData<>();
+        CountingObserver<String> firstObserver = new CountingObserver<>();
+        CountingObserver<String> lastObserver = new CountingObserver<>();
+        observeOnMainThread(first, firstObserver);
+        observeOnMainThread(throwing, new Observer<String>() {
+            @Override
+            public void onChanged(@Nullable String value) {
+                throw new IllegalStateException(value);
+            }
+        });
+        observeOnMainThread(last, lastObserver);
+
+        first.postValue("a");
+        throwing.postValue("b");
+        last.postValue("c");
+        mTaskExecutor.drainMainThread();
+        try {
+            mTicker.frame();
+            fail("The exception of the observer should be thrown");
+        } catch (IllegalStateException expected) {
+        }
+        mTaskExecutor.mIsMainThread = false;
+        assertThat(firstObserver.mValues.size(), is(1));
+        assertThat(lastObserver.mValues.size(), is(0));
+        assertThat(mDispatcher.getDispatchCount(), is(2L));
+
+        // the remaining value is dispatched at the next frame
+        mTicker.frame();
+        assertThat(lastObserver.mValues.size(), is(1));
+        assertThat(lastObserver.mValues.get(0), is("c"));
+        assertThat(mDispatcher.getDispatchCount(), is(3L));
+
+        last.postValue("d");
+        mTaskExecutor.drainMainThread();
+        mTicker.frame();
+        assertThat(lastObserver.mValues.get(1), is("d"));
+    }
+
+    /**
+     * Simulates a background sync updating {@link #LIVE_DATA_COUNT} LiveData instances
+     * {@link #UPDATES_PER_FRAME} times while the main thread keeps handling messages within the
+     * frame, and compares the main thread message count and observer invocations with and
+     * without batching.
+     */
+    @Test
+    public void batchingReducesMessagesAndObserverCalls() {
+        int[] unbatched = runSync(false);
+        int[] batched = runSync(true);
+        // each update of each LiveData is a message and an observer call
+        assertThat(unbatched[0], is(LIVE_DATA_COUNT * UPDATES_PER_FRAME));
+        assertThat(unbatched[1], is(LIVE_DATA_COUNT * UPDATES_PER_FRAME));
+        // a single message schedules the frame and each observer only sees the last value
+        assertThat(batched[0], is(1));
+        assertThat(batched[1], is(LIVE_DATA_COUNT));
+        assertThat(mDispatcher.getFrameCount(), is(1L));
+        assertThat(mDispatcher.getDispatchCount(), is((long) LIVE_DATA_COUNT));
+    }
+
+    private int[] runSync(boolean batch) {
+        BatchedLiveDataDispatcher.install(batch ? mDispatcher : null);
+        mTaskExecutor.mMessageCount = 0;
+        List<MutableLiveData<Integer>> liveDataList = new ArrayList<>();
+        List<CountingObserver<Integer>> observers = new ArrayList<>();
+        for (int i = 0; i < LIVE_DATA_COUNT; i++) {
+            MutableLiveData<Integer> liveData = new MutableLiveData<>();
+            CountingObserver<Integer> observer = new CountingObserver<>();
+            observeOnMainThread(liveData, observer);
+            liveDataList.add(liveData);
+            observers.add(observer);
+        }
+        for (int update = 0; update < UPDATES_PER_FRAME; update++) {
+            for (MutableLiveData<Integer> liveData : liveDataList) {
+                liveData.postValue(update);
+            }
+            // main thread handles its messages before the frame
+            mTaskExecutor.drainMainThread();
+        }
+        mTicker.frame();
+        int observerCalls = 0;
+        for (CountingObserver<Integer> observer : observers) {
+            observerCalls += observer.mValues.size();
+            assertThat(observer.mValues.get(observer.mValues.size() - 1),
+                    is(UPDATES_PER_FRAME - 1));
+        }
+        return new int[]{mTaskExecutor.mMessageCount, observerCalls};
+    }
+
+    private <T> void observeOnMainThread(LiveData<T> liveData, Observer<T> observer) {
+        mTaskExecutor.mIsMainThread = true;
+        liveData.observeForever(observer);
+        mTaskExecutor.mIsMainThread = false;
+    }
+
+    static class CountingObserver<T> implements Observer<T> {
+        final List<T> mValues = new ArrayList<>();
+
+        @Override
+        public void onChanged(@Nullable T value) {
+            mValues.add(value);
+        }
+    }
+
+    static class ManualFrameTicker extends BatchedLiveDataDispatcher.FrameTicker {
+        final Queue<Runnable> mCallbacks = new ArrayDeque<>();
+        private final QueueTaskExecutor mTaskExecutor;
+
+        ManualFrameTicker(QueueTaskExecutor taskExecutor) {
+            mTaskExecutor = taskExecutor;
+        }
+
+        @Override
+        public void postFrameCallback(@NonNull Runnable callback) {
+            mCallbacks.add(callback);
+        }
+
+        void frame() {
+            List<Runnable> callbacks = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+            mTaskExecutor.mIsMainThread = true;
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+            mTaskExecutor.mIsMainThread = false;
+        }
+    }
+
+    /**
+     * A task executor where the test thread acts as a background thread except while draining
+     * the main thread queue.
+     */
+    static class QueueTaskExecutor extends TaskExecutor {
+        final Queue<Runnable> mMainThreadQueue = new ArrayDeque<>();
+        boolean mIsMainThread;
+        int mMessageCount;
+
+        @Override
+        public void executeOnDiskIO(Runnable runnable) {
+            runnable.run();
+        }
+
+        @Override
+        public void postToMainThread(Runnable runnable) {
+            mMessageCount++;
+            mMainThreadQueue.add(runnable);
+        }
+
+        @Override
+        public boolean isMainThread() {
+            return mIsMainThread;
+        }
+
+        void drainMainThread() {
+            mIsMainThread = true;
+            Runnable runnable;
+            while ((runnable = mMainThreadQueue.poll()) != null) {
+                runnable.run();
+            }
+            mIsMainThread = false;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import android.arch.core.executor.AppToolkitTaskExecutor;
 import android.arch.core.executor.TaskExecutor;
 import android.arch.core.executor.TaskExecutorWithFakeMainThread;
 import android.arch.lifecycle.util.InstantTaskExecutor;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.junit.After;
@@ -40,7 +41,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -181,6 +185,113 @@ public class ComputableLiveDataTest {
         assertThat(mValue.get(), is(2));
     }
 
+    @Test
+    public void customExecutor() {
+        QueueExecutor executor = new QueueExecutor();
+        TestComputable computable = new TestComputable(executor, 1, 2);
+        final AtomicInteger mValue = new AtomicInteger(-1);
+        computable.getLiveData().observeForever(new Observer<Integer>() {
+            @Override
+            public void onChanged(@Nullable Integer integer) {
+                //noinspection ConstantConditions
+                mValue.set(integer);
+            }
+        });
+        verify(mTaskExecutor, never()).executeOnDiskIO(any(Runnable.class));
+        assertThat(mValue.get(), is(-1));
+        executor.drain();
+        assertThat(mValue.get(), is(1));
+        computable.invalidate();
+        assertThat(mValue.get(), is(1));
+        executor.drain();
+        assertThat(mValue.get(), is(2));
+        verify(mTaskExecutor, never()).executeOnDiskIO(any(Runnable.class));
+    }
+
+    @Test
+    public void invalidationsAreCoalesced() {
+        QueueExecutor executor = new QueueExecutor();
+        TestComputable computable = new TestComputable(executor, 1, 2, 3);
+        //noinspection unchecked
+        Observer<Integer> observer = mock(Observer.class);
+        computable.getLiveData().observeForever(observer);
+        executor.drain();
+        verify(observer).onChanged(1);
+        for (int i = 0; i < 10; i++) {
+            computable.invalidate();
+        }
+        assertThat(executor.mQueue.size(), is(1));
+        executor.drain();
+        verify(observer).onChanged(2);
+        assertThat(computable.getComputeCount(), is(2L));
+        assertThat(computable.getAvoidedComputeCount(), is(9L));
+    }
+
+    @Test
+    public void invalidationsWhileInactiveAreCoalesced() {
+        QueueExecutor executor = new QueueExecutor();
+        TestComputable computable = new TestComputable(executor, 1, 2, 3);
+        mLifecycleOwner.handleEvent(Lifecycle.Event.ON_START);
+        //noinspection unchecked
+        Observer<Integer> observer = mock(Observer.class);
+        computable.getLiveData().observe(mLifecycleOwner, observer);
+        executor.drain();
+        verify(observer).onChanged(1);
+        mLifecycleOwner.handleEvent(Lifecycle.Event.ON_STOP);
+        for (int i = 0; i < 5; i++) {
+            computable.invalidate();
+        }
+        assertThat(executor.mQueue.size(), is(0));
+        mLifecycleOwner.handleEvent(Lifecycle.Event.ON_START);
+        executor.drain();
+        verify(observer).onChanged(2);
+        assertThat(computable.getComputeCount(), is(2L));
+        assertThat(computable.getAvoidedComputeCount(), is(4L));
+    }
+
+    @Test
+    public void minRecomputeInterval() {
+        final long interval = TimeUnit.MILLISECONDS.toNanos(100);
+        QueueExecutor executor = new QueueExecutor();
+        final long[] computeTimes = new long[2];
+        TestComputable computable = new TestComputable(executor, 100, TimeUnit.MILLISECONDS,
+                1, 2) {
+            @Override
+            protected Integer compute() {
+                computeTimes[mValueCounter.get()] = System.nanoTime();
+                return super.compute();
+            }
+        };
+        //noinspection unchecked
+        Observer<Integer> observer = mock(Observer.class);
+        computable.getLiveData().observeForever(observer);
+        executor.drain();
+        verify(observer).onChanged(1);
+        computable.invalidate();
+        computable.invalidate();
+        executor.drain();
+        verify(observer).onChanged(2);
+        assertThat(computeTimes[1] - computeTimes[0] >= interval, is(true));
+        assertThat(computable.getComputeCount(), is(2L));
+        assertThat(computable.getAvoidedComputeCount(), is(1L));
+    }
+
+    static class QueueExecutor implements Executor {
+        final Queue<Runnable> mQueue = new ArrayDeque<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mQueue.add(command);
+        }
+
+        void drain() {
+            Runnable runnable;
+            while ((runnable = mQueue.poll()) != null) {
+                runnable.run();
+            }
+        }
+    }
+
     static class TestComputable extends ComputableLiveData<Integer> {
         final int[] mValues;
         AtomicInteger mValueCounter;
@@ -190,6 +301,19 @@ public class ComputableLiveDataTest {
             mValues = values;
         }
 
+        TestComputable(Executor executor, int... values) {
+            super(executor);
+            mValueCounter = new AtomicInteger();
+            mValues = values;
+        }
+
+        TestComputable(Executor executor, long minRecomputeInterval, TimeUnit unit,
+                int... values) {
+            super(executor, minRecomputeInterval, unit);
+            mValueCounter = new AtomicInteger();
+            mValues = values;
+        }
+
         @Override
         protected Integer compute() {
             return mValues[mValueCounter.getAndIncrement()];
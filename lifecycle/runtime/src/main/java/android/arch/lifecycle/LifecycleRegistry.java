@@ -28,12 +28,11 @@ import static android.arch.lifecycle.Lifecycle.State.INITIALIZED;
 import static android.arch.lifecycle.Lifecycle.State.RESUMED;
 import static android.arch.lifecycle.Lifecycle.State.STARTED;
 
-import android.arch.core.internal.FastSafeIterableMap;
+import android.arch.core.internal.SafeIterableArrayMap;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Map.Entry;
 
 /**
@@ -51,8 +50,8 @@ public class LifecycleRegistry extends Lifecycle {
      * if addition_order(observer1) < addition_order(observer2), then
      * state(observer1) >= state(observer2),
      */
-    private FastSafeIterableMap<LifecycleObserver, ObserverWithState> mObserverMap =
-            new FastSafeIterableMap<>();
+    private SafeIterableArrayMap<LifecycleObserver, ObserverWithState> mObserverMap =
+            new SafeIterableArrayMap<>();
     /**
      * Current state
      */
@@ -259,33 +258,46 @@ public class LifecycleRegistry extends Lifecycle {
     }
 
     private void forwardPass() {
-        Iterator<Entry<LifecycleObserver, ObserverWithState>> ascendingIterator =
-                mObserverMap.iteratorWithAdditions();
-        while (ascendingIterator.hasNext() && !mNewEventOccurred) {
-            Entry<LifecycleObserver, ObserverWithState> entry = ascendingIterator.next();
-            ObserverWithState observer = entry.getValue();
-            while ((observer.mState.compareTo(mState) < 0 && !mNewEventOccurred
-                    && mObserverMap.contains(entry.getKey()))) {
-                pushParentState(observer.mState);
-                observer.dispatchEvent(mLifecycleOwner, upEvent(observer.mState));
-                popParentState();
+        mObserverMap.beginIteration();
+        try {
+            // include the observers added during the pass
+            for (int i = 0; i < mObserverMap.slotCount() && !mNewEventOccurred; i++) {
+                LifecycleObserver key = mObserverMap.keyAt(i);
+                ObserverWithState observer = mObserverMap.valueAt(i);
+                if (observer == null) {
+                    continue;
+                }
+                while ((observer.mState.compareTo(mState) < 0 && !mNewEventOccurred
+                        && mObserverMap.contains(key))) {
+                    pushParentState(observer.mState);
+                    observer.dispatchEvent(mLifecycleOwner, upEvent(observer.mState));
+                    popParentState();
+                }
             }
+        } finally {
+            mObserverMap.endIteration();
         }
     }
 
     private void backwardPass() {
-        Iterator<Entry<LifecycleObserver, ObserverWithState>> descendingIterator =
-                mObserverMap.descendingIterator();
-        while (descendingIterator.hasNext() && !mNewEventOccurred) {
-            Entry<LifecycleObserver, ObserverWithState> entry = descendingIterator.next();
-            ObserverWithState observer = entry.getValue();
-            while ((observer.mState.compareTo(mState) > 0 && !mNewEventOccurred
-                    && mObserverMap.contains(entry.getKey()))) {
-                Event event = downEvent(observer.mState);
-                pushParentState(getStateAfter(event));
-                observer.dispatchEvent(mLifecycleOwner, event);
-                popParentState();
+        final int end = mObserverMap.beginIteration();
+        try {
+            for (int i = end - 1; i >= 0 && !mNewEventOccurred; i--) {
+                LifecycleObserver key = mObserverMap.keyAt(i);
+                ObserverWithState observer = mObserverMap.valueAt(i);
+                if (observer == null) {
+                    continue;
+                }
+                while ((observer.mState.compareTo(mState) > 0 && !mNewEventOccurred
+                        && mObserverMap.contains(key))) {
+                    Event event = downEvent(observer.mState);
+                    pushParentState(getStateAfter(event));
+                    observer.dispatchEvent(mLifecycleOwner, event);
+                    popParentState();
+                }
             }
+        } finally {
+            mObserverMap.endIteration();
         }
     }
 
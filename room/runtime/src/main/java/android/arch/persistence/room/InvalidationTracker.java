@@ -17,7 +17,7 @@
 package android.arch.persistence.room;
 
 import android.arch.core.executor.AppToolkitTaskExecutor;
-import android.arch.core.internal.SafeIterableMap;
+import android.arch.core.internal.SafeIterableArrayMap;
 import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.db.SupportSQLiteStatement;
 import android.database.Cursor;
@@ -35,7 +35,6 @@ import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
@@ -114,7 +113,8 @@ public class InvalidationTracker {
 
     // should be accessed with synchronization only.
     @VisibleForTesting
-    final SafeIterableMap<Observer, ObserverWrapper> mObserverMap = new SafeIterableMap<>();
+    final SafeIterableArrayMap<Observer, ObserverWrapper> mObserverMap =
+            new SafeIterableArrayMap<>();
 
     /**
      * Used by the generated code.
@@ -238,7 +238,7 @@ public class InvalidationTracker {
             currentObserver = mObserverMap.putIfAbsent(observer, wrapper);
         }
         if (currentObserver == null && mObservedTableTracker.onAdded(tableIds)) {
-            AppToolkitTaskExecutor.getInstance().executeOnDiskIO(mSyncTriggers);
+            AppToolkitTaskExecutor.getInstance().executeOnDiskWrite(mSyncTriggers);
         }
     }
 
@@ -269,7 +269,7 @@ public class InvalidationTracker {
             wrapper = mObserverMap.remove(observer);
         }
         if (wrapper != null && mObservedTableTracker.onRemoved(wrapper.mTableIds)) {
-            AppToolkitTaskExecutor.getInstance().executeOnDiskIO(mSyncTriggers);
+            AppToolkitTaskExecutor.getInstance().executeOnDiskWrite(mSyncTriggers);
         }
     }
 
@@ -381,8 +381,16 @@ public class InvalidationTracker {
             }
             if (hasUpdatedTable) {
                 synchronized (mObserverMap) {
-                    for (Map.Entry<Observer, ObserverWrapper> entry : mObserverMap) {
-                        entry.getValue().checkForInvalidation(mTableVersions);
+                    final int end = mObserverMap.beginIteration();
+                    try {
+                        for (int i = 0; i < end; i++) {
+                            ObserverWrapper wrapper = mObserverMap.valueAt(i);
+                            if (wrapper != null) {
+                                wrapper.checkForInvalidation(mTableVersions);
+                            }
+                        }
+                    } finally {
+                        mObserverMap.endIteration();
                     }
                 }
             }
@@ -400,7 +408,7 @@ public class InvalidationTracker {
     public void refreshVersionsAsync() {
         // TODO we should consider doing this sync instead of async.
         if (mPendingRefresh.compareAndSet(false, true)) {
-            AppToolkitTaskExecutor.getInstance().executeOnDiskIO(mRefreshRunnable);
+            AppToolkitTaskExecutor.getInstance().executeOnDiskWrite(mRefreshRunnable);
         }
     }
 
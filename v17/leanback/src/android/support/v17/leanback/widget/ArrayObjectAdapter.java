@@ -13,6 +13,8 @@
  */
 package android.support.v17.leanback.widget;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v7.util.DiffUtil;
 import android.support.v7.util.ListUpdateCallback;
@@ -22,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * An {@link ObjectAdapter} implemented with an {@link ArrayList}.
@@ -39,6 +42,47 @@ public class ArrayObjectAdapter extends ObjectAdapter {
     // Un modifiable version of mItems;
     private List mUnmodifiableItems;
 
+    // Generation of the latest change, a diff computed in background for an older generation is
+    // discarded when it finishes.
+    private int mGeneration;
+
+    private Executor mMainThreadExecutor;
+
+    // dispatches the diff result to the observers.
+    private final ListUpdateCallback mListUpdateCallback = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+            if (DEBUG) {
+                Log.d(TAG, "onInserted");
+            }
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if (DEBUG) {
+                Log.d(TAG, "onRemoved");
+            }
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            if (DEBUG) {
+                Log.d(TAG, "onMoved");
+            }
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            if (DEBUG) {
+                Log.d(TAG, "onChanged");
+            }
+            notifyItemRangeChanged(position, count, payload);
+        }
+    };
+
     /**
      * Constructs an adapter with the given {@link PresenterSelector}.
      */
@@ -110,6 +154,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
      * @param item  The item to insert into the adapter.
      */
     public void add(int index, Object item) {
+        mGeneration++;
         mItems.add(index, item);
         notifyItemRangeInserted(index, 1);
     }
@@ -126,6 +171,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
         if (itemsCount == 0) {
             return;
         }
+        mGeneration++;
         mItems.addAll(index, items);
         notifyItemRangeInserted(index, itemsCount);
     }
@@ -139,6 +185,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
     public boolean remove(Object item) {
         int index = mItems.indexOf(item);
         if (index >= 0) {
+            mGeneration++;
             mItems.remove(index);
             notifyItemRangeRemoved(index, 1);
         }
@@ -156,6 +203,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
             // no-op
             return;
         }
+        mGeneration++;
         Object item = mItems.remove(fromPosition);
         mItems.add(toPosition, item);
         notifyItemMoved(fromPosition, toPosition);
@@ -170,6 +218,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
      * @param item     The new item to be placed at given position.
      */
     public void replace(int position, Object item) {
+        mGeneration++;
         mItems.set(position, item);
         notifyItemRangeChanged(position, 1);
     }
@@ -188,6 +237,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
             return 0;
         }
 
+        mGeneration++;
         for (int i = 0; i < itemsToRemove; i++) {
             mItems.remove(position);
         }
@@ -203,6 +253,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
         if (itemCount == 0) {
             return;
         }
+        mGeneration++;
         mItems.clear();
         notifyItemRangeRemoved(0, itemCount);
     }
@@ -234,6 +285,7 @@ public class ArrayObjectAdapter extends ObjectAdapter {
      *                 set and new data set. When null, {@link #notifyChanged()} will be fired.
      */
     public void setItems(final List itemList, final DiffCallback callback) {
+        mGeneration++;
         if (callback == null) {
             // shortcut when DiffCallback is not provided
             mItems.clear();
@@ -244,75 +296,106 @@ public class ArrayObjectAdapter extends ObjectAdapter {
         mOldItems.clear();
         mOldItems.addAll(mItems);
 
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                createDiffUtilCallback(mOldItems, itemList, callback));
+
+        applyItems(itemList, diffResult);
+    }
+
+    /**
+     * Set a new item list to adapter. The DiffUtil will compute the difference on the given
+     * executor and dispatch it to specified position on the main thread.
+     * <p>
+     * The adapter keeps its current items until the difference is dispatched. If the adapter is
+     * changed again before that, e.g. by another call to setItems or by {@link #add(Object)},
+     * the pending result is discarded.
+     * <p>
+     * The item list must not be modified after it is passed to this method.
+     *
+     * @param itemList List of new Items
+     * @param callback DiffCallback Object to compute the difference between the old data set and
+     *                 new data set.
+     * @param backgroundExecutor Executor used to compute the difference.
+     */
+    public void setItems(final List itemList, final DiffCallback callback,
+            Executor backgroundExecutor) {
+        if (mMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            mMainThreadExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        setItems(itemList, callback, backgroundExecutor, mMainThreadExecutor);
+    }
+
+    void setItems(final List itemList, final DiffCallback callback,
+            Executor backgroundExecutor, final Executor mainThreadExecutor) {
+        final int runGeneration = ++mGeneration;
+        final List oldItems = new ArrayList(mItems);
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                        createDiffUtilCallback(oldItems, itemList, callback));
+                mainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mGeneration != runGeneration) {
+                            if (DEBUG) {
+                                Log.d(TAG, "discarding stale diff result");
+                            }
+                            return;
+                        }
+                        applyItems(itemList, diffResult);
+                    }
+                });
+            }
+        });
+    }
+
+    private static DiffUtil.Callback createDiffUtilCallback(final List oldItems,
+            final List newItems, final DiffCallback callback) {
+        return new DiffUtil.Callback() {
             @Override
             public int getOldListSize() {
-                return mOldItems.size();
+                return oldItems.size();
             }
 
             @Override
             public int getNewListSize() {
-                return itemList.size();
+                return newItems.size();
             }
 
             @Override
             public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                return callback.areItemsTheSame(mOldItems.get(oldItemPosition),
-                        itemList.get(newItemPosition));
+                return callback.areItemsTheSame(oldItems.get(oldItemPosition),
+                        newItems.get(newItemPosition));
             }
 
             @Override
             public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                return callback.areContentsTheSame(mOldItems.get(oldItemPosition),
-                        itemList.get(newItemPosition));
+                return callback.areContentsTheSame(oldItems.get(oldItemPosition),
+                        newItems.get(newItemPosition));
             }
 
             @Nullable
             @Override
             public Object getChangePayload(int oldItemPosition, int newItemPosition) {
-                return callback.getChangePayload(mOldItems.get(oldItemPosition),
-                        itemList.get(newItemPosition));
+                return callback.getChangePayload(oldItems.get(oldItemPosition),
+                        newItems.get(newItemPosition));
             }
-        });
+        };
+    }
 
+    private void applyItems(List itemList, DiffUtil.DiffResult diffResult) {
         // update items.
         mItems.clear();
         mItems.addAll(itemList);
 
         // dispatch diff result
-        diffResult.dispatchUpdatesTo(new ListUpdateCallback() {
-
-            @Override
-            public void onInserted(int position, int count) {
-                if (DEBUG) {
-                    Log.d(TAG, "onInserted");
-                }
-                notifyItemRangeInserted(position, count);
-            }
-
-            @Override
-            public void onRemoved(int position, int count) {
-                if (DEBUG) {
-                    Log.d(TAG, "onRemoved");
-                }
-                notifyItemRangeRemoved(position, count);
-            }
-
-            @Override
-            public void onMoved(int fromPosition, int toPosition) {
-                if (DEBUG) {
-                    Log.d(TAG, "onMoved");
-                }
-                notifyItemMoved(fromPosition, toPosition);
-            }
-
-            @Override
-            public void onChanged(int position, int count, Object payload) {
-                if (DEBUG) {
-                    Log.d(TAG, "onChanged");
-                }
-                notifyItemRangeChanged(position, count, payload);
-            }
-        });
+        diffResult.dispatchUpdatesTo(mListUpdateCallback);
     }
 }
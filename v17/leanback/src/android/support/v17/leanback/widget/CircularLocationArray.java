@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package android.support.v17.leanback.widget;
+
+/**
+ * A circular array of {@link StaggeredGrid.Location} values stored as parallel int arrays, one
+ * for each field. Like {@link android.support.v4.util.CircularIntArray}, it provides O(1) random
+ * access, prepend and append and grows its capacity automatically, but holds no object per
+ * location.
+ */
+final class CircularLocationArray {
+    private int[] mRows;
+    private int[] mOffsets;
+    private int[] mSizes;
+    private int mHead;
+    private int mTail;
+    private int mCapacityBitmask;
+
+    /**
+     * Creates a circular array with capacity for at least {@code minCapacity} locations.
+     *
+     * @param minCapacity the minimum capacity, between 1 and 2^30 inclusive
+     */
+    CircularLocationArray(int minCapacity) {
+        if (minCapacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        if (minCapacity > (2 << 29)) {
+            throw new IllegalArgumentException("capacity must be <= 2^30");
+        }
+        // If minCapacity isn't a power of 2, round up to the next highest power of 2.
+        final int arrayCapacity;
+        if (Integer.bitCount(minCapacity) != 1) {
+            arrayCapacity = Integer.highestOneBit(minCapacity - 1) << 1;
+        } else {
+            arrayCapacity = minCapacity;
+        }
+        mCapacityBitmask = arrayCapacity - 1;
+        mRows = new int[arrayCapacity];
+        mOffsets = new int[arrayCapacity];
+        mSizes = new int[arrayCapacity];
+    }
+
+    private void doubleCapacity() {
+        int n = mRows.length;
+        int newCapacity = n << 1;
+        if (newCapacity < 0) {
+            throw new RuntimeException("Max array capacity exceeded");
+        }
+        mRows = copyToCapacity(mRows, newCapacity);
+        mOffsets = copyToCapacity(mOffsets, newCapacity);
+        mSizes = copyToCapacity(mSizes, newCapacity);
+        mHead = 0;
+        mTail = n;
+        mCapacityBitmask = newCapacity - 1;
+    }
+
+    private int[] copyToCapacity(int[] elements, int newCapacity) {
+        int r = elements.length - mHead;
+        int[] a = new int[newCapacity];
+        System.arraycopy(elements, mHead, a, 0, r);
+        System.arraycopy(elements, 0, a, r, mHead);
+        return a;
+    }
+
+    /**
+     * Adds a location in front of the array.
+     */
+    void addFirst(int row, int offset, int size) {
+        mHead = (mHead - 1) & mCapacityBitmask;
+        mRows[mHead] = row;
+        mOffsets[mHead] = offset;
+        mSizes[mHead] = size;
+        if (mHead == mTail) {
+            doubleCapacity();
+        }
+    }
+
+    /**
+     * Adds a location at the end of the array.
+     */
+    void addLast(int row, int offset, int size) {
+        mRows[mTail] = row;
+        mOffsets[mTail] = offset;
+        mSizes[mTail] = size;
+        mTail = (mTail + 1) & mCapacityBitmask;
+        if (mTail == mHead) {
+            doubleCapacity();
+        }
+    }
+
+    /**
+     * Removes all locations.
+     */
+    void clear() {
+        mTail = mHead;
+    }
+
+    /**
+     * Removes multiple locations from the front of the array, ignored when numOfElements is less
+     * than or equal to 0.
+     *
+     * @throws ArrayIndexOutOfBoundsException if numOfElements is larger than {@link #size()}
+     */
+    void removeFromStart(int numOfElements) {
+        if (numOfElements <= 0) {
+            return;
+        }
+        if (numOfElements > size()) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        mHead = (mHead + numOfElements) & mCapacityBitmask;
+    }
+
+    /**
+     * Removes multiple locations from the end of the array, ignored when numOfElements is less
+     * than or equal to 0.
+     *
+     * @throws ArrayIndexOutOfBoundsException if numOfElements is larger than {@link #size()}
+     */
+    void removeFromEnd(int numOfElements) {
+        if (numOfElements <= 0) {
+            return;
+        }
+        if (numOfElements > size()) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        mTail = (mTail - numOfElements) & mCapacityBitmask;
+    }
+
+    private int indexOf(int n) {
+        if (n < 0 || n >= size()) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        return (mHead + n) & mCapacityBitmask;
+    }
+
+    /**
+     * Returns the row of the nth (0 <= n <= size()-1) location.
+     */
+    int getRow(int n) {
+        return mRows[indexOf(n)];
+    }
+
+    /**
+     * Returns the offset of the nth (0 <= n <= size()-1) location.
+     */
+    int getOffset(int n) {
+        return mOffsets[indexOf(n)];
+    }
+
+    /**
+     * Returns the size of the nth (0 <= n <= size()-1) location.
+     */
+    int getSize(int n) {
+        return mSizes[indexOf(n)];
+    }
+
+    /**
+     * Sets the offset of the nth (0 <= n <= size()-1) location.
+     */
+    void setOffset(int n, int offset) {
+        mOffsets[indexOf(n)] = offset;
+    }
+
+    /**
+     * Sets the size of the nth (0 <= n <= size()-1) location.
+     */
+    void setSize(int n, int size) {
+        mSizes[indexOf(n)] = size;
+    }
+
+    /**
+     * Returns the number of locations in the array.
+     */
+    int size() {
+        return (mTail - mHead) & mCapacityBitmask;
+    }
+
+    /**
+     * Returns true if size() is 0.
+     */
+    boolean isEmpty() {
+        return mHead == mTail;
+    }
+}
@@ -15,16 +15,99 @@ package android.support.v17.leanback.widget;
 
 import android.database.Cursor;
 import android.support.v17.leanback.database.CursorMapper;
-import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * An {@link ObjectAdapter} implemented with a {@link Cursor}.
+ * <p>
+ * Mapped rows are kept in a cache of recently read positions. By default rows are mapped on the
+ * thread calling {@link #get(int)}. When a prefetch executor is set with
+ * {@link #setPrefetchExecutor(Executor, int)}, the rows following the most recently read position
+ * are mapped ahead of time on that executor, so that scrolling through a large {@link Cursor}
+ * does not refill cursor windows on the main thread.
  */
 public class CursorObjectAdapter extends ObjectAdapter {
     private static final int CACHE_SIZE = 100;
+    // Number of prefetched rows added to the cache at once.
+    private static final int PREFETCH_BATCH_SIZE = 8;
     private Cursor mCursor;
     private CursorMapper mMapper;
-    private final LruCache<Integer, Object> mItemCache = new LruCache<Integer, Object>(CACHE_SIZE);
+
+    // Guards the calls to the cursor and the mapper, which are shared with the prefetch executor.
+    // mCursor and mMapper are only assigned with both locks held, so either lock is enough to
+    // read them. mCursorLock is always acquired before mLock.
+    private final Object mCursorLock = new Object();
+    // Guards the cache, the prefetch state and the statistics, so that cached rows can be read
+    // while the prefetch executor moves the cursor.
+    private final Object mLock = new Object();
+    private RowCache mItemCache = new RowCache(CACHE_SIZE);
+    // Incremented when cached rows are removed, so that rows mapped before are not cached.
+    private int mCacheGeneration;
+
+    private Executor mPrefetchExecutor;
+    private int mPrefetchWindow;
+    private int mLastPosition = -1;
+    // The next position to prefetch, the number of rows left and the direction, guarded by mLock.
+    private int mPrefetchPosition;
+    private int mPrefetchCount;
+    private int mPrefetchStep;
+    private boolean mPrefetchRunning;
+
+    private long mMappedRowCount;
+    private long mMappingTimeNs;
+    private long mWindowMissCount;
+
+    // Only used by mPrefetchRunnable, which does not run concurrently with itself.
+    private final int[] mPrefetchPositions = new int[PREFETCH_BATCH_SIZE];
+    private final Object[] mPrefetchItems = new Object[PREFETCH_BATCH_SIZE];
+
+    private final Runnable mPrefetchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final int count;
+                final int generation;
+                synchronized (mLock) {
+                    count = nextPrefetchPositions(mPrefetchPositions);
+                    if (count == 0) {
+                        mPrefetchRunning = false;
+                        return;
+                    }
+                    generation = mCacheGeneration;
+                }
+                // The cursor is released between rows so that get() waits for one row at most.
+                long mappingTimeNs = 0;
+                int mappedRowCount = 0;
+                for (int i = 0; i < count; i++) {
+                    synchronized (mCursorLock) {
+                        final long startTimeNs = System.nanoTime();
+                        mPrefetchItems[i] = null;
+                        if (mCursor == null || mCursor.isClosed()) {
+                            break;
+                        }
+                        // Positions past the end of the cursor are skipped.
+                        if (mCursor.moveToPosition(mPrefetchPositions[i])) {
+                            mPrefetchItems[i] = mMapper.convert(mCursor);
+                            mappingTimeNs += System.nanoTime() - startTimeNs;
+                            mappedRowCount++;
+                        }
+                    }
+                }
+                synchronized (mLock) {
+                    for (int i = 0; i < count; i++) {
+                        if (mPrefetchItems[i] != null && generation == mCacheGeneration) {
+                            mItemCache.put(mPrefetchPositions[i], mPrefetchItems[i]);
+                        }
+                        mPrefetchItems[i] = null;
+                    }
+                    mMappingTimeNs += mappingTimeNs;
+                    mMappedRowCount += mappedRowCount;
+                }
+            }
+        }
+    };
 
     /**
      * Constructs an adapter with the given {@link PresenterSelector}.
@@ -55,14 +138,17 @@ public class CursorObjectAdapter extends ObjectAdapter {
      * @param cursor The new cursor to be used.
      */
     public void changeCursor(Cursor cursor) {
-        if (cursor == mCursor) {
-            return;
-        }
-        if (mCursor != null) {
-            mCursor.close();
+        synchronized (mCursorLock) {
+            synchronized (mLock) {
+                if (cursor == mCursor) {
+                    return;
+                }
+                if (mCursor != null) {
+                    mCursor.close();
+                }
+                setCursorLocked(cursor);
+            }
         }
-        mCursor = cursor;
-        mItemCache.trimToSize(0);
         onCursorChanged();
     }
 
@@ -73,16 +159,28 @@ public class CursorObjectAdapter extends ObjectAdapter {
      * @param cursor The new cursor to be used.
      */
     public Cursor swapCursor(Cursor cursor) {
-        if (cursor == mCursor) {
-            return mCursor;
+        Cursor oldCursor;
+        synchronized (mCursorLock) {
+            synchronized (mLock) {
+                if (cursor == mCursor) {
+                    return mCursor;
+                }
+                oldCursor = mCursor;
+                setCursorLocked(cursor);
+            }
         }
-        Cursor oldCursor = mCursor;
-        mCursor = cursor;
-        mItemCache.trimToSize(0);
         onCursorChanged();
         return oldCursor;
     }
 
+    private void setCursorLocked(Cursor cursor) {
+        mCursor = cursor;
+        mItemCache.clear();
+        mCacheGeneration++;
+        mLastPosition = -1;
+        mPrefetchCount = 0;
+    }
+
     /**
      * Called whenever the cursor changes.
      */
@@ -102,8 +200,13 @@ public class CursorObjectAdapter extends ObjectAdapter {
      * Objects.
      */
     public final void setMapper(CursorMapper mapper) {
-        boolean changed = mMapper != mapper;
-        mMapper = mapper;
+        boolean changed;
+        synchronized (mCursorLock) {
+            synchronized (mLock) {
+                changed = mMapper != mapper;
+                mMapper = mapper;
+            }
+        }
 
         if (changed) {
             onMapperChanged();
@@ -125,28 +228,180 @@ public class CursorObjectAdapter extends ObjectAdapter {
         return mMapper;
     }
 
+    /**
+     * Sets the executor used to map rows ahead of the most recently read position. The
+     * {@link Cursor} and the {@link CursorMapper} are then accessed from that executor as well,
+     * always under a lock shared with the adapter.
+     *
+     * @param executor The executor mapping the rows, or null to map rows on demand only.
+     * @param windowSize Number of rows to map ahead of the most recently read position.
+     */
+    public void setPrefetchExecutor(Executor executor, int windowSize) {
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("windowSize must not be negative");
+        }
+        synchronized (mLock) {
+            mPrefetchExecutor = executor;
+            mPrefetchWindow = executor == null ? 0 : windowSize;
+            mPrefetchCount = 0;
+            // Keep the rows around the current position and the window ahead of it.
+            final int cacheSize = CACHE_SIZE + 2 * mPrefetchWindow;
+            if (cacheSize != mItemCache.capacity()) {
+                mItemCache = new RowCache(cacheSize);
+            }
+        }
+    }
+
+    /**
+     * Maps the rows of the prefetch window around the given position on the prefetch executor.
+     * The window extends after the position, or before it when the position is smaller than
+     * the previous one. This is called by {@link #get(int)} and can also be called when the
+     * selection moves to let the window follow it. Does nothing if no prefetch executor is set.
+     *
+     * @param position The position to prefetch around.
+     */
+    public void prefetch(int position) {
+        final Executor executor;
+        synchronized (mLock) {
+            if (mPrefetchExecutor == null || mCursor == null || mPrefetchWindow == 0) {
+                return;
+            }
+            // The size of the cursor is not known without accessing it, so the window is only
+            // bounded by the end of the cursor when its rows are mapped.
+            if (position < mLastPosition) {
+                mPrefetchStep = -1;
+                mPrefetchCount = Math.min(mPrefetchWindow, position);
+            } else {
+                mPrefetchStep = 1;
+                mPrefetchCount = mPrefetchWindow;
+            }
+            mPrefetchPosition = position + mPrefetchStep;
+            mLastPosition = position;
+            if (mPrefetchCount <= 0 || mPrefetchRunning) {
+                // The running prefetch picks up the new window.
+                return;
+            }
+            mPrefetchRunning = true;
+            executor = mPrefetchExecutor;
+        }
+        boolean submitted = false;
+        try {
+            executor.execute(mPrefetchRunnable);
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                // Let the next call submit the prefetch again.
+                synchronized (mLock) {
+                    mPrefetchRunning = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the given array with the next positions of the prefetch window that are not cached
+     * yet and returns their number, must be called with mLock held.
+     */
+    private int nextPrefetchPositions(int[] positions) {
+        if (mCursor == null || mCursor.isClosed()) {
+            return 0;
+        }
+        int count = 0;
+        while (mPrefetchCount > 0 && count < positions.length) {
+            final int position = mPrefetchPosition;
+            mPrefetchPosition += mPrefetchStep;
+            mPrefetchCount--;
+            if (mItemCache.get(position) == null) {
+                positions[count++] = position;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Maps the row at the given position and caches it, must be called with both locks held.
+     */
+    private Object mapRow(int position) {
+        final long startTimeNs = System.nanoTime();
+        if (!mCursor.moveToPosition(position)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        final Object item = mMapper.convert(mCursor);
+        mItemCache.put(position, item);
+        mMappingTimeNs += System.nanoTime() - startTimeNs;
+        mMappedRowCount++;
+        return item;
+    }
+
+    /**
+     * Returns the number of rows mapped by the {@link CursorMapper}, including the ones mapped
+     * by the prefetch executor.
+     */
+    public long getMappedRowCount() {
+        synchronized (mLock) {
+            return mMappedRowCount;
+        }
+    }
+
+    /**
+     * Returns the total time spent moving the {@link Cursor} and mapping rows, in nanoseconds.
+     */
+    public long getMappingTimeNanos() {
+        synchronized (mLock) {
+            return mMappingTimeNs;
+        }
+    }
+
+    /**
+     * Returns the number of times {@link #get(int)} had to map a row itself because it was not
+     * prefetched. Only counted while a prefetch executor is set.
+     */
+    public long getWindowMissCount() {
+        synchronized (mLock) {
+            return mWindowMissCount;
+        }
+    }
+
     @Override
     public int size() {
-        if (mCursor == null) {
-            return 0;
+        synchronized (mCursorLock) {
+            if (mCursor == null) {
+                return 0;
+            }
+            return mCursor.getCount();
         }
-        return mCursor.getCount();
     }
 
     @Override
     public Object get(int index) {
-        if (mCursor == null) {
-            return null;
+        Object item = null;
+        synchronized (mLock) {
+            // Prefetched rows are returned without waiting for the prefetch executor.
+            if (mPrefetchExecutor != null && mCursor != null) {
+                item = mItemCache.get(index);
+            }
         }
-        if (!mCursor.moveToPosition(index)) {
-            throw new ArrayIndexOutOfBoundsException();
+        if (item == null) {
+            synchronized (mCursorLock) {
+                synchronized (mLock) {
+                    if (mCursor == null) {
+                        return null;
+                    }
+                    if (mPrefetchExecutor == null && !mCursor.moveToPosition(index)) {
+                        // without prefetching the cursor is left at the requested position.
+                        throw new ArrayIndexOutOfBoundsException();
+                    }
+                    item = mItemCache.get(index);
+                    if (item == null) {
+                        if (mPrefetchExecutor != null) {
+                            mWindowMissCount++;
+                        }
+                        item = mapRow(index);
+                    }
+                }
+            }
         }
-        Object item = mItemCache.get(index);
-        if (item != null) {
-            return item;
-        }
-        item = mMapper.convert(mCursor);
-        mItemCache.put(index, item);
+        prefetch(index);
         return item;
     }
 
@@ -154,9 +409,13 @@ public class CursorObjectAdapter extends ObjectAdapter {
      * Closes this adapter, closing the backing {@link Cursor} as well.
      */
     public void close() {
-        if (mCursor != null) {
-            mCursor.close();
-            mCursor = null;
+        synchronized (mCursorLock) {
+            synchronized (mLock) {
+                if (mCursor != null) {
+                    mCursor.close();
+                    mCursor = null;
+                }
+            }
         }
     }
 
@@ -165,7 +424,9 @@ public class CursorObjectAdapter extends ObjectAdapter {
      * otherwise.
      */
     public boolean isClosed() {
-        return mCursor == null || mCursor.isClosed();
+        synchronized (mLock) {
+            return mCursor == null || mCursor.isClosed();
+        }
     }
 
     /**
@@ -173,7 +434,10 @@ public class CursorObjectAdapter extends ObjectAdapter {
      * from the data source the next time {@link #get(int)} is called.
      */
     protected final void invalidateCache(int index) {
-        mItemCache.remove(index);
+        synchronized (mLock) {
+            mItemCache.remove(index);
+            mCacheGeneration++;
+        }
     }
 
     /**
@@ -189,4 +453,47 @@ public class CursorObjectAdapter extends ObjectAdapter {
     public boolean isImmediateNotifySupported() {
         return true;
     }
+
+    /**
+     * Cache of mapped rows keyed by position. Each position has a single slot, so the most recent
+     * rows of any contiguous range no longer than the capacity are kept, without boxing the keys.
+     */
+    private static final class RowCache {
+        private final int[] mPositions;
+        private final Object[] mItems;
+
+        RowCache(int capacity) {
+            mPositions = new int[capacity];
+            mItems = new Object[capacity];
+            Arrays.fill(mPositions, -1);
+        }
+
+        int capacity() {
+            return mPositions.length;
+        }
+
+        Object get(int position) {
+            final int slot = position % mPositions.length;
+            return mPositions[slot] == position ? mItems[slot] : null;
+        }
+
+        void put(int position, Object item) {
+            final int slot = position % mPositions.length;
+            mPositions[slot] = position;
+            mItems[slot] = item;
+        }
+
+        void remove(int position) {
+            final int slot = position % mPositions.length;
+            if (mPositions[slot] == position) {
+                mPositions[slot] = -1;
+                mItems[slot] = null;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(mPositions, -1);
+            Arrays.fill(mItems, null);
+        }
+    }
 }
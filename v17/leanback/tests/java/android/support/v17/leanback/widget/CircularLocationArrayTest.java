@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.v17.leanback.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Testing CircularLocationArray
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class CircularLocationArrayTest {
+
+    @Test
+    public void testAddAndGet() {
+        CircularLocationArray locations = new CircularLocationArray(2);
+        for (int i = 0; i < 10; i++) {
+            locations.addLast(i % 3, i, i * 10);
+        }
+        for (int i = 1; i <= 10; i++) {
+            locations.addFirst(i % 3, -i, i * 100);
+        }
+        assertEquals(20, locations.size());
+        for (int i = 0; i < 10; i++) {
+            assertLocation(locations, i, (10 - i) % 3, -(10 - i), (10 - i) * 100);
+            assertLocation(locations, 10 + i, i % 3, i, i * 10);
+        }
+    }
+
+    @Test
+    public void testSet() {
+        CircularLocationArray locations = new CircularLocationArray(4);
+        locations.addLast(0, 0, 0);
+        locations.addLast(1, 0, 0);
+        locations.setOffset(1, 5);
+        locations.setSize(1, 50);
+        assertLocation(locations, 0, 0, 0, 0);
+        assertLocation(locations, 1, 1, 5, 50);
+    }
+
+    @Test
+    public void testRemove() {
+        CircularLocationArray locations = new CircularLocationArray(4);
+        for (int i = 0; i < 10; i++) {
+            locations.addLast(0, i, 0);
+        }
+        locations.removeFromStart(3);
+        locations.removeFromEnd(2);
+        assertEquals(5, locations.size());
+        assertEquals(3, locations.getOffset(0));
+        assertEquals(7, locations.getOffset(4));
+        locations.removeFromStart(0);
+        assertEquals(5, locations.size());
+        locations.clear();
+        assertTrue(locations.isEmpty());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testGetOutOfRange() {
+        CircularLocationArray locations = new CircularLocationArray(4);
+        locations.addLast(0, 0, 0);
+        locations.getRow(1);
+    }
+
+    private static void assertLocation(CircularLocationArray locations, int n, int row,
+            int offset, int size) {
+        assertEquals(row, locations.getRow(n));
+        assertEquals(offset, locations.getOffset(n));
+        assertEquals(size, locations.getSize(n));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v17.leanback.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.filters.SmallTest;
+import android.support.v17.leanback.database.CursorMapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+@SmallTest
+@RunWith(JUnit4.class)
+public class CursorObjectAdapterTest {
+    private static final int ROW_COUNT = 1000;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private CursorObjectAdapter mAdapter;
+
+    @Before
+    public void setup() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"value"});
+        for (int i = 0; i < ROW_COUNT; i++) {
+            cursor.addRow(new Object[] {"row " + i});
+        }
+        mAdapter = new CursorObjectAdapter();
+        mAdapter.setMapper(new CursorMapper() {
+            private int mValueIndex;
+
+            @Override
+            protected void bindColumns(Cursor cursor) {
+                mValueIndex = cursor.getColumnIndex("value");
+            }
+
+            @Override
+            protected Object bind(Cursor cursor) {
+                return cursor.getString(mValueIndex);
+            }
+        });
+        mAdapter.changeCursor(cursor);
+    }
+
+    @Test
+    public void getMapsRowsOnce() {
+        assertEquals("row 5", mAdapter.get(5));
+        assertEquals("row 5", mAdapter.get(5));
+        assertEquals(1, mAdapter.getMappedRowCount());
+        assertEquals(0, mAdapter.getWindowMissCount());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void getOutOfRange() {
+        mAdapter.get(ROW_COUNT);
+    }
+
+    @Test
+    public void prefetchAhead() {
+        mAdapter.setPrefetchExecutor(DIRECT_EXECUTOR, 10);
+        assertEquals("row 5", mAdapter.get(5));
+        assertEquals(11, mAdapter.getMappedRowCount());
+        for (int i = 6; i <= 15; i++) {
+            assertEquals("row " + i, mAdapter.get(i));
+        }
+        assertEquals(1, mAdapter.getWindowMissCount());
+        // the window follows the reads, so only the rows after the last window are mapped.
+        assertEquals(21, mAdapter.getMappedRowCount());
+    }
+
+    @Test
+    public void prefetchBackwards() {
+        mAdapter.setPrefetchExecutor(DIRECT_EXECUTOR, 10);
+        mAdapter.get(500);
+        mAdapter.get(400);
+        for (int i = 390; i < 400; i++) {
+            assertEquals("row " + i, mAdapter.get(i));
+        }
+        assertEquals(2, mAdapter.getWindowMissCount());
+    }
+
+    @Test
+    public void prefetchStopsAtEnds() {
+        mAdapter.setPrefetchExecutor(DIRECT_EXECUTOR, 10);
+        mAdapter.get(ROW_COUNT - 3);
+        assertEquals(3, mAdapter.getMappedRowCount());
+        mAdapter.get(0);
+        assertEquals(4, mAdapter.getMappedRowCount());
+    }
+
+    @Test
+    public void prefetchAfterRejectedSubmit() {
+        final boolean[] reject = {true};
+        mAdapter.setPrefetchExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (reject[0]) {
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        }, 10);
+        try {
+            mAdapter.get(5);
+            fail("The rejected prefetch should be reported");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(1, mAdapter.getMappedRowCount());
+
+        reject[0] = false;
+        assertEquals("row 100", mAdapter.get(100));
+        assertEquals(12, mAdapter.getMappedRowCount());
+    }
+
+    @Test
+    public void changeCursorClearsCache() {
+        mAdapter.get(5);
+        MatrixCursor cursor = new MatrixCursor(new String[] {"value"});
+        cursor.addRow(new Object[] {"other"});
+        mAdapter.changeCursor(cursor);
+        assertEquals(1, mAdapter.size());
+        assertEquals("other", mAdapter.get(0));
+    }
+}
@@ -44,6 +44,7 @@ import org.mockito.Mockito;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 @SmallTest
 @RunWith(JUnit4.class)
@@ -1090,6 +1091,113 @@ public class ObjectAdapterTest {
                 bundle2.getString(NOT_RELATED_STRING_MEMBER));
     }
 
+    /**
+     * Test the asynchronous version of setItems: the adapter content and notifications only
+     * change once the diff result is delivered on the main thread executor.
+     */
+    @Test
+    public void testSetItemsAsync() {
+        QueueExecutor backgroundExecutor = new QueueExecutor();
+        QueueExecutor mainThreadExecutor = new QueueExecutor();
+        mAdapter.add(new AdapterItem(1, "a"));
+        mAdapter.add(new AdapterItem(2, "b"));
+        Mockito.reset(mObserver);
+
+        mItems.add(new AdapterItem(1, "a"));
+        mItems.add(new AdapterItem(2, "c"));
+        mItems.add(new AdapterItem(3, "d"));
+        mAdapter.setItems(mItems, mCallbackWithoutPayload, backgroundExecutor,
+                mainThreadExecutor);
+        backgroundExecutor.runAll();
+        assertAdapterContent(mAdapter, new Object[]{new AdapterItem(1, "a"),
+                new AdapterItem(2, "b")});
+        Mockito.verify(mObserver, never()).onItemRangeChanged(anyInt(), anyInt(), any());
+
+        mainThreadExecutor.runAll();
+        Mockito.verify(mObserver).onItemRangeChanged(1, 1, null);
+        Mockito.verify(mObserver).onItemRangeInserted(2, 1);
+        assertAdapterContent(mAdapter, mItems.toArray());
+    }
+
+    /**
+     * Test that the result of an asynchronous setItems is discarded when a newer setItems call is
+     * made before it is delivered.
+     */
+    @Test
+    public void testSetItemsAsyncDiscardsStaleResult() {
+        QueueExecutor backgroundExecutor = new QueueExecutor();
+        QueueExecutor mainThreadExecutor = new QueueExecutor();
+        List<String> first = new ArrayList<>();
+        first.add("a");
+        List<String> second = new ArrayList<>();
+        second.add("b");
+        second.add("c");
+        DiffCallback<String> callback = new DiffCallback<String>() {
+            @Override
+            public boolean areItemsTheSame(String oldItem, String newItem) {
+                return oldItem.equals(newItem);
+            }
+
+            @Override
+            public boolean areContentsTheSame(String oldItem, String newItem) {
+                return oldItem.equals(newItem);
+            }
+        };
+
+        mAdapter.setItems(first, callback, backgroundExecutor, mainThreadExecutor);
+        mAdapter.setItems(second, callback, backgroundExecutor, mainThreadExecutor);
+        backgroundExecutor.runAll();
+        mainThreadExecutor.runAll();
+
+        Mockito.verify(mObserver).onItemRangeInserted(0, 2);
+        Mockito.verify(mObserver, never()).onItemRangeInserted(0, 1);
+        assertAdapterContent(mAdapter, new Object[]{"b", "c"});
+    }
+
+    /**
+     * Test that changing the adapter directly discards a pending asynchronous setItems.
+     */
+    @Test
+    public void testSetItemsAsyncDiscardedByMutation() {
+        QueueExecutor backgroundExecutor = new QueueExecutor();
+        QueueExecutor mainThreadExecutor = new QueueExecutor();
+        mItems.add("a");
+        mAdapter.setItems(mItems, new DiffCallback<String>() {
+            @Override
+            public boolean areItemsTheSame(String oldItem, String newItem) {
+                return oldItem.equals(newItem);
+            }
+
+            @Override
+            public boolean areContentsTheSame(String oldItem, String newItem) {
+                return oldItem.equals(newItem);
+            }
+        }, backgroundExecutor, mainThreadExecutor);
+        mAdapter.add("b");
+        backgroundExecutor.runAll();
+        mainThreadExecutor.runAll();
+
+        assertAdapterContent(mAdapter, new Object[]{"b"});
+    }
+
+    /**
+     * Executor that runs the queued commands when asked to.
+     */
+    private static class QueueExecutor implements Executor {
+        private final List<Runnable> mQueue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mQueue.add(command);
+        }
+
+        void runAll() {
+            while (!mQueue.isEmpty()) {
+                mQueue.remove(0).run();
+            }
+        }
+    }
+
     /**
      * Helper function to test the content in adapter
      */
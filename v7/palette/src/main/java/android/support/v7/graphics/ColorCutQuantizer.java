@@ -18,6 +18,7 @@ package android.support.v7.graphics;
 
 import android.graphics.Color;
 import android.support.v4.graphics.ColorUtils;
+import android.support.v4.util.Pools;
 import android.support.v7.graphics.Palette.Swatch;
 import android.util.TimingLogger;
 
@@ -27,6 +28,10 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An color quantizer based on the Median-cut algorithm, but optimized for picking out distinct
@@ -52,9 +57,20 @@ final class ColorCutQuantizer {
 
     private static final int QUANTIZE_WORD_WIDTH = 5;
     private static final int QUANTIZE_WORD_MASK = (1 << QUANTIZE_WORD_WIDTH) - 1;
+    private static final int HISTOGRAM_SIZE = 1 << (QUANTIZE_WORD_WIDTH * 3);
+
+    /**
+     * The minimum number of pixels counted by each thread when building the histogram in
+     * parallel. Smaller images are counted on the calling thread, since merging the histograms
+     * would cost more than it saves.
+     */
+    static final int MIN_PIXELS_PER_THREAD = 64 * 1024;
+
+    // Histograms are recycled once the colors are quantized, as they are 128KB each.
+    private static final Pools.Pool<int[]> sHistogramPool = new Pools.StripedPool<>(4);
 
     final int[] mColors;
-    final int[] mHistogram;
+    int[] mHistogram;
     final List<Swatch> mQuantizedColors;
     final TimingLogger mTimingLogger;
     final Palette.Filter[] mFilters;
@@ -69,17 +85,32 @@ final class ColorCutQuantizer {
      * @param filters Set of filters to use in the quantization stage
      */
     ColorCutQuantizer(final int[] pixels, final int maxColors, final Palette.Filter[] filters) {
+        this(pixels, pixels.length, maxColors, filters, null, 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pixels array holding the image's pixel data, which is not modified
+     * @param pixelCount the number of pixels at the start of {@code pixels} to use
+     * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param filters Set of filters to use in the quantization stage
+     * @param executor Executor to build the histogram on in parallel, or null to build it on
+     *                 the calling thread
+     * @param parallelism The maximum number of threads building the histogram, including the
+     *                    calling thread
+     */
+    ColorCutQuantizer(final int[] pixels, final int pixelCount, final int maxColors,
+            final Palette.Filter[] filters, final Executor executor, final int parallelism) {
         mTimingLogger = LOG_TIMINGS ? new TimingLogger(LOG_TAG, "Creation") : null;
         mFilters = filters;
 
-        final int[] hist = mHistogram = new int[1 << (QUANTIZE_WORD_WIDTH * 3)];
-        for (int i = 0; i < pixels.length; i++) {
-            final int quantizedColor = quantizeFromRgb888(pixels[i]);
-            // Now update the pixel value to the quantized value
-            pixels[i] = quantizedColor;
-            // And update the histogram
-            hist[quantizedColor]++;
+        int[] hist = sHistogramPool.acquire();
+        if (hist == null) {
+            hist = new int[HISTOGRAM_SIZE];
         }
+        mHistogram = hist;
+        buildHistogram(pixels, pixelCount, hist, executor, parallelism);
 
         if (LOG_TIMINGS) {
             mTimingLogger.addSplit("Histogram created");
@@ -135,6 +166,84 @@ final class ColorCutQuantizer {
                 mTimingLogger.dumpToLog();
             }
         }
+
+        // The swatches hold their populations, so the histogram can be reused
+        Arrays.fill(hist, 0);
+        sHistogramPool.release(hist);
+        mHistogram = null;
+    }
+
+    /**
+     * Counts the quantized colors of {@code pixels[0..pixelCount)} into {@code histogram}, which
+     * needs to be cleared. Large images are split into chunks that are counted into separate
+     * histograms on {@code executor} and then added up.
+     */
+    static void buildHistogram(final int[] pixels, final int pixelCount, final int[] histogram,
+            final Executor executor, final int parallelism) {
+        final int chunkCount = executor == null
+                ? 1 : Math.min(parallelism, pixelCount / MIN_PIXELS_PER_THREAD);
+        if (chunkCount <= 1) {
+            countColors(pixels, 0, pixelCount, histogram);
+            return;
+        }
+
+        final int[][] chunkHistograms = new int[chunkCount][];
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(chunkCount);
+        final Runnable counter = new Runnable() {
+            @Override
+            public void run() {
+                // Chunks are claimed rather than assigned, so the calling thread counts the
+                // chunks that the executor has not started yet instead of waiting for them.
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                    try {
+                        final int[] hist = chunk == 0 ? histogram : new int[HISTOGRAM_SIZE];
+                        countColors(pixels, (int) ((long) pixelCount * chunk / chunkCount),
+                                (int) ((long) pixelCount * (chunk + 1) / chunkCount), hist);
+                        chunkHistograms[chunk] = hist;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        try {
+            for (int i = 1; i < chunkCount; i++) {
+                executor.execute(counter);
+            }
+        } catch (RejectedExecutionException e) {
+            // The calling thread counts the remaining chunks
+        }
+        counter.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // The chunks being counted are needed, so wait for them anyway
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            final int[] hist = chunkHistograms[chunk];
+            for (int color = 0; color < HISTOGRAM_SIZE; color++) {
+                histogram[color] += hist[color];
+            }
+        }
+    }
+
+    private static void countColors(final int[] pixels, final int start, final int end,
+            final int[] histogram) {
+        for (int i = start; i < end; i++) {
+            histogram[quantizeFromRgb888(pixels[i])]++;
+        }
     }
 
     /**
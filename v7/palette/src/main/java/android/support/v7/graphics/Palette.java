@@ -20,20 +20,30 @@ import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.graphics.ColorUtils;
 import android.support.v4.util.ArrayMap;
+import android.support.v4.util.LruCache;
+import android.support.v4.util.Pools;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.util.TimingLogger;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * A helper class to extract prominent colors from an image.
@@ -62,12 +72,15 @@ import java.util.Map;
  * Palette p = Palette.from(bitmap).generate();
  *
  * // Asynchronous
- * Palette.from(bitmap).generate(new PaletteAsyncListener() {
+ * Palette.from(bitmap).generate(executor, new PaletteAsyncListener() {
  *     public void onGenerated(Palette p) {
  *         // Use generated instance
  *     }
  * });
  * </pre>
+ * <p>
+ * When generating palettes for many bitmaps, e.g. for the items of a list, a {@link Cache} can
+ * be set on the builders to avoid generating the palette of the same bitmap again.
  */
 public final class Palette {
 
@@ -92,6 +105,14 @@ public final class Palette {
     static final String LOG_TAG = "Palette";
     static final boolean LOG_TIMINGS = false;
 
+    /**
+     * Pixel buffers up to this size are reused across generations. This covers bitmaps scaled
+     * down to the default area, while larger buffers are left to the garbage collector.
+     */
+    static final int MAX_POOLED_PIXELS = DEFAULT_RESIZE_BITMAP_AREA * 2;
+
+    private static final Pools.Pool<int[]> sPixelsPool = new Pools.StripedPool<>(4);
+
     /**
      * Start generating a {@link Palette} with the returned {@link Builder} instance.
      */
@@ -591,6 +612,118 @@ public final class Palette {
         }
     }
 
+    /**
+     * A cache of generated palettes, which can be shared by several {@link Builder}s with
+     * {@link Builder#setCache(Cache)}.
+     * <p>
+     * Palettes are cached for the bitmap instance, its generation id and the configuration of
+     * the builder, so a bitmap whose pixels are modified gets a new palette. The bitmaps are only
+     * weakly referenced by the cache. This class is thread safe.
+     */
+    public static final class Cache {
+        final LruCache<CacheKey, Palette> mPalettes;
+
+        /**
+         * Constructor.
+         *
+         * @param maxSize the maximum number of palettes to keep
+         */
+        public Cache(int maxSize) {
+            mPalettes = new LruCache<>(maxSize);
+        }
+
+        /**
+         * Removes all of the cached palettes.
+         */
+        public void evictAll() {
+            mPalettes.evictAll();
+        }
+
+        /**
+         * Returns the number of cached palettes.
+         */
+        public int size() {
+            return mPalettes.size();
+        }
+
+        /**
+         * Returns the number of times a palette was found in the cache.
+         */
+        public int hitCount() {
+            return mPalettes.hitCount();
+        }
+
+        /**
+         * Returns the number of times a palette was not found in the cache and was generated.
+         */
+        public int missCount() {
+            return mPalettes.missCount();
+        }
+    }
+
+    /**
+     * Identifies a bitmap and the configuration that a palette was generated with. The bitmap is
+     * compared by identity, and a key whose bitmap was collected never matches again, so that it
+     * is eventually evicted.
+     */
+    static final class CacheKey {
+        private final WeakReference<Bitmap> mBitmap;
+        private final int mGenerationId;
+        private final int mMaxColors;
+        private final int mResizeArea;
+        private final int mResizeMaxDimension;
+        private final Rect mRegion;
+        private final Filter[] mFilters;
+        private final Target[] mTargets;
+        private final int mHashCode;
+
+        CacheKey(Bitmap bitmap, int maxColors, int resizeArea, int resizeMaxDimension,
+                Rect region, List<Filter> filters, List<Target> targets) {
+            mBitmap = new WeakReference<>(bitmap);
+            mGenerationId = bitmap.getGenerationId();
+            mMaxColors = maxColors;
+            mResizeArea = resizeArea;
+            mResizeMaxDimension = resizeMaxDimension;
+            mRegion = region != null ? new Rect(region) : null;
+            mFilters = filters.toArray(new Filter[filters.size()]);
+            mTargets = targets.toArray(new Target[targets.size()]);
+
+            int hashCode = System.identityHashCode(bitmap);
+            hashCode = 31 * hashCode + mGenerationId;
+            hashCode = 31 * hashCode + mMaxColors;
+            hashCode = 31 * hashCode + mResizeArea;
+            hashCode = 31 * hashCode + mResizeMaxDimension;
+            hashCode = 31 * hashCode + (mRegion != null ? mRegion.hashCode() : 0);
+            hashCode = 31 * hashCode + Arrays.hashCode(mFilters);
+            mHashCode = 31 * hashCode + Arrays.hashCode(mTargets);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey key = (CacheKey) o;
+            final Bitmap bitmap = mBitmap.get();
+            return bitmap != null && bitmap == key.mBitmap.get()
+                    && mGenerationId == key.mGenerationId
+                    && mMaxColors == key.mMaxColors
+                    && mResizeArea == key.mResizeArea
+                    && mResizeMaxDimension == key.mResizeMaxDimension
+                    && (mRegion != null ? mRegion.equals(key.mRegion) : key.mRegion == null)
+                    && Arrays.equals(mFilters, key.mFilters)
+                    && Arrays.equals(mTargets, key.mTargets);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
     /**
      * Builder class for generating {@link Palette} instances.
      */
@@ -607,6 +740,10 @@ public final class Palette {
         private final List<Filter> mFilters = new ArrayList<>();
         private Rect mRegion;
 
+        private Cache mCache;
+        private Executor mHistogramExecutor;
+        private int mHistogramParallelism = 1;
+
         /**
          * Construct a new {@link Builder} using a source {@link Bitmap}
          */
@@ -776,6 +913,40 @@ public final class Palette {
             return this;
         }
 
+        /**
+         * Set the cache to look up and store the generated palette in. Only used when the
+         * source is a {@link android.graphics.Bitmap}.
+         *
+         * @param cache the cache to use, or {@code null} to always generate the palette.
+         */
+        @NonNull
+        public Builder setCache(@Nullable Cache cache) {
+            mCache = cache;
+            return this;
+        }
+
+        /**
+         * Set an executor to count the colors of large bitmaps on in parallel. Only bitmaps which
+         * still have at least {@code 2 * 65536} pixels after resizing, e.g. when resizing is
+         * disabled with {@link #resizeBitmapArea(int)}, are counted in parallel. The generating
+         * thread takes part in counting, and it also counts the parts that the executor has not
+         * started yet, so the executor can be the one that the palette is generated on.
+         *
+         * @param executor the executor to use, or {@code null} to count the colors on the
+         *                 generating thread.
+         * @param parallelism the maximum number of threads counting the colors of a bitmap,
+         *                    including the generating thread.
+         */
+        @NonNull
+        public Builder setHistogramExecutor(@Nullable Executor executor, int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+            mHistogramExecutor = executor;
+            mHistogramParallelism = parallelism;
+            return this;
+        }
+
         /**
          * Generate and return the {@link Palette} synchronously.
          */
@@ -785,6 +956,16 @@ public final class Palette {
                     ? new TimingLogger(LOG_TAG, "Generation")
                     : null;
 
+            CacheKey cacheKey = null;
+            if (mBitmap != null && mCache != null) {
+                cacheKey = new CacheKey(mBitmap, mMaxColors, mResizeArea, mResizeMaxDimension,
+                        mRegion, mFilters, mTargets);
+                final Palette palette = mCache.mPalettes.get(cacheKey);
+                if (palette != null) {
+                    return palette;
+                }
+            }
+
             List<Swatch> swatches;
 
             if (mBitmap != null) {
@@ -797,7 +978,8 @@ public final class Palette {
                     logger.addSplit("Processed Bitmap");
                 }
 
-                final Rect region = mRegion;
+                // The region is copied, so that generating again uses the original region
+                final Rect region = mRegion != null ? new Rect(mRegion) : null;
                 if (bitmap != mBitmap && region != null) {
                     // If we have a scaled bitmap and a selected region, we need to scale down the
                     // region to match the new scale
@@ -811,10 +993,25 @@ public final class Palette {
                 }
 
                 // Now generate a quantizer from the Bitmap
+                final int pixelCount = region != null
+                        ? region.width() * region.height()
+                        : bitmap.getWidth() * bitmap.getHeight();
+                final boolean poolPixels = pixelCount <= MAX_POOLED_PIXELS;
+                int[] pixels = poolPixels ? sPixelsPool.acquire() : null;
+                if (pixels == null) {
+                    pixels = new int[poolPixels ? MAX_POOLED_PIXELS : pixelCount];
+                }
+                getPixelsFromBitmap(bitmap, region, pixels);
                 final ColorCutQuantizer quantizer = new ColorCutQuantizer(
-                        getPixelsFromBitmap(bitmap),
+                        pixels,
+                        pixelCount,
                         mMaxColors,
-                        mFilters.isEmpty() ? null : mFilters.toArray(new Filter[mFilters.size()]));
+                        mFilters.isEmpty() ? null : mFilters.toArray(new Filter[mFilters.size()]),
+                        mHistogramExecutor,
+                        mHistogramParallelism);
+                if (poolPixels) {
+                    sPixelsPool.release(pixels);
+                }
 
                 // If created a new bitmap, recycle it
                 if (bitmap != mBitmap) {
@@ -831,8 +1028,9 @@ public final class Palette {
                 swatches = mSwatches;
             }
 
-            // Now create a Palette instance
-            final Palette p = new Palette(swatches, mTargets);
+            // Now create a Palette instance, with its own copy of the targets as it may be
+            // cached and shared
+            final Palette p = new Palette(swatches, new ArrayList<>(mTargets));
             // And make it generate itself
             p.generate();
 
@@ -841,6 +1039,9 @@ public final class Palette {
                 logger.dumpToLog();
             }
 
+            if (cacheKey != null) {
+                mCache.mPalettes.put(cacheKey, p);
+            }
             return p;
         }
 
@@ -848,7 +1049,10 @@ public final class Palette {
          * Generate the {@link Palette} asynchronously. The provided listener's
          * {@link PaletteAsyncListener#onGenerated} method will be called with the palette when
          * generated.
+         *
+         * @deprecated Use {@link #generate(Executor, PaletteAsyncListener)}.
          */
+        @Deprecated
         @NonNull
         public AsyncTask<Bitmap, Void, Palette> generate(final PaletteAsyncListener listener) {
             if (listener == null) {
@@ -873,28 +1077,71 @@ public final class Palette {
             }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mBitmap);
         }
 
-        private int[] getPixelsFromBitmap(Bitmap bitmap) {
-            final int bitmapWidth = bitmap.getWidth();
-            final int bitmapHeight = bitmap.getHeight();
-            final int[] pixels = new int[bitmapWidth * bitmapHeight];
-            bitmap.getPixels(pixels, 0, bitmapWidth, 0, 0, bitmapWidth, bitmapHeight);
+        /**
+         * Generate the {@link Palette} on the given executor. The provided listener's
+         * {@link PaletteAsyncListener#onGenerated} method will be called on the main thread with
+         * the palette when generated, or with {@code null} if the generation failed. The listener
+         * is not called if the returned {@link Future} is cancelled before the palette is
+         * generated.
+         *
+         * @param executor the executor to generate the palette on.
+         * @param listener the listener to call with the palette.
+         */
+        @NonNull
+        public Future<Palette> generate(@NonNull Executor executor,
+                @NonNull final PaletteAsyncListener listener) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor can not be null");
+            }
+            if (listener == null) {
+                throw new IllegalArgumentException("listener can not be null");
+            }
 
-            if (mRegion == null) {
-                // If we don't have a region, return all of the pixels
-                return pixels;
-            } else {
-                // If we do have a region, lets create a subset array containing only the region's
-                // pixels
-                final int regionWidth = mRegion.width();
-                final int regionHeight = mRegion.height();
-                // pixels contains all of the pixels, so we need to iterate through each row and
-                // copy the regions pixels into a new smaller array
-                final int[] subsetPixels = new int[regionWidth * regionHeight];
-                for (int row = 0; row < regionHeight; row++) {
-                    System.arraycopy(pixels, ((row + mRegion.top) * bitmapWidth) + mRegion.left,
-                            subsetPixels, row * regionWidth, regionWidth);
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            final FutureTask<Palette> task = new FutureTask<Palette>(new Callable<Palette>() {
+                @Override
+                public Palette call() {
+                    return generate();
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    Palette palette = null;
+                    try {
+                        palette = get();
+                    } catch (InterruptedException e) {
+                        // Cannot happen as the task is done
+                    } catch (ExecutionException e) {
+                        Log.e(LOG_TAG, "Exception thrown during async generate", e.getCause());
+                    }
+                    final Palette result = palette;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onGenerated(result);
+                        }
+                    });
                 }
-                return subsetPixels;
+            };
+            executor.execute(task);
+            return task;
+        }
+
+        /**
+         * Copies the pixels of the region, or of the whole bitmap, to the start of
+         * {@code pixels}. Only the rows of the region are read from the bitmap.
+         */
+        private static void getPixelsFromBitmap(Bitmap bitmap, Rect region, int[] pixels) {
+            if (region == null) {
+                final int bitmapWidth = bitmap.getWidth();
+                bitmap.getPixels(pixels, 0, bitmapWidth, 0, 0, bitmapWidth, bitmap.getHeight());
+            } else {
+                final int regionWidth = region.width();
+                bitmap.getPixels(pixels, 0, regionWidth, region.left, region.top, regionWidth,
+                        region.height());
             }
         }
 
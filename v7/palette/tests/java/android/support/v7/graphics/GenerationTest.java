@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.graphics;
+
+import static android.support.v7.graphics.TestUtils.loadSampleBitmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Looper;
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(AndroidJUnit4.class)
+public class GenerationTest {
+    private static final String TAG = "GenerationTest";
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    @SmallTest
+    public void testCacheReturnsCachedPalette() {
+        final Bitmap sample = loadSampleBitmap();
+        final Palette.Cache cache = new Palette.Cache(4);
+
+        final Palette palette = Palette.from(sample).setCache(cache).generate();
+
+        assertSame(palette, Palette.from(sample).setCache(cache).generate());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testCacheKeyedByConfiguration() {
+        final Bitmap sample = loadSampleBitmap();
+        final Palette.Cache cache = new Palette.Cache(4);
+
+        final Palette palette = Palette.from(sample).setCache(cache).generate();
+
+        assertNotSame(palette, Palette.from(sample).setCache(cache)
+                .maximumColorCount(8).generate());
+        assertNotSame(palette, Palette.from(sample).setCache(cache)
+                .setRegion(0, 0, sample.getWidth() / 2, sample.getHeight() / 2).generate());
+        assertNotSame(palette, Palette.from(sample.copy(Bitmap.Config.ARGB_8888, false))
+                .setCache(cache).generate());
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    @SmallTest
+    public void testCacheMissWhenBitmapModified() {
+        final Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        final Palette.Cache cache = new Palette.Cache(4);
+        final Palette palette = Palette.from(bitmap).setCache(cache).generate();
+
+        bitmap.eraseColor(Color.GREEN);
+        final Palette newPalette = Palette.from(bitmap).setCache(cache).generate();
+
+        assertNotSame(palette, newPalette);
+        TestUtils.assertCloseColors(Color.GREEN, newPalette.getDominantColor(Color.BLACK));
+    }
+
+    @Test
+    @SmallTest
+    public void testRegionCanBeGeneratedAgain() {
+        final Bitmap sample = loadSampleBitmap();
+        final Palette.Builder builder = Palette.from(sample)
+                .setRegion(sample.getWidth() / 4, sample.getHeight() / 4,
+                        sample.getWidth() / 2, sample.getHeight() / 2);
+
+        assertEquals(builder.generate().getSwatches(), builder.generate().getSwatches());
+    }
+
+    @Test
+    @SmallTest
+    public void testHistogramExecutorMatchesSingleThread() {
+        // Large enough to be counted by 4 threads
+        final Bitmap bitmap = Bitmap.createScaledBitmap(loadSampleBitmap(), 1024, 512, true);
+
+        final Palette palette = Palette.from(bitmap).resizeBitmapArea(0).generate();
+        final Palette parallelPalette = Palette.from(bitmap).resizeBitmapArea(0)
+                .setHistogramExecutor(mExecutor, 4).generate();
+
+        assertEquals(palette.getSwatches(), parallelPalette.getSwatches());
+    }
+
+    @Test
+    @SmallTest
+    public void testGenerateOnExecutor() throws InterruptedException {
+        final Bitmap sample = loadSampleBitmap();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Palette> result = new AtomicReference<>();
+        final AtomicReference<Looper> looper = new AtomicReference<>();
+
+        Palette.from(sample).generate(mExecutor, new Palette.PaletteAsyncListener() {
+            @Override
+            public void onGenerated(Palette palette) {
+                result.set(palette);
+                looper.set(Looper.myLooper());
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertNotNull(result.get());
+        assertSame(Looper.getMainLooper(), looper.get());
+        assertEquals(Palette.from(sample).generate().getSwatches(), result.get().getSwatches());
+    }
+
+    /**
+     * Logs the time taken to generate a palette from bitmaps of several sizes: with the default
+     * resizing, without resizing on the calling thread, without resizing with the histogram
+     * built on all processors, and from a cache. The timings are only logged since they depend
+     * on the device.
+     */
+    @Test
+    @LargeTest
+    public void testGenerationLatency() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(processors);
+        final Palette.Cache cache = new Palette.Cache(1);
+        final Bitmap sample = loadSampleBitmap();
+        try {
+            for (int size : new int[] {112, 256, 512, 1024, 2048}) {
+                final Bitmap bitmap = Bitmap.createScaledBitmap(sample, size, size, true);
+                final int rounds = Math.max(4, 1024 * 1024 * 4 / (size * size));
+                Palette.from(bitmap).resizeBitmapArea(0).generate();
+
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    Palette.from(bitmap).generate();
+                }
+                final long defaultNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    Palette.from(bitmap).resizeBitmapArea(0).generate();
+                }
+                final long fullNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    Palette.from(bitmap).resizeBitmapArea(0)
+                            .setHistogramExecutor(executor, processors).generate();
+                }
+                final long parallelNanos = System.nanoTime() - start;
+
+                Palette.from(bitmap).setCache(cache).generate();
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    Palette.from(bitmap).setCache(cache).generate();
+                }
+                final long cachedNanos = System.nanoTime() - start;
+
+                Log.d(TAG, String.format(Locale.US, "%dx%d: default %dus, not resized %dus, "
+                                + "not resized on %d threads %dus, cached %dus", size, size,
+                        defaultNanos / rounds / 1000, fullNanos / rounds / 1000, processors,
+                        parallelNanos / rounds / 1000, cachedNanos / rounds / 1000));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
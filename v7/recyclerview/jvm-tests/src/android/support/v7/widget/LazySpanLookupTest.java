@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.support.test.filters.SmallTest;
+import android.support.v7.widget.StaggeredGridLayoutManager.LazySpanLookup;
+import android.support.v7.widget.StaggeredGridLayoutManager.LazySpanLookup.FullSpanItem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+@SmallTest
+public class LazySpanLookupTest {
+    private static final int LARGE_ITEM_COUNT = 200000;
+
+    LazySpanLookup mLookup;
+
+    @Before
+    public void setUp() {
+        mLookup = new LazySpanLookup();
+    }
+
+    @Test
+    public void addFullSpanItem_keepsSorted() {
+        addFullSpanItems(50, 10, 30, 20, 40);
+        assertPositions(10, 20, 30, 40, 50);
+    }
+
+    @Test
+    public void addFullSpanItem_replacesSamePosition() {
+        addFullSpanItems(10, 20);
+        FullSpanItem replacement = createFullSpanItem(20);
+        mLookup.addFullSpanItem(replacement);
+        assertPositions(10, 20);
+        assertSame(replacement, mLookup.getFullSpanItem(20));
+    }
+
+    @Test
+    public void getFullSpanItem() {
+        addFullSpanItems(10, 20, 30);
+        assertNull(mLookup.getFullSpanItem(0));
+        assertNull(mLookup.getFullSpanItem(15));
+        assertNull(mLookup.getFullSpanItem(31));
+        assertNotNull(mLookup.getFullSpanItem(20));
+        assertEquals(20, mLookup.getFullSpanItem(20).mPosition);
+    }
+
+    @Test
+    public void getFirstFullSpanItemInRange() {
+        addFullSpanItems(10, 20, 30);
+        mLookup.getFullSpanItem(30).mGapDir = LayoutState.LAYOUT_END;
+        assertEquals(20, mLookup.getFirstFullSpanItemInRange(15, 40, 0, false).mPosition);
+        assertNull(mLookup.getFirstFullSpanItemInRange(11, 20, 0, false));
+        assertEquals(30, mLookup.getFirstFullSpanItemInRange(0, 40, LayoutState.LAYOUT_END,
+                false).mPosition);
+    }
+
+    @Test
+    public void forceInvalidateAfter() {
+        addFullSpanItems(10, 20, 30);
+        mLookup.forceInvalidateAfter(20);
+        assertPositions(10);
+    }
+
+    @Test
+    public void invalidateAfter_stopsAtNextFullSpanItem() {
+        mLookup.ensureSize(50);
+        mLookup.mData[15] = 1;
+        mLookup.mData[35] = 1;
+        addFullSpanItems(10, 20, 30);
+        assertEquals(31, mLookup.invalidateAfter(20));
+        assertPositions(10);
+        assertEquals(1, mLookup.getSpan(15));
+        assertEquals(1, mLookup.getSpan(35));
+    }
+
+    @Test
+    public void offsetForAddition() {
+        mLookup.ensureSize(50);
+        addFullSpanItems(10, 20, 30);
+        mLookup.offsetForAddition(20, 5);
+        assertPositions(10, 25, 35);
+    }
+
+    @Test
+    public void offsetForRemoval() {
+        mLookup.ensureSize(50);
+        addFullSpanItems(10, 20, 21, 22, 30);
+        mLookup.offsetForRemoval(20, 5);
+        assertPositions(10, 25);
+    }
+
+    @Test
+    public void largeAdapter_matchesLinearModel() {
+        Random random = new Random(7);
+        List<Integer> expected = new ArrayList<>();
+        mLookup.ensureSize(LARGE_ITEM_COUNT);
+        for (int position = 0; position < LARGE_ITEM_COUNT; position += 1 + random.nextInt(20)) {
+            mLookup.addFullSpanItem(createFullSpanItem(position));
+            expected.add(position);
+        }
+        for (int i = 0; i < 1000; i++) {
+            final int positionStart = random.nextInt(LARGE_ITEM_COUNT / 2);
+            final int itemCount = 1 + random.nextInt(10);
+            if (random.nextBoolean()) {
+                mLookup.offsetForAddition(positionStart, itemCount);
+                for (int j = 0; j < expected.size(); j++) {
+                    if (expected.get(j) >= positionStart) {
+                        expected.set(j, expected.get(j) + itemCount);
+                    }
+                }
+            } else {
+                mLookup.offsetForRemoval(positionStart, itemCount);
+                for (int j = expected.size() - 1; j >= 0; j--) {
+                    final int position = expected.get(j);
+                    if (position >= positionStart + itemCount) {
+                        expected.set(j, position - itemCount);
+                    } else if (position >= positionStart) {
+                        expected.remove(j);
+                    }
+                }
+            }
+        }
+        assertEquals(expected.size(), mLookup.mFullSpanItems.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).intValue(), mLookup.mFullSpanItems.get(i).mPosition);
+            assertNotNull(mLookup.getFullSpanItem(expected.get(i)));
+        }
+    }
+
+    private void addFullSpanItems(int... positions) {
+        for (int position : positions) {
+            mLookup.addFullSpanItem(createFullSpanItem(position));
+        }
+    }
+
+    private static FullSpanItem createFullSpanItem(int position) {
+        FullSpanItem fsi = new FullSpanItem();
+        fsi.mPosition = position;
+        return fsi;
+    }
+
+    private void assertPositions(int... positions) {
+        assertEquals(positions.length, mLookup.mFullSpanItems.size());
+        for (int i = 0; i < positions.length; i++) {
+            assertEquals(positions[i], mLookup.mFullSpanItems.get(i).mPosition);
+        }
+    }
+}
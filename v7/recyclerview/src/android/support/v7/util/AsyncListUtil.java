@@ -19,9 +19,16 @@ package android.support.v7.util;
 import android.support.annotation.UiThread;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A utility class that supports asynchronous content loading.
  * <p>
@@ -36,8 +43,10 @@ import android.util.SparseIntArray;
  * {@link ViewCallback} when the data is loaded. It may load some extra items for smoother
  * scrolling.
  * <p>
- * Note that this class uses a single thread to load the data, so it suitable to load data from
- * secondary storage such as disk, but not from network.
+ * By default this class uses a single thread to load the data, so it suitable to load data from
+ * secondary storage such as disk, but not from network. When the data source is slow but can be
+ * queried concurrently, tiles can be filled on several worker threads, see
+ * {@link #AsyncListUtil(Class, int, DataCallback, ViewCallback, int, TileEvictionPolicy)}.
  * <p>
  * This class is designed to work with {@link android.support.v7.widget.RecyclerView}, but it does
  * not depend on it and can be used with other list views.
@@ -48,10 +57,16 @@ public class AsyncListUtil<T> {
 
     static final boolean DEBUG = false;
 
+    private static final int WORKER_KEEP_ALIVE_SECONDS = 1;
+
     final Class<T> mTClass;
     final int mTileSize;
     final DataCallback<T> mDataCallback;
     final ViewCallback mViewCallback;
+    final TileEvictionPolicy<T> mEvictionPolicy;
+
+    // Null when tiles are filled on the background thread itself.
+    final Executor mWorkerExecutor;
 
     final TileList<T> mTileList;
 
@@ -72,6 +87,10 @@ public class AsyncListUtil<T> {
 
     final SparseIntArray mMissingPositions = new SparseIntArray();
 
+    final AtomicLong mTileLoadCount = new AtomicLong();
+    final AtomicLong mTileLoadTimeNs = new AtomicLong();
+    final AtomicLong mDiscardedTileLoadCount = new AtomicLong();
+
     void log(String s, Object... args) {
         Log.d(TAG, "[MAIN] " + String.format(s, args));
     }
@@ -86,10 +105,38 @@ public class AsyncListUtil<T> {
      */
     public AsyncListUtil(Class<T> klass, int tileSize, DataCallback<T> dataCallback,
                          ViewCallback viewCallback) {
+        this(klass, tileSize, dataCallback, viewCallback, 1, new DistanceEvictionPolicy<T>());
+    }
+
+    /**
+     * Creates an AsyncListUtil that fills tiles on a pool of worker threads.
+     * <p>
+     * Tiles are requested in the order of their proximity to the visible range, and requests for
+     * tiles that leave the required range before they are filled are cancelled.
+     * <p>
+     * If <code>workerCount</code> is greater than 1, {@link DataCallback#fillData} may be called
+     * concurrently from several threads, so the data callback must be thread safe.
+     *
+     * @param klass Class of the data item.
+     * @param tileSize Number of item per chunk loaded at once.
+     * @param dataCallback Data access callback.
+     * @param viewCallback Callback for querying visible item range and update notifications.
+     * @param workerCount Number of threads that fill tiles concurrently.
+     * @param evictionPolicy Policy that decides which tiles to drop when the cache is full. An
+     *                       instance must not be shared between AsyncListUtils.
+     */
+    public AsyncListUtil(Class<T> klass, int tileSize, DataCallback<T> dataCallback,
+                         ViewCallback viewCallback, int workerCount,
+                         TileEvictionPolicy<T> evictionPolicy) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1");
+        }
         mTClass = klass;
         mTileSize = tileSize;
         mDataCallback = dataCallback;
         mViewCallback = viewCallback;
+        mEvictionPolicy = evictionPolicy;
+        mWorkerExecutor = workerCount == 1 ? null : createWorkerExecutor(workerCount);
 
         mTileList = new TileList<T>(mTileSize);
 
@@ -171,6 +218,44 @@ public class AsyncListUtil<T> {
         return mItemCount;
     }
 
+    /**
+     * Returns the number of tiles filled by {@link DataCallback#fillData} so far, including the
+     * ones discarded later.
+     *
+     * @return Number of tile loads.
+     */
+    public long getTileLoadCount() {
+        return mTileLoadCount.get();
+    }
+
+    /**
+     * Returns the total time spent in {@link DataCallback#fillData}, in nanoseconds.
+     * <p>
+     * Divide by {@link #getTileLoadCount()} to get the average tile load latency.
+     *
+     * @return Total tile load time in nanoseconds.
+     */
+    public long getTileLoadTimeNanos() {
+        return mTileLoadTimeNs.get();
+    }
+
+    /**
+     * Returns the number of tile loads that were cancelled or whose result was thrown away
+     * because the visible range or the data set changed before the tile could be displayed.
+     *
+     * @return Number of discarded tile loads.
+     */
+    public long getDiscardedTileLoadCount() {
+        return mDiscardedTileLoadCount.get();
+    }
+
+    private static Executor createWorkerExecutor(int workerCount) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workerCount, workerCount,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     void updateRange() {
         mViewCallback.getItemRangeInto(mTmpRange);
         if (mTmpRange[0] > mTmpRange[1] || mTmpRange[0] < 0) {
@@ -230,6 +315,7 @@ public class AsyncListUtil<T> {
                 if (DEBUG) {
                     log("recycling an older generation tile @%d", tile.mStartPosition);
                 }
+                mDiscardedTileLoadCount.incrementAndGet();
                 mBackgroundProxy.recycleTile(tile);
                 return;
             }
@@ -293,16 +379,22 @@ public class AsyncListUtil<T> {
 
         final SparseBooleanArray mLoadedTiles = new SparseBooleanArray();
 
+        // Tiles handed to the worker threads which have not been loaded yet.
+        final SparseArray<TileLoadTask> mPendingTiles = new SparseArray<>();
+
         private int mGeneration;
         private int mItemCount;
 
         private int mFirstRequiredTileStart;
         private int mLastRequiredTileStart;
+        private int mScrollHint;
 
         @Override
         public void refresh(int generation) {
             mGeneration = generation;
             mLoadedTiles.clear();
+            cancelPendingTiles(0, -1);
+            mEvictionPolicy.onRefresh();
             mItemCount = mDataCallback.refreshData();
             mMainThreadProxy.updateItemCount(mGeneration, mItemCount);
         }
@@ -324,11 +416,15 @@ public class AsyncListUtil<T> {
 
             mFirstRequiredTileStart = getTileStart(extRangeStart);
             mLastRequiredTileStart = getTileStart(extRangeEnd);
+            mScrollHint = scrollHint;
             if (DEBUG) {
                 log("requesting tile range: %d..%d",
                         mFirstRequiredTileStart, mLastRequiredTileStart);
             }
 
+            // Tiles that are still being loaded for the old range are not needed anymore.
+            cancelPendingTiles(mFirstRequiredTileStart, mLastRequiredTileStart);
+
             // All pending tile requests are removed by ThreadUtil at this point.
             // Re-request all required tiles in the most optimal order.
             if (scrollHint == ViewCallback.HINT_SCROLL_DESC) {
@@ -363,16 +459,71 @@ public class AsyncListUtil<T> {
                 if (DEBUG) {
                     log("already loaded tile @%d", position);
                 }
+                mEvictionPolicy.onTileRequested(position);
+                return;
+            }
+            if (mPendingTiles.indexOfKey(position) >= 0) {
+                if (DEBUG) {
+                    log("already loading tile @%d", position);
+                }
                 return;
             }
             TileList.Tile<T> tile = acquireTile();
             tile.mStartPosition = position;
             tile.mItemCount = Math.min(mTileSize, mItemCount - tile.mStartPosition);
+            if (mWorkerExecutor != null) {
+                TileLoadTask task = new TileLoadTask(tile);
+                mPendingTiles.put(position, task);
+                mWorkerExecutor.execute(task);
+                return;
+            }
+            final long startTimeNs = System.nanoTime();
             mDataCallback.fillData(tile.mItems, tile.mStartPosition, tile.mItemCount);
+            recordTileLoad(System.nanoTime() - startTimeNs);
             flushTileCache(scrollHint);
             addTile(tile);
         }
 
+        @Override
+        public void tileLoaded(TileList.Tile<T> tile) {
+            final int index = mPendingTiles.indexOfKey(tile.mStartPosition);
+            if (index < 0 || mPendingTiles.valueAt(index).mTile != tile) {
+                if (DEBUG) {
+                    log("discarding cancelled tile @%d", tile.mStartPosition);
+                }
+                mDiscardedTileLoadCount.incrementAndGet();
+                recycleTile(tile);
+                return;
+            }
+            final TileLoadTask task = mPendingTiles.valueAt(index);
+            mPendingTiles.removeAt(index);
+            recordTileLoad(task.mLoadTimeNs);
+            flushTileCache(mScrollHint);
+            addTile(tile);
+        }
+
+        private void recordTileLoad(long loadTimeNs) {
+            mTileLoadCount.incrementAndGet();
+            mTileLoadTimeNs.addAndGet(loadTimeNs);
+        }
+
+        /**
+         * Cancels the pending tile loads outside of the given range. An empty range cancels all
+         * of them.
+         */
+        private void cancelPendingTiles(int firstTileStart, int lastTileStart) {
+            for (int i = mPendingTiles.size() - 1; i >= 0; i--) {
+                final int tileStart = mPendingTiles.keyAt(i);
+                if (tileStart < firstTileStart || tileStart > lastTileStart) {
+                    if (DEBUG) {
+                        log("cancelling tile load @%d", tileStart);
+                    }
+                    mPendingTiles.valueAt(i).mCancelled = true;
+                    mPendingTiles.removeAt(i);
+                }
+            }
+        }
+
         @Override
         public void recycleTile(TileList.Tile<T> tile) {
             if (DEBUG) {
@@ -399,6 +550,7 @@ public class AsyncListUtil<T> {
 
         private void addTile(TileList.Tile<T> tile) {
             mLoadedTiles.put(tile.mStartPosition, true);
+            mEvictionPolicy.onTileLoaded(tile.mStartPosition, tile.mItems, tile.mItemCount);
             mMainThreadProxy.addTile(mGeneration, tile);
             if (DEBUG) {
                 log("loaded tile @%d, total tiles: %d", tile.mStartPosition, mLoadedTiles.size());
@@ -407,6 +559,7 @@ public class AsyncListUtil<T> {
 
         private void removeTile(int position) {
             mLoadedTiles.delete(position);
+            mEvictionPolicy.onTileRemoved(position);
             mMainThreadProxy.removeTile(mGeneration, position);
             if (DEBUG) {
                 log("flushed tile @%d, total tiles: %s", position, mLoadedTiles.size());
@@ -415,21 +568,15 @@ public class AsyncListUtil<T> {
 
         private void flushTileCache(int scrollHint) {
             final int cacheSizeLimit = mDataCallback.getMaxCachedTiles();
-            while (mLoadedTiles.size() >= cacheSizeLimit) {
-                int firstLoadedTileStart = mLoadedTiles.keyAt(0);
-                int lastLoadedTileStart = mLoadedTiles.keyAt(mLoadedTiles.size() - 1);
-                int startMargin = mFirstRequiredTileStart - firstLoadedTileStart;
-                int endMargin = lastLoadedTileStart - mLastRequiredTileStart;
-                if (startMargin > 0 && (startMargin >= endMargin ||
-                        (scrollHint == ViewCallback.HINT_SCROLL_ASC))) {
-                    removeTile(firstLoadedTileStart);
-                } else if (endMargin > 0 && (startMargin < endMargin ||
-                        (scrollHint == ViewCallback.HINT_SCROLL_DESC))){
-                    removeTile(lastLoadedTileStart);
-                } else {
-                    // Could not flush on either side, bail out.
+            while (mLoadedTiles.size() > 0
+                    && mEvictionPolicy.isCacheFull(mLoadedTiles.size(), cacheSizeLimit)) {
+                final int tileStart = mEvictionPolicy.selectTileToEvict(mLoadedTiles,
+                        mFirstRequiredTileStart, mLastRequiredTileStart, scrollHint);
+                if (tileStart == TileEvictionPolicy.NO_TILE) {
+                    // Could not flush any tile, bail out.
                     return;
                 }
+                removeTile(tileStart);
             }
         }
 
@@ -438,6 +585,32 @@ public class AsyncListUtil<T> {
         }
     };
 
+    /**
+     * Fills a tile on one of the worker threads and hands it back to the background thread.
+     */
+    private class TileLoadTask implements Runnable {
+        final TileList.Tile<T> mTile;
+        volatile boolean mCancelled;
+        long mLoadTimeNs;
+
+        TileLoadTask(TileList.Tile<T> tile) {
+            mTile = tile;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                // Nothing was filled, so there is nothing to recycle either.
+                mTile.mItemCount = 0;
+            } else {
+                final long startTimeNs = System.nanoTime();
+                mDataCallback.fillData(mTile.mItems, mTile.mStartPosition, mTile.mItemCount);
+                mLoadTimeNs = System.nanoTime() - startTimeNs;
+            }
+            mBackgroundProxy.tileLoaded(mTile);
+        }
+    }
+
     /**
      * The callback that provides data access for {@link AsyncListUtil}.
      *
@@ -589,4 +762,167 @@ public class AsyncListUtil<T> {
         @UiThread
         public abstract void onItemLoaded(int position);
     }
+
+    /**
+     * Decides which of the loaded tiles to drop when the tile cache is full.
+     *
+     * <p>
+     * All methods are called on the background thread, one at a time.
+     */
+    public static abstract class TileEvictionPolicy<T> {
+
+        /**
+         * Returned by {@link #selectTileToEvict} when no tile can be evicted.
+         */
+        public static final int NO_TILE = -1;
+
+        /**
+         * Called when a tile has been loaded and added to the cache.
+         *
+         * @param tileStart The start position of the tile.
+         * @param data The data items of the tile. Should not be accessed beyond
+         *             <code>itemCount</code> and should not be retained.
+         * @param itemCount The data item count.
+         */
+        @WorkerThread
+        public void onTileLoaded(int tileStart, T[] data, int itemCount) {
+        }
+
+        /**
+         * Called when a tile that is already loaded is requested again for the current range.
+         *
+         * @param tileStart The start position of the tile.
+         */
+        @WorkerThread
+        public void onTileRequested(int tileStart) {
+        }
+
+        /**
+         * Called when a tile has been evicted from the cache.
+         *
+         * @param tileStart The start position of the tile.
+         */
+        @WorkerThread
+        public void onTileRemoved(int tileStart) {
+        }
+
+        /**
+         * Called when all the tiles have been dropped because the data set was refreshed.
+         */
+        @WorkerThread
+        public void onRefresh() {
+        }
+
+        /**
+         * Returns whether a tile should be evicted before another one is added to the cache.
+         *
+         * <p>
+         * The default implementation compares the tile count with
+         * {@link DataCallback#getMaxCachedTiles()}. Policies that weight tiles differently, for
+         * example by their memory footprint, can track the weights in {@link #onTileLoaded} and
+         * {@link #onTileRemoved} and override this method.
+         *
+         * @param loadedTileCount Number of loaded tiles.
+         * @param maxCachedTiles Value returned by {@link DataCallback#getMaxCachedTiles()}.
+         *
+         * @return True if a tile should be evicted.
+         */
+        @WorkerThread
+        public boolean isCacheFull(int loadedTileCount, int maxCachedTiles) {
+            return loadedTileCount >= maxCachedTiles;
+        }
+
+        /**
+         * Selects the tile to evict.
+         *
+         * @param loadedTiles The loaded tiles, keyed by their start positions in ascending order.
+         *                    Must not be modified.
+         * @param firstRequiredTileStart Start position of the first tile in the extended range.
+         * @param lastRequiredTileStart Start position of the last tile in the extended range.
+         * @param scrollHint The scroll direction hint.
+         *
+         * @return The start position of the tile to evict or {@link #NO_TILE} if none of the tiles
+         *         should be evicted.
+         */
+        @WorkerThread
+        public abstract int selectTileToEvict(SparseBooleanArray loadedTiles,
+                int firstRequiredTileStart, int lastRequiredTileStart, int scrollHint);
+    }
+
+    /**
+     * Evicts the loaded tile that is the farthest away from the extended range, preferring the
+     * tiles behind the scroll direction.
+     *
+     * <p>
+     * This is the policy used by default.
+     */
+    public static class DistanceEvictionPolicy<T> extends TileEvictionPolicy<T> {
+
+        @Override
+        public int selectTileToEvict(SparseBooleanArray loadedTiles, int firstRequiredTileStart,
+                int lastRequiredTileStart, int scrollHint) {
+            final int firstLoadedTileStart = loadedTiles.keyAt(0);
+            final int lastLoadedTileStart = loadedTiles.keyAt(loadedTiles.size() - 1);
+            final int startMargin = firstRequiredTileStart - firstLoadedTileStart;
+            final int endMargin = lastLoadedTileStart - lastRequiredTileStart;
+            if (startMargin > 0 && (startMargin >= endMargin
+                    || (scrollHint == ViewCallback.HINT_SCROLL_ASC))) {
+                return firstLoadedTileStart;
+            } else if (endMargin > 0 && (startMargin < endMargin
+                    || (scrollHint == ViewCallback.HINT_SCROLL_DESC))) {
+                return lastLoadedTileStart;
+            }
+            return NO_TILE;
+        }
+    }
+
+    /**
+     * Evicts the tile outside of the extended range that was loaded or requested the longest
+     * time ago.
+     */
+    public static class LruEvictionPolicy<T> extends TileEvictionPolicy<T> {
+        // Keyed by tile start position.
+        private final SparseIntArray mLastUse = new SparseIntArray();
+        private int mClock;
+
+        @Override
+        public void onTileLoaded(int tileStart, T[] data, int itemCount) {
+            mLastUse.put(tileStart, ++mClock);
+        }
+
+        @Override
+        public void onTileRequested(int tileStart) {
+            mLastUse.put(tileStart, ++mClock);
+        }
+
+        @Override
+        public void onTileRemoved(int tileStart) {
+            mLastUse.delete(tileStart);
+        }
+
+        @Override
+        public void onRefresh() {
+            mLastUse.clear();
+            mClock = 0;
+        }
+
+        @Override
+        public int selectTileToEvict(SparseBooleanArray loadedTiles, int firstRequiredTileStart,
+                int lastRequiredTileStart, int scrollHint) {
+            int result = NO_TILE;
+            int oldestUse = Integer.MAX_VALUE;
+            for (int i = 0; i < loadedTiles.size(); i++) {
+                final int tileStart = loadedTiles.keyAt(i);
+                if (tileStart >= firstRequiredTileStart && tileStart <= lastRequiredTileStart) {
+                    continue;
+                }
+                final int lastUse = mLastUse.get(tileStart);
+                if (lastUse < oldestUse) {
+                    oldestUse = lastUse;
+                    result = tileStart;
+                }
+            }
+            return result;
+        }
+    }
 }
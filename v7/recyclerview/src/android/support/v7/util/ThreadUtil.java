@@ -36,6 +36,8 @@ interface ThreadUtil<T> {
 
         void loadTile(int position, int scrollHint);
 
+        void tileLoaded(TileList.Tile<T> tile);
+
         void recycleTile(TileList.Tile<T> tile);
     }
 
@@ -2796,11 +2796,15 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
     /**
      * An array of mappings from adapter position to span.
      * This only grows when a write happens and it grows up to the size of the adapter.
+     * <p>
+     * Full span items are kept sorted by position so that they can be looked up with a binary
+     * search, which matters for adapters with many full span items.
      */
     static class LazySpanLookup {
 
         private static final int MIN_SIZE = 10;
         int[] mData;
+        // Sorted by position, at most one item per position.
         List<FullSpanItem> mFullSpanItems;
 
 
@@ -2809,12 +2813,8 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
          */
         int forceInvalidateAfter(int position) {
             if (mFullSpanItems != null) {
-                for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                    FullSpanItem fsi = mFullSpanItems.get(i);
-                    if (fsi.mPosition >= position) {
-                        mFullSpanItems.remove(i);
-                    }
-                }
+                final int index = findFullSpanItemIndex(position);
+                mFullSpanItems.subList(index, mFullSpanItems.size()).clear();
             }
             return invalidateAfter(position);
         }
@@ -2896,17 +2896,13 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return;
             }
-            final int end = positionStart + itemCount;
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition < positionStart) {
-                    continue;
-                }
-                if (fsi.mPosition < end) {
-                    mFullSpanItems.remove(i);
-                } else {
-                    fsi.mPosition -= itemCount;
-                }
+            final int start = findFullSpanItemIndex(positionStart);
+            final int end = findFullSpanItemIndex(positionStart + itemCount);
+            // remove the full span items in the removed range at once.
+            mFullSpanItems.subList(start, end).clear();
+            final int size = mFullSpanItems.size();
+            for (int i = start; i < size; i++) {
+                mFullSpanItems.get(i).mPosition -= itemCount;
             }
         }
 
@@ -2926,13 +2922,28 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return;
             }
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition < positionStart) {
-                    continue;
+            final int size = mFullSpanItems.size();
+            for (int i = findFullSpanItemIndex(positionStart); i < size; i++) {
+                mFullSpanItems.get(i).mPosition += itemCount;
+            }
+        }
+
+        /**
+         * Returns the index of the first full span item at or after the given position or the
+         * number of full span items if there is no such item.
+         */
+        private int findFullSpanItemIndex(int position) {
+            int lo = 0;
+            int hi = mFullSpanItems.size() - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (mFullSpanItems.get(mid).mPosition < position) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
                 }
-                fsi.mPosition += itemCount;
             }
+            return lo;
         }
 
         /**
@@ -2943,24 +2954,14 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return RecyclerView.NO_POSITION;
             }
-            final FullSpanItem item = getFullSpanItem(position);
+            final int index = findFullSpanItemIndex(position);
             // if there is an fsi at this position, get rid of it.
-            if (item != null) {
-                mFullSpanItems.remove(item);
-            }
-            int nextFsiIndex = -1;
-            final int count = mFullSpanItems.size();
-            for (int i = 0; i < count; i++) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition >= position) {
-                    nextFsiIndex = i;
-                    break;
-                }
+            if (index < mFullSpanItems.size() && mFullSpanItems.get(index).mPosition == position) {
+                mFullSpanItems.remove(index);
             }
-            if (nextFsiIndex != -1) {
-                FullSpanItem fsi = mFullSpanItems.get(nextFsiIndex);
-                mFullSpanItems.remove(nextFsiIndex);
-                return fsi.mPosition;
+            // the next fsi, if any, is now at the same index.
+            if (index < mFullSpanItems.size()) {
+                return mFullSpanItems.remove(index).mPosition;
             }
             return RecyclerView.NO_POSITION;
         }
@@ -2969,31 +2970,25 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 mFullSpanItems = new ArrayList<>();
             }
-            final int size = mFullSpanItems.size();
-            for (int i = 0; i < size; i++) {
-                FullSpanItem other = mFullSpanItems.get(i);
-                if (other.mPosition == fullSpanItem.mPosition) {
-                    if (DEBUG) {
-                        throw new IllegalStateException("two fsis for same position");
-                    } else {
-                        mFullSpanItems.remove(i);
-                    }
-                }
-                if (other.mPosition >= fullSpanItem.mPosition) {
-                    mFullSpanItems.add(i, fullSpanItem);
-                    return;
+            final int index = findFullSpanItemIndex(fullSpanItem.mPosition);
+            if (index < mFullSpanItems.size()
+                    && mFullSpanItems.get(index).mPosition == fullSpanItem.mPosition) {
+                if (DEBUG) {
+                    throw new IllegalStateException("two fsis for same position");
                 }
+                mFullSpanItems.set(index, fullSpanItem);
+            } else {
+                mFullSpanItems.add(index, fullSpanItem);
             }
-            // if it is not added to a position.
-            mFullSpanItems.add(fullSpanItem);
         }
 
         public FullSpanItem getFullSpanItem(int position) {
             if (mFullSpanItems == null) {
                 return null;
             }
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                final FullSpanItem fsi = mFullSpanItems.get(i);
+            final int index = findFullSpanItemIndex(position);
+            if (index < mFullSpanItems.size()) {
+                final FullSpanItem fsi = mFullSpanItems.get(index);
                 if (fsi.mPosition == position) {
                     return fsi;
                 }
@@ -3014,7 +3009,7 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
                 return null;
             }
             final int limit = mFullSpanItems.size();
-            for (int i = 0; i < limit; i++) {
+            for (int i = findFullSpanItemIndex(minPos); i < limit; i++) {
                 FullSpanItem fsi = mFullSpanItems.get(i);
                 if (fsi.mPosition >= maxPos) {
                     return null;
@@ -134,6 +134,35 @@ public class AsyncListUtilTest {
         assertLoadedItemsOnUiThread("all new items should be loaded", count, position, count);
     }
 
+    @Test
+    public void multipleWorkersDropStaleTiles() throws Throwable {
+        final BlockingDataCallback dataCallback = new BlockingDataCallback(30);
+        // The initial tiles block their workers, the 4th worker loads the tiles of the new range.
+        dataCallback.expectTiles(0, 10, 20, 70, 80, 90);
+        mActivityRule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mAsyncListUtil = new AsyncListUtil<>(String.class, TILE_SIZE, dataCallback,
+                        mViewCallback, 4, new AsyncListUtil.DistanceEvictionPolicy<String>());
+            }
+        });
+        waitForLatch("blocked initial tiles", dataCallback.mBlockedLatch);
+
+        dataCallback.mRecycledLatch.expect(0, 10, 20);
+        scrollOnUiThread(70);
+        dataCallback.waitForFills(70, 80, 90);
+        assertEquals(0, mAsyncListUtil.getDiscardedTileLoadCount());
+
+        dataCallback.mReleaseLatch.countDown();
+        dataCallback.waitForTiles("stale tiles");
+        waitForLatch("recycled stale tiles", dataCallback.mRecycledLatch.mLatch);
+        assertEquals(3, mAsyncListUtil.getDiscardedTileLoadCount());
+        assertEquals(6, mAsyncListUtil.getTileLoadCount());
+
+        assertLoadedItemsOnUiThread("visible items should be loaded", 25, 70, 25);
+        assertLoadedItemsOnUiThread("stale tiles should not be added", 0, 0, 30);
+    }
+
     @UiThread
     private int getLoadedItemCount(int startPosition, int itemCount) {
         int loaded = 0;
@@ -221,11 +250,60 @@ public class AsyncListUtilTest {
             }
         }
 
-        private void waitForTiles(String context) throws InterruptedException {
+        void waitForTiles(String context) throws InterruptedException {
             waitForLatch("filled tiles (" + context + ")", mTilesFilledLatch.mLatch);
         }
     }
 
+    // Holds the fills of the tiles below mBlockedEnd until mReleaseLatch is released.
+    private class BlockingDataCallback extends TestDataCallback {
+        final int mBlockedEnd;
+        final CountDownLatch mBlockedLatch;
+        final CountDownLatch mReleaseLatch = new CountDownLatch(1);
+        final PositionSetLatch mRecycledLatch = new PositionSetLatch("recycled");
+        final SparseBooleanArray mFilledPositions = new SparseBooleanArray();
+
+        BlockingDataCallback(int blockedEnd) {
+            mBlockedEnd = blockedEnd;
+            mBlockedLatch = new CountDownLatch(blockedEnd / TILE_SIZE);
+        }
+
+        @Override
+        public void fillData(String[] data, int startPosition, int itemCount) {
+            if (startPosition < mBlockedEnd) {
+                mBlockedLatch.countDown();
+                try {
+                    mReleaseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.fillData(data, startPosition, itemCount);
+            synchronized (mFilledPositions) {
+                mFilledPositions.put(startPosition, true);
+                mFilledPositions.notifyAll();
+            }
+        }
+
+        @Override
+        public void recycleData(String[] data, int itemCount) {
+            mRecycledLatch.countDown(Integer.parseInt(data[0].substring("item #".length())));
+        }
+
+        void waitForFills(int... positions) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 1000;
+            synchronized (mFilledPositions) {
+                for (int position : positions) {
+                    while (!mFilledPositions.get(position)) {
+                        final long remaining = deadline - System.currentTimeMillis();
+                        assertTrue("timed out waiting for tile @" + position, remaining > 0);
+                        mFilledPositions.wait(remaining);
+                    }
+                }
+            }
+        }
+    }
+
     private class TestViewCallback extends AsyncListUtil.ViewCallback {
         public static final int VIEWPORT_SIZE = 25;
         private int mStartPreload;
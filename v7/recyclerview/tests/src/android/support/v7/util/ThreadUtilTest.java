@@ -100,6 +100,12 @@ public class ThreadUtilTest {
                                 setResultData("loadTile", position, scrollHint);
                             }
 
+                            @Override
+                            public void tileLoaded(TileList.Tile<Integer> data) {
+                                assertBackgroundThread();
+                                setResultData("tileLoaded", data);
+                            }
+
                             @Override
                             public void recycleTile(TileList.Tile<Integer> data) {
                                 assertBackgroundThread();
@@ -163,6 +169,15 @@ public class ThreadUtilTest {
         assertThat(data, is(new Object[]{2, 1}));
     }
 
+    @Test
+    public void tileLoaded() throws InterruptedException {
+        initWait("tileLoaded");
+        TileList.Tile<Integer> tile = new TileList.Tile<Integer>(Integer.class, 10);
+        mBackgroundProxy.tileLoaded(tile);
+        Object[] data = waitFor("tileLoaded");
+        assertThat(data, is(new Object[]{tile}));
+    }
+
     @Test
     public void recycleTile() throws InterruptedException {
         initWait("recycleTile");
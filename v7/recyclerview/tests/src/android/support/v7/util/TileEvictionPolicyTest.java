@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.AsyncListUtil.TileEvictionPolicy;
+import android.support.v7.util.AsyncListUtil.ViewCallback;
+import android.util.SparseBooleanArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class TileEvictionPolicyTest {
+    private static final int TILE_SIZE = 10;
+
+    SparseBooleanArray mLoadedTiles;
+
+    @Before
+    public void setUp() {
+        mLoadedTiles = new SparseBooleanArray();
+    }
+
+    @Test
+    public void distance_evictsFarthestTile() {
+        TileEvictionPolicy<String> policy = new AsyncListUtil.DistanceEvictionPolicy<>();
+        load(policy, 0, 10, 20, 30, 40, 50);
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 20, 30, ViewCallback.HINT_SCROLL_NONE),
+                is(50));
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 30, 40, ViewCallback.HINT_SCROLL_NONE),
+                is(0));
+    }
+
+    @Test
+    public void distance_prefersTilesBehindScrollDirection() {
+        TileEvictionPolicy<String> policy = new AsyncListUtil.DistanceEvictionPolicy<>();
+        load(policy, 0, 10, 20, 30, 40, 50);
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 20, 30, ViewCallback.HINT_SCROLL_ASC),
+                is(0));
+    }
+
+    @Test
+    public void distance_keepsRequiredTiles() {
+        TileEvictionPolicy<String> policy = new AsyncListUtil.DistanceEvictionPolicy<>();
+        load(policy, 0, 10, 20);
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 0, 20, ViewCallback.HINT_SCROLL_NONE),
+                is(TileEvictionPolicy.NO_TILE));
+    }
+
+    @Test
+    public void lru_evictsLeastRecentlyUsedTile() {
+        TileEvictionPolicy<String> policy = new AsyncListUtil.LruEvictionPolicy<>();
+        load(policy, 0, 10, 20, 30);
+        policy.onTileRequested(0);
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 30, 30, ViewCallback.HINT_SCROLL_NONE),
+                is(10));
+    }
+
+    @Test
+    public void lru_keepsRequiredTiles() {
+        TileEvictionPolicy<String> policy = new AsyncListUtil.LruEvictionPolicy<>();
+        load(policy, 0, 10, 20, 30);
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 0, 10, ViewCallback.HINT_SCROLL_NONE),
+                is(20));
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 0, 30, ViewCallback.HINT_SCROLL_NONE),
+                is(TileEvictionPolicy.NO_TILE));
+    }
+
+    @Test
+    public void lru_forgetsRemovedTiles() {
+        TileEvictionPolicy<String> policy = new AsyncListUtil.LruEvictionPolicy<>();
+        load(policy, 0, 10, 20);
+        remove(policy, 0);
+        assertThat(policy.selectTileToEvict(mLoadedTiles, 20, 20, ViewCallback.HINT_SCROLL_NONE),
+                is(10));
+    }
+
+    @Test
+    public void isCacheFull() {
+        TileEvictionPolicy<String> policy = new AsyncListUtil.LruEvictionPolicy<>();
+        assertThat(policy.isCacheFull(9, 10), is(false));
+        assertThat(policy.isCacheFull(10, 10), is(true));
+    }
+
+    private void load(TileEvictionPolicy<String> policy, int... tileStarts) {
+        for (int tileStart : tileStarts) {
+            mLoadedTiles.put(tileStart, true);
+            policy.onTileLoaded(tileStart, new String[TILE_SIZE], TILE_SIZE);
+        }
+    }
+
+    private void remove(TileEvictionPolicy<String> policy, int tileStart) {
+        mLoadedTiles.delete(tileStart);
+        policy.onTileRemoved(tileStart);
+    }
+}